@@ -1,15 +1,28 @@
 package org.dbtools;
 
+import org.apache.log4j.Logger;
+
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * This class provides an implementation of the Database interface.
  * It loads the database driver required to connect to the specified
- * RDBMS. JDBC connections to the database can be established using
- * either using username and password or anonymously.
+ * RDBMS when the first connection is established. JDBC connections to
+ * the database can be established using either using username and
+ * password or anonymously.
  * <p/>
  * Username and password can be specified as arguments in the constructor.
  * All calls to the <code>getConnection()</code> method will then return
@@ -32,6 +45,11 @@ public abstract class AbstractDatabase implements Database {
     ////////
     //fields
 
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(AbstractDatabase.class);
+
     /**
      * the RDBMS vendor
      */
@@ -67,6 +85,41 @@ public abstract class AbstractDatabase implements Database {
      */
     protected char[] password;
 
+    /**
+     * the connection and statement metrics, <code>null</code> if metrics are disabled
+     */
+    private DatabaseMetrics metrics;
+
+    /**
+     * the router distributing connections across equivalent hosts, <code>null</code> if not routed
+     */
+    private HostRouter hostRouter;
+
+    /**
+     * the asynchronous facade of the database, created on first use
+     */
+    private AsyncDatabase asyncDatabase;
+
+    /**
+     * the pool connections are borrowed from, <code>null</code> if not pooled
+     */
+    private ConnectionPool connectionPool;
+
+    /**
+     * the cached table definitions of the schema, read on first use
+     */
+    private volatile SchemaMetadata schemaMetadata;
+
+    /**
+     * the tuner of query fetch sizes, created on first use
+     */
+    private FetchSizeTuner fetchSizeTuner;
+
+    /**
+     * the executor of queries with deadlines and hedging, created on first use
+     */
+    private HedgedQueryExecutor queryExecutor;
+
 
     //////////////
     //constructors
@@ -84,13 +137,15 @@ public abstract class AbstractDatabase implements Database {
     protected AbstractDatabase(String vendor, String driver, String host, int port, String schema) throws DatabaseException {
 
         this.vendor = vendor;
+        this.driver = driver;
         this.host = host;
         this.port = port;
         this.schema = schema;
         this.user = "anonymous";
         this.password = "".toCharArray();
-        //load JDBC driver
-        loadDriver(driver);
+        //enable metrics if configured
+        if (Configuration.getInstance().getBooleanProperty("dbtools.metrics.enabled"))
+            setMetricsEnabled(true);
 
     }
 
@@ -122,22 +177,15 @@ public abstract class AbstractDatabase implements Database {
     }
 
     /**
-     * Loads the JDBC driver class
+     * Loads the JDBC driver class. Drivers are loaded on the first connection,
+     * calling this method loads the driver ahead of time.
      *
      * @param driver the class path of the driver class
      * @throws DatabaseException if an exception occurs while loading the driver class
      */
     protected void loadDriver(String driver) throws DatabaseException {
 
-        try {
-            Class.forName(driver).newInstance();
-        } catch (InstantiationException e) {
-            throw new DatabaseException("Unable to load database driver '" + driver + "'.'", e);
-        } catch (IllegalAccessException e) {
-            throw new DatabaseException("Unable to load database driver '" + driver + "'.'", e);
-        } catch (ClassNotFoundException e) {
-            throw new DatabaseException("Unable to load database driver '" + driver + "'.'", e);
-        }
+        DriverRegistry.register(driver);
 
     }
 
@@ -198,11 +246,651 @@ public abstract class AbstractDatabase implements Database {
     }
 
     /**
-     * Sets the schema to connect to.
+     * Sets the schema to connect to. The schema cannot be changed while a connection
+     * pool is attached, since the pool holds connections to the previous schema.
      * @param schema the schema name
+     * @throws IllegalStateException if a connection pool is attached
      */
     public void setSchema(String schema){
+
+        if (connectionPool != null)
+            throw new IllegalStateException("Cannot change schema '" + this.schema + "' while a connection pool is attached.");
+
         this.schema = schema;
+        this.schemaMetadata = null;
+
+    }
+
+    /**
+     * Returns whether connection and statement metrics are recorded.
+     *
+     * @return true if metrics are enabled
+     */
+    public boolean isMetricsEnabled() {
+        return metrics != null;
+    }
+
+    /**
+     * Enables or disables recording of connection and statement metrics. If enabled,
+     * connections returned by the <code>getConnection</code> methods are wrapped to
+     * record connect latency, open and active connections and statement execution
+     * times, and the metrics are exposed as an MBean (see {@link DatabaseMetrics}).
+     * Connections obtained while metrics are disabled are not monitored.
+     * <p/>
+     * Metrics are enabled by default if the configuration property
+     * <code>dbtools.metrics.enabled</code> is <code>true</code>.
+     *
+     * @param enabled true to enable metrics
+     * @throws DatabaseException if the metrics MBean cannot be created
+     */
+    public void setMetricsEnabled(boolean enabled) throws DatabaseException {
+
+        if (enabled && metrics == null)
+            metrics = DatabaseMetrics.getMetrics(this);
+        else if (!enabled)
+            metrics = null;
+
+    }
+
+    /**
+     * Returns the connection and statement metrics.
+     *
+     * @return the metrics, <code>null</code> if metrics are disabled
+     */
+    public DatabaseMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the tuner adapting the fetch size of the queries of this database.
+     *
+     * @return the tuner
+     */
+    public synchronized FetchSizeTuner getFetchSizeTuner() {
+
+        if (fetchSizeTuner == null)
+            fetchSizeTuner = new FetchSizeTuner(this);
+
+        return fetchSizeTuner;
+
+    }
+
+    /**
+     * Returns the executor of queries with deadlines and hedging of this database.
+     * Hedged queries are issued on a second connection of this database unless a
+     * mirror is set by {@link HedgedQueryExecutor#setHedgeDatabase(Database)}.
+     *
+     * @return the executor
+     */
+    public synchronized HedgedQueryExecutor getQueryExecutor() {
+
+        if (queryExecutor == null)
+            queryExecutor = new HedgedQueryExecutor(this);
+
+        return queryExecutor;
+
+    }
+
+    /**
+     * Executes a query that is cancelled if it has not returned by a deadline. Read-only
+     * queries are hedged if enabled, see {@link HedgedQueryExecutor}.
+     *
+     * @param deadline   the time the query may take (in milliseconds), 0 for none
+     * @param sql        the SQL query, parameters are marked by '?'
+     * @param parameters the parameter values
+     * @return the query result
+     * @throws DatabaseException if an exception occurs while executing the query or the deadline is exceeded
+     */
+    public QueryResult query(long deadline, String sql, Object... parameters) throws DatabaseException {
+        return getQueryExecutor().query(deadline, sql, parameters);
+    }
+
+    /**
+     * Lets the fetch size of a query statement adapt to the row width and the round
+     * trip to the database host (see {@link FetchSizeTuner}) if the configuration
+     * property <code>dbtools.fetch.adaptive</code> is <code>true</code>.
+     *
+     * @param statement the statement
+     * @param sql       the SQL query of the statement
+     * @return the tuned statement, or the statement itself if fetch sizes are not adaptive
+     * @throws SQLException if the fetch size cannot be set
+     */
+    public PreparedStatement tuneFetchSize(PreparedStatement statement, String sql) throws SQLException {
+
+        if (!Configuration.getInstance().getBooleanProperty("dbtools.fetch.adaptive"))
+            return statement;
+
+        return getFetchSizeTuner().tune(statement, sql);
+
+    }
+
+    /**
+     * Prepares a statement to read a large result row by row without holding
+     * the whole result in memory. The statement is forward only and read only
+     * and fetches rows in chunks of the size set by the configuration property
+     * <code>dbtools.streaming.fetch.size</code>, adapted while the result is read
+     * (see {@link #tuneFetchSize(PreparedStatement, String)}).
+     * <p/>
+     * Vendor implementations override this method where the driver requires
+     * special settings to stream results.
+     *
+     * @param connection a connection to this database
+     * @param sql        the SQL query
+     * @return the prepared statement
+     * @throws SQLException if an exception occurs while preparing the statement
+     */
+    public PreparedStatement prepareStreamingStatement(Connection connection, String sql) throws SQLException {
+
+        PreparedStatement retVal = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        retVal.setFetchSize(Configuration.getInstance().getIntProperty("dbtools.streaming.fetch.size"));
+
+        return tuneFetchSize(retVal, sql);
+
+    }
+
+    /**
+     * Inserts rows into a table, updating the existing rows with the same key instead.
+     * <p/>
+     * Rows are sent in batches of the size set by the configuration property
+     * <code>dbtools.upsert.batch.size</code>, committing after each batch. Vendor
+     * implementations use the native upsert statement of the database (see
+     * {@link #buildUpsertSql(Connection, String, String[], String[], int)}); where
+     * there is none, each batch is sent as a batch of UPDATE statements followed by a
+     * batch of INSERT statements for the rows that did not update any row. Where the
+     * driver reports <code>SUCCESS_NO_INFO</code> for an UPDATE, the update is repeated
+     * alone to find out whether the row exists. Of the rows of a batch with the same
+     * key, only the last is written, as an upsert statement must not write a row twice
+     * (e.g. PostgreSQL's <code>ON CONFLICT DO UPDATE</code>).
+     *
+     * @param table      the table name
+     * @param columns    the columns, in the order of the values in the rows
+     * @param keyColumns the columns identifying a row, must be a unique key of the table
+     * @param rows       the rows
+     * @return the number of rows inserted or updated
+     * @throws DatabaseException if an exception occurs while writing to the database, rows
+     *                           of batches committed before remain in the table
+     */
+    public int upsert(String table, String[] columns, String[] keyColumns, Iterable<Object[]> rows) throws DatabaseException {
+
+        if (keyColumns.length == 0 || !Arrays.asList(columns).containsAll(Arrays.asList(keyColumns)))
+            throw new IllegalArgumentException("Key columns " + Arrays.asList(keyColumns) + " must be a non-empty subset of the columns.");
+
+        int batchSize = Configuration.getInstance().getIntProperty("dbtools.upsert.batch.size");
+        int retVal = 0;
+        Connection connection = null;
+
+        try {
+
+            connection = getConnection();
+            connection.setAutoCommit(false);
+
+            int rowsPerStatement = getUpsertRowsPerStatement(columns.length);
+            String sql = buildUpsertSql(connection, table, columns, keyColumns, rowsPerStatement);
+
+            PreparedStatement upsert = null;
+            PreparedStatement update = null;
+            PreparedStatement insert = null;
+
+            if (sql != null) {
+                upsert = connection.prepareStatement(sql);
+            } else {
+                rowsPerStatement = 1;
+                update = connection.prepareStatement(buildUpdateSql(table, columns, keyColumns));
+                insert = connection.prepareStatement(buildInsertSql(table, columns));
+            }
+
+            //full statements only, except for the last batch
+            int batchRows = (batchSize + rowsPerStatement - 1) / rowsPerStatement * rowsPerStatement;
+
+            List<Object[]> batch = new ArrayList<Object[]>();
+            for (Object[] row : rows) {
+
+                if (row.length != columns.length)
+                    throw new IllegalArgumentException("Row has " + row.length + " values, expected " + columns.length + ".");
+
+                batch.add(row);
+                if (batch.size() == batchRows) {
+                    retVal += writeBatch(connection, upsert, update, insert, table, columns, keyColumns, rowsPerStatement, batch);
+                    batch.clear();
+                }
+
+            }
+            retVal += writeBatch(connection, upsert, update, insert, table, columns, keyColumns, rowsPerStatement, batch);
+
+            if (upsert != null)
+                upsert.close();
+            if (update != null) {
+                update.close();
+                insert.close();
+            }
+
+        } catch (SQLException e) {
+
+            if (connection != null) {
+                try {
+                    connection.rollback();
+                } catch (SQLException e1) {
+                    //ignore
+                }
+            }
+
+            throw new DatabaseException("Exception while upserting rows into table '" + table + "' after " + retVal + " rows.", e);
+
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.setAutoCommit(true);
+                    connection.close();
+                } catch (SQLException e) {
+                    //ignore
+                }
+            }
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Writes and commits a batch of rows.
+     *
+     * @return the number of rows written
+     */
+    private int writeBatch(Connection connection, PreparedStatement upsert, PreparedStatement update, PreparedStatement insert,
+                           String table, String[] columns, String[] keyColumns, int rowsPerStatement, List<Object[]> batch) throws SQLException {
+
+        if (batch.isEmpty())
+            return 0;
+
+        batch = removeDuplicateKeys(columns, keyColumns, batch);
+
+        if (upsert != null) {
+
+            int i = 0;
+            while (batch.size() - i >= rowsPerStatement) {
+                setRowParameters(upsert, batch.subList(i, i + rowsPerStatement));
+                upsert.addBatch();
+                i += rowsPerStatement;
+            }
+            if (i > 0)
+                upsert.executeBatch();
+
+            //the last rows of the last batch
+            if (i < batch.size()) {
+                PreparedStatement rest = connection.prepareStatement(buildUpsertSql(connection, table, columns, keyColumns, batch.size() - i));
+                setRowParameters(rest, batch.subList(i, batch.size()));
+                rest.executeUpdate();
+                rest.close();
+            }
+
+        } else {
+
+            for (Object[] row : batch) {
+                setUpdateParameters(update, columns, keyColumns, row);
+                update.addBatch();
+            }
+
+            int[] counts = update.executeBatch();
+
+            boolean inserts = false;
+            for (int r = 0; r < batch.size(); r++) {
+
+                //drivers may not report the rows updated by a statement of a batch,
+                //the update is then repeated alone, which does not change the row again
+                int count = r < counts.length ? counts[r] : Statement.SUCCESS_NO_INFO;
+                if (count == Statement.SUCCESS_NO_INFO) {
+                    setUpdateParameters(update, columns, keyColumns, batch.get(r));
+                    count = update.executeUpdate();
+                }
+
+                if (count == 0) {
+                    setRowParameters(insert, batch.subList(r, r + 1));
+                    insert.addBatch();
+                    inserts = true;
+                }
+            }
+            if (inserts)
+                insert.executeBatch();
+
+        }
+
+        connection.commit();
+
+        return batch.size();
+
+    }
+
+    /**
+     * Removes all but the last of the rows with the same key.
+     *
+     * @return the rows in their order, the rows passed if there are no duplicate keys
+     */
+    private static List<Object[]> removeDuplicateKeys(String[] columns, String[] keyColumns, List<Object[]> rows) {
+
+        List<String> columnList = Arrays.asList(columns);
+        int[] keyIndexes = new int[keyColumns.length];
+        for (int i = 0; i < keyColumns.length; i++)
+            keyIndexes[i] = columnList.indexOf(keyColumns[i]);
+
+        Set<List<Object>> keys = new HashSet<List<Object>>();
+        List<Object[]> retVal = new ArrayList<Object[]>(rows.size());
+
+        for (int r = rows.size() - 1; r >= 0; r--) {
+
+            Object[] row = rows.get(r);
+            Object[] key = new Object[keyIndexes.length];
+            for (int i = 0; i < keyIndexes.length; i++)
+                key[i] = row[keyIndexes[i]];
+
+            if (keys.add(Arrays.asList(key)))
+                retVal.add(row);
+
+        }
+
+        if (retVal.size() == rows.size())
+            return rows;
+
+        Collections.reverse(retVal);
+
+        return retVal;
+
+    }
+
+    private static void setUpdateParameters(PreparedStatement update, String[] columns, String[] keyColumns, Object[] row) throws SQLException {
+
+        List<String> columnList = Arrays.asList(columns);
+        List<String> keys = Arrays.asList(keyColumns);
+
+        int p = 1;
+        for (int c = 0; c < columns.length; c++) {
+            if (!keys.contains(columns[c]))
+                update.setObject(p++, row[c]);
+        }
+        for (String keyColumn : keyColumns)
+            update.setObject(p++, row[columnList.indexOf(keyColumn)]);
+
+    }
+
+    private static void setRowParameters(PreparedStatement statement, List<Object[]> rows) throws SQLException {
+
+        int p = 1;
+        for (Object[] row : rows) {
+            for (Object value : row)
+                statement.setObject(p++, value);
+        }
+
+    }
+
+    private static String buildUpdateSql(String table, String[] columns, String[] keyColumns) {
+
+        List<String> keys = Arrays.asList(keyColumns);
+        StringBuffer retVal = new StringBuffer("UPDATE ").append(table).append(" SET ");
+
+        int set = 0;
+        for (String column : columns) {
+            if (!keys.contains(column)) {
+                if (set++ > 0)
+                    retVal.append(", ");
+                retVal.append(column).append(" = ?");
+            }
+        }
+
+        //key only rows, the update just finds out whether the row exists
+        if (set == 0)
+            retVal.append(keyColumns[0]).append(" = ").append(keyColumns[0]);
+
+        retVal.append(" WHERE ");
+        for (int i = 0; i < keyColumns.length; i++) {
+            if (i > 0)
+                retVal.append(" AND ");
+            retVal.append(keyColumns[i]).append(" = ?");
+        }
+
+        return retVal.toString();
+
+    }
+
+    private static String buildInsertSql(String table, String[] columns) {
+
+        StringBuffer retVal = new StringBuffer("INSERT INTO ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0)
+                retVal.append(", ");
+            retVal.append(columns[i]);
+        }
+        retVal.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++)
+            retVal.append(i > 0 ? ", ?" : "?");
+        retVal.append(")");
+
+        return retVal.toString();
+
+    }
+
+    /**
+     * Builds the native upsert statement of the database, with parameters for the values of
+     * the specified number of rows in column order. Vendor implementations override this
+     * method, the default implementation returns <code>null</code> to upsert rows by UPDATE
+     * and INSERT statements.
+     *
+     * @param connection a connection to this database
+     * @param table      the table name
+     * @param columns    the columns
+     * @param keyColumns the key columns
+     * @param rows       the number of rows
+     * @return the upsert statement, <code>null</code> if the database does not support upserts
+     * @throws SQLException if an exception occurs while reading meta data
+     */
+    protected String buildUpsertSql(Connection connection, String table, String[] columns, String[] keyColumns, int rows) throws SQLException {
+        return null;
+    }
+
+    /**
+     * Returns the number of rows upserted by one statement. Vendor implementations
+     * override this method where the upsert statement takes the values of several rows.
+     *
+     * @param columnCount the number of columns
+     * @return the rows per statement
+     */
+    protected int getUpsertRowsPerStatement(int columnCount) {
+        return 1;
+    }
+
+    /**
+     * Builds a MERGE statement upserting the rows of a source query.
+     *
+     * @param table      the table name
+     * @param columns    the columns
+     * @param keyColumns the key columns
+     * @param source     the source query returning the columns
+     * @return the MERGE statement
+     */
+    protected static String buildMergeSql(String table, String[] columns, String[] keyColumns, String source) {
+
+        List<String> keys = Arrays.asList(keyColumns);
+        StringBuffer retVal = new StringBuffer("MERGE INTO ").append(table).append(" USING ").append(source).append(" ON (");
+
+        for (int i = 0; i < keyColumns.length; i++) {
+            if (i > 0)
+                retVal.append(" AND ");
+            retVal.append(table).append(".").append(keyColumns[i]).append(" = v.").append(keyColumns[i]);
+        }
+        retVal.append(")");
+
+        int set = 0;
+        for (String column : columns) {
+            if (!keys.contains(column)) {
+                retVal.append(set++ > 0 ? ", " : " WHEN MATCHED THEN UPDATE SET ");
+                retVal.append(table).append(".").append(column).append(" = v.").append(column);
+            }
+        }
+
+        retVal.append(" WHEN NOT MATCHED THEN INSERT (");
+        for (int i = 0; i < columns.length; i++)
+            retVal.append(i > 0 ? ", " : "").append(columns[i]);
+        retVal.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++)
+            retVal.append(i > 0 ? ", v." : "v.").append(columns[i]);
+        retVal.append(")");
+
+        return retVal.toString();
+
+    }
+
+    /**
+     * Returns the asynchronous facade of the database. All callers share the
+     * same facade and with it the permits bounding concurrent tasks.
+     *
+     * @return the AsyncDatabase
+     */
+    public synchronized AsyncDatabase getAsyncDatabase() {
+
+        if (asyncDatabase == null)
+            asyncDatabase = new AsyncDatabase(this);
+
+        return asyncDatabase;
+
+    }
+
+    /**
+     * Returns the table definitions of the schema. The definitions are read in bulk
+     * on first use and cached until {@link #refreshSchemaMetadata()} is called or the
+     * schema is changed, so tables created or altered in the meantime are not seen.
+     *
+     * @return the schema meta data
+     * @throws DatabaseException if an exception occurs while reading the meta data
+     */
+    public SchemaMetadata getSchemaMetadata() throws DatabaseException {
+
+        SchemaMetadata retVal = schemaMetadata;
+        if (retVal == null)
+            retVal = refreshSchemaMetadata();
+
+        return retVal;
+
+    }
+
+    /**
+     * Reads the table definitions of the schema again and replaces the cached definitions.
+     *
+     * @return the schema meta data
+     * @throws DatabaseException if an exception occurs while reading the meta data
+     */
+    public SchemaMetadata refreshSchemaMetadata() throws DatabaseException {
+
+        Connection connection = null;
+
+        try {
+
+            long start = System.currentTimeMillis();
+
+            connection = getConnection();
+            SchemaMetadata retVal = readSchemaMetadata(connection);
+            schemaMetadata = retVal;
+
+            logger.debug("Read definitions of " + retVal.getTableNames().size() + " tables of schema '" + schema
+                    + "' in " + (System.currentTimeMillis() - start) + " ms.");
+
+            return retVal;
+
+        } catch (SQLException e) {
+            throw new DatabaseException("Exception while reading meta data of schema '" + schema + "'.", e);
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    //ignore
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Reads the table definitions of the schema through <code>DatabaseMetaData</code>.
+     * The schema is looked up as catalog if the driver supports catalogs in table
+     * definitions, otherwise as schema. Vendor implementations override this method
+     * where the database offers a faster way to read the definitions of all tables
+     * at once, or where the tables are not found by the schema name.
+     *
+     * @param connection a connection to this database
+     * @return the schema meta data
+     * @throws SQLException if an exception occurs while reading the meta data
+     */
+    protected SchemaMetadata readSchemaMetadata(Connection connection) throws SQLException {
+
+        if (connection.getMetaData().supportsCatalogsInTableDefinitions())
+            return SchemaMetadata.read(connection, schema, schema, null);
+
+        return SchemaMetadata.read(connection, schema, null, schema);
+
+    }
+
+    /**
+     * Returns the router distributing connections across equivalent hosts.
+     *
+     * @return the host router, <code>null</code> if all connections go to the database host
+     */
+    public HostRouter getHostRouter() {
+        return hostRouter;
+    }
+
+    /**
+     * Sets a router to distribute connections across equivalent (mirror) hosts. If set,
+     * new connections are established to the fastest healthy host known to the router
+     * rather than to the database host.
+     *
+     * @param hostRouter the host router, <code>null</code> to connect to the database host only
+     */
+    public void setHostRouter(HostRouter hostRouter) {
+        this.hostRouter = hostRouter;
+    }
+
+    /**
+     * Returns the pool connections are borrowed from.
+     *
+     * @return the connection pool, <code>null</code> if connections are not pooled
+     */
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Sets a pool to borrow connections from. If set, <code>getConnection()</code>
+     * returns pooled connections, connections established with an explicit user name
+     * and password are not pooled. The pool may be shared by Database objects of the
+     * same database, or of different schemas of a database with catalogs (see
+     * {@link ConnectionPool#getConnection(String)}).
+     *
+     * @param connectionPool the connection pool, <code>null</code> to establish a new connection on each call
+     */
+    public void setConnectionPool(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * Returns the query used to check if a connection is usable.
+     * Vendor implementations override this method where the database
+     * does not accept <code>SELECT 1</code>.
+     *
+     * @return the validation query
+     */
+    protected String getValidationQuery() {
+        return "SELECT 1";
+    }
+
+    /**
+     * Returns the time after which the server closes idle connections.
+     * Vendor implementations override this method where the server
+     * reports its idle timeout.
+     *
+     * @param connection a connection to this database
+     * @return the idle timeout in milliseconds, 0 if unknown
+     * @throws SQLException if an exception occurs while reading the timeout
+     */
+    protected long getServerIdleTimeout(Connection connection) throws SQLException {
+        return 0;
     }
 
     /**
@@ -210,9 +898,39 @@ public abstract class AbstractDatabase implements Database {
      *
      * @return the JDBC connection URL
      */
-    protected abstract String buildURL();
+    protected String buildURL() {
+        return buildURL(host, port);
+    }
+
+    /**
+     * Factory method to create the JDBC connection URL string for
+     * the specified host and port.
+     *
+     * @param host the database server host
+     * @param port the database server port
+     * @return the JDBC connection URL
+     */
+    protected abstract String buildURL(String host, int port);
 
 
+    /**
+     * Loads the JDBC driver unless it has already been loaded.
+     *
+     * @throws SQLException if the driver class cannot be loaded
+     */
+    void ensureDriverLoaded() throws SQLException {
+
+        if (DriverRegistry.isRegistered(driver))
+            return;
+
+        try {
+            DriverRegistry.register(driver);
+        } catch (DatabaseException e) {
+            throw new SQLException(e.getMessage(), e);
+        }
+
+    }
+
     ///////////////////////////////////////
     //implementations of Datasource methods
 
@@ -221,9 +939,11 @@ public abstract class AbstractDatabase implements Database {
      */
     public Connection getConnection() throws SQLException {
 
-        String url = this.buildURL();
+        ConnectionPool connectionPool = this.connectionPool;
+        if (connectionPool != null)
+            return connectionPool.getConnection(schema);
 
-        return DriverManager.getConnection(url, user, new String(password));
+        return openConnection();
 
     }
 
@@ -237,8 +957,69 @@ public abstract class AbstractDatabase implements Database {
         if (password == null)
             throw new IllegalArgumentException("Password cannot be null.");
 
-        String url = this.buildURL();
-        return DriverManager.getConnection(url, user, password);
+        return openConnection(user, password);
+
+    }
+
+    /**
+     * Establishes a new JDBC connection on behalf of the database user, bypassing the connection pool.
+     *
+     * @return the connection
+     * @throws SQLException if an exception occurs while connecting
+     */
+    Connection openConnection() throws SQLException {
+        return openConnection(user, new String(password));
+    }
+
+    /**
+     * Establishes a JDBC connection, recording it in the metrics if enabled.
+     *
+     * @param user     the user name
+     * @param password the password
+     * @return the connection
+     * @throws SQLException if an exception occurs while connecting
+     */
+    private Connection openConnection(String user, String password) throws SQLException {
+
+        //keep a reference, metrics might be disabled concurrently
+        DatabaseMetrics metrics = this.metrics;
+
+        if (metrics == null)
+            return connect(user, password);
+
+        long start = System.nanoTime();
+        Connection connection;
+        try {
+            connection = connect(user, password);
+        } catch (SQLException e) {
+            metrics.connectFailed();
+            throw e;
+        }
+        metrics.connectionOpened(System.nanoTime() - start);
+
+        return MonitoredConnection.wrap(connection, metrics);
+
+    }
+
+    /**
+     * Establishes a physical JDBC connection to the database host or, if a host
+     * router is set, to the host chosen by the router.
+     *
+     * @param user     the user name
+     * @param password the password
+     * @return the connection
+     * @throws SQLException if an exception occurs while connecting
+     */
+    private Connection connect(String user, String password) throws SQLException {
+
+        HostRouter hostRouter = this.hostRouter;
+
+        ensureDriverLoaded();
+
+        if (hostRouter == null)
+            return DriverManager.getConnection(this.buildURL(), user, password);
+
+        return hostRouter.connect(this, user, password);
 
     }
 
@@ -270,6 +1051,17 @@ public abstract class AbstractDatabase implements Database {
         return DriverManager.getLoginTimeout();
     }
 
+    /**
+     * Database objects do not log through java.util.logging.
+     *
+     * @return never returns normally
+     * @throws SQLFeatureNotSupportedException always
+     * @since 1.7
+     */
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException("Database objects do not use java.util.logging.");
+    }
+
     ///////////////////////////////////////
     //implementations of Wrapper methods
 
@@ -0,0 +1,347 @@
+package org.dbtools;
+
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes queries and updates against a Database asynchronously, returning
+ * <code>CompletableFuture</code>s instead of blocking the caller.
+ * <p/>
+ * The blocking JDBC calls are run on virtual threads where the Java runtime
+ * provides them, otherwise on a shared pool of daemon threads. The number of
+ * tasks running against the database at the same time, and with it the number
+ * of open connections, is bounded by a permit count (configuration property
+ * <code>dbtools.async.permits</code> by default). Tasks submitted while all
+ * permits are taken wait in a queue without occupying a thread.
+ */
+public class AsyncDatabase {
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(AsyncDatabase.class);
+
+    /**
+     * the executor running the blocking JDBC calls of all AsyncDatabase objects
+     */
+    private static final ExecutorService executor = createExecutor();
+
+    /**
+     * the database accessed
+     */
+    private Database database;
+
+    /**
+     * the number of tasks allowed to run at the same time
+     */
+    private int permits;
+
+    /**
+     * the permits of tasks that can be started
+     */
+    private Semaphore semaphore;
+
+    /**
+     * the tasks waiting for a permit
+     */
+    private Queue<Runnable> pending = new ConcurrentLinkedQueue<Runnable>();
+
+    /**
+     * the number of running tasks
+     */
+    private AtomicInteger active = new AtomicInteger();
+
+    /**
+     * Constructs an AsyncDatabase with the number of permits set by the
+     * configuration property <code>dbtools.async.permits</code>.
+     *
+     * @param database the database to access
+     */
+    public AsyncDatabase(Database database) {
+        this(database, Configuration.getInstance().getIntProperty("dbtools.async.permits"));
+    }
+
+    /**
+     * Constructs an AsyncDatabase.
+     *
+     * @param database the database to access
+     * @param permits  the number of tasks allowed to run at the same time
+     */
+    public AsyncDatabase(Database database, int permits) {
+
+        if (permits < 1)
+            throw new IllegalArgumentException("Number of permits must be positive.");
+
+        this.database = database;
+        this.permits = permits;
+        this.semaphore = new Semaphore(permits);
+
+    }
+
+    /**
+     * Executes a query asynchronously and reads its result.
+     *
+     * @param sql        the SQL query, parameters are marked by '?'
+     * @param parameters the parameter values
+     * @return the future query result, completed exceptionally with a DatabaseException
+     *         if an exception occurs while executing the query
+     */
+    public CompletableFuture<QueryResult> query(final String sql, final Object... parameters) {
+
+        final CompletableFuture<QueryResult> retVal = new CompletableFuture<QueryResult>();
+
+        submit(new Runnable() {
+            public void run() {
+                try {
+                    retVal.complete(QueryResult.execute(database, sql, parameters));
+                } catch (Throwable t) {
+                    retVal.completeExceptionally(t);
+                }
+            }
+        });
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns a publisher streaming the rows of a query to its subscribers at the pace
+     * of their demand. The query is executed once for each subscription.
+     *
+     * @param sql        the SQL query, parameters are marked by '?'
+     * @param parameters the parameter values
+     * @return the row publisher
+     */
+    public RowPublisher publish(String sql, Object... parameters) {
+        return new RowPublisher(database, sql, parameters);
+    }
+
+    /**
+     * Executes an insert, update or delete statement asynchronously.
+     *
+     * @param sql        the SQL statement, parameters are marked by '?'
+     * @param parameters the parameter values
+     * @return the future number of rows affected, completed exceptionally with a
+     *         DatabaseException if an exception occurs while executing the statement
+     */
+    public CompletableFuture<Integer> update(final String sql, final Object... parameters) {
+
+        return execute(new ConnectionCallback<Integer>() {
+            public Integer doInConnection(Connection connection) throws SQLException {
+
+                PreparedStatement statement = connection.prepareStatement(sql);
+                SqlUtil.setParameters(statement, parameters);
+                int retVal = statement.executeUpdate();
+                statement.close();
+
+                return retVal;
+
+            }
+        });
+
+    }
+
+    /**
+     * Executes a callback on a connection asynchronously. The connection is closed
+     * after the callback returns.
+     *
+     * @param callback the callback
+     * @return the future result of the callback, completed exceptionally with a
+     *         DatabaseException if the callback throws an SQLException
+     */
+    public <T> CompletableFuture<T> execute(final ConnectionCallback<T> callback) {
+
+        final CompletableFuture<T> retVal = new CompletableFuture<T>();
+
+        submit(new Runnable() {
+            public void run() {
+
+                Connection connection = null;
+
+                try {
+                    connection = database.getConnection();
+                    retVal.complete(callback.doInConnection(connection));
+                } catch (SQLException e) {
+                    retVal.completeExceptionally(new DatabaseException("Exception while executing asynchronous database task.", e));
+                } catch (Throwable t) {
+                    retVal.completeExceptionally(t);
+                } finally {
+                    if (connection != null) {
+                        try {
+                            connection.close();
+                        } catch (SQLException e) {
+                            logger.warn(e);
+                        }
+                    }
+                }
+
+            }
+        });
+
+        return retVal;
+
+    }
+
+    /**
+     * Queues a task and starts queued tasks for which permits are available.
+     *
+     * @param task the task
+     */
+    private void submit(Runnable task) {
+
+        pending.add(task);
+        dispatch();
+
+    }
+
+    /**
+     * Starts queued tasks while permits are available.
+     */
+    private void dispatch() {
+
+        while (!pending.isEmpty() && semaphore.tryAcquire()) {
+
+            final Runnable task = pending.poll();
+
+            //another thread took the task
+            if (task == null) {
+                semaphore.release();
+                continue;
+            }
+
+            active.incrementAndGet();
+
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            active.decrementAndGet();
+                            semaphore.release();
+                            dispatch();
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                active.decrementAndGet();
+                semaphore.release();
+                throw e;
+            }
+
+        }
+
+    }
+
+    /**
+     * Returns the database accessed.
+     *
+     * @return the database
+     */
+    public Database getDatabase() {
+        return database;
+    }
+
+    /**
+     * Returns the number of tasks allowed to run at the same time.
+     *
+     * @return the number of permits
+     */
+    public int getPermits() {
+        return permits;
+    }
+
+    /**
+     * Returns the number of running tasks.
+     *
+     * @return the active task count
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * Returns the number of tasks waiting for a permit.
+     *
+     * @return the queued task count
+     */
+    public int getQueuedCount() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the executor shared by all asynchronous database tasks.
+     *
+     * @return the executor
+     */
+    static ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Checks if tasks are run on virtual threads.
+     *
+     * @return true if the Java runtime provides virtual threads
+     */
+    public static boolean isUsingVirtualThreads() {
+        return !(executor instanceof java.util.concurrent.ThreadPoolExecutor);
+    }
+
+    /**
+     * Creates the executor running the tasks. Virtual threads are looked up by
+     * reflection, so that the library still runs on Java runtimes without them.
+     *
+     * @return a virtual thread per task executor if available, a cached pool of daemon threads otherwise
+     */
+    private static ExecutorService createExecutor() {
+
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            logger.debug("Virtual threads not available, using platform threads.");
+        }
+
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+
+            private AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "dbtools-async-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+
+    }
+
+    /**
+     * A task executed on a database connection.
+     */
+    public interface ConnectionCallback<T> {
+
+        /**
+         * Executes the task.
+         *
+         * @param connection the connection, closed after the method returns
+         * @return the result
+         * @throws SQLException if an exception occurs while accessing the database
+         */
+        T doInConnection(Connection connection) throws SQLException;
+
+    }
+
+}
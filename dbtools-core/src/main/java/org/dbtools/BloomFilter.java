@@ -0,0 +1,182 @@
+package org.dbtools;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A Bloom filter of strings: a compact set that answers whether it contains a
+ * string with no false negatives and a configurable rate of false positives.
+ * <p/>
+ * The filter holds <i>m</i> bits, each string sets <i>k</i> of them chosen by
+ * double hashing of a 64 bit hash of the string's characters. For <i>n</i> strings
+ * and a false positive probability <i>p</i>, <i>m = -n ln(p) / ln(2)<sup>2</sup></i>
+ * and <i>k = m / n ln(2)</i>, i.e. about 9.6 bits per string for 1%.
+ * <p/>
+ * Adding strings is not thread safe, querying a filter that is no longer
+ * modified is.
+ */
+public class BloomFilter {
+
+    /**
+     * the bits
+     */
+    private long[] bits;
+
+    /**
+     * the number of bits
+     */
+    private long bitCount;
+
+    /**
+     * the number of bits set per string
+     */
+    private int hashCount;
+
+    /**
+     * Constructs an empty filter.
+     *
+     * @param expectedCount                the number of strings to be added
+     * @param falsePositiveProbability the false positive probability once the expected
+     *                                 number of strings has been added
+     */
+    public BloomFilter(long expectedCount, double falsePositiveProbability) {
+
+        if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1)
+            throw new IllegalArgumentException("False positive probability must be between 0 and 1.");
+
+        long n = Math.max(1, expectedCount);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+
+        this.bits = new long[(int) Math.max(1, (m + 63) >>> 6)];
+        this.bitCount = (long) bits.length << 6;
+        this.hashCount = (int) Math.max(1, Math.round((double) bitCount / n * Math.log(2)));
+
+    }
+
+    private BloomFilter(long[] bits, int hashCount) {
+        this.bits = bits;
+        this.bitCount = (long) bits.length << 6;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * Adds a string.
+     *
+     * @param value the string
+     */
+    public void add(String value) {
+
+        long hash1 = hash(value);
+        long hash2 = mix(hash1) | 1;
+
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+
+    }
+
+    /**
+     * Checks if the filter might contain a string.
+     *
+     * @param value the string
+     * @return false if the string has definitely not been added, true if it probably has
+     */
+    public boolean mightContain(String value) {
+
+        long hash1 = hash(value);
+        long hash2 = mix(hash1) | 1;
+
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Writes the filter to a stream.
+     *
+     * @param out the stream
+     * @throws IOException if an exception occurs while writing
+     */
+    public void write(DataOutputStream out) throws IOException {
+
+        out.writeInt(hashCount);
+        out.writeInt(bits.length);
+        for (long word : bits)
+            out.writeLong(word);
+
+    }
+
+    /**
+     * Reads a filter written by {@link #write(DataOutputStream)}.
+     *
+     * @param in the stream
+     * @return the filter
+     * @throws IOException if an exception occurs while reading
+     */
+    public static BloomFilter read(DataInputStream in) throws IOException {
+
+        int hashCount = in.readInt();
+        long[] bits = new long[in.readInt()];
+        for (int i = 0; i < bits.length; i++)
+            bits[i] = in.readLong();
+
+        return new BloomFilter(bits, hashCount);
+
+    }
+
+    /**
+     * Returns the 64 bit FNV-1a hash of the characters of a string.
+     */
+    private static long hash(String value) {
+
+        long retVal = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            retVal ^= value.charAt(i);
+            retVal *= 0x100000001b3L;
+        }
+
+        return mix(retVal);
+
+    }
+
+    /**
+     * Spreads the bits of a hash (the finalizer of MurmurHash3).
+     */
+    private static long mix(long hash) {
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash;
+
+    }
+
+    /**
+     * Returns the number of bits of the filter.
+     *
+     * @return the bit count
+     */
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     * Returns the number of bits set per string.
+     *
+     * @return the hash count
+     */
+    public int getHashCount() {
+        return hashCount;
+    }
+
+}
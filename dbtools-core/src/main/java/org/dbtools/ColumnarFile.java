@@ -0,0 +1,780 @@
+package org.dbtools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A columnar table stored in a file and read through memory mapping.
+ * <p/>
+ * {@link #write(File, ColumnarTable, String)} stores a table (e.g. a {@link ColumnarResult})
+ * column by column in the same primitive form as held in memory, and optionally an index
+ * of an integer key column sorted by key. {@link #open(File)} maps the file into memory
+ * without reading or converting any values, so opening takes milliseconds regardless of
+ * the table size, and pages are loaded by the operating system when accessed. Strings
+ * are decoded on access and kept in a cache of at most 4096 entries per column.
+ * <p/>
+ * The file starts with the column sections (values, NULL bitmaps, dictionaries) and the
+ * key index, followed by a directory of the sections and a trailer pointing to the
+ * directory. A section is at most 2 GB, limiting tables to 268 million rows.
+ * <p/>
+ * ColumnarFile objects are immutable and can be read by several threads.
+ */
+public class ColumnarFile implements ColumnarTable {
+
+    /**
+     * the file signature 'DBTC'
+     */
+    private static final int MAGIC = 0x44425443;
+
+    /**
+     * the file format version
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * the character set of strings
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * the maximum number of decoded dictionary entries kept per column
+     */
+    private static final int DECODED_CACHE_SIZE = 4096;
+
+    /**
+     * the file
+     */
+    private File file;
+
+    /**
+     * the number of rows
+     */
+    private int rowCount;
+
+    /**
+     * the column labels
+     */
+    private String[] columnLabels;
+
+    /**
+     * the column types
+     */
+    private ColumnType[] columnTypes;
+
+    /**
+     * the values by column
+     */
+    private ByteBuffer[] values;
+
+    /**
+     * the NULL bitmaps by column, <code>null</code> for columns without NULL values
+     */
+    private ByteBuffer[] nulls;
+
+    /**
+     * the dictionaries of the string columns
+     */
+    private ByteBuffer[] dictionaries;
+
+    /**
+     * the caches of decoded dictionary entries of the string columns, slot by code modulo
+     * the cache size, created on first access
+     */
+    private DecodedEntry[][] decoded;
+
+    /**
+     * the key column, -1 if there is no key index
+     */
+    private int keyColumn = -1;
+
+    /**
+     * the keys of the index in ascending order
+     */
+    private LongBuffer indexKeys;
+
+    /**
+     * the rows of the index keys
+     */
+    private ByteBuffer indexRows;
+
+    private ColumnarFile() {
+    }
+
+    /**
+     * Writes a table to a file. An existing file is overwritten.
+     *
+     * @param file      the file
+     * @param table     the table
+     * @param keyColumn the label of an INT or LONG column to index, <code>null</code> for no index
+     * @throws IOException if an exception occurs while writing the file
+     */
+    public static void write(File file, ColumnarTable table, String keyColumn) throws IOException {
+
+        int rowCount = table.getRowCount();
+        int columnCount = table.getColumnCount();
+
+        int key = -1;
+        if (keyColumn != null) {
+            key = table.getColumnIndex(keyColumn);
+            if (key == -1)
+                throw new IllegalArgumentException("Key column '" + keyColumn + "' does not exist.");
+            if (table.getColumnType(key) != ColumnType.INT && table.getColumnType(key) != ColumnType.LONG)
+                throw new IllegalArgumentException("Key column '" + keyColumn + "' is not an integer column.");
+        }
+
+        if ((long) rowCount * 8 > Integer.MAX_VALUE)
+            throw new IOException("Table of " + rowCount + " rows exceeds the section size limit.");
+
+        long[] valuesOffsets = new long[columnCount];
+        long[] nullsOffsets = new long[columnCount];
+        long[] dictionaryOffsets = new long[columnCount];
+        long[] dictionarySizes = new long[columnCount];
+
+        SectionWriter out = new SectionWriter(file);
+
+        try {
+
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+
+            for (int c = 0; c < columnCount; c++) {
+
+                ColumnType type = table.getColumnType(c);
+                byte[] bitmap = new byte[(rowCount + 7) >>> 3];
+                boolean hasNulls = false;
+
+                Map<String, Integer> codes = type == ColumnType.STRING ? new HashMap<String, Integer>() : null;
+                List<String> dictionary = type == ColumnType.STRING ? new ArrayList<String>() : null;
+
+                out.align();
+                valuesOffsets[c] = out.position;
+
+                for (int row = 0; row < rowCount; row++) {
+
+                    boolean isNull = table.isNull(row, c);
+                    if (isNull) {
+                        bitmap[row >>> 3] |= 1 << (row & 7);
+                        hasNulls = true;
+                    }
+
+                    switch (type) {
+
+                        case INT:
+                            out.putInt(isNull ? 0 : table.getInt(row, c));
+                            break;
+
+                        case LONG:
+                            out.putLong(isNull ? 0 : table.getLong(row, c));
+                            break;
+
+                        case DOUBLE:
+                            out.putDouble(isNull ? 0 : table.getDouble(row, c));
+                            break;
+
+                        default:
+                            int code = 0;
+                            if (!isNull) {
+                                String value = table.getString(row, c);
+                                Integer existing = codes.get(value);
+                                if (existing == null) {
+                                    existing = dictionary.size();
+                                    codes.put(value, existing);
+                                    dictionary.add(value);
+                                }
+                                code = existing;
+                            }
+                            out.putInt(code);
+
+                    }
+
+                }
+
+                nullsOffsets[c] = -1;
+                if (hasNulls) {
+                    nullsOffsets[c] = out.position;
+                    out.putBytes(bitmap);
+                }
+
+                dictionaryOffsets[c] = -1;
+                if (dictionary != null) {
+
+                    out.align();
+                    dictionaryOffsets[c] = out.position;
+
+                    //entry count, entry offsets and UTF-8 bytes of the entries
+                    List<byte[]> encoded = new ArrayList<byte[]>(dictionary.size());
+                    for (String value : dictionary)
+                        encoded.add(value.getBytes(UTF8));
+
+                    out.putInt(encoded.size());
+                    int offset = 0;
+                    for (byte[] bytes : encoded) {
+                        out.putInt(offset);
+                        offset += bytes.length;
+                    }
+                    out.putInt(offset);
+                    for (byte[] bytes : encoded)
+                        out.putBytes(bytes);
+
+                    dictionarySizes[c] = out.position - dictionaryOffsets[c];
+                    if (dictionarySizes[c] > Integer.MAX_VALUE)
+                        throw new IOException("Dictionary of column '" + table.getColumnLabel(c) + "' exceeds the section size limit.");
+
+                }
+
+            }
+
+            //key index
+            int indexCount = 0;
+            long indexKeysOffset = -1;
+            long indexRowsOffset = -1;
+
+            if (key != -1) {
+
+                int[] rows = new int[rowCount];
+                long[] keys = new long[rowCount];
+                boolean sorted = true;
+
+                for (int row = 0; row < rowCount; row++) {
+                    if (!table.isNull(row, key)) {
+                        keys[indexCount] = table.getLong(row, key);
+                        rows[indexCount] = row;
+                        if (indexCount > 0 && keys[indexCount] < keys[indexCount - 1])
+                            sorted = false;
+                        indexCount++;
+                    }
+                }
+
+                if (!sorted)
+                    sort(keys, rows, indexCount);
+
+                out.align();
+                indexKeysOffset = out.position;
+                for (int i = 0; i < indexCount; i++)
+                    out.putLong(keys[i]);
+
+                indexRowsOffset = out.position;
+                for (int i = 0; i < indexCount; i++)
+                    out.putInt(rows[i]);
+
+            }
+
+            //directory and trailer
+            long directoryOffset = out.position;
+
+            out.putInt(rowCount);
+            out.putInt(columnCount);
+            out.putInt(key);
+            out.putInt(indexCount);
+            out.putLong(indexKeysOffset);
+            out.putLong(indexRowsOffset);
+
+            for (int c = 0; c < columnCount; c++) {
+                byte[] label = table.getColumnLabel(c).getBytes(UTF8);
+                out.putInt(label.length);
+                out.putBytes(label);
+                out.putInt(table.getColumnType(c).ordinal());
+                out.putLong(valuesOffsets[c]);
+                out.putLong(nullsOffsets[c]);
+                out.putLong(dictionaryOffsets[c]);
+                out.putLong(dictionarySizes[c]);
+            }
+
+            out.putLong(directoryOffset);
+            out.putInt(MAGIC);
+
+        } finally {
+            out.close();
+        }
+
+    }
+
+    /**
+     * Opens a file by mapping it into memory.
+     *
+     * @param file the file
+     * @return the table
+     * @throws IOException if the file cannot be read or is not a columnar table file
+     */
+    public static ColumnarFile open(File file) throws IOException {
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+        try {
+
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size < 20)
+                throw new IOException("File '" + file + "' is not a columnar table file.");
+
+            ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, size - 12, 12);
+            long directoryOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC || channel.map(FileChannel.MapMode.READ_ONLY, 0, 8).getInt(4) != VERSION)
+                throw new IOException("File '" + file + "' is not a columnar table file of version " + VERSION + ".");
+
+            ByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, size - 12 - directoryOffset);
+
+            ColumnarFile retVal = new ColumnarFile();
+            retVal.file = file;
+            retVal.rowCount = directory.getInt();
+            int columnCount = directory.getInt();
+            retVal.keyColumn = directory.getInt();
+            int indexCount = directory.getInt();
+            long indexKeysOffset = directory.getLong();
+            long indexRowsOffset = directory.getLong();
+
+            if (retVal.keyColumn != -1) {
+                retVal.indexKeys = channel.map(FileChannel.MapMode.READ_ONLY, indexKeysOffset, (long) indexCount * 8).asLongBuffer();
+                retVal.indexRows = channel.map(FileChannel.MapMode.READ_ONLY, indexRowsOffset, (long) indexCount * 4);
+            }
+
+            retVal.columnLabels = new String[columnCount];
+            retVal.columnTypes = new ColumnType[columnCount];
+            retVal.values = new ByteBuffer[columnCount];
+            retVal.nulls = new ByteBuffer[columnCount];
+            retVal.dictionaries = new ByteBuffer[columnCount];
+            retVal.decoded = new DecodedEntry[columnCount][];
+
+            for (int c = 0; c < columnCount; c++) {
+
+                byte[] label = new byte[directory.getInt()];
+                directory.get(label);
+                retVal.columnLabels[c] = new String(label, UTF8);
+                retVal.columnTypes[c] = ColumnType.values()[directory.getInt()];
+
+                long valuesOffset = directory.getLong();
+                long nullsOffset = directory.getLong();
+                long dictionaryOffset = directory.getLong();
+                long dictionarySize = directory.getLong();
+
+                retVal.values[c] = map(channel, valuesOffset, (long) retVal.rowCount * ColumnarResult.getWidth(retVal.columnTypes[c]));
+                if (nullsOffset != -1)
+                    retVal.nulls[c] = map(channel, nullsOffset, (retVal.rowCount + 7) >>> 3);
+                if (dictionaryOffset != -1)
+                    retVal.dictionaries[c] = map(channel, dictionaryOffset, dictionarySize);
+
+            }
+
+            return retVal;
+
+        } finally {
+            //mappings remain valid after the file is closed
+            randomAccessFile.close();
+        }
+
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long offset, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+    }
+
+    /**
+     * Sorts keys and their rows by key, keeping rows with equal keys in row order.
+     */
+    private static void sort(long[] keys, int[] rows, int count) {
+
+        long[] keyBuffer = new long[count];
+        int[] rowBuffer = new int[count];
+
+        //bottom-up merge sort
+        for (int width = 1; width < count; width <<= 1) {
+
+            for (int left = 0; left < count; left += width << 1) {
+
+                int middle = Math.min(left + width, count);
+                int right = Math.min(left + (width << 1), count);
+                int i = left, j = middle, k = left;
+
+                while (i < middle && j < right) {
+                    if (keys[j] < keys[i]) {
+                        keyBuffer[k] = keys[j];
+                        rowBuffer[k++] = rows[j++];
+                    } else {
+                        keyBuffer[k] = keys[i];
+                        rowBuffer[k++] = rows[i++];
+                    }
+                }
+                while (i < middle) {
+                    keyBuffer[k] = keys[i];
+                    rowBuffer[k++] = rows[i++];
+                }
+                while (j < right) {
+                    keyBuffer[k] = keys[j];
+                    rowBuffer[k++] = rows[j++];
+                }
+
+            }
+
+            System.arraycopy(keyBuffer, 0, keys, 0, count);
+            System.arraycopy(rowBuffer, 0, rows, 0, count);
+
+        }
+
+    }
+
+    /**
+     * Returns the position of the first index key not less than a key.
+     */
+    private int lowerBound(long key) {
+
+        int low = 0;
+        int high = indexKeys.limit();
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (indexKeys.get(middle) < key)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+
+    }
+
+    /**
+     * Finds the row of a key.
+     *
+     * @param key the key
+     * @return the index of the first row with the key, -1 if no row has the key
+     * @throws IllegalStateException if the file has no key index
+     */
+    public int findRow(long key) {
+
+        checkIndex();
+
+        int position = lowerBound(key);
+        if (position < indexKeys.limit() && indexKeys.get(position) == key)
+            return indexRows.getInt(position << 2);
+
+        return -1;
+
+    }
+
+    /**
+     * Finds the rows of a range of keys.
+     *
+     * @param fromKey the lowest key (inclusive)
+     * @param toKey   the highest key (exclusive)
+     * @return the indexes of the rows in key order
+     * @throws IllegalStateException if the file has no key index
+     */
+    public int[] findRows(long fromKey, long toKey) {
+
+        checkIndex();
+
+        int from = lowerBound(fromKey);
+        int to = Math.max(from, lowerBound(toKey));
+
+        int[] retVal = new int[to - from];
+        for (int i = from; i < to; i++)
+            retVal[i - from] = indexRows.getInt(i << 2);
+
+        return retVal;
+
+    }
+
+    private void checkIndex() {
+        if (keyColumn == -1)
+            throw new IllegalStateException("File '" + file + "' has no key index.");
+    }
+
+    /**
+     * Returns the file.
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the indexed key column.
+     *
+     * @return the column index, -1 if there is no key index
+     */
+    public int getKeyColumn() {
+        return keyColumn;
+    }
+
+    /**
+     * Checks if the file has a key index of a column.
+     *
+     * @param columnLabel the column label
+     * @return true if the column is the indexed key column
+     */
+    public boolean hasKeyIndex(String columnLabel) {
+        return keyColumn != -1 && columnLabels[keyColumn].equalsIgnoreCase(columnLabel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getColumnCount() {
+        return columnLabels.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getColumnLabel(int column) {
+        return columnLabels[column];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getColumnIndex(String columnLabel) {
+
+        for (int i = 0; i < columnLabels.length; i++) {
+            if (columnLabels[i].equalsIgnoreCase(columnLabel))
+                return i;
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ColumnType getColumnType(int column) {
+        return columnTypes[column];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isNull(int row, int column) {
+
+        checkRow(row);
+
+        ByteBuffer bitmap = nulls[column];
+
+        return bitmap != null && (bitmap.get(row >>> 3) & (1 << (row & 7))) != 0;
+
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getInt(int row, int column) {
+
+        if (columnTypes[column] != ColumnType.INT)
+            throw new IllegalArgumentException("Column '" + columnLabels[column] + "' is of type " + columnTypes[column] + ".");
+
+        checkRow(row);
+
+        return values[column].getInt(row << 2);
+
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLong(int row, int column) {
+
+        if (columnTypes[column] == ColumnType.INT)
+            return getInt(row, column);
+        if (columnTypes[column] != ColumnType.LONG)
+            throw new IllegalArgumentException("Column '" + columnLabels[column] + "' is of type " + columnTypes[column] + ".");
+
+        checkRow(row);
+
+        return values[column].getLong(row << 3);
+
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getDouble(int row, int column) {
+
+        if (columnTypes[column] != ColumnType.DOUBLE)
+            return getLong(row, column);
+
+        checkRow(row);
+
+        return values[column].getDouble(row << 3);
+
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getString(int row, int column) {
+
+        if (isNull(row, column))
+            return null;
+
+        if (columnTypes[column] != ColumnType.STRING)
+            return String.valueOf(getValue(row, column));
+
+        int code = values[column].getInt(row << 2);
+        ByteBuffer dictionary = dictionaries[column].duplicate();
+        int count = dictionary.getInt(0);
+
+        //decoded entries are immutable, a concurrent decode or replacement does no harm
+        DecodedEntry[] cache = decoded[column];
+        if (cache == null) {
+            cache = new DecodedEntry[Math.min(count, DECODED_CACHE_SIZE)];
+            decoded[column] = cache;
+        }
+
+        int slot = code % cache.length;
+        DecodedEntry entry = cache[slot];
+
+        if (entry == null || entry.code != code) {
+
+            int start = dictionary.getInt(4 + (code << 2));
+            int end = dictionary.getInt(8 + (code << 2));
+
+            byte[] bytes = new byte[end - start];
+            dictionary.position(8 + (count << 2) + start);
+            dictionary.get(bytes);
+
+            entry = new DecodedEntry(code, new String(bytes, UTF8));
+            cache[slot] = entry;
+
+        }
+
+        return entry.value;
+
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object getValue(int row, int column) {
+
+        if (isNull(row, column))
+            return null;
+
+        switch (columnTypes[column]) {
+            case INT: return getInt(row, column);
+            case LONG: return getLong(row, column);
+            case DOUBLE: return getDouble(row, column);
+            default: return getString(row, column);
+        }
+
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rowCount)
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount + " rows.");
+    }
+
+    /**
+     * A decoded dictionary entry.
+     */
+    private static class DecodedEntry {
+
+        private final int code;
+
+        private final String value;
+
+        private DecodedEntry(int code, String value) {
+            this.code = code;
+            this.value = value;
+        }
+
+    }
+
+    /**
+     * Writes the sections of a file through a buffer, keeping track of the position.
+     */
+    private static class SectionWriter {
+
+        private FileOutputStream stream;
+
+        private FileChannel channel;
+
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+
+        private long position;
+
+        private SectionWriter(File file) throws IOException {
+            stream = new FileOutputStream(file);
+            channel = stream.getChannel();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes)
+                flush();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+
+        private void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+            position += 4;
+        }
+
+        private void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+            position += 8;
+        }
+
+        private void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+            position += 8;
+        }
+
+        private void putBytes(byte[] bytes) throws IOException {
+            for (int offset = 0; offset < bytes.length; ) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+                position += length;
+            }
+        }
+
+        /**
+         * Pads to a multiple of 8 bytes.
+         */
+        private void align() throws IOException {
+            while ((position & 7) != 0) {
+                ensure(1);
+                buffer.put((byte) 0);
+                position++;
+            }
+        }
+
+        private void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                stream.close();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,154 @@
+package org.dbtools;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A directory of {@link ColumnarFile}s keyed by schema and table name.
+ * <p/>
+ * The file of a table is stored as <code>&lt;directory&gt;/&lt;schema&gt;/&lt;table&gt;.dbtc</code>.
+ * Files are written to a temporary file first and renamed when complete, so an
+ * interrupted write never leaves a partial file behind. Opened files are kept
+ * and shared by all callers.
+ */
+public class ColumnarFileCache {
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(ColumnarFileCache.class);
+
+    /**
+     * the file name extension of table files
+     */
+    private static final String EXTENSION = ".dbtc";
+
+    /**
+     * the cache directory
+     */
+    private File directory;
+
+    /**
+     * the opened files by schema and table name
+     */
+    private Map<String, ColumnarFile> files = new HashMap<String, ColumnarFile>();
+
+    /**
+     * Constructs a cache.
+     *
+     * @param directory the cache directory, created if it does not exist
+     */
+    public ColumnarFileCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the file of a table.
+     *
+     * @param schema the schema name
+     * @param table  the table name
+     * @return the file
+     */
+    public File getFile(String schema, String table) {
+        return new File(new File(directory, schema), table + EXTENSION);
+    }
+
+    /**
+     * Returns a cached table.
+     *
+     * @param schema the schema name
+     * @param table  the table name
+     * @return the table, <code>null</code> if the table is not cached
+     * @throws IOException if an exception occurs while opening the file
+     */
+    public synchronized ColumnarFile get(String schema, String table) throws IOException {
+
+        String key = schema + "." + table;
+        ColumnarFile retVal = files.get(key);
+
+        if (retVal == null) {
+
+            File file = getFile(schema, table);
+            if (!file.isFile())
+                return null;
+
+            retVal = ColumnarFile.open(file);
+            files.put(key, retVal);
+
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Stores a table in the cache, replacing a cached table of the same name.
+     *
+     * @param schema    the schema name
+     * @param table     the table name
+     * @param data      the table data
+     * @param keyColumn the label of an INT or LONG column to index, <code>null</code> for no index
+     * @return the cached table
+     * @throws IOException if an exception occurs while writing the file
+     */
+    public synchronized ColumnarFile put(String schema, String table, ColumnarTable data, String keyColumn) throws IOException {
+
+        long start = System.currentTimeMillis();
+
+        File file = getFile(schema, table);
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Could not create cache directory '" + parent + "'.");
+
+        File temporary = new File(parent, table + EXTENSION + ".tmp");
+        try {
+
+            ColumnarFile.write(temporary, data, keyColumn);
+
+            files.remove(schema + "." + table);
+            if (file.exists() && !file.delete())
+                throw new IOException("Could not replace cache file '" + file + "'.");
+            if (!temporary.renameTo(file))
+                throw new IOException("Could not rename cache file '" + temporary + "' to '" + file + "'.");
+
+        } finally {
+            if (temporary.exists() && !temporary.delete())
+                logger.warn("Could not delete temporary cache file '" + temporary + "'.");
+        }
+
+        logger.info("Cached " + data.getRowCount() + " rows of table " + schema + "." + table + " in "
+                + (System.currentTimeMillis() - start) + " ms.");
+
+        return get(schema, table);
+
+    }
+
+    /**
+     * Removes a table from the cache.
+     *
+     * @param schema the schema name
+     * @param table  the table name
+     * @return true if the table was cached
+     */
+    public synchronized boolean remove(String schema, String table) {
+
+        files.remove(schema + "." + table);
+
+        return getFile(schema, table).delete();
+
+    }
+
+    /**
+     * Returns the cache directory.
+     *
+     * @return the directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+}
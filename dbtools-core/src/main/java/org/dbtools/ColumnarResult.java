@@ -0,0 +1,713 @@
+package org.dbtools;
+
+import org.apache.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A query result read into off-heap memory column by column.
+ * <p/>
+ * Where a {@link QueryResult} holds one boxed object per value, a ColumnarResult
+ * stores integer and floating point columns as primitives in direct byte buffers
+ * and string columns as codes into a dictionary of the distinct values, with a
+ * bitmap marking NULL values. String columns whose values are mostly distinct
+ * (e.g. stable IDs or descriptions) are switched to storing the UTF-8 bytes of
+ * the values in direct byte buffers, with the end offset of each value in place
+ * of the code. The heap then only holds the dictionaries of the low cardinality
+ * columns, so large results (e.g. coordinates of all features of a genome) do not
+ * put pressure on the garbage collector.
+ * <p/>
+ * Column values are stored in chunks of 65536 rows so that the result can grow
+ * without copying. The memory used is limited, by default to the value of the
+ * configuration property <code>dbtools.columnar.memory.limit</code> (in bytes).
+ * Note that direct memory is also limited by the JVM option
+ * <code>-XX:MaxDirectMemorySize</code>, and is released by the garbage collector
+ * once the result is no longer referenced.
+ * <p/>
+ * ColumnarResult objects are immutable and can be read by several threads.
+ */
+public class ColumnarResult implements ColumnarTable {
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(ColumnarResult.class);
+
+    /**
+     * the number of rows per chunk as power of 2
+     */
+    private static final int CHUNK_SHIFT = 16;
+
+    private static final int CHUNK_ROWS = 1 << CHUNK_SHIFT;
+
+    private static final int CHUNK_MASK = CHUNK_ROWS - 1;
+
+    /**
+     * the estimated heap size of a dictionary entry without its characters
+     */
+    private static final int DICTIONARY_ENTRY_SIZE = 64;
+
+    /**
+     * the number of distinct values a dictionary may always hold, beyond it a string column
+     * is stored as UTF-8 bytes once more than half of its values are distinct
+     */
+    private static final int DICTIONARY_MIN_SIZE = 4096;
+
+    /**
+     * the initial size of a chunk of UTF-8 bytes
+     */
+    private static final int BYTES_CHUNK_SIZE = 1 << 16;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * the column labels
+     */
+    private String[] columnLabels;
+
+    /**
+     * the column types
+     */
+    private ColumnType[] columnTypes;
+
+    /**
+     * the value chunks by column
+     */
+    private ByteBuffer[][] values;
+
+    /**
+     * the NULL bitmap chunks by column, <code>null</code> for chunks without NULL values
+     */
+    private ByteBuffer[][] nulls;
+
+    /**
+     * the distinct values of the string columns by code
+     */
+    private String[][] dictionaries;
+
+    /**
+     * the UTF-8 byte chunks of the string columns stored without dictionary by column,
+     * <code>null</code> for other columns
+     */
+    private ByteBuffer[][] bytes;
+
+    /**
+     * the number of rows
+     */
+    private int rowCount;
+
+    /**
+     * the memory used in bytes
+     */
+    private long memoryUsage;
+
+    private ColumnarResult() {
+    }
+
+    /**
+     * Executes a query and reads its result with the default memory limit.
+     *
+     * @param database   the database to query
+     * @param sql        the SQL query, parameters are marked by '?'
+     * @param parameters the parameter values
+     * @return the query result
+     * @throws DatabaseException if an exception occurs while executing the query or the
+     *                           result exceeds the memory limit
+     */
+    public static ColumnarResult execute(Database database, String sql, Object... parameters) throws DatabaseException {
+        return execute(database, Configuration.getInstance().getLongProperty("dbtools.columnar.memory.limit"), sql, parameters);
+    }
+
+    /**
+     * Executes a query and reads its result. The result is streamed from the database
+     * if the database supports it, so it is never held in memory as objects.
+     *
+     * @param database    the database to query
+     * @param memoryLimit the maximum memory used by the result in bytes
+     * @param sql         the SQL query, parameters are marked by '?'
+     * @param parameters  the parameter values
+     * @return the query result
+     * @throws DatabaseException if an exception occurs while executing the query or the
+     *                           result exceeds the memory limit
+     */
+    public static ColumnarResult execute(Database database, long memoryLimit, String sql, Object... parameters) throws DatabaseException {
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+
+            long start = System.currentTimeMillis();
+
+            connection = database.getConnection();
+
+            statement = database instanceof AbstractDatabase
+                    ? ((AbstractDatabase) database).prepareStreamingStatement(connection, sql)
+                    : connection.prepareStatement(sql);
+            SqlUtil.setParameters(statement, parameters);
+
+            ResultSet resultSet = statement.executeQuery();
+            ColumnarResult retVal = read(resultSet, memoryLimit);
+
+            resultSet.close();
+
+            logger.debug("Read " + retVal.rowCount + " rows into " + retVal.memoryUsage + " bytes in "
+                    + (System.currentTimeMillis() - start) + " ms.");
+
+            return retVal;
+
+        } catch (SQLException e) {
+            throw new DatabaseException("Exception while executing query '" + sql + "'.", e);
+        } finally {
+            //also closes the result set if reading fails, e.g. at the memory limit
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    logger.warn(e);
+                }
+            }
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    logger.warn(e);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Reads all remaining rows of a result set. The result set is not closed.
+     *
+     * @param resultSet   the result set
+     * @param memoryLimit the maximum memory used by the result in bytes
+     * @return the query result
+     * @throws SQLException if an exception occurs while reading the result set or the
+     *                      result exceeds the memory limit
+     */
+    public static ColumnarResult read(ResultSet resultSet, long memoryLimit) throws SQLException {
+
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        int columnCount = metaData.getColumnCount();
+
+        ColumnarResult retVal = new ColumnarResult();
+        retVal.columnLabels = new String[columnCount];
+        retVal.columnTypes = new ColumnType[columnCount];
+
+        boolean[] booleans = new boolean[columnCount];
+        List<List<ByteBuffer>> values = new ArrayList<List<ByteBuffer>>();
+        List<List<ByteBuffer>> nulls = new ArrayList<List<ByteBuffer>>();
+        List<Map<String, Integer>> codes = new ArrayList<Map<String, Integer>>();
+        List<List<String>> dictionaries = new ArrayList<List<String>>();
+        List<List<ByteBuffer>> bytes = new ArrayList<List<ByteBuffer>>();
+
+        for (int c = 0; c < columnCount; c++) {
+
+            int sqlType = metaData.getColumnType(c + 1);
+            retVal.columnLabels[c] = metaData.getColumnLabel(c + 1);
+            retVal.columnTypes[c] = toColumnType(sqlType, metaData.getColumnTypeName(c + 1), metaData.getPrecision(c + 1), metaData.getScale(c + 1));
+            booleans[c] = sqlType == Types.BIT || sqlType == Types.BOOLEAN;
+
+            values.add(new ArrayList<ByteBuffer>());
+            nulls.add(new ArrayList<ByteBuffer>());
+            codes.add(retVal.columnTypes[c] == ColumnType.STRING ? new HashMap<String, Integer>() : null);
+            dictionaries.add(retVal.columnTypes[c] == ColumnType.STRING ? new ArrayList<String>() : null);
+            bytes.add(null);
+
+        }
+
+        int row = 0;
+        while (resultSet.next()) {
+
+            if (row == Integer.MAX_VALUE)
+                throw new SQLException("Result exceeds " + Integer.MAX_VALUE + " rows.");
+
+            int offset = row & CHUNK_MASK;
+
+            for (int c = 0; c < columnCount; c++) {
+
+                if (offset == 0) {
+                    values.get(c).add(retVal.allocate(CHUNK_ROWS * getWidth(retVal.columnTypes[c]), memoryLimit, row));
+                    nulls.get(c).add(null);
+                }
+
+                ByteBuffer chunk = values.get(c).get(row >>> CHUNK_SHIFT);
+                boolean isNull;
+
+                switch (retVal.columnTypes[c]) {
+
+                    case INT:
+                        int intValue = booleans[c] ? (resultSet.getBoolean(c + 1) ? 1 : 0) : resultSet.getInt(c + 1);
+                        isNull = resultSet.wasNull();
+                        chunk.putInt(offset << 2, intValue);
+                        break;
+
+                    case LONG:
+                        long longValue = resultSet.getLong(c + 1);
+                        isNull = resultSet.wasNull();
+                        chunk.putLong(offset << 3, longValue);
+                        break;
+
+                    case DOUBLE:
+                        double doubleValue = resultSet.getDouble(c + 1);
+                        isNull = resultSet.wasNull();
+                        chunk.putDouble(offset << 3, doubleValue);
+                        break;
+
+                    default:
+                        String stringValue = resultSet.getString(c + 1);
+                        isNull = stringValue == null;
+
+                        if (bytes.get(c) != null) {
+                            retVal.putBytes(bytes.get(c), chunk, row, stringValue, memoryLimit);
+                            break;
+                        }
+
+                        int code = 0;
+                        if (!isNull) {
+                            Integer existing = codes.get(c).get(stringValue);
+                            if (existing == null) {
+                                retVal.reserve(DICTIONARY_ENTRY_SIZE + 2L * stringValue.length(), memoryLimit, row);
+                                existing = dictionaries.get(c).size();
+                                codes.get(c).put(stringValue, existing);
+                                dictionaries.get(c).add(stringValue);
+                            }
+                            code = existing;
+                        }
+                        chunk.putInt(offset << 2, code);
+
+                        //mostly distinct values, a dictionary would only add to the heap
+                        List<String> dictionary = dictionaries.get(c);
+                        if (dictionary.size() > DICTIONARY_MIN_SIZE && 2L * dictionary.size() > row + 1) {
+                            bytes.set(c, retVal.toBytes(values.get(c), nulls.get(c), dictionary, row, memoryLimit));
+                            codes.set(c, null);
+                            dictionaries.set(c, null);
+                        }
+
+                }
+
+                if (isNull) {
+                    List<ByteBuffer> columnNulls = nulls.get(c);
+                    ByteBuffer bitmap = columnNulls.get(row >>> CHUNK_SHIFT);
+                    if (bitmap == null) {
+                        bitmap = retVal.allocate(CHUNK_ROWS >>> 3, memoryLimit, row);
+                        columnNulls.set(row >>> CHUNK_SHIFT, bitmap);
+                    }
+                    bitmap.put(offset >>> 3, (byte) (bitmap.get(offset >>> 3) | (1 << (offset & 7))));
+                }
+
+            }
+
+            row++;
+
+        }
+
+        retVal.rowCount = row;
+        retVal.values = new ByteBuffer[columnCount][];
+        retVal.nulls = new ByteBuffer[columnCount][];
+        retVal.dictionaries = new String[columnCount][];
+        retVal.bytes = new ByteBuffer[columnCount][];
+
+        for (int c = 0; c < columnCount; c++) {
+
+            List<ByteBuffer> chunks = values.get(c);
+
+            if (bytes.get(c) != null)
+                retVal.bytes[c] = retVal.trimBytes(bytes.get(c), chunks, row);
+
+            //trim the last chunk to the rows it holds
+            int lastRows = row & CHUNK_MASK;
+            if (lastRows > 0) {
+                ByteBuffer last = chunks.get(chunks.size() - 1);
+                int width = getWidth(retVal.columnTypes[c]);
+                ByteBuffer trimmed = ByteBuffer.allocateDirect(lastRows * width);
+                last.limit(lastRows * width);
+                trimmed.put(last);
+                chunks.set(chunks.size() - 1, trimmed);
+                retVal.memoryUsage -= (long) (CHUNK_ROWS - lastRows) * width;
+            }
+
+            retVal.values[c] = chunks.toArray(new ByteBuffer[chunks.size()]);
+            retVal.nulls[c] = nulls.get(c).toArray(new ByteBuffer[chunks.size()]);
+            if (dictionaries.get(c) != null)
+                retVal.dictionaries[c] = dictionaries.get(c).toArray(new String[dictionaries.get(c).size()]);
+
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the storage type of an SQL type. Integers and decimals without fraction
+     * are stored as INT or LONG depending on their precision, floating point numbers
+     * and other decimals as DOUBLE, all other types as STRING.
+     *
+     * @param sqlType   the SQL type as defined in java.sql.Types
+     * @param typeName  the database specific type name
+     * @param precision the precision
+     * @param scale     the scale
+     * @return the column type
+     */
+    static ColumnType toColumnType(int sqlType, String typeName, int precision, int scale) {
+
+        switch (sqlType) {
+
+            case Types.BIT:
+            case Types.BOOLEAN:
+            case Types.TINYINT:
+            case Types.SMALLINT: return ColumnType.INT;
+
+            //unsigned integers exceed the range of int
+            case Types.INTEGER: return typeName != null && typeName.toUpperCase().indexOf("UNSIGNED") != -1 ? ColumnType.LONG : ColumnType.INT;
+
+            case Types.BIGINT: return ColumnType.LONG;
+
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE: return ColumnType.DOUBLE;
+
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                if (scale == 0 && precision > 0 && precision <= 9)
+                    return ColumnType.INT;
+                if (scale == 0 && precision > 0 && precision <= 18)
+                    return ColumnType.LONG;
+                return ColumnType.DOUBLE;
+
+            default: return ColumnType.STRING;
+
+        }
+
+    }
+
+    /**
+     * Returns the number of bytes a value of a column type takes.
+     *
+     * @param columnType the column type
+     * @return the width in bytes
+     */
+    static int getWidth(ColumnType columnType) {
+        return columnType == ColumnType.LONG || columnType == ColumnType.DOUBLE ? 8 : 4;
+    }
+
+    /**
+     * Appends the UTF-8 bytes of a string value to the byte chunks of a column and stores
+     * their end offset as the value of the row.
+     *
+     * @param chunks      the byte chunks of the column
+     * @param values      the value chunk of the row
+     * @param row         the row index
+     * @param value       the value, <code>null</code> is stored as empty value
+     * @param memoryLimit the maximum memory used by the result in bytes
+     * @throws SQLException if the result exceeds the memory limit
+     */
+    private void putBytes(List<ByteBuffer> chunks, ByteBuffer values, int row, String value, long memoryLimit) throws SQLException {
+
+        int offset = row & CHUNK_MASK;
+        if (offset == 0)
+            chunks.add(allocate(BYTES_CHUNK_SIZE, memoryLimit, row));
+
+        ByteBuffer chunk = chunks.get(row >>> CHUNK_SHIFT);
+        int start = offset == 0 ? 0 : values.getInt((offset - 1) << 2);
+        ByteBuffer encoded = value == null ? ByteBuffer.allocate(0) : UTF8.encode(value);
+        long end = (long) start + encoded.remaining();
+
+        if (end > chunk.capacity()) {
+
+            if (end > Integer.MAX_VALUE)
+                throw new SQLException("Values of " + CHUNK_ROWS + " rows exceed " + Integer.MAX_VALUE + " bytes.");
+
+            //grow by doubling, the old chunk is released
+            ByteBuffer grown = allocate((int) Math.min(Integer.MAX_VALUE, Math.max(end, 2L * chunk.capacity())), memoryLimit, row);
+            chunk.clear();
+            chunk.limit(start);
+            grown.put(chunk);
+            grown.clear();
+            memoryUsage -= chunk.capacity();
+            chunk = grown;
+            chunks.set(row >>> CHUNK_SHIFT, chunk);
+
+        }
+
+        chunk.position(start);
+        chunk.put(encoded);
+        chunk.clear();
+        values.putInt(offset << 2, (int) end);
+
+    }
+
+    /**
+     * Converts the dictionary codes of a string column read so far to UTF-8 bytes.
+     *
+     * @param values      the value chunks of the column
+     * @param nulls       the NULL bitmap chunks of the column
+     * @param dictionary  the dictionary of the column, released
+     * @param lastRow     the last row read
+     * @param memoryLimit the maximum memory used by the result in bytes
+     * @return the byte chunks of the column
+     * @throws SQLException if the result exceeds the memory limit
+     */
+    private List<ByteBuffer> toBytes(List<ByteBuffer> values, List<ByteBuffer> nulls, List<String> dictionary, int lastRow, long memoryLimit) throws SQLException {
+
+        for (String value : dictionary)
+            memoryUsage -= DICTIONARY_ENTRY_SIZE + 2L * value.length();
+
+        List<ByteBuffer> retVal = new ArrayList<ByteBuffer>();
+
+        //the offsets replace the codes in place, each row reads its own code first
+        for (int row = 0; row <= lastRow; row++) {
+
+            ByteBuffer chunk = values.get(row >>> CHUNK_SHIFT);
+            ByteBuffer bitmap = nulls.get(row >>> CHUNK_SHIFT);
+            int offset = row & CHUNK_MASK;
+
+            boolean isNull = bitmap != null && (bitmap.get(offset >>> 3) & (1 << (offset & 7))) != 0;
+            putBytes(retVal, chunk, row, isNull ? null : dictionary.get(chunk.getInt(offset << 2)), memoryLimit);
+
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Trims the byte chunks of a string column to the bytes they hold.
+     *
+     * @param chunks   the byte chunks of the column
+     * @param values   the value chunks of the column, not yet trimmed
+     * @param rowCount the number of rows
+     * @return the trimmed byte chunks
+     */
+    private ByteBuffer[] trimBytes(List<ByteBuffer> chunks, List<ByteBuffer> values, int rowCount) {
+
+        ByteBuffer[] retVal = new ByteBuffer[chunks.size()];
+
+        for (int i = 0; i < retVal.length; i++) {
+
+            int rows = Math.min(CHUNK_ROWS, rowCount - (i << CHUNK_SHIFT));
+            int used = values.get(i).getInt((rows - 1) << 2);
+
+            ByteBuffer chunk = chunks.get(i);
+            retVal[i] = ByteBuffer.allocateDirect(used);
+            chunk.limit(used);
+            retVal[i].put(chunk);
+            retVal[i].clear();
+            memoryUsage -= chunk.capacity() - used;
+
+        }
+
+        return retVal;
+
+    }
+
+    private ByteBuffer allocate(int size, long memoryLimit, int row) throws SQLException {
+        reserve(size, memoryLimit, row);
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    private void reserve(long size, long memoryLimit, int row) throws SQLException {
+
+        if (memoryUsage + size > memoryLimit)
+            throw new SQLException("Result exceeds the memory limit of " + memoryLimit + " bytes after " + row + " rows.");
+
+        memoryUsage += size;
+
+    }
+
+    /**
+     * Returns the memory used by the result: the direct buffers and the estimated heap
+     * size of the dictionaries.
+     *
+     * @return the memory usage in bytes
+     */
+    public long getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    /**
+     * Returns the number of distinct values of a dictionary encoded string column.
+     *
+     * @param column the column index
+     * @return the dictionary size, 0 if the column is not dictionary encoded
+     */
+    public int getDictionarySize(int column) {
+        return dictionaries[column] != null ? dictionaries[column].length : 0;
+    }
+
+    /**
+     * Returns whether a string column is stored as codes into a dictionary, rather than
+     * as UTF-8 bytes.
+     *
+     * @param column the column index
+     * @return true if the column is dictionary encoded
+     */
+    public boolean isDictionaryEncoded(int column) {
+        return dictionaries[column] != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getColumnCount() {
+        return columnLabels.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getColumnLabel(int column) {
+        return columnLabels[column];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getColumnIndex(String columnLabel) {
+
+        for (int i = 0; i < columnLabels.length; i++) {
+            if (columnLabels[i].equalsIgnoreCase(columnLabel))
+                return i;
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ColumnType getColumnType(int column) {
+        return columnTypes[column];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isNull(int row, int column) {
+
+        checkRow(row);
+
+        ByteBuffer bitmap = nulls[column][row >>> CHUNK_SHIFT];
+        int offset = row & CHUNK_MASK;
+
+        return bitmap != null && (bitmap.get(offset >>> 3) & (1 << (offset & 7))) != 0;
+
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getInt(int row, int column) {
+
+        if (columnTypes[column] != ColumnType.INT)
+            throw new IllegalArgumentException("Column '" + columnLabels[column] + "' is of type " + columnTypes[column] + ".");
+
+        checkRow(row);
+
+        return values[column][row >>> CHUNK_SHIFT].getInt((row & CHUNK_MASK) << 2);
+
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLong(int row, int column) {
+
+        if (columnTypes[column] == ColumnType.INT)
+            return getInt(row, column);
+        if (columnTypes[column] != ColumnType.LONG)
+            throw new IllegalArgumentException("Column '" + columnLabels[column] + "' is of type " + columnTypes[column] + ".");
+
+        checkRow(row);
+
+        return values[column][row >>> CHUNK_SHIFT].getLong((row & CHUNK_MASK) << 3);
+
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getDouble(int row, int column) {
+
+        if (columnTypes[column] != ColumnType.DOUBLE)
+            return getLong(row, column);
+
+        checkRow(row);
+
+        return values[column][row >>> CHUNK_SHIFT].getDouble((row & CHUNK_MASK) << 3);
+
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getString(int row, int column) {
+
+        if (isNull(row, column))
+            return null;
+
+        if (columnTypes[column] == ColumnType.STRING) {
+
+            ByteBuffer chunk = values[column][row >>> CHUNK_SHIFT];
+            int offset = row & CHUNK_MASK;
+
+            if (dictionaries[column] != null)
+                return dictionaries[column][chunk.getInt(offset << 2)];
+
+            //a duplicate, the chunk is read by several threads
+            ByteBuffer value = bytes[column][row >>> CHUNK_SHIFT].duplicate();
+            value.limit(chunk.getInt(offset << 2));
+            value.position(offset == 0 ? 0 : chunk.getInt((offset - 1) << 2));
+
+            return UTF8.decode(value).toString();
+
+        }
+
+        return String.valueOf(getValue(row, column));
+
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object getValue(int row, int column) {
+
+        if (isNull(row, column))
+            return null;
+
+        switch (columnTypes[column]) {
+            case INT: return getInt(row, column);
+            case LONG: return getLong(row, column);
+            case DOUBLE: return getDouble(row, column);
+            default: return getString(row, column);
+        }
+
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rowCount)
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount + " rows.");
+    }
+
+}
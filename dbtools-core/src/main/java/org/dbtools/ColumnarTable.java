@@ -0,0 +1,133 @@
+package org.dbtools;
+
+/**
+ * A table of values stored column by column in primitive form.
+ * <p/>
+ * Each column has one of the types of {@link ColumnType}: integer columns are read
+ * with {@link #getInt(int, int)} or {@link #getLong(int, int)}, floating point columns
+ * with {@link #getDouble(int, int)} and all other columns as strings. Typed accessors
+ * return 0 for NULL values, use {@link #isNull(int, int)} to tell them apart.
+ * Rows and columns are counted from 0.
+ */
+public interface ColumnarTable {
+
+    /**
+     * The storage types of columns.
+     */
+    enum ColumnType {
+
+        /**
+         * 32 bit integers
+         */
+        INT,
+
+        /**
+         * 64 bit integers
+         */
+        LONG,
+
+        /**
+         * 64 bit floating point numbers
+         */
+        DOUBLE,
+
+        /**
+         * dictionary encoded strings
+         */
+        STRING
+
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return the row count
+     */
+    int getRowCount();
+
+    /**
+     * Returns the number of columns.
+     *
+     * @return the column count
+     */
+    int getColumnCount();
+
+    /**
+     * Returns the label of a column.
+     *
+     * @param column the column index
+     * @return the column label
+     */
+    String getColumnLabel(int column);
+
+    /**
+     * Returns the index of a column. The label is matched case insensitively.
+     *
+     * @param columnLabel the column label
+     * @return the column index or -1 if there is no such column
+     */
+    int getColumnIndex(String columnLabel);
+
+    /**
+     * Returns the storage type of a column.
+     *
+     * @param column the column index
+     * @return the column type
+     */
+    ColumnType getColumnType(int column);
+
+    /**
+     * Checks if a value is NULL.
+     *
+     * @param row    the row index
+     * @param column the column index
+     * @return true if the value is NULL
+     */
+    boolean isNull(int row, int column);
+
+    /**
+     * Returns the value of an INT column.
+     *
+     * @param row    the row index
+     * @param column the column index
+     * @return the value, 0 if NULL
+     */
+    int getInt(int row, int column);
+
+    /**
+     * Returns the value of an INT or LONG column.
+     *
+     * @param row    the row index
+     * @param column the column index
+     * @return the value, 0 if NULL
+     */
+    long getLong(int row, int column);
+
+    /**
+     * Returns the value of a numeric column.
+     *
+     * @param row    the row index
+     * @param column the column index
+     * @return the value, 0 if NULL
+     */
+    double getDouble(int row, int column);
+
+    /**
+     * Returns a value as string.
+     *
+     * @param row    the row index
+     * @param column the column index
+     * @return the value, <code>null</code> if NULL
+     */
+    String getString(int row, int column);
+
+    /**
+     * Returns a value as object: an Integer, Long, Double or String depending on the column type.
+     *
+     * @param row    the row index
+     * @param column the column index
+     * @return the value, <code>null</code> if NULL
+     */
+    Object getValue(int row, int column);
+
+}
@@ -2,12 +2,21 @@ package org.dbtools;
 
 import org.apache.log4j.Logger;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * A singleton to provide global access to the configuration properties.
  * <p/>
+ * The properties are read once into an immutable map. Numeric and boolean
+ * values are parsed on first access and kept, so frequently read values do
+ * not have to be parsed again. Setting a property replaces the map.
+ * <p/>
  * Created by IntelliJ IDEA.<br>
  * User: Michael Mueller<br>
  * Date: 12-Sep-2007<br>
@@ -16,19 +25,19 @@ import java.io.IOException;
 public class Configuration {
 
     /**
-     * the singleton instance
+     * the log4j logger
      */
-    private static Configuration ourInstance;
+    private static Logger logger = Logger.getLogger(Configuration.class);
 
     /**
      * the configuration properties
      */
-    private static Properties properties = new Properties();
+    private volatile Map<String, String> properties;
 
     /**
-     * the log4j logger
+     * the parsed numeric and boolean property values
      */
-    private static Logger logger = Logger.getLogger(Configuration.class);
+    private Map<String, Object> typedValues = new ConcurrentHashMap<String, Object>();
 
     /**
      * Returns the Configuration instance.
@@ -36,10 +45,7 @@ public class Configuration {
      * @return the Configuration
      */
     public static Configuration getInstance() {
-        if (ourInstance == null)
-            ourInstance = new Configuration();
-
-        return ourInstance;
+        return Holder.instance;
     }
 
     /**
@@ -47,13 +53,29 @@ public class Configuration {
      */
     private Configuration() {
 
+        Properties loaded = new Properties();
+
         //load properties
+        InputStream in = this.getClass().getResourceAsStream("/dbtools.properties");
         try {
-            properties.load(this.getClass().getResourceAsStream("/dbtools.properties"));
+            loaded.load(in);
         } catch (IOException e) {
             logger.error(e);
+        } finally {
+            try {
+                if (in != null)
+                    in.close();
+            } catch (IOException e) {
+                logger.warn(e);
+            }
         }
 
+        Map<String, String> map = new HashMap<String, String>();
+        for (String key : loaded.stringPropertyNames())
+            map.put(key, loaded.getProperty(key));
+
+        properties = Collections.unmodifiableMap(map);
+
     }
 
     /**
@@ -63,7 +85,103 @@ public class Configuration {
      * @return the property value
      */
     public String getProperty(String key) {
-        return properties.getProperty(key);
+        return properties.get(key);
+    }
+
+    /**
+     * Returns an integer property value.
+     *
+     * @param key the property key
+     * @return the property value
+     * @throws IllegalArgumentException if the property is not set
+     * @throws NumberFormatException    if the property value is not an integer
+     */
+    public int getIntProperty(String key) {
+
+        Object retVal = typedValues.get(key);
+        if (!(retVal instanceof Integer)) {
+            retVal = Integer.valueOf(getRequiredProperty(key).trim());
+            typedValues.put(key, retVal);
+        }
+
+        return (Integer) retVal;
+
+    }
+
+    /**
+     * Returns a long integer property value.
+     *
+     * @param key the property key
+     * @return the property value
+     * @throws IllegalArgumentException if the property is not set
+     * @throws NumberFormatException    if the property value is not an integer
+     */
+    public long getLongProperty(String key) {
+
+        Object retVal = typedValues.get(key);
+        if (!(retVal instanceof Long)) {
+            retVal = Long.valueOf(getRequiredProperty(key).trim());
+            typedValues.put(key, retVal);
+        }
+
+        return (Long) retVal;
+
+    }
+
+    /**
+     * Returns a floating point property value.
+     *
+     * @param key the property key
+     * @return the property value
+     * @throws IllegalArgumentException if the property is not set
+     * @throws NumberFormatException    if the property value is not a number
+     */
+    public double getDoubleProperty(String key) {
+
+        Object retVal = typedValues.get(key);
+        if (!(retVal instanceof Double)) {
+            retVal = Double.valueOf(getRequiredProperty(key).trim());
+            typedValues.put(key, retVal);
+        }
+
+        return (Double) retVal;
+
+    }
+
+    /**
+     * Returns a boolean property value.
+     *
+     * @param key the property key
+     * @return true if the property value is 'true' (ignoring case), false otherwise or if the property is not set
+     */
+    public boolean getBooleanProperty(String key) {
+
+        Object retVal = typedValues.get(key);
+        if (!(retVal instanceof Boolean)) {
+            String value = getProperty(key);
+            retVal = value != null && Boolean.valueOf(value.trim());
+            typedValues.put(key, retVal);
+        }
+
+        return (Boolean) retVal;
+
+    }
+
+    /**
+     * Returns a property value that must be set.
+     *
+     * @param key the property key
+     * @return the property value
+     * @throws IllegalArgumentException if the property is not set
+     */
+    private String getRequiredProperty(String key) {
+
+        String retVal = getProperty(key);
+        if (retVal == null)
+            throw new IllegalArgumentException("Configuration property '" + key + "' is not set.");
+
+        return retVal;
+
     }
 
     /**
@@ -73,9 +191,25 @@ public class Configuration {
      * @param value the property value
      * @return the previous value of the property, null if the property wasn't set before
      */
-    public String setProperty(String key, String value) {
+    public synchronized String setProperty(String key, String value) {
+
+        Map<String, String> map = new HashMap<String, String>(properties);
+        String retVal = map.put(key, value);
+
+        properties = Collections.unmodifiableMap(map);
+        typedValues.remove(key);
+
+        return retVal;
+
+    }
+
+    /**
+     * Holds the singleton instance, created when the class is first accessed.
+     */
+    private static class Holder {
 
-        return (String) properties.setProperty(key, value);
+        private static final Configuration instance = new Configuration();
 
     }
+
 }
@@ -0,0 +1,1040 @@
+package org.dbtools;
+
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of JDBC connections to a database.
+ * <p/>
+ * A pool is attached to a database with {@link AbstractDatabase#setConnectionPool(ConnectionPool)},
+ * after which <code>getConnection()</code> borrows connections from the pool and
+ * <code>Connection.close()</code> returns them. Connections established with an
+ * explicit user name and password are not pooled. A pool may be shared by Database
+ * objects of different schemas on the same server: a connection is switched to the
+ * schema of the borrowing Database object with <code>Connection.setCatalog</code>
+ * when it was last used with another schema, which requires a database that
+ * organises schemas as catalogs (e.g. MySQL). The pool holds at most as many
+ * connections as set by the configuration property <code>dbtools.pool.max.size</code>,
+ * callers wait up to <code>dbtools.pool.wait.timeout</code> milliseconds for a
+ * connection to be returned if all are in use.
+ * <p/>
+ * Connections are established on demand. To avoid paying the connection setup
+ * latency on the first requests, {@link #warmUp(String...)} opens the minimum
+ * number of connections (<code>dbtools.pool.min.size</code>) in parallel, validates
+ * them and optionally runs warm-up queries on each. Pools of several databases
+ * can be warmed up together with {@link #warmUp(List, int, String...)}.
+ * <p/>
+ * Servers close connections that have been idle for longer than their idle
+ * timeout (e.g. MySQL's <code>wait_timeout</code>). Once {@link #startMaintenance()}
+ * has been called, a background thread shared by all pools periodically runs
+ * {@link #maintain()}, which pings connections idle for longer than
+ * <code>dbtools.pool.keepalive.interval</code> milliseconds, closes connections
+ * idle for longer than <code>dbtools.pool.max.idle.time</code> (keeping the minimum
+ * number) or open for longer than <code>dbtools.pool.max.lifetime</code>, and
+ * replaces them up to the minimum size, so that stale connections are rarely
+ * found on the request path. A borrowed connection idle for longer than the
+ * keep-alive interval is validated before it is handed out.
+ */
+public class ConnectionPool {
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(ConnectionPool.class);
+
+    /**
+     * the thread maintaining the idle connections of all pools, created on first use
+     */
+    private static ScheduledExecutorService maintainer;
+
+    /**
+     * the database to establish connections to
+     */
+    private AbstractDatabase database;
+
+    /**
+     * the number of connections opened by a warm-up
+     */
+    private int minSize;
+
+    /**
+     * the maximum number of connections
+     */
+    private int maxSize;
+
+    /**
+     * the time to wait for a connection if all are in use (in milliseconds)
+     */
+    private long waitTimeout = Configuration.getInstance().getLongProperty("dbtools.pool.wait.timeout");
+
+    /**
+     * the time after which an idle connection is pinged (in milliseconds)
+     */
+    private long keepAliveInterval = Configuration.getInstance().getLongProperty("dbtools.pool.keepalive.interval");
+
+    /**
+     * the time after which idle connections beyond the minimum are closed (in milliseconds)
+     */
+    private long maxIdleTime = Configuration.getInstance().getLongProperty("dbtools.pool.max.idle.time");
+
+    /**
+     * the time after which a connection is closed once idle (in milliseconds)
+     */
+    private long maxLifetime = Configuration.getInstance().getLongProperty("dbtools.pool.max.lifetime");
+
+    /**
+     * true once the idle timeout of the server has been read
+     */
+    private volatile boolean serverIdleTimeoutRead;
+
+    /**
+     * the scheduled maintenance, <code>null</code> if not maintained
+     */
+    private ScheduledFuture<?> maintenance;
+
+    /**
+     * the idle connections, most recently returned first
+     */
+    private LinkedList<PooledEntry> idle = new LinkedList<PooledEntry>();
+
+    /**
+     * the number of connections open or being opened
+     */
+    private int size;
+
+    /**
+     * true once the pool has been closed
+     */
+    private boolean closed;
+
+    /**
+     * Constructs a pool with the minimum and maximum size set by the configuration properties
+     * <code>dbtools.pool.min.size</code> and <code>dbtools.pool.max.size</code>.
+     *
+     * @param database the database to establish connections to
+     */
+    public ConnectionPool(AbstractDatabase database) {
+        this(database,
+                Configuration.getInstance().getIntProperty("dbtools.pool.min.size"),
+                Configuration.getInstance().getIntProperty("dbtools.pool.max.size"));
+    }
+
+    /**
+     * Constructs a pool.
+     *
+     * @param database the database to establish connections to
+     * @param minSize  the number of connections opened by a warm-up
+     * @param maxSize  the maximum number of connections
+     */
+    public ConnectionPool(AbstractDatabase database, int minSize, int maxSize) {
+
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+            throw new IllegalArgumentException("Invalid pool size: minimum " + minSize + ", maximum " + maxSize + ".");
+
+        this.database = database;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+
+    }
+
+    /**
+     * Borrows a connection to the schema of the pool's database from the pool, establishing
+     * a new connection if none is idle and the pool is not full. Closing the returned
+     * connection returns it to the pool.
+     *
+     * @return the connection
+     * @throws SQLException if the pool is closed, no connection is returned within the
+     *                      wait timeout or an exception occurs while connecting
+     */
+    public Connection getConnection() throws SQLException {
+        return getConnection(database.getSchema());
+    }
+
+    /**
+     * Borrows a connection to a schema from the pool, establishing a new connection if
+     * none is idle and the pool is not full. Closing the returned connection returns
+     * it to the pool.
+     *
+     * @param schema the schema, <code>null</code> for the schema the connection was last used with
+     * @return the connection
+     * @throws SQLException if the pool is closed, no connection is returned within the
+     *                      wait timeout or an exception occurs while connecting or
+     *                      switching the schema
+     */
+    public Connection getConnection(String schema) throws SQLException {
+
+        long deadline = System.currentTimeMillis() + waitTimeout;
+
+        while (true) {
+
+            PooledEntry entry = null;
+
+            synchronized (this) {
+
+                while (true) {
+
+                    if (closed)
+                        throw new SQLException("Connection pool of " + database.getUrl() + " is closed.");
+
+                    if (!idle.isEmpty()) {
+                        entry = idle.removeFirst();
+                        break;
+                    }
+
+                    if (size < maxSize) {
+                        size++;
+                        break;
+                    }
+
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0)
+                        throw new SQLException("Timed out after " + waitTimeout + " ms waiting for a connection to " + database.getUrl() + ".");
+
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a connection to " + database.getUrl() + ".");
+                    }
+
+                }
+
+            }
+
+            if (entry == null) {
+
+                //connect outside the lock, connecting may take long
+                try {
+                    entry = open();
+                } catch (SQLException e) {
+                    discarded();
+                    throw e;
+                } catch (RuntimeException e) {
+                    discarded();
+                    throw e;
+                }
+
+            } else if (!isUsable(entry, System.currentTimeMillis())) {
+
+                close(entry.connection);
+                discarded();
+                continue;
+
+            }
+
+            try {
+                useSchema(entry, schema);
+            } catch (SQLException e) {
+                close(entry.connection);
+                discarded();
+                throw e;
+            }
+
+            return PooledConnection.wrap(entry, this);
+
+        }
+
+    }
+
+    /**
+     * Switches a connection to a schema unless it was last used with that schema.
+     *
+     * @param entry  the pooled connection
+     * @param schema the schema, <code>null</code> to keep the schema
+     * @throws SQLException if an exception occurs while switching the schema
+     */
+    private void useSchema(PooledEntry entry, String schema) throws SQLException {
+
+        if (schema != null && !schema.equals(entry.schema)) {
+            entry.connection.setCatalog(schema);
+            entry.schema = schema;
+        }
+
+    }
+
+    /**
+     * Checks if an idle connection can be handed out. Connections past their lifetime
+     * are not usable, connections idle for longer than the keep-alive interval are validated.
+     *
+     * @param entry the idle connection
+     * @param now   the current time
+     * @return true if the connection is usable
+     */
+    private boolean isUsable(PooledEntry entry, long now) {
+
+        if (now - entry.created >= maxLifetime)
+            return false;
+
+        return now - entry.getLastActive() < keepAliveInterval || validate(entry.connection);
+
+    }
+
+    /**
+     * Establishes a new connection. The keep-alive interval is shortened to half the
+     * idle timeout of the server when the first connection is established.
+     *
+     * @return the connection
+     * @throws SQLException if an exception occurs while connecting
+     */
+    private PooledEntry open() throws SQLException {
+
+        Connection connection = database.openConnection();
+
+        if (!serverIdleTimeoutRead) {
+
+            serverIdleTimeoutRead = true;
+
+            try {
+                long serverIdleTimeout = database.getServerIdleTimeout(connection);
+                if (serverIdleTimeout > 0 && serverIdleTimeout / 2 < keepAliveInterval) {
+                    keepAliveInterval = serverIdleTimeout / 2;
+                    logger.info("Keep-alive interval of connections to " + database.getUrl() + " set to " + keepAliveInterval + " ms.");
+                }
+            } catch (SQLException e) {
+                logger.debug("Could not read idle timeout of " + database.getUrl() + ".", e);
+            }
+
+        }
+
+        PooledEntry retVal = new PooledEntry(connection);
+        retVal.schema = database.getSchema();
+
+        return retVal;
+
+    }
+
+    /**
+     * Opens the minimum number of connections in parallel, validates them and runs
+     * the warm-up queries on each. Connections already idle in the pool count towards
+     * the minimum.
+     *
+     * @param warmUpQueries queries run on each new connection, e.g. to load the server caches
+     * @return the warm-up report
+     */
+    public WarmUpReport warmUp(String... warmUpQueries) {
+        return warmUp(Collections.singletonList(this),
+                Configuration.getInstance().getIntProperty("dbtools.pool.warmup.threads"),
+                warmUpQueries).get(0);
+    }
+
+    /**
+     * Warms up several pools at the same time, opening the minimum number of connections
+     * of all pools in parallel.
+     *
+     * @param pools         the pools
+     * @param threads       the number of connections opened at the same time
+     * @param warmUpQueries queries run on each new connection
+     * @return the warm-up reports in the order of the pools
+     * @see #warmUp(String...)
+     */
+    public static List<WarmUpReport> warmUp(List<ConnectionPool> pools, int threads, final String... warmUpQueries) {
+
+        long start = System.currentTimeMillis();
+
+        //reserve the places of the new connections first so that the total is known
+        int[] missing = new int[pools.size()];
+        int total = 0;
+        for (int i = 0; i < pools.size(); i++) {
+            missing[i] = pools.get(i).reserve();
+            total += missing[i];
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, total)));
+        List<List<Future<PooledEntry>>> futures = new ArrayList<List<Future<PooledEntry>>>();
+        List<WarmUpReport> retVal = new ArrayList<WarmUpReport>();
+
+        try {
+
+            for (int i = 0; i < pools.size(); i++) {
+
+                final ConnectionPool pool = pools.get(i);
+                List<Future<PooledEntry>> poolFutures = new ArrayList<Future<PooledEntry>>(missing[i]);
+                futures.add(poolFutures);
+
+                for (int c = 0; c < missing[i]; c++) {
+                    poolFutures.add(executor.submit(new Callable<PooledEntry>() {
+                        public PooledEntry call() throws SQLException {
+                            return pool.openWarmConnection(warmUpQueries);
+                        }
+                    }));
+                }
+
+            }
+
+            for (int i = 0; i < pools.size(); i++) {
+
+                ConnectionPool pool = pools.get(i);
+                WarmUpReport report = new WarmUpReport(pool.database.getUrl(), pool.minSize);
+
+                for (Future<PooledEntry> future : futures.get(i)) {
+                    try {
+                        pool.returned(future.get());
+                        report.opened++;
+                    } catch (ExecutionException e) {
+                        pool.discarded();
+                        report.failures.add(e.getCause());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        pool.discarded();
+                        report.failures.add(e);
+                    }
+                }
+
+                report.idle = pool.getIdleCount();
+                report.elapsedTime = System.currentTimeMillis() - start;
+                retVal.add(report);
+
+                if (report.isReady())
+                    logger.info(report);
+                else
+                    logger.warn(report, report.failures.isEmpty() ? null : report.failures.get(0));
+
+            }
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Reserves the connections missing to the minimum size for a warm-up.
+     *
+     * @return the number of connections reserved
+     */
+    private synchronized int reserve() {
+
+        int retVal = closed ? 0 : Math.max(0, Math.min(minSize - idle.size(), maxSize - size));
+        size += retVal;
+
+        return retVal;
+
+    }
+
+    /**
+     * Opens, validates and warms up a connection.
+     *
+     * @param warmUpQueries the queries run on the connection
+     * @return the pooled connection
+     * @throws SQLException if the connection cannot be established or is not valid
+     */
+    private PooledEntry openWarmConnection(String... warmUpQueries) throws SQLException {
+
+        PooledEntry retVal = open();
+
+        try {
+
+            if (!validate(retVal.connection))
+                throw new SQLException("Connection to " + database.getUrl() + " failed validation.");
+
+            Statement statement = retVal.connection.createStatement();
+            try {
+                for (String query : warmUpQueries)
+                    statement.execute(query);
+            } finally {
+                statement.close();
+            }
+
+        } catch (SQLException e) {
+            close(retVal.connection);
+            throw e;
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Checks if a connection is usable by running the validation query of the database.
+     *
+     * @param connection the connection
+     * @return true if the query succeeded
+     */
+    boolean validate(Connection connection) {
+
+        try {
+
+            Statement statement = connection.createStatement();
+            try {
+                statement.execute(database.getValidationQuery());
+            } finally {
+                statement.close();
+            }
+
+            return true;
+
+        } catch (SQLException e) {
+            logger.debug("Validation of connection to " + database.getUrl() + " failed.", e);
+            return false;
+        }
+
+    }
+
+    /**
+     * Takes back a connection, closing it if the pool has been closed or the
+     * connection is past its lifetime.
+     *
+     * @param entry the pooled connection
+     */
+    private synchronized void returned(PooledEntry entry) {
+
+        long now = System.currentTimeMillis();
+
+        if (closed || now - entry.created >= maxLifetime) {
+            size--;
+            close(entry.connection);
+        } else {
+            entry.lastUsed = now;
+            idle.addFirst(entry);
+        }
+
+        notifyAll();
+
+    }
+
+    /**
+     * Maintains the idle connections once: closes connections past their lifetime and
+     * connections beyond the minimum idle for longer than the maximum idle time, pings
+     * connections idle for longer than the keep-alive interval and opens new connections
+     * up to the minimum size. Connections are pinged and opened without holding the
+     * pool lock, so requests are not blocked.
+     */
+    public void maintain() {
+
+        long now = System.currentTimeMillis();
+        List<PooledEntry> evicted = new ArrayList<PooledEntry>();
+        List<PooledEntry> pinged = new ArrayList<PooledEntry>();
+
+        synchronized (this) {
+
+            if (closed)
+                return;
+
+            //oldest first
+            for (Iterator<PooledEntry> i = idle.descendingIterator(); i.hasNext(); ) {
+
+                PooledEntry entry = i.next();
+
+                if (now - entry.created >= maxLifetime
+                        || (now - entry.lastUsed >= maxIdleTime && size - evicted.size() > minSize)) {
+                    evicted.add(entry);
+                    i.remove();
+                } else if (now - entry.getLastActive() >= keepAliveInterval) {
+                    //pinged connections stay counted like borrowed ones
+                    pinged.add(entry);
+                    i.remove();
+                }
+
+            }
+
+            size -= evicted.size();
+            notifyAll();
+
+        }
+
+        for (PooledEntry entry : evicted)
+            close(entry.connection);
+
+        for (PooledEntry entry : pinged) {
+
+            if (validate(entry.connection)) {
+                putBack(entry);
+            } else {
+                close(entry.connection);
+                discarded();
+            }
+
+        }
+
+        int missing = reserve();
+        for (int i = 0; i < missing; i++) {
+            try {
+                returned(open());
+            } catch (SQLException e) {
+                logger.warn("Could not replace connection to " + database.getUrl() + ".", e);
+                for (int j = i; j < missing; j++)
+                    discarded();
+                break;
+            }
+        }
+
+        if (evicted.size() > 0 || pinged.size() > 0 || missing > 0)
+            logger.debug("Maintained connections to " + database.getUrl() + ": " + evicted.size() + " evicted, "
+                    + pinged.size() + " pinged, " + missing + " opened.");
+
+    }
+
+    /**
+     * Puts a pinged connection back at the end of the idle list. The ping keeps
+     * the server from closing the connection, but does not count as use.
+     *
+     * @param entry the pooled connection
+     */
+    private synchronized void putBack(PooledEntry entry) {
+
+        if (closed) {
+            size--;
+            close(entry.connection);
+            notifyAll();
+            return;
+        }
+
+        entry.lastPinged = System.currentTimeMillis();
+        idle.addLast(entry);
+        notifyAll();
+
+    }
+
+    /**
+     * Starts maintaining the idle connections in the background, every
+     * <code>dbtools.pool.maintenance.interval</code> milliseconds.
+     */
+    public synchronized void startMaintenance() {
+
+        if (maintenance != null || closed)
+            return;
+
+        long interval = Configuration.getInstance().getLongProperty("dbtools.pool.maintenance.interval");
+        maintenance = getMaintainer().scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    maintain();
+                } catch (RuntimeException e) {
+                    logger.error("Exception while maintaining connections to " + database.getUrl() + ".", e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Stops maintaining the idle connections.
+     */
+    public synchronized void stopMaintenance() {
+
+        if (maintenance != null) {
+            maintenance.cancel(false);
+            maintenance = null;
+        }
+
+    }
+
+    private static synchronized ScheduledExecutorService getMaintainer() {
+
+        if (maintainer == null) {
+            maintainer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread retVal = new Thread(runnable, "dbtools-pool-maintainer");
+                    retVal.setDaemon(true);
+                    return retVal;
+                }
+            });
+        }
+
+        return maintainer;
+
+    }
+
+    /**
+     * Frees the place of a connection that was closed or could not be established.
+     */
+    synchronized void discarded() {
+        size--;
+        notifyAll();
+    }
+
+    /**
+     * Closes the pool and all idle connections. Connections in use are closed when they are returned.
+     */
+    public synchronized void close() {
+
+        closed = true;
+        stopMaintenance();
+
+        for (PooledEntry entry : idle)
+            close(entry.connection);
+        size -= idle.size();
+        idle.clear();
+
+        notifyAll();
+
+    }
+
+    private static void close(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            //ignore
+        }
+    }
+
+    ///////////////////
+    //getters & setters
+
+    /**
+     * Returns the database the pool establishes connections to.
+     *
+     * @return the database
+     */
+    public AbstractDatabase getDatabase() {
+        return database;
+    }
+
+    /**
+     * Returns the number of connections opened by a warm-up.
+     *
+     * @return the minimum size
+     */
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * Returns the maximum number of connections.
+     *
+     * @return the maximum size
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of open connections, idle or in use.
+     *
+     * @return the pool size
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of idle connections.
+     *
+     * @return the idle count
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Returns the time to wait for a connection if all are in use.
+     *
+     * @return the wait timeout in milliseconds
+     */
+    public long getWaitTimeout() {
+        return waitTimeout;
+    }
+
+    /**
+     * Sets the time to wait for a connection if all are in use.
+     *
+     * @param waitTimeout the wait timeout in milliseconds
+     */
+    public void setWaitTimeout(long waitTimeout) {
+        this.waitTimeout = waitTimeout;
+    }
+
+    /**
+     * Returns the time after which an idle connection is pinged.
+     *
+     * @return the keep-alive interval in milliseconds
+     */
+    public long getKeepAliveInterval() {
+        return keepAliveInterval;
+    }
+
+    /**
+     * Sets the time after which an idle connection is pinged. Note that the interval
+     * is shortened to half the idle timeout of the server when the first connection
+     * is established.
+     *
+     * @param keepAliveInterval the keep-alive interval in milliseconds
+     */
+    public void setKeepAliveInterval(long keepAliveInterval) {
+        this.keepAliveInterval = keepAliveInterval;
+    }
+
+    /**
+     * Returns the time after which idle connections beyond the minimum are closed.
+     *
+     * @return the maximum idle time in milliseconds
+     */
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    /**
+     * Sets the time after which idle connections beyond the minimum are closed.
+     *
+     * @param maxIdleTime the maximum idle time in milliseconds
+     */
+    public void setMaxIdleTime(long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    /**
+     * Returns the time after which a connection is closed once idle.
+     *
+     * @return the maximum lifetime in milliseconds
+     */
+    public long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    /**
+     * Sets the time after which a connection is closed once idle.
+     *
+     * @param maxLifetime the maximum lifetime in milliseconds
+     */
+    public void setMaxLifetime(long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+    }
+
+    /**
+     * Checks if the pool has been closed.
+     *
+     * @return true if closed
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * The outcome of a warm-up of a pool.
+     */
+    public static class WarmUpReport {
+
+        private String url;
+
+        private int minSize;
+
+        private int opened;
+
+        private int idle;
+
+        private long elapsedTime;
+
+        private List<Throwable> failures = new ArrayList<Throwable>();
+
+        private WarmUpReport(String url, int minSize) {
+            this.url = url;
+            this.minSize = minSize;
+        }
+
+        /**
+         * Returns the connection URL of the database.
+         *
+         * @return the URL
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * Returns the number of connections opened by the warm-up.
+         *
+         * @return the number of new connections
+         */
+        public int getOpened() {
+            return opened;
+        }
+
+        /**
+         * Returns the number of idle connections after the warm-up.
+         *
+         * @return the idle count
+         */
+        public int getIdleCount() {
+            return idle;
+        }
+
+        /**
+         * Returns the time from the start of the warm-up until the pool was ready.
+         *
+         * @return the elapsed time in milliseconds
+         */
+        public long getElapsedTime() {
+            return elapsedTime;
+        }
+
+        /**
+         * Returns the exceptions of connections that could not be established or validated.
+         *
+         * @return the failures
+         */
+        public List<Throwable> getFailures() {
+            return failures;
+        }
+
+        /**
+         * Checks if the pool holds the minimum number of idle connections.
+         *
+         * @return true if the pool is ready
+         */
+        public boolean isReady() {
+            return idle >= minSize;
+        }
+
+        public String toString() {
+            return "Connection pool of " + url + (isReady() ? " ready" : " not ready") + ": " + idle + " of "
+                    + minSize + " connections idle, " + opened + " opened, " + failures.size() + " failed in "
+                    + elapsedTime + " ms.";
+        }
+
+    }
+
+    /**
+     * Wraps pooled connections in dynamic proxies that return the connection
+     * to the pool when closed.
+     */
+    private static class PooledConnection implements InvocationHandler {
+
+        private PooledEntry entry;
+
+        private Connection connection;
+
+        private ConnectionPool pool;
+
+        private boolean closed;
+
+        private PooledConnection(PooledEntry entry, ConnectionPool pool) {
+            this.entry = entry;
+            this.connection = entry.connection;
+            this.pool = pool;
+        }
+
+        private static Connection wrap(PooledEntry entry, ConnectionPool pool) {
+            return (Connection) Proxy.newProxyInstance(
+                    PooledConnection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new PooledConnection(entry, pool));
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            String name = method.getName();
+
+            if (name.equals("close")) {
+                release();
+                return null;
+            }
+
+            if (name.equals("isClosed")) {
+                synchronized (this) {
+                    if (closed)
+                        return Boolean.TRUE;
+                }
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString")) {
+                return "Pooled " + connection;
+            } else {
+                synchronized (this) {
+                    if (closed)
+                        throw new SQLException("Connection has been returned to the pool.");
+                }
+            }
+
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+
+        }
+
+        /**
+         * Resets the connection and returns it to the pool, or discards it if it cannot be reset.
+         */
+        private void release() {
+
+            synchronized (this) {
+                if (closed)
+                    return;
+                closed = true;
+            }
+
+            try {
+
+                if (connection.isClosed()) {
+                    pool.discarded();
+                    return;
+                }
+
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                connection.clearWarnings();
+
+                //the borrower may have switched the schema
+                String catalog = connection.getCatalog();
+                if (catalog != null)
+                    entry.schema = catalog;
+
+                pool.returned(entry);
+
+            } catch (SQLException e) {
+                logger.debug("Discarding pooled connection that could not be reset.", e);
+                close(connection);
+                pool.discarded();
+            }
+
+        }
+
+    }
+
+    /**
+     * A physical connection held by the pool.
+     */
+    private static class PooledEntry {
+
+        private Connection connection;
+
+        private long created = System.currentTimeMillis();
+
+        private long lastUsed = created;
+
+        private long lastPinged;
+
+        /**
+         * the schema the connection was last used with
+         */
+        private String schema;
+
+        private PooledEntry(Connection connection) {
+            this.connection = connection;
+        }
+
+        private long getLastActive() {
+            return Math.max(lastUsed, lastPinged);
+        }
+
+    }
+
+}
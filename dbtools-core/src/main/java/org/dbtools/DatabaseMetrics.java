@@ -0,0 +1,474 @@
+package org.dbtools;
+
+import org.apache.log4j.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.JMException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection and statement metrics of a {@link Database}.
+ * <p/>
+ * Metrics objects are registered with the platform MBean server under the name
+ * <code>org.dbtools:type=Database,vendor=&lt;vendor&gt;,host=&lt;host&gt;,schema=&lt;schema&gt;</code>.
+ * Database objects with the same vendor, host and schema share one metrics object.
+ */
+public class DatabaseMetrics implements DatabaseMetricsMBean {
+
+    /**
+     * the JMX domain of the metrics MBeans
+     */
+    private static final String JMX_DOMAIN = "org.dbtools";
+
+    /**
+     * the metrics objects by MBean name
+     */
+    private static Map<ObjectName, DatabaseMetrics> registeredMetrics = new HashMap<ObjectName, DatabaseMetrics>();
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(DatabaseMetrics.class);
+
+    /**
+     * the MBean name
+     */
+    private ObjectName name;
+
+    private AtomicLong connectionsOpened = new AtomicLong();
+
+    private AtomicLong connectionsClosed = new AtomicLong();
+
+    private AtomicLong connectFailures = new AtomicLong();
+
+    private AtomicLong activeConnections = new AtomicLong();
+
+    private AtomicLong statementsExecuted = new AtomicLong();
+
+    private AtomicLong statementFailures = new AtomicLong();
+
+    /**
+     * the connect latencies
+     */
+    private LatencyHistogram connectLatencies = new LatencyHistogram();
+
+    /**
+     * the statement execution latencies
+     */
+    private LatencyHistogram executionLatencies = new LatencyHistogram();
+
+    /**
+     * the fetch latencies of tuned result sets
+     */
+    private LatencyHistogram fetchLatencies = new LatencyHistogram();
+
+    private AtomicLong fetchSizesChosen = new AtomicLong();
+
+    private AtomicLong totalFetchSize = new AtomicLong();
+
+    private volatile int lastFetchSize;
+
+    private volatile double lastRowBytes;
+
+    private volatile double roundTripMillis = Double.NaN;
+
+    private volatile double bandwidth = Double.NaN;
+
+    /**
+     * Constructs a metrics object.
+     *
+     * @param name the MBean name
+     */
+    private DatabaseMetrics(ObjectName name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the metrics object for a database, creating and registering it with
+     * the platform MBean server if required.
+     *
+     * @param database the database
+     * @return the metrics object
+     * @throws DatabaseException if the MBean name cannot be created
+     */
+    public static DatabaseMetrics getMetrics(AbstractDatabase database) throws DatabaseException {
+
+        ObjectName name = createObjectName(database);
+
+        synchronized (registeredMetrics) {
+
+            DatabaseMetrics retVal = registeredMetrics.get(name);
+
+            if (retVal == null) {
+
+                retVal = new DatabaseMetrics(name);
+                registeredMetrics.put(name, retVal);
+
+                try {
+                    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                    if (!server.isRegistered(name))
+                        server.registerMBean(retVal, name);
+                } catch (JMException e) {
+                    //metrics are still collected, they are just not visible via JMX
+                    logger.warn("Unable to register MBean '" + name + "'.", e);
+                }
+
+            }
+
+            return retVal;
+
+        }
+
+    }
+
+    /**
+     * Unregisters the metrics object from the platform MBean server. Database objects
+     * sharing it keep recording into it, Database objects enabling metrics afterwards
+     * get a new metrics object.
+     */
+    public void unregister() {
+
+        synchronized (registeredMetrics) {
+
+            if (registeredMetrics.get(name) != this)
+                return;
+
+            registeredMetrics.remove(name);
+
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                if (server.isRegistered(name))
+                    server.unregisterMBean(name);
+            } catch (JMException e) {
+                logger.warn("Unable to unregister MBean '" + name + "'.", e);
+            }
+
+        }
+
+    }
+
+    /**
+     * Creates the MBean name for a database.
+     *
+     * @param database the database
+     * @return the MBean name
+     * @throws DatabaseException if the name is malformed
+     */
+    private static ObjectName createObjectName(AbstractDatabase database) throws DatabaseException {
+
+        String name = JMX_DOMAIN + ":type=Database"
+                + ",vendor=" + ObjectName.quote(String.valueOf(database.getVendor()))
+                + ",host=" + ObjectName.quote(String.valueOf(database.getHost()))
+                + ",schema=" + ObjectName.quote(String.valueOf(database.getSchema()));
+
+        try {
+            return new ObjectName(name);
+        } catch (JMException e) {
+            throw new DatabaseException("Unable to create MBean name '" + name + "'.", e);
+        }
+
+    }
+
+    /**
+     * Returns the MBean name.
+     *
+     * @return the MBean name
+     */
+    public ObjectName getName() {
+        return name;
+    }
+
+    ///////////////////
+    //recording methods
+
+    /**
+     * Records a successfully established connection.
+     *
+     * @param nanos the time taken to connect in nanoseconds
+     */
+    void connectionOpened(long nanos) {
+        connectionsOpened.incrementAndGet();
+        connectLatencies.record(nanos);
+    }
+
+    /**
+     * Records a failed connection attempt.
+     */
+    void connectFailed() {
+        connectFailures.incrementAndGet();
+    }
+
+    /**
+     * Records a closed connection.
+     */
+    void connectionClosed() {
+        connectionsClosed.incrementAndGet();
+    }
+
+    /**
+     * Records that a connection started executing a statement.
+     */
+    void connectionActivated() {
+        activeConnections.incrementAndGet();
+    }
+
+    /**
+     * Records that a connection finished executing a statement.
+     */
+    void connectionDeactivated() {
+        activeConnections.decrementAndGet();
+    }
+
+    /**
+     * Records a statement execution.
+     *
+     * @param nanos  the execution time in nanoseconds
+     * @param failed true if the execution threw an exception
+     */
+    void statementExecuted(long nanos, boolean failed) {
+        statementsExecuted.incrementAndGet();
+        if (failed)
+            statementFailures.incrementAndGet();
+        executionLatencies.record(nanos);
+    }
+
+    /**
+     * Records a fetch of a tuned result set (see {@link FetchSizeTuner}).
+     *
+     * @param nanos the fetch time in nanoseconds
+     */
+    void fetchCompleted(long nanos) {
+        fetchLatencies.record(nanos);
+    }
+
+    /**
+     * Records a fetch size chosen by a {@link FetchSizeTuner}.
+     *
+     * @param fetchSize       the fetch size
+     * @param rowBytes        the estimated row width in bytes
+     * @param roundTripMillis the estimated round-trip latency, <code>NaN</code> if not known
+     * @param bandwidth       the estimated bandwidth in bytes per second, <code>NaN</code> if not known
+     */
+    void fetchSizeChosen(int fetchSize, double rowBytes, double roundTripMillis, double bandwidth) {
+        fetchSizesChosen.incrementAndGet();
+        totalFetchSize.addAndGet(fetchSize);
+        this.lastFetchSize = fetchSize;
+        this.lastRowBytes = rowBytes;
+        this.roundTripMillis = roundTripMillis;
+        this.bandwidth = bandwidth;
+    }
+
+    /**
+     * Returns the fetch latency histogram of tuned result sets.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getFetchLatencies() {
+        return fetchLatencies;
+    }
+
+    /**
+     * Returns the statement execution latency histogram.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getExecutionLatencies() {
+        return executionLatencies;
+    }
+
+    /**
+     * Returns the connect latency histogram.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getConnectLatencies() {
+        return connectLatencies;
+    }
+
+    ///////////////////////////////////////////
+    //implementations of DatabaseMetricsMBean
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getConnectionsClosed() {
+        return connectionsClosed.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getConnectFailures() {
+        return connectFailures.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getOpenConnections() {
+        return Math.max(0, connectionsOpened.get() - connectionsClosed.get());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getIdleConnections() {
+        return Math.max(0, getOpenConnections() - getActiveConnections());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getMeanConnectMillis() {
+        return connectLatencies.getMeanMillis();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getMaxConnectMillis() {
+        return connectLatencies.getMaxMillis();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long[] getConnectHistogram() {
+        return connectLatencies.getBucketCounts();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getStatementsExecuted() {
+        return statementsExecuted.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getStatementFailures() {
+        return statementFailures.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getMeanExecutionMillis() {
+        return executionLatencies.getMeanMillis();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getMaxExecutionMillis() {
+        return executionLatencies.getMaxMillis();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getP95ExecutionMillis() {
+        return executionLatencies.getPercentileMillis(95);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long[] getExecutionHistogram() {
+        return executionLatencies.getBucketCounts();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getLastFetchSize() {
+        return lastFetchSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getMeanFetchSize() {
+        long count = fetchSizesChosen.get();
+        return count > 0 ? (double) totalFetchSize.get() / count : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getLastRowBytes() {
+        return lastRowBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getRoundTripMillis() {
+        return roundTripMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getMeanFetchMillis() {
+        return fetchLatencies.getMeanMillis();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long[] getFetchHistogram() {
+        return fetchLatencies.getBucketCounts();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long[] getHistogramBucketBounds() {
+        return LatencyHistogram.getBucketBounds();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset() {
+
+        //opened and closed counts are not reset to keep the open connection count right
+        connectFailures.set(0);
+        statementsExecuted.set(0);
+        statementFailures.set(0);
+        connectLatencies.reset();
+        executionLatencies.reset();
+        fetchLatencies.reset();
+        fetchSizesChosen.set(0);
+        totalFetchSize.set(0);
+
+    }
+
+}
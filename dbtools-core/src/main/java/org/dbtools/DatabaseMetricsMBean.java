@@ -0,0 +1,176 @@
+package org.dbtools;
+
+/**
+ * The JMX management interface of {@link DatabaseMetrics}.
+ */
+public interface DatabaseMetricsMBean {
+
+    /**
+     * Returns the number of connections established.
+     *
+     * @return the number of connections opened
+     */
+    long getConnectionsOpened();
+
+    /**
+     * Returns the number of connections closed.
+     *
+     * @return the number of connections closed
+     */
+    long getConnectionsClosed();
+
+    /**
+     * Returns the number of failed connection attempts.
+     *
+     * @return the number of failed connection attempts
+     */
+    long getConnectFailures();
+
+    /**
+     * Returns the number of connections currently open.
+     *
+     * @return the number of open connections
+     */
+    long getOpenConnections();
+
+    /**
+     * Returns the number of open connections currently executing a statement.
+     *
+     * @return the number of active connections
+     */
+    long getActiveConnections();
+
+    /**
+     * Returns the number of open connections currently not executing a statement.
+     *
+     * @return the number of idle connections
+     */
+    long getIdleConnections();
+
+    /**
+     * Returns the mean time taken to establish a connection.
+     *
+     * @return the mean connect latency in milliseconds
+     */
+    double getMeanConnectMillis();
+
+    /**
+     * Returns the longest time taken to establish a connection.
+     *
+     * @return the maximum connect latency in milliseconds
+     */
+    double getMaxConnectMillis();
+
+    /**
+     * Returns the connect latency histogram.
+     *
+     * @return the bucket counts, see {@link #getHistogramBucketBounds()}
+     */
+    long[] getConnectHistogram();
+
+    /**
+     * Returns the number of statements executed.
+     *
+     * @return the number of statement executions
+     */
+    long getStatementsExecuted();
+
+    /**
+     * Returns the number of statement executions that failed.
+     *
+     * @return the number of failed statement executions
+     */
+    long getStatementFailures();
+
+    /**
+     * Returns the mean statement execution time.
+     *
+     * @return the mean execution time in milliseconds
+     */
+    double getMeanExecutionMillis();
+
+    /**
+     * Returns the longest statement execution time.
+     *
+     * @return the maximum execution time in milliseconds
+     */
+    double getMaxExecutionMillis();
+
+    /**
+     * Returns the 95th percentile of the statement execution times.
+     *
+     * @return the 95th percentile estimate in milliseconds
+     */
+    double getP95ExecutionMillis();
+
+    /**
+     * Returns the statement execution time histogram.
+     *
+     * @return the bucket counts, see {@link #getHistogramBucketBounds()}
+     */
+    long[] getExecutionHistogram();
+
+    /**
+     * Returns the fetch size last chosen for a tuned result set.
+     *
+     * @return the fetch size in rows
+     */
+    int getLastFetchSize();
+
+    /**
+     * Returns the mean of the fetch sizes chosen for tuned result sets.
+     *
+     * @return the mean fetch size in rows
+     */
+    double getMeanFetchSize();
+
+    /**
+     * Returns the row width last estimated for a tuned result set.
+     *
+     * @return the row width in bytes
+     */
+    double getLastRowBytes();
+
+    /**
+     * Returns the estimated round-trip latency to the database host.
+     *
+     * @return the latency in milliseconds, <code>NaN</code> if not known yet
+     */
+    double getRoundTripMillis();
+
+    /**
+     * Returns the estimated bandwidth to the database host.
+     *
+     * @return the bandwidth in bytes per second, <code>NaN</code> if not known yet
+     */
+    double getBandwidth();
+
+    /**
+     * Returns the mean time of a fetch of a tuned result set.
+     *
+     * @return the mean fetch time in milliseconds
+     */
+    double getMeanFetchMillis();
+
+    /**
+     * Returns the fetch time histogram of tuned result sets.
+     *
+     * @return the bucket counts, see {@link #getHistogramBucketBounds()}
+     */
+    long[] getFetchHistogram();
+
+    /**
+     * Returns the upper bounds of the histogram buckets. The histograms have one more
+     * bucket than there are bounds, counting the latencies above the largest bound.
+     *
+     * @return the bucket bounds in milliseconds
+     */
+    long[] getHistogramBucketBounds();
+
+    /**
+     * Resets all counters and histograms. The open and active connection counts are
+     * not affected.
+     */
+    void reset();
+
+}
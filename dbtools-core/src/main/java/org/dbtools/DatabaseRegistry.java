@@ -0,0 +1,389 @@
+package org.dbtools;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A singleton holding the named data sources of an application, so components
+ * looking up the same name share one Database object with its driver, connection
+ * pool, host router and query cache.
+ * <p/>
+ * Data sources are defined by configuration properties
+ * <code>dbtools.datasource.&lt;name&gt;.&lt;key&gt;</code> and created on first lookup.
+ * The keys are
+ * <ul>
+ * <li><code>vendor</code>: <code>mysql</code>, <code>postgresql</code>, <code>oracle</code> or <code>hsql</code></li>
+ * <li><code>host</code>, <code>port</code> (default: the vendor's default port) and <code>schema</code></li>
+ * <li><code>user</code> and <code>password</code> (default: anonymous)</li>
+ * <li><code>instance</code>: the Oracle instance</li>
+ * <li><code>hsql.type</code>: a {@link HSqlConnectionType} (default: <code>SERVER</code>), the
+ * <code>host</code> is the database directory of <code>IN_PROCESS_PERSISTENT</code> databases</li>
+ * <li><code>hosts</code>: equivalent hosts to route connections across (see {@link HostRouter})</li>
+ * <li><code>pool.min.size</code> and <code>pool.max.size</code> (default: <code>dbtools.pool.*</code>),
+ * a maximum size of 0 disables pooling</li>
+ * <li><code>metrics.enabled</code> (default: <code>dbtools.metrics.enabled</code>)</li>
+ * <li><code>cache.max.weight</code>: the maximum weight of the cache of the results of
+ * {@link #query(String, String, Object...)}, unset or 0 for no cache</li>
+ * <li><code>profile</code>: a profile to take unset keys from, i.e. properties
+ * <code>dbtools.profile.&lt;profile&gt;.&lt;key&gt;</code></li>
+ * </ul>
+ * For example, a data source <code>ensembl</code> of the public Ensembl servers:
+ * <pre>
+ * dbtools.profile.ensembl.vendor=mysql
+ * dbtools.profile.ensembl.host=ensembldb.ensembl.org
+ * dbtools.profile.ensembl.port=3306
+ * dbtools.profile.ensembl.hosts=ensembldb.ensembl.org:3306
+ * dbtools.datasource.ensembl.profile=ensembl
+ * dbtools.datasource.ensembl.schema=test
+ * </pre>
+ */
+public class DatabaseRegistry {
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(DatabaseRegistry.class);
+
+    private static final String DATASOURCE_PREFIX = "dbtools.datasource.";
+
+    private static final String PROFILE_PREFIX = "dbtools.profile.";
+
+    /**
+     * the data sources created or registered, by name
+     */
+    private Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+    /**
+     * Returns the DatabaseRegistry instance.
+     *
+     * @return the DatabaseRegistry
+     */
+    public static DatabaseRegistry getInstance() {
+        return Holder.instance;
+    }
+
+    private DatabaseRegistry() {
+    }
+
+    /**
+     * Returns the data source of a name, creating it from its configuration on first lookup.
+     *
+     * @param name the data source name
+     * @return the shared Database object
+     * @throws DatabaseException if the data source is not defined or cannot be created
+     */
+    public synchronized Database getDatabase(String name) throws DatabaseException {
+
+        Entry entry = entries.get(name);
+
+        if (entry == null) {
+            entry = create(name);
+            entries.put(name, entry);
+        }
+
+        return entry.database;
+
+    }
+
+    /**
+     * Registers a Database object under a name, e.g. one created by a vendor specific
+     * factory. Its connection pool, host router and metrics MBean are shut down with the registry.
+     *
+     * @param name     the data source name
+     * @param database the Database object
+     * @throws IllegalStateException if a data source of the name has already been created or registered
+     */
+    public synchronized void register(String name, Database database) {
+
+        if (entries.containsKey(name))
+            throw new IllegalStateException("Data source '" + name + "' already exists.");
+
+        Entry entry = new Entry();
+        entry.database = database;
+        entries.put(name, entry);
+
+    }
+
+    /**
+     * Checks if a data source is defined by the configuration or has been registered.
+     *
+     * @param name the data source name
+     * @return true if the data source is defined
+     */
+    public synchronized boolean isDefined(String name) {
+        return entries.containsKey(name) || getProperty(name, "vendor") != null;
+    }
+
+    /**
+     * Returns the names of the data sources created or registered so far.
+     *
+     * @return the names in the order of creation
+     */
+    public synchronized List<String> getNames() {
+        return new ArrayList<String>(entries.keySet());
+    }
+
+    /**
+     * Returns the query cache of a data source.
+     *
+     * @param name the data source name
+     * @return the cache, <code>null</code> if the data source has no cache
+     * @throws DatabaseException if the data source is not defined or cannot be created
+     */
+    public synchronized QueryCache getQueryCache(String name) throws DatabaseException {
+        getDatabase(name);
+        return entries.get(name).queryCache;
+    }
+
+    /**
+     * Executes a query against a data source. If the data source has a query cache,
+     * repeated queries with the same parameter values are answered from the cache.
+     *
+     * @param name       the data source name
+     * @param sql        the SQL query, parameters are marked by '?'
+     * @param parameters the parameter values
+     * @return the query result
+     * @throws DatabaseException if the data source cannot be created or an exception occurs while executing the query
+     */
+    public QueryResult query(String name, String sql, Object... parameters) throws DatabaseException {
+
+        Database database;
+        QueryCache cache;
+        synchronized (this) {
+            database = getDatabase(name);
+            cache = entries.get(name).queryCache;
+        }
+
+        if (cache == null)
+            return QueryResult.execute(database, sql, parameters);
+
+        return cache.executeQuery(database, sql, parameters);
+
+    }
+
+    /**
+     * Returns the connection pool of a data source.
+     *
+     * @param name the data source name
+     * @return the pool, <code>null</code> if connections are not pooled
+     * @throws DatabaseException if the data source is not defined or cannot be created
+     */
+    public ConnectionPool getConnectionPool(String name) throws DatabaseException {
+        Database database = getDatabase(name);
+        return database instanceof AbstractDatabase ? ((AbstractDatabase) database).getConnectionPool() : null;
+    }
+
+    /**
+     * Returns the metrics of the data sources created or registered so far.
+     *
+     * @return the metrics by data source name, data sources without metrics are left out
+     */
+    public synchronized Map<String, DatabaseMetrics> getMetrics() {
+
+        Map<String, DatabaseMetrics> retVal = new LinkedHashMap<String, DatabaseMetrics>();
+
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().database instanceof AbstractDatabase) {
+                DatabaseMetrics metrics = ((AbstractDatabase) entry.getValue().database).getMetrics();
+                if (metrics != null)
+                    retVal.put(entry.getKey(), metrics);
+            }
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Closes the connection pools, stops the host routers, clears the query caches and
+     * unregisters the MBeans of all data sources. Data sources looked up afterwards are
+     * created again.
+     */
+    public synchronized void shutdown() {
+
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            shutdown(entry.getValue());
+            logger.debug("Data source '" + entry.getKey() + "' shut down.");
+        }
+
+        entries.clear();
+
+    }
+
+    /**
+     * Closes the connection pool, stops the host router, clears the query cache and
+     * unregisters the MBeans of a data source.
+     */
+    private static void shutdown(Entry entry) {
+
+        if (entry.database instanceof AbstractDatabase) {
+
+            AbstractDatabase abstractDatabase = (AbstractDatabase) entry.database;
+
+            if (abstractDatabase.getConnectionPool() != null)
+                abstractDatabase.getConnectionPool().close();
+            if (abstractDatabase.getHostRouter() != null)
+                abstractDatabase.getHostRouter().shutdown();
+            if (abstractDatabase.getMetrics() != null)
+                abstractDatabase.getMetrics().unregister();
+
+        }
+
+        if (entry.queryCache != null) {
+            entry.queryCache.clear();
+            entry.queryCache.unregisterMBean();
+        }
+
+    }
+
+    /**
+     * Creates a data source from its configuration.
+     */
+    private Entry create(String name) throws DatabaseException {
+
+        String vendor = getProperty(name, "vendor");
+        if (vendor == null)
+            throw new DatabaseException("Data source '" + name + "' is not defined.");
+        vendor = vendor.trim().toLowerCase();
+
+        String host = getProperty(name, "host");
+        String schema = getProperty(name, "schema");
+        String user = getProperty(name, "user");
+        char[] password = getProperty(name, "password") == null ? "".toCharArray() : getProperty(name, "password").toCharArray();
+
+        String port = getProperty(name, "port");
+        if (port == null)
+            port = Configuration.getInstance().getProperty(vendor + ".default.port");
+
+        Database database;
+
+        try {
+
+            if (vendor.equals("mysql")) {
+                database = user == null
+                        ? SimpleDatabaseFactory.createMySQLDatabase(host, Integer.parseInt(port), schema)
+                        : SimpleDatabaseFactory.createMySQLDatabase(host, Integer.parseInt(port), schema, user, password);
+            } else if (vendor.equals("postgresql")) {
+                database = user == null
+                        ? SimpleDatabaseFactory.createPostgreSQLDatabase(host, Integer.parseInt(port), schema)
+                        : SimpleDatabaseFactory.createPostgreSQLDatabase(host, Integer.parseInt(port), schema, user, password);
+            } else if (vendor.equals("oracle")) {
+                String instance = getProperty(name, "instance");
+                database = user == null
+                        ? SimpleDatabaseFactory.createOracleDatabase(host, Integer.parseInt(port), instance, schema)
+                        : SimpleDatabaseFactory.createOracleDatabase(host, Integer.parseInt(port), instance, schema, user, password);
+            } else if (vendor.equals("hsql")) {
+                String type = getProperty(name, "hsql.type");
+                HSqlConnectionType connectionType = type == null ? HSqlConnectionType.SERVER : HSqlConnectionType.valueOf(type.trim().toUpperCase());
+                database = new HSqlDatabase(host == null ? "" : host, Integer.parseInt(port), schema,
+                        user == null ? "sa" : user, password, connectionType);
+            } else {
+                throw new DatabaseException("Unknown vendor '" + vendor + "' of data source '" + name + "'.");
+            }
+
+        } catch (IllegalArgumentException e) {
+            throw new DatabaseException("Invalid definition of data source '" + name + "'.", e);
+        }
+
+        Entry retVal = new Entry();
+        retVal.database = database;
+
+        AbstractDatabase abstractDatabase = (AbstractDatabase) database;
+
+        try {
+
+            String metricsEnabled = getProperty(name, "metrics.enabled");
+            if (metricsEnabled != null)
+                abstractDatabase.setMetricsEnabled(Boolean.valueOf(metricsEnabled.trim()));
+
+            List<String> hosts = HostRouter.parseHostList(getProperty(name, "hosts"));
+            if (hosts.size() > 1) {
+                HostRouter hostRouter = new HostRouter(hosts, abstractDatabase.getPort());
+                hostRouter.startProbing(abstractDatabase);
+                abstractDatabase.setHostRouter(hostRouter);
+            }
+
+            int maxSize = getIntProperty(name, "pool.max.size", "dbtools.pool.max.size");
+            if (maxSize > 0) {
+                int minSize = Math.min(maxSize, getIntProperty(name, "pool.min.size", "dbtools.pool.min.size"));
+                ConnectionPool pool = new ConnectionPool(abstractDatabase, minSize, maxSize);
+                pool.startMaintenance();
+                abstractDatabase.setConnectionPool(pool);
+            }
+
+            String maxWeight = getProperty(name, "cache.max.weight");
+            if (maxWeight != null && Long.parseLong(maxWeight.trim()) > 0) {
+                retVal.queryCache = new QueryCache(Long.parseLong(maxWeight.trim()));
+                retVal.queryCache.registerMBean(name);
+            }
+
+        } catch (RuntimeException e) {
+            //stops the threads started so far
+            shutdown(retVal);
+            throw new DatabaseException("Invalid definition of data source '" + name + "'.", e);
+        }
+
+        logger.info("Created data source '" + name + "' (" + abstractDatabase.getUrl() + ").");
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns a property of a data source, taken from its profile if the data source does not set it.
+     */
+    private String getProperty(String name, String key) {
+
+        Configuration configuration = Configuration.getInstance();
+
+        String retVal = configuration.getProperty(DATASOURCE_PREFIX + name + "." + key);
+
+        if (retVal == null) {
+            String profile = configuration.getProperty(DATASOURCE_PREFIX + name + ".profile");
+            if (profile != null)
+                retVal = configuration.getProperty(PROFILE_PREFIX + profile.trim() + "." + key);
+        }
+
+        return retVal;
+
+    }
+
+    private int getIntProperty(String name, String key, String defaultKey) {
+
+        String value = getProperty(name, key);
+
+        return value == null ? Configuration.getInstance().getIntProperty(defaultKey) : Integer.parseInt(value.trim());
+
+    }
+
+    /**
+     * A data source and its shared resources.
+     */
+    private static class Entry {
+
+        /**
+         * the Database object
+         */
+        private Database database;
+
+        /**
+         * the query cache, <code>null</code> if the data source has no cache
+         */
+        private QueryCache queryCache;
+
+    }
+
+    /**
+     * Holds the singleton instance, created when the class is first accessed.
+     */
+    private static class Holder {
+
+        private static final DatabaseRegistry instance = new DatabaseRegistry();
+
+    }
+
+}
@@ -0,0 +1,134 @@
+package org.dbtools;
+
+import org.apache.log4j.Logger;
+
+import java.sql.Driver;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Makes JDBC drivers available to the <code>DriverManager</code> on demand.
+ * <p/>
+ * Drivers declared as <code>java.sql.Driver</code> services on the class path
+ * are discovered once, on the first request for any driver. Drivers not declared
+ * as services (pre JDBC 4 drivers) are loaded by class name, which registers them
+ * with the <code>DriverManager</code>. Each driver class is looked up only once.
+ */
+final class DriverRegistry {
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(DriverRegistry.class);
+
+    /**
+     * the class names of the drivers available to the DriverManager
+     */
+    private static final Set<String> registered = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * true once the driver services have been discovered
+     */
+    private static volatile boolean discovered;
+
+    private DriverRegistry() {
+    }
+
+    /**
+     * Makes a driver available to the DriverManager unless it already is.
+     *
+     * @param driver the class name of the driver
+     * @throws DatabaseException if the driver class cannot be loaded
+     */
+    static void register(String driver) throws DatabaseException {
+
+        if (driver == null || registered.contains(driver))
+            return;
+
+        if (!discovered)
+            discover();
+
+        synchronized (DriverRegistry.class) {
+
+            if (registered.contains(driver))
+                return;
+
+            long start = System.nanoTime();
+
+            try {
+                Class.forName(driver, true, getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new DatabaseException("Unable to load database driver '" + driver + "'.", e);
+            } catch (LinkageError e) {
+                throw new DatabaseException("Unable to load database driver '" + driver + "'.", e);
+            }
+
+            registered.add(driver);
+
+            if (logger.isDebugEnabled())
+                logger.debug("Loaded database driver '" + driver + "' in " + (System.nanoTime() - start) / 1000 + " us.");
+
+        }
+
+    }
+
+    /**
+     * Checks if a driver is available to the DriverManager.
+     *
+     * @param driver the class name of the driver
+     * @return true if the driver has been registered
+     */
+    static boolean isRegistered(String driver) {
+        return registered.contains(driver);
+    }
+
+    /**
+     * Discovers the drivers declared as services. Instantiating a driver
+     * registers it with the DriverManager.
+     */
+    private static synchronized void discover() {
+
+        if (discovered)
+            return;
+
+        Set<String> drivers = new HashSet<String>();
+        Iterator<Driver> iterator = ServiceLoader.load(Driver.class, getClassLoader()).iterator();
+
+        while (true) {
+            try {
+                if (!iterator.hasNext())
+                    break;
+                drivers.add(iterator.next().getClass().getName());
+            } catch (ServiceConfigurationError e) {
+                //skip broken service declarations
+                logger.warn(e);
+            }
+        }
+
+        registered.addAll(drivers);
+        discovered = true;
+
+        logger.debug("Discovered database drivers " + drivers + ".");
+
+    }
+
+    /**
+     * Returns the class loader to load drivers with.
+     *
+     * @return the context class loader of the current thread if set, the
+     *         class loader of this class otherwise
+     */
+    private static ClassLoader getClassLoader() {
+
+        ClassLoader retVal = Thread.currentThread().getContextClassLoader();
+
+        return retVal != null ? retVal : DriverRegistry.class.getClassLoader();
+
+    }
+
+}
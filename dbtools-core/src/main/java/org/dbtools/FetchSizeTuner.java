@@ -0,0 +1,583 @@
+package org.dbtools;
+
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Adapts the JDBC fetch size of queries to the observed row width and network round trip.
+ * <p/>
+ * A fetch of <i>f</i> rows of <i>s</i> bytes takes about <i>L + f s / B</i>, where
+ * <i>L</i> is the round-trip latency and <i>B</i> the bandwidth to the database host.
+ * The tuner times every fetch of a tuned result set and estimates <i>L</i> and
+ * <i>1 / B</i> by a least squares fit of the fetch times over the fetched bytes, giving
+ * more weight to recent fetches. Fetches are then sized so that the transfer takes
+ * {@link #TRANSFER_FACTOR} times the round trip, which gets to 90% of the bandwidth,
+ * but never take more than <code>dbtools.fetch.memory.budget</code> bytes. Until the fit
+ * is usable fetch sizes grow geometrically from <code>dbtools.streaming.fetch.size</code>.
+ * <p/>
+ * The row width is estimated at the first row of each fetch: character columns by the
+ * mean length of the values the caller has read from them so far (by their display
+ * size before any value is read), all other columns by their type. Values are never
+ * read for measuring only. The fetch size is changed on the open result set and
+ * remembered per SQL query as the initial size of its next execution. Result sets
+ * whose fetch size is set by the caller are not tuned.
+ * <p/>
+ * The chosen fetch sizes and the link estimates are recorded in the database's
+ * {@link DatabaseMetrics} if metrics are enabled.
+ */
+public class FetchSizeTuner {
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(FetchSizeTuner.class);
+
+    /**
+     * the time to aim for transferring the rows of a fetch, in multiples of the round trip
+     */
+    public static final double TRANSFER_FACTOR = 9;
+
+    /**
+     * the weight of the previous fetch times when adding a new one
+     */
+    private static final double DECAY = 0.95;
+
+    /**
+     * the number of queries whose fetch size is remembered
+     */
+    private static final int MAX_QUERIES = 256;
+
+    /**
+     * the assumed width of columns of unbounded size
+     */
+    private static final int MAX_COLUMN_WIDTH = 4096;
+
+    /**
+     * the database tuned
+     */
+    private AbstractDatabase database;
+
+    /**
+     * the fetch size of queries executed for the first time
+     */
+    private int initialFetchSize;
+
+    /**
+     * the smallest fetch size
+     */
+    private int minFetchSize;
+
+    /**
+     * the largest fetch size
+     */
+    private int maxFetchSize;
+
+    /**
+     * the maximum number of bytes per fetch
+     */
+    private long memoryBudget;
+
+    /**
+     * the decayed sums for the least squares fit of fetch nanoseconds over bytes
+     */
+    private double weight, sumBytes, sumNanos, sumBytesSquared, sumBytesNanos;
+
+    /**
+     * the last fetch sizes by SQL query
+     */
+    private Map<String, Integer> fetchSizes = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_QUERIES;
+        }
+    };
+
+    /**
+     * Constructs a tuner configured by the <code>dbtools.fetch.*</code> properties.
+     *
+     * @param database the database tuned
+     */
+    public FetchSizeTuner(AbstractDatabase database) {
+
+        Configuration configuration = Configuration.getInstance();
+
+        this.database = database;
+        this.initialFetchSize = configuration.getIntProperty("dbtools.streaming.fetch.size");
+        this.minFetchSize = configuration.getIntProperty("dbtools.fetch.min.size");
+        this.maxFetchSize = configuration.getIntProperty("dbtools.fetch.max.size");
+        this.memoryBudget = configuration.getLongProperty("dbtools.fetch.memory.budget");
+
+    }
+
+    /**
+     * Sets the initial fetch size of a query statement and wraps it so that the
+     * fetch size of its result sets adapts while they are read.
+     *
+     * @param statement the statement
+     * @param sql       the SQL query of the statement
+     * @return the tuned statement
+     * @throws SQLException if the fetch size cannot be set
+     */
+    public PreparedStatement tune(PreparedStatement statement, String sql) throws SQLException {
+
+        int fetchSize = getFetchSize(sql);
+        statement.setFetchSize(fetchSize);
+
+        TunedStatement handler = new TunedStatement(statement, sql, fetchSize);
+        handler.proxy = (PreparedStatement) Proxy.newProxyInstance(
+                FetchSizeTuner.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class},
+                handler);
+
+        return handler.proxy;
+
+    }
+
+    /**
+     * Returns the fetch size the next execution of a query starts with.
+     *
+     * @param sql the SQL query
+     * @return the fetch size
+     */
+    public int getFetchSize(String sql) {
+
+        Integer retVal;
+        synchronized (fetchSizes) {
+            retVal = fetchSizes.get(sql);
+        }
+
+        return retVal != null ? retVal : initialFetchSize;
+
+    }
+
+    /**
+     * Computes the size of the next fetch.
+     *
+     * @param current  the size of the last fetch
+     * @param rowBytes the estimated row width in bytes
+     * @return the fetch size
+     */
+    int computeFetchSize(int current, double rowBytes) {
+
+        long limit = Math.min(maxFetchSize, (long) (memoryBudget / Math.max(1, rowBytes)));
+        double[] link = getLinkEstimate();
+
+        long retVal;
+        if (link == null)
+            retVal = (long) current * 2;
+        else
+            retVal = (long) (TRANSFER_FACTOR * link[0] / (link[1] * rowBytes));
+
+        return (int) Math.max(1, Math.min(limit, Math.max(minFetchSize, retVal)));
+
+    }
+
+    /**
+     * Records the time taken by a fetch.
+     *
+     * @param bytes the number of bytes fetched
+     * @param nanos the time taken in nanoseconds
+     */
+    synchronized void recordFetch(double bytes, long nanos) {
+
+        weight = weight * DECAY + 1;
+        sumBytes = sumBytes * DECAY + bytes;
+        sumNanos = sumNanos * DECAY + nanos;
+        sumBytesSquared = sumBytesSquared * DECAY + bytes * bytes;
+        sumBytesNanos = sumBytesNanos * DECAY + bytes * nanos;
+
+    }
+
+    /**
+     * Returns the current estimate of the round-trip latency and the transfer time per byte.
+     *
+     * @return the latency and the nanoseconds per byte, <code>null</code> if there are
+     *         too few fetches of different sizes or larger fetches were not slower
+     */
+    synchronized double[] getLinkEstimate() {
+
+        if (weight < 2)
+            return null;
+
+        double meanBytes = sumBytes / weight;
+        double variance = sumBytesSquared / weight - meanBytes * meanBytes;
+
+        //fetches of (nearly) the same size do not tell latency from bandwidth
+        if (variance <= meanBytes * meanBytes * 0.01)
+            return null;
+
+        double nanosPerByte = (sumBytesNanos / weight - meanBytes * sumNanos / weight) / variance;
+        if (nanosPerByte <= 0)
+            return null;
+
+        double latency = Math.max(0, sumNanos / weight - nanosPerByte * meanBytes);
+
+        return new double[]{latency, nanosPerByte};
+
+    }
+
+    /**
+     * Remembers the fetch size of a query for its next execution.
+     *
+     * @param sql       the SQL query
+     * @param fetchSize the fetch size
+     */
+    private void remember(String sql, int fetchSize) {
+        synchronized (fetchSizes) {
+            fetchSizes.put(sql, fetchSize);
+        }
+    }
+
+    /**
+     * Returns the estimated round-trip latency to the database host.
+     *
+     * @return the latency in milliseconds, <code>NaN</code> if not known yet
+     */
+    public double getRoundTripMillis() {
+
+        double[] link = getLinkEstimate();
+
+        return link != null ? link[0] / 1000000.0 : Double.NaN;
+
+    }
+
+    /**
+     * Returns the estimated bandwidth to the database host.
+     *
+     * @return the bandwidth in bytes per second, <code>NaN</code> if not known yet
+     */
+    public double getBandwidth() {
+
+        double[] link = getLinkEstimate();
+
+        return link != null ? 1000000000.0 / link[1] : Double.NaN;
+
+    }
+
+    /**
+     * Invokes a method on the proxied object, unwrapping exceptions thrown by it.
+     */
+    private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Wraps the result sets of a tuned statement.
+     */
+    private class TunedStatement implements InvocationHandler {
+
+        /**
+         * the tuned statement
+         */
+        private PreparedStatement statement;
+
+        /**
+         * the proxy handed out to the caller
+         */
+        private PreparedStatement proxy;
+
+        /**
+         * the SQL query
+         */
+        private String sql;
+
+        /**
+         * the fetch size set on the statement, not all drivers report it back
+         */
+        private int fetchSize;
+
+        private TunedStatement(PreparedStatement statement, String sql, int fetchSize) {
+            this.statement = statement;
+            this.sql = sql;
+            this.fetchSize = fetchSize;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            String name = method.getName();
+
+            if (name.equals("equals"))
+                return proxy == args[0];
+            if (name.equals("hashCode"))
+                return System.identityHashCode(proxy);
+
+            Object retVal = invokeTarget(statement, method, args);
+
+            if (name.equals("setFetchSize")) {
+                fetchSize = (Integer) args[0];
+            } else if (name.equals("executeQuery") && args == null) {
+                retVal = Proxy.newProxyInstance(
+                        FetchSizeTuner.class.getClassLoader(),
+                        new Class<?>[]{ResultSet.class},
+                        new TunedResultSet((ResultSet) retVal, this.proxy, sql, fetchSize));
+            }
+
+            return retVal;
+
+        }
+
+    }
+
+    /**
+     * Times the fetches of a result set and adapts its fetch size.
+     */
+    private class TunedResultSet implements InvocationHandler {
+
+        /**
+         * the result set
+         */
+        private ResultSet resultSet;
+
+        /**
+         * the statement proxy that returned the result set
+         */
+        private PreparedStatement statement;
+
+        /**
+         * the SQL query
+         */
+        private String sql;
+
+        /**
+         * the size of the fetch that returns the row after the boundary
+         */
+        private int fetchSize;
+
+        /**
+         * the number of rows read
+         */
+        private long rows;
+
+        /**
+         * the number of the first row of the next fetch
+         */
+        private long boundary;
+
+        /**
+         * the estimated row width in bytes
+         */
+        private double rowBytes;
+
+        /**
+         * the width of the columns not measured by value
+         */
+        private int fixedBytes;
+
+        /**
+         * the display sizes of the columns measured by value, 0 for other columns, by column index
+         */
+        private int[] characterWidths;
+
+        /**
+         * the total length of the values read by the caller, by column index
+         */
+        private long[] readLengths;
+
+        /**
+         * the number of values read by the caller, by column index
+         */
+        private long[] readCounts;
+
+        /**
+         * false once the caller set the fetch size or the row width could not be measured
+         */
+        private boolean tuned = true;
+
+        private TunedResultSet(ResultSet resultSet, PreparedStatement statement, String sql, int fetchSize) {
+            this.resultSet = resultSet;
+            this.statement = statement;
+            this.sql = sql;
+            this.fetchSize = fetchSize;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            String name = method.getName();
+
+            if (name.equals("equals"))
+                return proxy == args[0];
+            if (name.equals("hashCode"))
+                return System.identityHashCode(proxy);
+
+            if (name.equals("next")) {
+
+                //the first row and the rows after a boundary are returned by a fetch
+                boolean timed = tuned && (rows == 0 || rows + 1 == boundary);
+                long start = timed ? System.nanoTime() : 0;
+
+                Object retVal = invokeTarget(resultSet, method, args);
+
+                if (retVal == Boolean.TRUE) {
+                    rows++;
+                    if (timed)
+                        fetched(System.nanoTime() - start);
+                }
+
+                return retVal;
+
+            }
+
+            if (name.equals("getStatement"))
+                return statement;
+
+            if (name.equals("setFetchSize"))
+                tuned = false;
+            else if (name.equals("close") && tuned && rows > 0)
+                remember(sql, fetchSize);
+
+            Object retVal = invokeTarget(resultSet, method, args);
+
+            if (tuned && characterWidths != null && args != null && args.length == 1
+                    && (name.equals("getString") || name.equals("getObject") || name.equals("getBytes")))
+                valueRead(args[0], retVal);
+
+            return retVal;
+
+        }
+
+        /**
+         * Records the length of a value of a character column read by the caller.
+         *
+         * @param column the column index or label
+         * @param value  the value
+         * @throws SQLException if the column label cannot be resolved
+         */
+        private void valueRead(Object column, Object value) throws SQLException {
+
+            int index = column instanceof Integer ? (Integer) column : resultSet.findColumn((String) column);
+            if (index < 1 || index >= characterWidths.length || characterWidths[index] == 0)
+                return;
+
+            if (value instanceof String)
+                readLengths[index] += ((String) value).length();
+            else if (value instanceof byte[])
+                readLengths[index] += ((byte[]) value).length;
+            readCounts[index]++;
+
+        }
+
+        /**
+         * Measures the row width at the first row of a fetch and sets the size of the next fetch.
+         *
+         * @param nanos the time taken by the fetch, ignored for the first fetch which is
+         *              part of the query execution
+         */
+        private void fetched(long nanos) {
+
+            try {
+
+                rowBytes = estimateRow();
+
+                if (rows > 1)
+                    recordFetch(fetchSize * rowBytes, nanos);
+
+                boundary = rows + fetchSize;
+
+                fetchSize = computeFetchSize(fetchSize, rowBytes);
+                resultSet.setFetchSize(fetchSize);
+
+                DatabaseMetrics metrics = database.getMetrics();
+                if (metrics != null) {
+                    if (rows > 1)
+                        metrics.fetchCompleted(nanos);
+                    metrics.fetchSizeChosen(fetchSize, rowBytes, getRoundTripMillis(), getBandwidth());
+                }
+
+            } catch (SQLException e) {
+                logger.debug("Fetch size of query '" + sql + "' is not tuned.", e);
+                tuned = false;
+            }
+
+        }
+
+        /**
+         * Estimates the row width from the values read by the caller so far.
+         *
+         * @return the row width in bytes
+         * @throws SQLException if an exception occurs while reading the metadata
+         */
+        private double estimateRow() throws SQLException {
+
+            if (characterWidths == null)
+                readColumnWidths();
+
+            double retVal = fixedBytes;
+            for (int i = 1; i < characterWidths.length; i++) {
+                if (characterWidths[i] > 0)
+                    retVal += readCounts[i] > 0 ? (double) readLengths[i] / readCounts[i] : characterWidths[i];
+            }
+
+            return Math.max(1, retVal);
+
+        }
+
+        /**
+         * Reads the widths of the columns from the result set metadata.
+         *
+         * @throws SQLException if an exception occurs while reading the metadata
+         */
+        private void readColumnWidths() throws SQLException {
+
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            int[] widths = new int[metaData.getColumnCount() + 1];
+
+            for (int i = 1; i < widths.length; i++) {
+                switch (metaData.getColumnType(i)) {
+                    case Types.CHAR:
+                    case Types.VARCHAR:
+                        int displaySize = metaData.getColumnDisplaySize(i);
+                        widths[i] = displaySize > 0 ? Math.min(displaySize, MAX_COLUMN_WIDTH) : MAX_COLUMN_WIDTH;
+                        break;
+                    case Types.BIT:
+                    case Types.BOOLEAN:
+                    case Types.TINYINT:
+                        fixedBytes += 1;
+                        break;
+                    case Types.SMALLINT:
+                    case Types.INTEGER:
+                    case Types.REAL:
+                        fixedBytes += 4;
+                        break;
+                    case Types.BIGINT:
+                    case Types.FLOAT:
+                    case Types.DOUBLE:
+                    case Types.DATE:
+                    case Types.TIME:
+                    case Types.TIMESTAMP:
+                        fixedBytes += 8;
+                        break;
+                    default:
+                        int width = metaData.getColumnDisplaySize(i);
+                        fixedBytes += width > 0 ? Math.min(width, MAX_COLUMN_WIDTH) : MAX_COLUMN_WIDTH;
+                }
+            }
+
+            readLengths = new long[widths.length];
+            readCounts = new long[widths.length];
+            characterWidths = widths;
+
+        }
+
+    }
+
+}
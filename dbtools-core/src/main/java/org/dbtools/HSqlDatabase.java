@@ -1,5 +1,19 @@
 package org.dbtools;
 
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
 
 /**
  * Implementation of {@link AbstractDatabase} to access an HSQLDB database.
@@ -11,6 +25,11 @@ package org.dbtools;
  */
 public class HSqlDatabase extends AbstractDatabase {
 
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(HSqlDatabase.class);
+
     /**
      * the driver class path
      */
@@ -19,7 +38,7 @@ public class HSqlDatabase extends AbstractDatabase {
     /**
      * the HSQLDB "well known" port
      */
-    private static int defaultPort = Integer.parseInt(Configuration.getInstance().getProperty("hsql.default.port"));
+    private static int defaultPort = Configuration.getInstance().getIntProperty("hsql.default.port");
 
     /**
      * the HTTP default port
@@ -31,6 +50,11 @@ public class HSqlDatabase extends AbstractDatabase {
      */
     private HSqlConnectionType connectionType = HSqlConnectionType.SERVER;
 
+    /**
+     * the settings replaced while in bulk load mode by property name, <code>null</code> if not in bulk load mode
+     */
+    private Map<String, String> savedSettings;
+
 
     /**
      * Constructs a Database object representing a HSQLDB database.
@@ -106,10 +130,197 @@ public class HSqlDatabase extends AbstractDatabase {
         this.connectionType=connectionType;
     }
 
+    /**
+     * Switches the database to bulk load mode for loading large amounts of data:
+     * tables created without a table type are CACHED tables, the data file is
+     * accessed by NIO, and changes are not synced to disk and do not trigger
+     * checkpoints. HSQLDB 2 stops logging changes altogether and keeps a larger
+     * cache of rows; HSQLDB 1.8 always logs changes, and a larger cache slows its
+     * loads down, so its cache is left as it is. A crash in bulk load mode can lose
+     * all changes made in it.
+     * <p/>
+     * The bulk load settings are set by the configuration properties <code>hsql.bulk.*</code>.
+     * Nothing is changed for transient in process databases, which are not logged.
+     *
+     * @throws DatabaseException if an exception occurs while changing the settings
+     */
+    public synchronized void beginBulkLoad() throws DatabaseException {
+
+        if (savedSettings != null)
+            return;
+
+        if (connectionType == HSqlConnectionType.IN_PROCESS_TRANSIENT) {
+            savedSettings = new HashMap<String, String>();
+            return;
+        }
+
+        Configuration configuration = Configuration.getInstance();
+
+        Connection connection = null;
+
+        try {
+
+            connection = getConnection();
+            Map<String, String> settings = readSettings(connection);
+            Statement statement = connection.createStatement();
+
+            if (connection.getMetaData().getDatabaseMajorVersion() >= 2) {
+
+                statement.execute("SET DATABASE DEFAULT TABLE TYPE CACHED");
+                statement.execute("SET FILES LOG FALSE");
+                statement.execute("SET FILES NIO TRUE");
+                statement.execute("SET FILES CACHE ROWS " + configuration.getIntProperty("hsql.bulk.cache.rows"));
+                statement.execute("SET FILES CACHE SIZE " + configuration.getIntProperty("hsql.bulk.cache.size"));
+
+            } else {
+
+                statement.execute("SET PROPERTY \"hsqldb.default_table_type\" 'cached'");
+                statement.execute("SET PROPERTY \"hsqldb.nio_data_file\" true");
+                statement.execute("SET LOGSIZE " + configuration.getIntProperty("hsql.bulk.log.size"));
+                statement.execute("SET WRITE_DELAY " + configuration.getIntProperty("hsql.bulk.write.delay") + " MILLIS");
+
+            }
+
+            statement.close();
+            savedSettings = settings;
+
+            logger.info("Database '" + schema + "' is in bulk load mode.");
+
+        } catch (SQLException e) {
+            throw new DatabaseException("Exception while switching database '" + schema + "' to bulk load mode.", e);
+        } finally {
+            close(connection);
+        }
+
+    }
+
+    /**
+     * Ends bulk load mode: writes a checkpoint so that all data loaded is safe and
+     * restores the settings replaced by {@link #beginBulkLoad()}.
+     *
+     * @throws DatabaseException if an exception occurs while writing the checkpoint or restoring the settings
+     */
+    public synchronized void endBulkLoad() throws DatabaseException {
+
+        if (savedSettings == null)
+            return;
+
+        if (savedSettings.isEmpty()) {
+            savedSettings = null;
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        Connection connection = null;
+
+        try {
+
+            connection = getConnection();
+            Statement statement = connection.createStatement();
+
+            if (connection.getMetaData().getDatabaseMajorVersion() >= 2) {
+
+                statement.execute("CHECKPOINT");
+                statement.execute("SET DATABASE DEFAULT TABLE TYPE " + savedSettings.get("hsqldb.default_table_type").toUpperCase());
+                statement.execute("SET FILES LOG " + savedSettings.get("hsqldb.log_data").toUpperCase());
+                statement.execute("SET FILES NIO " + savedSettings.get("hsqldb.nio_data_file").toUpperCase());
+                statement.execute("SET FILES CACHE ROWS " + savedSettings.get("hsqldb.cache_rows"));
+                statement.execute("SET FILES CACHE SIZE " + savedSettings.get("hsqldb.cache_size"));
+
+            } else {
+
+                statement.execute("CHECKPOINT");
+                statement.execute("SET PROPERTY \"hsqldb.default_table_type\" '" + savedSettings.get("hsqldb.default_table_type") + "'");
+                statement.execute("SET PROPERTY \"hsqldb.nio_data_file\" " + savedSettings.get("hsqldb.nio_data_file"));
+                statement.execute("SET LOGSIZE " + savedSettings.get("hsqldb.log_size"));
+                statement.execute("SET WRITE_DELAY " + savedSettings.get("WRITE_DELAY") + " MILLIS");
+
+            }
+
+            statement.close();
+            savedSettings = null;
+
+            logger.info("Database '" + schema + "' left bulk load mode, checkpoint took " + (System.currentTimeMillis() - start) + " ms.");
+
+        } catch (SQLException e) {
+            throw new DatabaseException("Exception while ending bulk load mode of database '" + schema + "'.", e);
+        } finally {
+            close(connection);
+        }
+
+    }
+
+    /**
+     * Returns whether the database is in bulk load mode.
+     *
+     * @return true if {@link #beginBulkLoad()} has been called and {@link #endBulkLoad()} has not
+     */
+    public synchronized boolean isBulkLoad() {
+        return savedSettings != null;
+    }
+
+    /**
+     * Reads the database properties replaced by bulk load mode.
+     *
+     * @param connection a connection to this database
+     * @return the property values by name
+     * @throws SQLException if an exception occurs while reading the properties
+     */
+    private Map<String, String> readSettings(Connection connection) throws SQLException {
+
+        Map<String, String> retVal = new HashMap<String, String>();
+
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT PROPERTY_NAME, PROPERTY_VALUE FROM INFORMATION_SCHEMA.SYSTEM_PROPERTIES");
+        while (rs.next())
+            retVal.put(rs.getString(1), rs.getString(2));
+        rs.close();
+        statement.close();
+
+        //not reported by HSQLDB 1.8, but written to the properties file of the database
+        if (!retVal.containsKey("hsqldb.log_size")) {
+            Properties properties = new Properties();
+            File file = new File(host, schema + ".properties");
+            if (connectionType == HSqlConnectionType.IN_PROCESS_PERSISTENT && file.isFile()) {
+                try {
+                    InputStream in = new FileInputStream(file);
+                    properties.load(in);
+                    in.close();
+                } catch (IOException e) {
+                    logger.warn("Could not read '" + file + "'.", e);
+                }
+            }
+            retVal.put("hsqldb.log_size", properties.getProperty("hsqldb.log_size", "200"));
+        }
+
+        return retVal;
+
+    }
+
+    private static void close(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                logger.warn(e);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The schema of an HSQLDB database object names the database, whose tables are
+     * looked up in the default schema <code>PUBLIC</code>.
+     */
+    protected SchemaMetadata readSchemaMetadata(Connection connection) throws SQLException {
+        return SchemaMetadata.read(connection, schema, null, "PUBLIC");
+    }
+
     /**
      * {@inheritDoc}
      */
-    protected String buildURL() {
+    protected String buildURL(String host, int port) {
 
         //formats:
         //server               : jdbc:hsqldb:hsql://host[:port][/<alias>][<key-value-pairs>]
@@ -139,4 +350,112 @@ public class HSqlDatabase extends AbstractDatabase {
 
     }
 
+    /**
+     * Returns the HSQLDB column type corresponding to a JDBC column type. Unsigned
+     * integer types (as reported by MySQL) are mapped to the next larger type.
+     *
+     * @param sqlType   the JDBC type (see {@link java.sql.Types})
+     * @param typeName  the vendor type name of the source column
+     * @param size      the column size
+     * @param scale     the number of fractional digits
+     * @return the HSQLDB column type
+     */
+    public static String getColumnType(int sqlType, String typeName, int size, int scale) {
+
+        boolean unsigned = typeName != null && typeName.toUpperCase().indexOf("UNSIGNED") != -1;
+
+        switch (sqlType) {
+
+            case Types.BIT:
+            case Types.BOOLEAN: return "BOOLEAN";
+
+            case Types.TINYINT: return unsigned ? "SMALLINT" : "TINYINT";
+
+            case Types.SMALLINT: return unsigned ? "INTEGER" : "SMALLINT";
+
+            case Types.INTEGER: return unsigned ? "BIGINT" : "INTEGER";
+
+            case Types.BIGINT: return unsigned ? "DECIMAL(20)" : "BIGINT";
+
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE: return "DOUBLE";
+
+            case Types.DECIMAL:
+            case Types.NUMERIC: return "DECIMAL(" + size + "," + scale + ")";
+
+            case Types.CHAR: return "CHAR(" + Math.max(size, 1) + ")";
+
+            case Types.VARCHAR: return size > 0 ? "VARCHAR(" + size + ")" : "LONGVARCHAR";
+
+            case Types.DATE: return "DATE";
+
+            case Types.TIME: return "TIME";
+
+            case Types.TIMESTAMP: return "TIMESTAMP";
+
+            case Types.BINARY:
+            case Types.VARBINARY: return size > 0 ? "VARBINARY(" + size + ")" : "LONGVARBINARY";
+
+            case Types.LONGVARBINARY:
+            case Types.BLOB: return "LONGVARBINARY";
+
+            default: return "LONGVARCHAR";
+
+        }
+
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Builds a MERGE statement with the row as VALUES source, the parameters cast to
+     * the column types. MERGE is supported from HSQLDB 2.0, for earlier versions
+     * <code>null</code> is returned.
+     */
+    protected String buildUpsertSql(Connection connection, String table, String[] columns, String[] keyColumns, int rows) throws SQLException {
+
+        if (connection.getMetaData().getDatabaseMajorVersion() < 2)
+            return null;
+
+        TableMetadata metadata = null;
+        try {
+            metadata = getSchemaMetadata().getTable(table);
+            if (metadata == null)
+                metadata = refreshSchemaMetadata().getTable(table);
+        } catch (DatabaseException e) {
+            throw new SQLException(e.getMessage(), e);
+        }
+        if (metadata == null)
+            throw new SQLException("Table '" + table + "' does not exist.");
+
+        StringBuffer source = new StringBuffer("(VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            int column = metadata.getColumnIndex(columns[i]);
+            if (column == -1)
+                throw new SQLException("Column '" + columns[i] + "' does not exist in table '" + table + "'.");
+            source.append(i > 0 ? ", " : "").append("CAST(? AS ").append(getColumnType(
+                    metadata.getColumnType(column),
+                    metadata.getColumnTypeName(column),
+                    metadata.getColumnSize(column),
+                    metadata.getDecimalDigits(column))).append(")");
+        }
+        source.append(")) AS v (");
+        for (int i = 0; i < columns.length; i++)
+            source.append(i > 0 ? ", " : "").append(columns[i]);
+        source.append(")");
+
+        return buildMergeSql(table, columns, keyColumns, source.toString());
+
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * HSQLDB does not accept a SELECT without a table.
+     */
+    protected String getValidationQuery() {
+        return "CALL 1";
+    }
+
 }
@@ -0,0 +1,503 @@
+package org.dbtools;
+
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Executes queries with a deadline and, optionally, hedging to cut tail latency.
+ * <p/>
+ * A query not answered by its deadline is cancelled (<code>Statement.cancel()</code>,
+ * backed by <code>Statement.setQueryTimeout</code> on the server side) and fails with a
+ * DatabaseException. The default deadline is set by the configuration property
+ * <code>dbtools.query.deadline</code> (in milliseconds, 0 for none).
+ * <p/>
+ * If hedging is enabled (<code>dbtools.hedge.enabled</code>), a read-only query that has
+ * not returned after the <code>dbtools.hedge.percentile</code> percentile of the latencies
+ * observed so far is issued a second time, on another connection of the hedge database
+ * (by default the same database, or a mirror set by {@link #setHedgeDatabase(Database)}).
+ * The first answer is returned and the other query cancelled. A query failing before
+ * it is hedged is not retried on the hedge database. Queries are not hedged
+ * before <code>dbtools.hedge.min.samples</code> latencies have been observed, and never
+ * earlier than <code>dbtools.hedge.min.delay</code> milliseconds. At the 95th percentile
+ * at most about 5% of the queries are issued twice.
+ * <p/>
+ * Queries run on the threads of {@link AsyncDatabase}, the calling thread waits for them.
+ */
+public class HedgedQueryExecutor {
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(HedgedQueryExecutor.class);
+
+    /**
+     * the keywords of statements that write, e.g. <code>SELECT ... INTO</code>
+     */
+    private static final Pattern WRITE_KEYWORDS = Pattern.compile("\\b(INTO|INSERT|UPDATE|DELETE|MERGE)\\b");
+
+    /**
+     * the database queried first
+     */
+    private Database database;
+
+    /**
+     * the database hedged queries are issued on
+     */
+    private Database hedgeDatabase;
+
+    /**
+     * whether read-only queries are hedged
+     */
+    private boolean hedging = Configuration.getInstance().getBooleanProperty("dbtools.hedge.enabled");
+
+    /**
+     * the latency percentile after which a query is hedged (0 - 100)
+     */
+    private double hedgePercentile = Configuration.getInstance().getDoubleProperty("dbtools.hedge.percentile");
+
+    /**
+     * the minimum delay before a query is hedged (in milliseconds)
+     */
+    private long minHedgeDelay = Configuration.getInstance().getLongProperty("dbtools.hedge.min.delay");
+
+    /**
+     * the number of latencies observed before queries are hedged
+     */
+    private long minSamples = Configuration.getInstance().getLongProperty("dbtools.hedge.min.samples");
+
+    /**
+     * the default deadline of a query (in milliseconds), 0 for none
+     */
+    private long defaultDeadline = Configuration.getInstance().getLongProperty("dbtools.query.deadline");
+
+    /**
+     * the latencies of the answered queries
+     */
+    private LatencyHistogram latencies = new LatencyHistogram();
+
+    private AtomicLong queryCount = new AtomicLong();
+
+    private AtomicLong hedgeCount = new AtomicLong();
+
+    private AtomicLong hedgeWinCount = new AtomicLong();
+
+    private AtomicLong deadlineExceededCount = new AtomicLong();
+
+    /**
+     * Constructs an executor hedging queries on a second connection of the same database.
+     *
+     * @param database the database to query
+     */
+    public HedgedQueryExecutor(Database database) {
+        this.database = database;
+        this.hedgeDatabase = database;
+    }
+
+    /**
+     * Executes a query with the default deadline.
+     *
+     * @param sql        the SQL query, parameters are marked by '?'
+     * @param parameters the parameter values
+     * @return the query result
+     * @throws DatabaseException if an exception occurs while executing the query or the deadline is exceeded
+     */
+    public QueryResult query(String sql, Object... parameters) throws DatabaseException {
+        return query(defaultDeadline, sql, parameters);
+    }
+
+    /**
+     * Executes a query with a deadline.
+     *
+     * @param deadline   the time the query may take (in milliseconds), 0 for none
+     * @param sql        the SQL query, parameters are marked by '?'
+     * @param parameters the parameter values
+     * @return the query result
+     * @throws DatabaseException if an exception occurs while executing the query or the deadline is exceeded
+     */
+    public QueryResult query(long deadline, String sql, Object... parameters) throws DatabaseException {
+
+        queryCount.incrementAndGet();
+
+        long start = System.nanoTime();
+        long end = deadline > 0 ? start + TimeUnit.MILLISECONDS.toNanos(deadline) : Long.MAX_VALUE;
+
+        BlockingQueue<Attempt> completed = new LinkedBlockingQueue<Attempt>();
+
+        Attempt first = start(database, sql, parameters, deadline, completed);
+        Attempt second = null;
+        Attempt failed = null;
+
+        try {
+
+            //wait for the first attempt until it is time to hedge
+            long hedgeDelay = getHedgeDelayMillis();
+            if (hedgeDelay > 0 && isReadOnly(sql)) {
+
+                Attempt attempt = completed.poll(Math.min(TimeUnit.MILLISECONDS.toNanos(hedgeDelay), end - System.nanoTime()), TimeUnit.NANOSECONDS);
+
+                //only slow queries are hedged, a failed query would most likely fail again
+                if (attempt != null && attempt.exception == null)
+                    return answered(attempt, start);
+                if (attempt != null)
+                    throw new DatabaseException("Exception while executing query '" + sql + "'.", attempt.exception);
+
+                long remaining = end - System.nanoTime();
+                if (remaining > 0) {
+                    //the hedged query gets the time left until the deadline
+                    long hedgeDeadline = deadline > 0 ? Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)) : 0;
+                    second = start(hedgeDatabase, sql, parameters, hedgeDeadline, completed);
+                    hedgeCount.incrementAndGet();
+                    logger.debug("Hedged query '" + sql + "' after " + hedgeDelay + " ms.");
+                }
+
+            }
+
+            int running = second == null ? 1 : 2;
+
+            while (running > 0) {
+
+                long remaining = end - System.nanoTime();
+                Attempt attempt = remaining > 0 ? completed.poll(remaining, TimeUnit.NANOSECONDS) : null;
+
+                if (attempt == null) {
+                    deadlineExceededCount.incrementAndGet();
+                    throw new DatabaseException("Query '" + sql + "' exceeded its deadline of " + deadline + " ms.");
+                }
+
+                if (attempt.exception == null) {
+                    if (attempt == second)
+                        hedgeWinCount.incrementAndGet();
+                    return answered(attempt, start);
+                }
+
+                if (failed == null)
+                    failed = attempt;
+                running--;
+
+            }
+
+            throw new DatabaseException("Exception while executing query '" + sql + "'.", failed.exception);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseException("Interrupted while executing query '" + sql + "'.", e);
+        } finally {
+            first.cancel();
+            if (second != null)
+                second.cancel();
+        }
+
+    }
+
+    /**
+     * Returns the delay after which a read-only query is hedged.
+     *
+     * @return the delay in milliseconds, 0 if queries are not hedged
+     */
+    public long getHedgeDelayMillis() {
+
+        if (!hedging || latencies.getCount() < minSamples)
+            return 0;
+
+        return Math.max(minHedgeDelay, (long) Math.ceil(latencies.getPercentileMillis(hedgePercentile)));
+
+    }
+
+    /**
+     * Records the latency of an answered query and returns its result. If the hedged
+     * query answered first, the latency recorded is a lower bound of the first query's.
+     */
+    private QueryResult answered(Attempt attempt, long start) {
+
+        latencies.record(System.nanoTime() - start);
+
+        return attempt.result;
+
+    }
+
+    /**
+     * Checks if a query only reads, so it can be issued twice. Queries containing a
+     * keyword of a writing statement (e.g. <code>SELECT ... INTO</code>,
+     * <code>SELECT ... FOR UPDATE</code>) are not taken for read-only.
+     */
+    static boolean isReadOnly(String sql) {
+
+        String statement = sql.trim().toUpperCase();
+
+        return (statement.startsWith("SELECT") || statement.startsWith("WITH") || statement.startsWith("SHOW"))
+                && !WRITE_KEYWORDS.matcher(statement).find();
+
+    }
+
+    private static Attempt start(Database database, String sql, Object[] parameters, long deadline, BlockingQueue<Attempt> completed) throws DatabaseException {
+
+        Attempt retVal = new Attempt(database, sql, parameters, deadline, completed);
+
+        try {
+            AsyncDatabase.getExecutor().execute(retVal);
+        } catch (RejectedExecutionException e) {
+            throw new DatabaseException("Cannot execute query '" + sql + "'.", e);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * One execution of a query, cancelled if it has not returned when no longer needed.
+     */
+    private static class Attempt implements Runnable {
+
+        private Database database;
+
+        private String sql;
+
+        private Object[] parameters;
+
+        private long deadline;
+
+        /**
+         * the queue the attempt is added to when it has returned
+         */
+        private BlockingQueue<Attempt> completed;
+
+        /**
+         * the statement executing the query, <code>null</code> until prepared
+         */
+        private PreparedStatement statement;
+
+        /**
+         * true once the attempt is no longer needed
+         */
+        private boolean cancelled;
+
+        private QueryResult result;
+
+        private Exception exception;
+
+        private Attempt(Database database, String sql, Object[] parameters, long deadline, BlockingQueue<Attempt> completed) {
+            this.database = database;
+            this.sql = sql;
+            this.parameters = parameters;
+            this.deadline = deadline;
+            this.completed = completed;
+        }
+
+        public void run() {
+
+            Connection connection = null;
+            PreparedStatement prepared = null;
+            ResultSet resultSet = null;
+
+            try {
+
+                connection = database.getConnection();
+
+                prepared = connection.prepareStatement(sql);
+                if (database instanceof AbstractDatabase)
+                    prepared = ((AbstractDatabase) database).tuneFetchSize(prepared, sql);
+                if (deadline > 0)
+                    prepared.setQueryTimeout((int) Math.max(1, (deadline + 999) / 1000));
+                SqlUtil.setParameters(prepared, parameters);
+
+                synchronized (this) {
+                    if (cancelled)
+                        return;
+                    statement = prepared;
+                }
+
+                resultSet = prepared.executeQuery();
+                result = QueryResult.read(resultSet);
+
+            } catch (Exception e) {
+                exception = e;
+            } finally {
+                synchronized (this) {
+                    statement = null;
+                }
+                //cancelled and failed attempts must not leave statements on pooled connections
+                if (resultSet != null) {
+                    try {
+                        resultSet.close();
+                    } catch (SQLException e) {
+                        logger.warn(e);
+                    }
+                }
+                if (prepared != null) {
+                    try {
+                        prepared.close();
+                    } catch (SQLException e) {
+                        logger.warn(e);
+                    }
+                }
+                if (connection != null) {
+                    try {
+                        connection.close();
+                    } catch (SQLException e) {
+                        logger.warn(e);
+                    }
+                }
+                completed.add(this);
+            }
+
+        }
+
+        /**
+         * Cancels the query unless it has returned.
+         */
+        private synchronized void cancel() {
+
+            cancelled = true;
+
+            if (statement != null) {
+                try {
+                    statement.cancel();
+                } catch (SQLException e) {
+                    logger.debug("Cannot cancel query '" + sql + "': " + e);
+                }
+            }
+
+        }
+
+    }
+
+    ///////////////////
+    //getters & setters
+
+    /**
+     * Returns the database queried first.
+     *
+     * @return the database
+     */
+    public Database getDatabase() {
+        return database;
+    }
+
+    /**
+     * Returns the database hedged queries are issued on.
+     *
+     * @return the hedge database
+     */
+    public Database getHedgeDatabase() {
+        return hedgeDatabase;
+    }
+
+    /**
+     * Sets the database hedged queries are issued on, e.g. a mirror of the database.
+     *
+     * @param hedgeDatabase the hedge database
+     */
+    public void setHedgeDatabase(Database hedgeDatabase) {
+        this.hedgeDatabase = hedgeDatabase;
+    }
+
+    /**
+     * Returns whether read-only queries are hedged.
+     *
+     * @return true if queries are hedged
+     */
+    public boolean isHedging() {
+        return hedging;
+    }
+
+    /**
+     * Enables or disables hedging of read-only queries.
+     *
+     * @param hedging true to hedge
+     */
+    public void setHedging(boolean hedging) {
+        this.hedging = hedging;
+    }
+
+    /**
+     * Returns the latency percentile after which a read-only query is hedged.
+     *
+     * @return the percentile (0 - 100)
+     */
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    /**
+     * Sets the latency percentile after which a read-only query is hedged.
+     *
+     * @param hedgePercentile the percentile (0 - 100)
+     */
+    public void setHedgePercentile(double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    /**
+     * Returns the deadline of queries executed without one.
+     *
+     * @return the deadline in milliseconds, 0 for none
+     */
+    public long getDefaultDeadline() {
+        return defaultDeadline;
+    }
+
+    /**
+     * Sets the deadline of queries executed without one.
+     *
+     * @param defaultDeadline the deadline in milliseconds, 0 for none
+     */
+    public void setDefaultDeadline(long defaultDeadline) {
+        this.defaultDeadline = defaultDeadline;
+    }
+
+    /**
+     * Returns the latencies of the answered queries, from which the hedge delay is taken.
+     *
+     * @return the latency histogram
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * Returns the number of queries executed.
+     *
+     * @return the query count
+     */
+    public long getQueryCount() {
+        return queryCount.get();
+    }
+
+    /**
+     * Returns the number of queries that were hedged.
+     *
+     * @return the hedge count
+     */
+    public long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * Returns the number of hedged queries that answered before the query they hedged.
+     *
+     * @return the hedge win count
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    /**
+     * Returns the number of queries cancelled at their deadline.
+     *
+     * @return the deadline exceeded count
+     */
+    public long getDeadlineExceededCount() {
+        return deadlineExceededCount.get();
+    }
+
+}
@@ -0,0 +1,446 @@
+package org.dbtools;
+
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routes new connections across a list of equivalent database hosts (e.g. mirrors
+ * of the same database server).
+ * <p/>
+ * The router keeps an exponentially weighted moving average of the round trip time
+ * of each host. It is updated by every connection established through the router and
+ * by background probes which periodically connect to every host and execute a
+ * trivial query. New connections are established to the healthy host with the lowest
+ * average round trip time; if that fails the next best host is tried.
+ * <p/>
+ * A host is ejected after a number of consecutive failures and is not used until
+ * a probe succeeds again or the ejection time has passed. A host whose average round
+ * trip time exceeds that of the fastest host by the configured factor is treated as
+ * slow and only used if no other host is available. If all hosts are ejected, they
+ * are tried anyway in order of their round trip time.
+ * <p/>
+ * The router is configured by the following properties:
+ * <ul>
+ * <li><code>dbtools.router.probe.interval</code> - the probe interval in milliseconds</li>
+ * <li><code>dbtools.router.probe.query</code> - the query executed by probes</li>
+ * <li><code>dbtools.router.max.failures</code> - consecutive failures before a host is ejected</li>
+ * <li><code>dbtools.router.eject.time</code> - the time in milliseconds a failed host is ejected for</li>
+ * <li><code>dbtools.router.slow.factor</code> - factor by which a host may be slower than the fastest host</li>
+ * <li><code>dbtools.router.slow.margin</code> - additional latency in milliseconds tolerated before a host is slow</li>
+ * </ul>
+ */
+public class HostRouter {
+
+    /**
+     * the weight of a new round trip time in the moving average
+     */
+    private static final double EWMA_WEIGHT = 0.3;
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(HostRouter.class);
+
+    /**
+     * the hosts in order of preference
+     */
+    private List<RoutedHost> hosts = new ArrayList<RoutedHost>();
+
+    /**
+     * the probe scheduler, <code>null</code> if not probing
+     */
+    private ScheduledExecutorService prober;
+
+    private long probeInterval = Configuration.getInstance().getLongProperty("dbtools.router.probe.interval");
+
+    private String probeQuery = Configuration.getInstance().getProperty("dbtools.router.probe.query");
+
+    private int maxFailures = Configuration.getInstance().getIntProperty("dbtools.router.max.failures");
+
+    private long ejectTime = Configuration.getInstance().getLongProperty("dbtools.router.eject.time");
+
+    private double slowFactor = Configuration.getInstance().getDoubleProperty("dbtools.router.slow.factor");
+
+    private double slowMargin = Configuration.getInstance().getDoubleProperty("dbtools.router.slow.margin");
+
+    /**
+     * Constructs a router for a list of equivalent hosts.
+     *
+     * @param hosts       the hosts in order of preference, in the format <code>host[:port]</code>
+     * @param defaultPort the port to use for hosts without port
+     */
+    public HostRouter(List<String> hosts, int defaultPort) {
+
+        if (hosts == null || hosts.size() == 0)
+            throw new IllegalArgumentException("At least one host is required.");
+
+        for (String host : hosts) {
+
+            host = host.trim();
+            int separator = host.lastIndexOf(':');
+
+            if (separator == -1)
+                this.hosts.add(new RoutedHost(host, defaultPort, this.hosts.size()));
+            else
+                this.hosts.add(new RoutedHost(host.substring(0, separator),
+                        Integer.parseInt(host.substring(separator + 1)),
+                        this.hosts.size()));
+
+        }
+
+    }
+
+    /**
+     * Parses a comma separated list of hosts as used in the configuration properties.
+     *
+     * @param hostList the host list, e.g. <code>host1:3306,host2:3306</code>
+     * @return the hosts, an empty list if the host list is <code>null</code> or empty
+     */
+    public static List<String> parseHostList(String hostList) {
+
+        List<String> retVal = new ArrayList<String>();
+
+        if (hostList == null)
+            return retVal;
+
+        for (String host : hostList.split(",")) {
+            if (host.trim().length() > 0)
+                retVal.add(host.trim());
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Establishes a connection to the fastest healthy host. If the connection attempt
+     * fails, the remaining hosts are tried in order of their round trip time.
+     *
+     * @param database the database to build the connection URL
+     * @param user     the user name
+     * @param password the password
+     * @return the connection
+     * @throws SQLException the exception of the last connection attempt if no host can be connected to
+     */
+    public Connection connect(AbstractDatabase database, String user, String password) throws SQLException {
+
+        SQLException lastException = null;
+
+        for (RoutedHost host : rankHosts()) {
+
+            long start = System.nanoTime();
+            try {
+                Connection retVal = DriverManager.getConnection(database.buildURL(host.host, host.port), user, password);
+                recordSuccess(host, System.nanoTime() - start);
+                return retVal;
+            } catch (SQLException e) {
+                recordFailure(host, e);
+                lastException = e;
+            }
+
+        }
+
+        throw lastException;
+
+    }
+
+    /**
+     * Starts probing the hosts in the background.
+     *
+     * @param probeDatabase the database used to build connection URLs and credentials for probes
+     */
+    public synchronized void startProbing(final AbstractDatabase probeDatabase) {
+
+        if (prober != null)
+            return;
+
+        prober = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread retVal = new Thread(runnable, "dbtools-host-router");
+                retVal.setDaemon(true);
+                return retVal;
+            }
+        });
+
+        prober.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                probe(probeDatabase);
+            }
+        }, 0, probeInterval, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Stops probing the hosts.
+     */
+    public synchronized void shutdown() {
+
+        if (prober != null) {
+            prober.shutdownNow();
+            prober = null;
+        }
+
+    }
+
+    /**
+     * Probes each host once by connecting and executing the probe query.
+     *
+     * @param probeDatabase the database used to build connection URLs and credentials
+     */
+    public void probe(AbstractDatabase probeDatabase) {
+
+        for (RoutedHost host : hosts) {
+
+            Connection connection = null;
+            long start = System.nanoTime();
+
+            try {
+
+                probeDatabase.ensureDriverLoaded();
+                connection = DriverManager.getConnection(probeDatabase.buildURL(host.host, host.port),
+                        probeDatabase.getUser(), new String(probeDatabase.password));
+                Statement statement = connection.createStatement();
+                statement.execute(probeQuery);
+                statement.close();
+
+                recordSuccess(host, System.nanoTime() - start);
+
+            } catch (SQLException e) {
+                recordFailure(host, e);
+            } finally {
+                if (connection != null) {
+                    try {
+                        connection.close();
+                    } catch (SQLException e) {
+                        logger.warn(e);
+                    }
+                }
+            }
+
+        }
+
+    }
+
+    /**
+     * Returns the hosts ordered by preference: healthy hosts by round trip time,
+     * followed by slow hosts, followed by ejected hosts.
+     *
+     * @return the ranked hosts
+     */
+    public synchronized List<RoutedHost> rankHosts() {
+
+        final long now = System.currentTimeMillis();
+
+        double best = Double.MAX_VALUE;
+        for (RoutedHost host : hosts) {
+            if (!host.isEjected(now) && host.latencyMillis >= 0)
+                best = Math.min(best, host.latencyMillis);
+        }
+        final double slowThreshold = best * slowFactor + slowMargin;
+
+        List<RoutedHost> retVal = new ArrayList<RoutedHost>(hosts);
+        Collections.sort(retVal, new Comparator<RoutedHost>() {
+            public int compare(RoutedHost h1, RoutedHost h2) {
+
+                int c = rank(h1) - rank(h2);
+                if (c != 0)
+                    return c;
+
+                //hosts without measurement in order of preference after measured ones
+                double l1 = h1.latencyMillis < 0 ? Double.MAX_VALUE : h1.latencyMillis;
+                double l2 = h2.latencyMillis < 0 ? Double.MAX_VALUE : h2.latencyMillis;
+                c = Double.compare(l1, l2);
+
+                return c != 0 ? c : h1.index - h2.index;
+
+            }
+
+            private int rank(RoutedHost host) {
+                if (host.isEjected(now))
+                    return 2;
+                if (host.latencyMillis > slowThreshold)
+                    return 1;
+                return 0;
+            }
+        });
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the host new connections are currently routed to.
+     *
+     * @return the preferred host
+     */
+    public RoutedHost getPreferredHost() {
+        return rankHosts().get(0);
+    }
+
+    /**
+     * Returns the hosts in order of configuration.
+     *
+     * @return the hosts
+     */
+    public List<RoutedHost> getHosts() {
+        return Collections.unmodifiableList(hosts);
+    }
+
+    /**
+     * Records a successful connection or probe.
+     *
+     * @param host  the host
+     * @param nanos the round trip time in nanoseconds
+     */
+    synchronized void recordSuccess(RoutedHost host, long nanos) {
+
+        double millis = nanos / 1000000.0;
+
+        if (host.latencyMillis < 0)
+            host.latencyMillis = millis;
+        else
+            host.latencyMillis = EWMA_WEIGHT * millis + (1 - EWMA_WEIGHT) * host.latencyMillis;
+
+        if (host.ejectedUntil != 0)
+            logger.info("Host " + host + " recovered.");
+
+        host.consecutiveFailures = 0;
+        host.ejectedUntil = 0;
+
+    }
+
+    /**
+     * Records a failed connection or probe, ejecting the host if it failed too often.
+     *
+     * @param host      the host
+     * @param exception the exception that occured
+     */
+    synchronized void recordFailure(RoutedHost host, SQLException exception) {
+
+        host.consecutiveFailures++;
+
+        if (host.consecutiveFailures >= maxFailures) {
+
+            if (host.ejectedUntil == 0)
+                logger.warn("Ejecting host " + host + " after " + host.consecutiveFailures + " consecutive failures: " + exception.getMessage());
+
+            host.ejectedUntil = System.currentTimeMillis() + ejectTime;
+
+        }
+
+    }
+
+    /**
+     * A host known to the router.
+     */
+    public static class RoutedHost {
+
+        /**
+         * the host name/IP address
+         */
+        private String host;
+
+        /**
+         * the port
+         */
+        private int port;
+
+        /**
+         * the position in the configured host list
+         */
+        private int index;
+
+        /**
+         * the moving average of the round trip time, negative if not yet measured
+         */
+        private volatile double latencyMillis = -1;
+
+        /**
+         * the number of consecutive failures
+         */
+        private volatile int consecutiveFailures;
+
+        /**
+         * the time until which the host is ejected, 0 if the host is not ejected
+         */
+        private volatile long ejectedUntil;
+
+        private RoutedHost(String host, int port, int index) {
+            this.host = host;
+            this.port = port;
+            this.index = index;
+        }
+
+        /**
+         * Returns the host name/IP address.
+         *
+         * @return the host
+         */
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * Returns the port.
+         *
+         * @return the port
+         */
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * Returns the moving average of the host's round trip time.
+         *
+         * @return the round trip time in milliseconds, negative if not yet measured
+         */
+        public double getLatencyMillis() {
+            return latencyMillis;
+        }
+
+        /**
+         * Returns the number of consecutive failed connection attempts and probes.
+         *
+         * @return the number of failures
+         */
+        public int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+
+        /**
+         * Returns whether the host is currently ejected.
+         *
+         * @return true if the host is ejected
+         */
+        public boolean isEjected() {
+            return isEjected(System.currentTimeMillis());
+        }
+
+        private boolean isEjected(long now) {
+            return ejectedUntil > now;
+        }
+
+        /**
+         * Returns the host in the format <code>host:port</code>.
+         *
+         * @return the string representation
+         */
+        public String toString() {
+            return host + ":" + port;
+        }
+
+    }
+
+}
@@ -0,0 +1,182 @@
+package org.dbtools;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of operation latencies.
+ * <p/>
+ * Latencies are counted in fixed buckets with upper bounds in milliseconds
+ * (see {@link #getBucketBounds()}). The last bucket counts all latencies
+ * exceeding the largest bound. Recording a latency is a handful of atomic
+ * increments and can safely be called from many threads.
+ */
+public class LatencyHistogram {
+
+    /**
+     * the upper bucket bounds in milliseconds
+     */
+    private static final long[] BUCKET_BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000};
+
+    /**
+     * the bucket counts, the last bucket counts latencies above the largest bound
+     */
+    private AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+
+    /**
+     * the number of recorded latencies
+     */
+    private AtomicLong count = new AtomicLong();
+
+    /**
+     * the sum of all recorded latencies in nanoseconds
+     */
+    private AtomicLong totalNanos = new AtomicLong();
+
+    /**
+     * the largest recorded latency in nanoseconds
+     */
+    private AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+
+        if (nanos < 0)
+            nanos = 0;
+
+        buckets.incrementAndGet(bucketIndex(nanos / 1000000));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+
+        long max;
+        while (nanos > (max = maxNanos.get())) {
+            if (maxNanos.compareAndSet(max, nanos))
+                break;
+        }
+
+    }
+
+    /**
+     * Returns the index of the bucket a latency falls into.
+     *
+     * @param millis the latency in milliseconds
+     * @return the bucket index
+     */
+    private int bucketIndex(long millis) {
+
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            if (millis < BUCKET_BOUNDS[i])
+                return i;
+        }
+
+        return BUCKET_BOUNDS.length;
+
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the mean of the recorded latencies.
+     *
+     * @return the mean latency in milliseconds, 0 if nothing has been recorded
+     */
+    public double getMeanMillis() {
+
+        long n = count.get();
+        if (n == 0)
+            return 0;
+
+        return totalNanos.get() / (n * 1000000.0);
+
+    }
+
+    /**
+     * Returns the largest recorded latency.
+     *
+     * @return the maximum latency in milliseconds
+     */
+    public double getMaxMillis() {
+        return maxNanos.get() / 1000000.0;
+    }
+
+    /**
+     * Returns an estimate of the specified percentile of the recorded latencies. The
+     * estimate is the upper bound of the bucket the percentile falls into, or the maximum
+     * latency if it falls into the last bucket.
+     *
+     * @param percentile the percentile (0 - 100)
+     * @return the percentile estimate in milliseconds, 0 if nothing has been recorded
+     */
+    public double getPercentileMillis(double percentile) {
+
+        long[] counts = getBucketCounts();
+
+        long total = 0;
+        for (long c : counts)
+            total += c;
+
+        if (total == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(BUCKET_BOUNDS[i], getMaxMillis());
+        }
+
+        return getMaxMillis();
+
+    }
+
+    /**
+     * Returns a snapshot of the bucket counts.
+     *
+     * @return the counts, one more than there are bucket bounds
+     */
+    public long[] getBucketCounts() {
+
+        long[] retVal = new long[buckets.length()];
+        for (int i = 0; i < retVal.length; i++)
+            retVal[i] = buckets.get(i);
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the upper bounds of the histogram buckets.
+     *
+     * @return the bucket bounds in milliseconds
+     */
+    public static long[] getBucketBounds() {
+        return BUCKET_BOUNDS.clone();
+    }
+
+    /**
+     * Discards all recorded latencies.
+     */
+    public void reset() {
+
+        for (int i = 0; i < buckets.length(); i++)
+            buckets.set(i, 0);
+
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+
+    }
+
+}
@@ -0,0 +1,244 @@
+package org.dbtools;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Wraps JDBC connections in dynamic proxies that record connection and statement
+ * metrics in a {@link DatabaseMetrics} object.
+ * <p/>
+ * Statements created by a monitored connection are monitored as well: every call
+ * of an <code>execute*</code> method is timed. Note that for queries this is the
+ * time until the result set is returned, fetching rows is not included.
+ */
+class MonitoredConnection implements InvocationHandler {
+
+    /**
+     * the monitored connection
+     */
+    private Connection connection;
+
+    /**
+     * the proxy handed out to the caller
+     */
+    private Connection proxy;
+
+    /**
+     * the metrics to record to
+     */
+    private DatabaseMetrics metrics;
+
+    /**
+     * the number of statements currently executing on the connection
+     */
+    private AtomicInteger executing = new AtomicInteger();
+
+    /**
+     * true once the connection has been closed
+     */
+    private AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Constructs a handler for a monitored connection.
+     *
+     * @param connection the connection
+     * @param metrics    the metrics to record to
+     */
+    private MonitoredConnection(Connection connection, DatabaseMetrics metrics) {
+        this.connection = connection;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Wraps a connection so that its use is recorded.
+     *
+     * @param connection the connection
+     * @param metrics    the metrics to record to
+     * @return the monitored connection
+     */
+    static Connection wrap(Connection connection, DatabaseMetrics metrics) {
+
+        MonitoredConnection handler = new MonitoredConnection(connection, metrics);
+        handler.proxy = (Connection) Proxy.newProxyInstance(
+                MonitoredConnection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                handler);
+
+        return handler.proxy;
+
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+        String name = method.getName();
+
+        if (name.equals("equals"))
+            return proxy == args[0];
+        if (name.equals("hashCode"))
+            return System.identityHashCode(proxy);
+
+        if (name.equals("close") && closed.compareAndSet(false, true))
+            metrics.connectionClosed();
+
+        Object retVal = invokeTarget(connection, method, args);
+
+        if (retVal instanceof Statement)
+            retVal = wrapStatement((Statement) retVal);
+
+        return retVal;
+
+    }
+
+    /**
+     * Wraps a statement created by the monitored connection.
+     *
+     * @param statement the statement
+     * @return the monitored statement
+     */
+    private Statement wrapStatement(Statement statement) {
+
+        Class<?> statementInterface;
+        if (statement instanceof CallableStatement)
+            statementInterface = CallableStatement.class;
+        else if (statement instanceof PreparedStatement)
+            statementInterface = PreparedStatement.class;
+        else
+            statementInterface = Statement.class;
+
+        MonitoredStatement handler = new MonitoredStatement(statement);
+        handler.proxy = (Statement) Proxy.newProxyInstance(
+                MonitoredConnection.class.getClassLoader(),
+                new Class<?>[]{statementInterface},
+                handler);
+
+        return handler.proxy;
+
+    }
+
+    /**
+     * Invokes a method on the proxied object, unwrapping exceptions thrown by it.
+     *
+     * @param target the proxied object
+     * @param method the method
+     * @param args   the method arguments
+     * @return the method's return value
+     * @throws Throwable the exception thrown by the method
+     */
+    private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Times statement executions.
+     */
+    private class MonitoredStatement implements InvocationHandler {
+
+        /**
+         * the monitored statement
+         */
+        private Statement statement;
+
+        /**
+         * the proxy handed out to the caller
+         */
+        private Statement proxy;
+
+        /**
+         * Constructs a handler for a monitored statement.
+         *
+         * @param statement the statement
+         */
+        private MonitoredStatement(Statement statement) {
+            this.statement = statement;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            String name = method.getName();
+
+            if (name.equals("equals"))
+                return proxy == args[0];
+            if (name.equals("hashCode"))
+                return System.identityHashCode(proxy);
+
+            //hand out the monitored connection rather than the underlying one
+            if (name.equals("getConnection"))
+                return MonitoredConnection.this.proxy;
+
+            if (!name.startsWith("execute"))
+                return wrapResultSet(invokeTarget(statement, method, args));
+
+            if (executing.incrementAndGet() == 1)
+                metrics.connectionActivated();
+
+            boolean failed = true;
+            long start = System.nanoTime();
+            try {
+                Object retVal = wrapResultSet(invokeTarget(statement, method, args));
+                failed = false;
+                return retVal;
+            } finally {
+                metrics.statementExecuted(System.nanoTime() - start, failed);
+                if (executing.decrementAndGet() == 0)
+                    metrics.connectionDeactivated();
+            }
+
+        }
+
+        /**
+         * Wraps a result set returned by the statement, so that it returns the monitored statement.
+         *
+         * @param value the value returned by a statement method
+         * @return the wrapped result set or the value if it is not a result set
+         */
+        private Object wrapResultSet(Object value) {
+
+            if (!(value instanceof ResultSet))
+                return value;
+
+            final ResultSet resultSet = (ResultSet) value;
+
+            return Proxy.newProxyInstance(
+                    MonitoredConnection.class.getClassLoader(),
+                    new Class<?>[]{ResultSet.class},
+                    new InvocationHandler() {
+                        public Object invoke(Object resultSetProxy, Method method, Object[] args) throws Throwable {
+
+                            String name = method.getName();
+
+                            if (name.equals("equals"))
+                                return resultSetProxy == args[0];
+                            if (name.equals("hashCode"))
+                                return System.identityHashCode(resultSetProxy);
+                            if (name.equals("getStatement"))
+                                return proxy;
+
+                            return invokeTarget(resultSet, method, args);
+
+                        }
+                    });
+
+        }
+
+    }
+
+}
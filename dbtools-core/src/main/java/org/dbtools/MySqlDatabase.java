@@ -1,5 +1,13 @@
 package org.dbtools;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Implementation of {@link AbstractDatabase} to access a MySQL database.
  * <p/>
@@ -18,7 +26,7 @@ public class MySqlDatabase extends AbstractDatabase {
     /**
      * the MySQL "well known" port
      */
-    private static int defaultPort = Integer.parseInt(Configuration.getInstance().getProperty("mysql.default.port"));
+    private static int defaultPort = Configuration.getInstance().getIntProperty("mysql.default.port");
 
     /**
      * Constructs a Database object representing a MySQL database.
@@ -72,12 +80,139 @@ public class MySqlDatabase extends AbstractDatabase {
         super(VENDOR_MYSQL, driver, host, port, schema);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The MySQL driver reads the complete result into memory unless the fetch size
+     * is set to <code>Integer.MIN_VALUE</code>, in which case rows are streamed one
+     * by one. No other statement can be executed on the connection until the
+     * result set has been read completely or closed.
+     * <p/>
+     * If the configuration property <code>mysql.cursor.fetch</code> is <code>true</code>,
+     * connections are opened with <code>useCursorFetch=true</code> and the result is read
+     * through a server-side cursor in fetches whose size adapts to the row width and the
+     * round trip (see {@link #tuneFetchSize(PreparedStatement, String)}). The server then
+     * materialises the result in a temporary table before sending the first row, which
+     * is why streaming row by row is the default.
+     */
+    public PreparedStatement prepareStreamingStatement(Connection connection, String sql) throws SQLException {
+
+        PreparedStatement retVal = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+        if (!isCursorFetch()) {
+            retVal.setFetchSize(Integer.MIN_VALUE);
+            return retVal;
+        }
+
+        retVal.setFetchSize(Configuration.getInstance().getIntProperty("dbtools.streaming.fetch.size"));
+
+        return super.tuneFetchSize(retVal, sql);
+
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Statements other than streaming statements are not tuned: their results are read
+     * completely, the MySQL server sends all rows without waiting for the client to
+     * request the next ones, so there are no round trips to adapt to. Streaming
+     * statements are tuned if they read through a cursor, see
+     * {@link #prepareStreamingStatement(Connection, String)}.
+     */
+    public PreparedStatement tuneFetchSize(PreparedStatement statement, String sql) throws SQLException {
+        return statement;
+    }
+
+    /**
+     * Checks if results are read through server-side cursors, as set by the configuration
+     * property <code>mysql.cursor.fetch</code>.
+     *
+     * @return true if cursor fetch is enabled
+     */
+    public boolean isCursorFetch() {
+        return Configuration.getInstance().getBooleanProperty("mysql.cursor.fetch");
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Reads the columns and the indexes of all tables with one query of
+     * <code>information_schema</code> each.
+     */
+    protected SchemaMetadata readSchemaMetadata(Connection connection) throws SQLException {
+        return SchemaMetadata.readMySql(connection, schema);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Builds an <code>INSERT ... ON DUPLICATE KEY UPDATE</code> statement with a VALUES
+     * list of all rows. Note that MySQL detects duplicates by any unique key of the
+     * table, not just by the key columns.
+     */
+    protected String buildUpsertSql(Connection connection, String table, String[] columns, String[] keyColumns, int rows) {
+
+        List<String> keys = Arrays.asList(keyColumns);
+
+        StringBuffer update = new StringBuffer();
+        for (String column : columns) {
+            if (!keys.contains(column))
+                update.append(update.length() > 0 ? ", " : " ON DUPLICATE KEY UPDATE ").append(column).append(" = VALUES(").append(column).append(")");
+        }
+
+        //key only rows are left as they are
+        StringBuffer retVal = new StringBuffer(update.length() > 0 ? "INSERT INTO " : "INSERT IGNORE INTO ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++)
+            retVal.append(i > 0 ? ", " : "").append(columns[i]);
+        retVal.append(") VALUES ");
+
+        for (int r = 0; r < rows; r++) {
+            retVal.append(r > 0 ? ", (" : "(");
+            for (int i = 0; i < columns.length; i++)
+                retVal.append(i > 0 ? ", ?" : "?");
+            retVal.append(")");
+        }
+
+        return retVal.append(update).toString();
+
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The driver sends each statement of a batch separately, so rows are sent in one
+     * statement instead, up to 1000 rows and below the limit of 65535 parameters.
+     */
+    protected int getUpsertRowsPerStatement(int columnCount) {
+        return Math.max(1, Math.min(1000, 65535 / columnCount));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Reads the session variable <code>wait_timeout</code>.
+     */
+    protected long getServerIdleTimeout(Connection connection) throws SQLException {
+
+        long retVal = 0;
+
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT @@session.wait_timeout");
+        if (rs.next())
+            retVal = rs.getLong(1) * 1000;
+        rs.close();
+        statement.close();
+
+        return retVal;
+
+    }
+
     /**
      * {@inheritDoc}
      */
-    protected String buildURL() {
+    protected String buildURL(String host, int port) {
         //format: jdbc:mysql://<host>:<port>/schema
-        return "jdbc:mysql://" + host + ":" + port + "/" + schema;
+        return "jdbc:mysql://" + host + ":" + port + "/" + schema + (isCursorFetch() ? "?useCursorFetch=true" : "");
     }
 
 }
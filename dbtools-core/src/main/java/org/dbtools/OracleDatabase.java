@@ -1,5 +1,8 @@
 package org.dbtools;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+
 /**
  * Implementation of {@link AbstractDatabase} to access an Oracle database.
  * <p/>
@@ -18,7 +21,7 @@ public class OracleDatabase extends AbstractDatabase {
     /**
      * the Oracle "well known" port
      */
-    private static int defaultPort = Integer.parseInt(Configuration.getInstance().getProperty("oracle.default.port"));
+    private static int defaultPort = Configuration.getInstance().getIntProperty("oracle.default.port");
 
     /**
      * thr Oracle instance
@@ -114,9 +117,52 @@ public class OracleDatabase extends AbstractDatabase {
     /**
      * {@inheritDoc}
      */
-    protected String buildURL() {
+    protected String buildURL(String host, int port) {
         //format: jdbc:oracle:thin:@<host>:<port>:<instance>/<schema>
         return "jdbc:oracle:thin:@" + host + ":" + port + ":" + instance;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Looks up the tables in the schema of the same name, which Oracle stores
+     * in upper case unless the name was quoted when the schema was created.
+     */
+    protected SchemaMetadata readSchemaMetadata(Connection connection) throws SQLException {
+
+        String schemaPattern = schema;
+        if (schemaPattern == null)
+            schemaPattern = connection.getMetaData().getUserName();
+        else if (schemaPattern.equals(schemaPattern.toLowerCase()))
+            schemaPattern = schemaPattern.toUpperCase();
+
+        return SchemaMetadata.read(connection, schema, null, schemaPattern);
+
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Builds a MERGE statement with the row selected from DUAL as source.
+     */
+    protected String buildUpsertSql(Connection connection, String table, String[] columns, String[] keyColumns, int rows) {
+
+        StringBuffer source = new StringBuffer("(SELECT ");
+        for (int i = 0; i < columns.length; i++)
+            source.append(i > 0 ? ", ? " : "? ").append(columns[i]);
+        source.append(" FROM DUAL) v");
+
+        return buildMergeSql(table, columns, keyColumns, source.toString());
+
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Oracle does not accept a SELECT without a table.
+     */
+    protected String getValidationQuery() {
+        return "SELECT 1 FROM DUAL";
+    }
+
 }
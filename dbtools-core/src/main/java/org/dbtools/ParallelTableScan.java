@@ -0,0 +1,624 @@
+package org.dbtools;
+
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scans a table in parallel by ranges of an integer key.
+ * <p/>
+ * The scan determines the smallest and largest key value, splits the key
+ * space into ranges and reads the ranges concurrently, each on its own
+ * connection. Each range is read in key order. When a thread runs out of
+ * ranges it splits the remaining part of the range with the most keys left
+ * and continues with its upper half, so slow ranges are shared out instead of
+ * holding up the end of the scan.
+ * <p/>
+ * Rows are passed to a {@link RowHandler}, one row at a time. In unordered
+ * mode rows are passed as soon as they are read. In ordered mode rows are
+ * passed in key order by the calling thread; rows of later ranges are buffered
+ * up to a bounded number per range.
+ * <p/>
+ * The number of threads, the initial number of ranges per thread and the
+ * smallest number of keys worth splitting off are set by the configuration
+ * properties <code>dbtools.scan.threads</code>, <code>dbtools.scan.ranges.per.thread</code>
+ * and <code>dbtools.scan.min.split.size</code>.
+ */
+public class ParallelTableScan {
+
+    /**
+     * marks the end of the rows of a range in ordered mode
+     */
+    private static final Object[] END = new Object[0];
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(ParallelTableScan.class);
+
+    /**
+     * the database to scan
+     */
+    private Database database;
+
+    /**
+     * the table to scan
+     */
+    private String table;
+
+    /**
+     * the integer key column
+     */
+    private String keyColumn;
+
+    /**
+     * the columns to read
+     */
+    private String columns = "*";
+
+    /**
+     * an SQL condition restricting the rows, <code>null</code> for all rows
+     */
+    private String condition;
+
+    /**
+     * the parameter values of the condition
+     */
+    private Object[] parameters = new Object[0];
+
+    /**
+     * true if rows are passed in key order
+     */
+    private boolean ordered;
+
+    /**
+     * the number of ranges read concurrently
+     */
+    private int threads = Configuration.getInstance().getIntProperty("dbtools.scan.threads");
+
+    /**
+     * the number of ranges per thread the key space is split into initially
+     */
+    private int rangesPerThread = Configuration.getInstance().getIntProperty("dbtools.scan.ranges.per.thread");
+
+    /**
+     * the smallest number of keys split off a range
+     */
+    private long minSplitSize = Configuration.getInstance().getLongProperty("dbtools.scan.min.split.size");
+
+    /**
+     * the number of rows buffered per range in ordered mode
+     */
+    private int bufferSize = Configuration.getInstance().getIntProperty("dbtools.streaming.fetch.size");
+
+    ///////////////////////
+    //state of running scan
+
+    private PriorityQueue<Range> pendingRanges;
+
+    private List<Range> activeRanges;
+
+    private TreeMap<Long, Range> orderedRanges;
+
+    private volatile boolean stopped;
+
+    private volatile Throwable failure;
+
+    private AtomicLong rowCount;
+
+    private AtomicLong splitCount;
+
+    /**
+     * Constructs a scan of a table.
+     *
+     * @param database  the database to scan
+     * @param table     the table to scan
+     * @param keyColumn the integer key column
+     */
+    public ParallelTableScan(Database database, String table, String keyColumn) {
+        this.database = database;
+        this.table = table;
+        this.keyColumn = keyColumn;
+    }
+
+    /**
+     * Scans the table.
+     *
+     * @param handler the handler receiving the rows; in unordered mode it is called by
+     *                the scanning threads, one call at a time
+     * @return the number of rows passed to the handler
+     * @throws DatabaseException if an exception occurs while reading the table or handling a row
+     */
+    public long scan(final RowHandler handler) throws DatabaseException {
+
+        long[] bounds = getKeyBounds();
+        if (bounds == null)
+            return 0;
+
+        long start = System.currentTimeMillis();
+
+        //split key space
+        pendingRanges = new PriorityQueue<Range>();
+        activeRanges = new ArrayList<Range>();
+        orderedRanges = new TreeMap<Long, Range>();
+        stopped = false;
+        failure = null;
+        rowCount = new AtomicLong();
+        splitCount = new AtomicLong();
+
+        long keys = bounds[1] - bounds[0] + 1;
+        long rangeCount = Math.max(1, Math.min(threads * rangesPerThread, keys / Math.max(1, minSplitSize)));
+        long rangeSize = (keys + rangeCount - 1) / rangeCount;
+        for (long from = bounds[0]; from <= bounds[1]; from += rangeSize) {
+            Range range = new Range(from, Math.min(from + rangeSize, bounds[1] + 1));
+            pendingRanges.add(range);
+            orderedRanges.put(range.from, range);
+            //guard against overflow at the end of the key space
+            if (from + rangeSize < from)
+                break;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+
+            for (int i = 0; i < threads; i++) {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        work(handler);
+                    }
+                });
+            }
+
+            if (ordered)
+                consume(handler);
+
+            executor.shutdown();
+            while (!executor.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+                if (failure != null)
+                    stopped = true;
+            }
+
+        } catch (InterruptedException e) {
+            stopped = true;
+            Thread.currentThread().interrupt();
+            throw new DatabaseException("Interrupted while scanning table '" + table + "'.", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (failure instanceof DatabaseException)
+            throw (DatabaseException) failure;
+        if (failure instanceof SQLException)
+            throw new DatabaseException("Exception while scanning table '" + table + "'.", (SQLException) failure);
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        if (failure instanceof Error)
+            throw (Error) failure;
+
+        logger.info("Scanned " + rowCount.get() + " rows of table '" + table + "' in " + (System.currentTimeMillis() - start) + " ms, " + splitCount.get() + " ranges split.");
+
+        return rowCount.get();
+
+    }
+
+    /**
+     * Reads the smallest and largest key value.
+     *
+     * @return the key bounds or <code>null</code> if no rows match
+     * @throws DatabaseException if an exception occurs while reading the bounds or the key is not an integer
+     */
+    private long[] getKeyBounds() throws DatabaseException {
+
+        StringBuffer sql = new StringBuffer("SELECT MIN(").append(keyColumn).append("), MAX(").append(keyColumn)
+                .append(") FROM ").append(table);
+        if (condition != null)
+            sql.append(" WHERE ").append(condition);
+
+        QueryResult result = QueryResult.execute(database, sql.toString(), parameters);
+
+        Object min = result.getValue(0, 0);
+        Object max = result.getValue(0, 1);
+
+        if (min == null || max == null)
+            return null;
+
+        if (!(min instanceof Number) || !(max instanceof Number))
+            throw new DatabaseException("Key column '" + keyColumn + "' of table '" + table + "' is not an integer column.");
+
+        return new long[]{((Number) min).longValue(), ((Number) max).longValue()};
+
+    }
+
+    /**
+     * Reads ranges until all ranges are read or the scan stops.
+     *
+     * @param handler the row handler, called directly in unordered mode
+     */
+    private void work(RowHandler handler) {
+
+        try {
+
+            Range range;
+            while (!stopped && (range = nextRange()) != null) {
+
+                read(range, handler);
+
+                synchronized (this) {
+                    activeRanges.remove(range);
+                }
+
+            }
+
+        } catch (Throwable t) {
+            fail(t);
+        }
+
+    }
+
+    /**
+     * Returns the next range to read: a pending range or, if there are none left,
+     * the upper half of the remaining keys of the active range with the most keys left.
+     *
+     * @return the range or <code>null</code> if there is nothing left to split off
+     */
+    private synchronized Range nextRange() {
+
+        Range retVal = pendingRanges.poll();
+
+        if (retVal == null) {
+
+            Range largest = null;
+            long largestRemaining = 0;
+
+            for (Range range : activeRanges) {
+                long remaining = range.getRemaining();
+                if (remaining > largestRemaining) {
+                    largest = range;
+                    largestRemaining = remaining;
+                }
+            }
+
+            if (largest != null && largestRemaining >= 2 * minSplitSize)
+                retVal = largest.split();
+
+            if (retVal != null) {
+                orderedRanges.put(retVal.from, retVal);
+                splitCount.incrementAndGet();
+            }
+
+        }
+
+        if (retVal != null)
+            activeRanges.add(retVal);
+
+        return retVal;
+
+    }
+
+    /**
+     * Reads the rows of a range in key order.
+     *
+     * @param range   the range
+     * @param handler the row handler, called directly in unordered mode
+     * @throws SQLException         if an exception occurs while reading the range
+     * @throws DatabaseException    if the handler fails
+     * @throws InterruptedException if interrupted while waiting for buffer space
+     */
+    private void read(Range range, RowHandler handler) throws SQLException, DatabaseException, InterruptedException {
+
+        StringBuffer sql = new StringBuffer("SELECT ").append(keyColumn).append(", ").append(columns)
+                .append(" FROM ").append(table)
+                .append(" WHERE ").append(keyColumn).append(" >= ? AND ").append(keyColumn).append(" < ?");
+        if (condition != null)
+            sql.append(" AND (").append(condition).append(")");
+        sql.append(" ORDER BY ").append(keyColumn);
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+
+            connection = database.getConnection();
+
+            if (database instanceof AbstractDatabase)
+                statement = ((AbstractDatabase) database).prepareStreamingStatement(connection, sql.toString());
+            else
+                statement = connection.prepareStatement(sql.toString(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+            Object[] values = new Object[parameters.length + 2];
+            values[0] = range.from;
+            values[1] = range.getEnd();
+            System.arraycopy(parameters, 0, values, 2, parameters.length);
+            SqlUtil.setParameters(statement, values);
+
+            ResultSet rs = statement.executeQuery();
+            int columnCount = rs.getMetaData().getColumnCount() - 1;
+
+            while (!stopped && rs.next()) {
+
+                //stop at the part of the range split off by another thread
+                if (!range.advance(rs.getLong(1)))
+                    break;
+
+                Object[] row = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++)
+                    row[i] = rs.getObject(i + 2);
+
+                if (ordered) {
+                    while (!range.buffer.offer(row, 100, TimeUnit.MILLISECONDS)) {
+                        if (stopped)
+                            break;
+                    }
+                } else {
+                    synchronized (handler) {
+                        if (stopped)
+                            break;
+                        rowCount.incrementAndGet();
+                        if (!handler.handleRow(row))
+                            stopped = true;
+                    }
+                }
+
+            }
+
+            //closing a streaming result set early can mean reading its remaining rows
+            if (!stopped)
+                rs.close();
+
+        } finally {
+
+            range.finish();
+
+            if (ordered) {
+                while (!range.buffer.offer(END, 100, TimeUnit.MILLISECONDS)) {
+                    if (stopped)
+                        break;
+                }
+            }
+
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    logger.warn(e);
+                }
+            }
+
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    logger.warn(e);
+                }
+            }
+
+        }
+
+    }
+
+    /**
+     * Passes the buffered rows of the ranges to the handler in key order.
+     *
+     * @param handler the row handler
+     * @throws InterruptedException if interrupted while waiting for rows
+     * @throws DatabaseException    if the handler fails
+     */
+    private void consume(RowHandler handler) throws InterruptedException, DatabaseException {
+
+        Range range;
+        synchronized (this) {
+            range = orderedRanges.firstEntry().getValue();
+        }
+
+        while (range != null && !stopped) {
+
+            Object[] row = range.buffer.poll(100, TimeUnit.MILLISECONDS);
+
+            if (row == null)
+                continue;
+
+            if (row == END) {
+                synchronized (this) {
+                    Map.Entry<Long, Range> next = orderedRanges.higherEntry(range.from);
+                    range = next == null ? null : next.getValue();
+                }
+                continue;
+            }
+
+            rowCount.incrementAndGet();
+
+            try {
+                if (!handler.handleRow(row))
+                    stopped = true;
+            } catch (DatabaseException e) {
+                stopped = true;
+                throw e;
+            } catch (RuntimeException e) {
+                stopped = true;
+                throw e;
+            }
+
+        }
+
+    }
+
+    /**
+     * Records the first failure and stops the scan.
+     *
+     * @param t the failure
+     */
+    private synchronized void fail(Throwable t) {
+
+        if (failure == null)
+            failure = t;
+        stopped = true;
+
+    }
+
+    ///////////////////
+    //getters & setters
+
+    /**
+     * Sets the columns to read.
+     *
+     * @param columns the comma separated columns, '*' for all columns
+     * @return this scan
+     */
+    public ParallelTableScan setColumns(String columns) {
+        this.columns = columns;
+        return this;
+    }
+
+    /**
+     * Sets a condition restricting the rows to read.
+     *
+     * @param condition  an SQL condition, may contain parameter markers
+     * @param parameters the parameter values of the condition
+     * @return this scan
+     */
+    public ParallelTableScan setCondition(String condition, Object... parameters) {
+        this.condition = condition;
+        this.parameters = parameters;
+        return this;
+    }
+
+    /**
+     * Sets whether rows are passed in key order.
+     *
+     * @param ordered true to pass rows in key order
+     * @return this scan
+     */
+    public ParallelTableScan setOrdered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    /**
+     * Sets the number of ranges read concurrently, i.e. the number of connections used.
+     *
+     * @param threads the number of threads
+     * @return this scan
+     */
+    public ParallelTableScan setThreads(int threads) {
+
+        if (threads < 1)
+            throw new IllegalArgumentException("Number of threads must be positive.");
+
+        this.threads = threads;
+        return this;
+
+    }
+
+    /**
+     * Sets the smallest number of keys split off a range.
+     *
+     * @param minSplitSize the minimum split size
+     * @return this scan
+     */
+    public ParallelTableScan setMinSplitSize(long minSplitSize) {
+        this.minSplitSize = Math.max(1, minSplitSize);
+        return this;
+    }
+
+    /**
+     * Returns the number of ranges split during the last scan.
+     *
+     * @return the split count
+     */
+    public long getSplitCount() {
+        return splitCount == null ? 0 : splitCount.get();
+    }
+
+    /**
+     * A range of keys, from inclusive, end exclusive. The end is lowered
+     * when the upper part of the range is split off.
+     */
+    private class Range implements Comparable<Range> {
+
+        private final long from;
+
+        private long end;
+
+        /**
+         * the smallest key not yet read
+         */
+        private long position;
+
+        private BlockingQueue<Object[]> buffer;
+
+        private Range(long from, long end) {
+            this.from = from;
+            this.end = end;
+            this.position = from;
+            if (ordered)
+                buffer = new ArrayBlockingQueue<Object[]>(Math.max(1, bufferSize));
+        }
+
+        private synchronized long getEnd() {
+            return end;
+        }
+
+        private synchronized long getRemaining() {
+            return end - position;
+        }
+
+        /**
+         * Records a key read from the range.
+         *
+         * @param key the key
+         * @return true if the key belongs to the range, false if it has been split off
+         */
+        private synchronized boolean advance(long key) {
+
+            if (key >= end)
+                return false;
+
+            position = key + 1;
+            return true;
+
+        }
+
+        /**
+         * Marks all keys of the range as read, so that it is not split any more.
+         */
+        private synchronized void finish() {
+            position = end;
+        }
+
+        /**
+         * Splits off the upper half of the keys not yet read.
+         *
+         * @return the new range
+         */
+        private synchronized Range split() {
+
+            long middle = position + (end - position) / 2;
+            Range retVal = new Range(middle, end);
+            end = middle;
+
+            return retVal;
+
+        }
+
+        public int compareTo(Range other) {
+            return from < other.from ? -1 : (from == other.from ? 0 : 1);
+        }
+
+    }
+
+}
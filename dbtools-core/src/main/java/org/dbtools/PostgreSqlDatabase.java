@@ -0,0 +1,741 @@
+package org.dbtools;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Implementation of {@link AbstractDatabase} to access a PostgreSQL database.
+ * <p/>
+ * Besides the JDBC access of all databases, rows can be loaded and exported in bulk
+ * over the <code>COPY FROM STDIN</code> and <code>COPY TO STDOUT</code> protocol, see
+ * {@link #copyIn(String, String[], Iterable)} and {@link #copyOut(String, RowHandler)}.
+ * The copy API of the PostgreSQL JDBC driver is called by reflection, so the driver
+ * is only required at runtime.
+ */
+public class PostgreSqlDatabase extends AbstractDatabase {
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(PostgreSqlDatabase.class);
+
+    /**
+     * the driver class path
+     */
+    private static String driver = Configuration.getInstance().getProperty("postgresql.driver");
+
+    /**
+     * the PostgreSQL "well known" port
+     */
+    private static int defaultPort = Configuration.getInstance().getIntProperty("postgresql.default.port");
+
+    /**
+     * the text of a NULL value in the COPY text format
+     */
+    private static final String COPY_NULL = "\\N";
+
+    /**
+     * Constructs a Database object representing a PostgreSQL database.
+     * The default port will be used for database connections.
+     *
+     * @param host   name/IP address of the PostgreSQL server
+     * @param schema the database to connect to
+     * @throws DatabaseException if an exception occurs when loading the JDBC driver class
+     */
+    public PostgreSqlDatabase(String host, String schema) throws DatabaseException {
+        super(VENDOR_POSTGRESQL, driver, host, defaultPort, schema);
+    }
+
+    /**
+     * Constructs a Database object representing a PostgreSQL database.
+     * The default port will be used for database connections.
+     *
+     * @param host     name/IP address of the PostgreSQL server
+     * @param schema   the database to connect to
+     * @param user     username to be used when connecting to the database
+     * @param password password to be used when connecting to the database
+     * @throws DatabaseException if an exception occurs when loading the JDBC driver class
+     */
+    public PostgreSqlDatabase(String host, String schema, String user, char[] password) throws DatabaseException {
+        super(VENDOR_POSTGRESQL, driver, host, defaultPort, schema, user, password);
+    }
+
+    /**
+     * Constructs a Database object representing a PostgreSQL database.
+     *
+     * @param host     name/IP address of the PostgreSQL server
+     * @param port     port on PostgreSQL server
+     * @param schema   the database to connect to
+     * @param user     username to be used when connecting to the database
+     * @param password password to be used when connecting to the database
+     * @throws DatabaseException if an exception occurs when loading the JDBC driver class
+     */
+    public PostgreSqlDatabase(String host, int port, String schema, String user, char[] password) throws DatabaseException {
+        super(VENDOR_POSTGRESQL, driver, host, port, schema, user, password);
+    }
+
+    /**
+     * Constructs a Database object representing a PostgreSQL database.
+     *
+     * @param host   name/IP address of the PostgreSQL server
+     * @param port   port on PostgreSQL server
+     * @param schema the database to connect to
+     * @throws DatabaseException if an exception occurs when loading the JDBC driver class
+     */
+    public PostgreSqlDatabase(String host, int port, String schema) throws DatabaseException {
+        super(VENDOR_POSTGRESQL, driver, host, port, schema);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The PostgreSQL driver reads the complete result into memory unless the query
+     * runs in a transaction, in which case rows are fetched through a server-side
+     * cursor. A connection in auto commit mode is therefore switched to manual
+     * commit mode until the statement is closed.
+     */
+    public PreparedStatement prepareStreamingStatement(Connection connection, String sql) throws SQLException {
+
+        if (!connection.getAutoCommit())
+            return super.prepareStreamingStatement(connection, sql);
+
+        connection.setAutoCommit(false);
+
+        try {
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    PostgreSqlDatabase.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class},
+                    new AutoCommitRestorer(super.prepareStreamingStatement(connection, sql), connection));
+        } catch (SQLException e) {
+            connection.setAutoCommit(true);
+            throw e;
+        }
+
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Statements of connections in auto commit mode are not tuned, their results are
+     * read completely (see {@link #prepareStreamingStatement(Connection, String)}).
+     */
+    public PreparedStatement tuneFetchSize(PreparedStatement statement, String sql) throws SQLException {
+
+        if (statement.getConnection().getAutoCommit())
+            return statement;
+
+        return super.tuneFetchSize(statement, sql);
+
+    }
+
+    /**
+     * Loads rows into a table over the <code>COPY FROM STDIN</code> protocol. The rows
+     * are encoded in the COPY text format while they are sent, all rows are loaded
+     * in one transaction.
+     *
+     * @param table   the table name
+     * @param columns the columns, in the order of the values in the rows
+     * @param rows    the rows
+     * @return the number of rows loaded
+     * @throws DatabaseException if an exception occurs while loading the rows
+     */
+    public long copyIn(String table, String[] columns, Iterable<Object[]> rows) throws DatabaseException {
+
+        StringBuffer sql = new StringBuffer("COPY ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++)
+            sql.append(i > 0 ? ", " : "").append(columns[i]);
+        sql.append(") FROM STDIN");
+
+        return copyIn(sql.toString(), new CopyReader(rows.iterator(), columns.length));
+
+    }
+
+    /**
+     * Executes a <code>COPY ... FROM STDIN</code> statement.
+     *
+     * @param sql  the COPY statement
+     * @param data the data in the format given by the statement
+     * @return the number of rows loaded
+     * @throws DatabaseException if an exception occurs while loading the data
+     */
+    public long copyIn(String sql, Reader data) throws DatabaseException {
+
+        long start = System.currentTimeMillis();
+        Connection connection = null;
+
+        try {
+
+            connection = getConnection();
+            Object copyManager = getCopyManager(connection);
+            Method copyIn = copyManager.getClass().getMethod("copyIn", String.class, Reader.class);
+
+            long retVal = (Long) invoke(copyIn, copyManager, sql, data);
+
+            if (!connection.getAutoCommit())
+                connection.commit();
+
+            logger.debug("Copied " + retVal + " rows in " + (System.currentTimeMillis() - start) + " ms: " + sql);
+
+            return retVal;
+
+        } catch (SQLException e) {
+            throw new DatabaseException("Exception while executing '" + sql + "'.", e);
+        } catch (IOException e) {
+            throw new DatabaseException("Exception while reading data for '" + sql + "'.", e);
+        } catch (NoSuchMethodException e) {
+            throw new DatabaseException("The PostgreSQL driver does not support COPY.", e);
+        } finally {
+            close(connection);
+        }
+
+    }
+
+    /**
+     * Exports the result of a query over the <code>COPY TO STDOUT</code> protocol in
+     * the COPY text format: one line per row, values separated by tabs.
+     *
+     * @param query the query
+     * @param out   the writer to write the rows to
+     * @return the number of rows exported
+     * @throws DatabaseException if an exception occurs while exporting the rows
+     */
+    public long copyOut(String query, Writer out) throws DatabaseException {
+
+        String sql = "COPY (" + query + ") TO STDOUT";
+        Connection connection = null;
+
+        try {
+
+            connection = getConnection();
+            Object copyManager = getCopyManager(connection);
+            Method copyOut = copyManager.getClass().getMethod("copyOut", String.class, Writer.class);
+
+            return (Long) invoke(copyOut, copyManager, sql, out);
+
+        } catch (SQLException e) {
+            throw new DatabaseException("Exception while executing '" + sql + "'.", e);
+        } catch (IOException e) {
+            throw new DatabaseException("Exception while writing the result of '" + sql + "'.", e);
+        } catch (NoSuchMethodException e) {
+            throw new DatabaseException("The PostgreSQL driver does not support COPY.", e);
+        } finally {
+            close(connection);
+        }
+
+    }
+
+    /**
+     * Exports the result of a query over the <code>COPY TO STDOUT</code> protocol and
+     * passes the rows to a handler. The values are passed as the strings of their
+     * text representation, <code>null</code> for NULL values.
+     *
+     * @param query   the query
+     * @param handler the handler, if it returns false the export is cancelled
+     * @return the number of rows passed to the handler
+     * @throws DatabaseException if an exception occurs while exporting the rows or the handler throws one
+     */
+    public long copyOut(String query, RowHandler handler) throws DatabaseException {
+
+        CopyWriter writer = new CopyWriter(handler);
+
+        try {
+            copyOut(query, writer);
+        } catch (DatabaseException e) {
+            if (writer.exception != null)
+                throw writer.exception;
+            if (!writer.stopped)
+                throw e;
+        }
+
+        return writer.rows;
+
+    }
+
+    /**
+     * Returns the copy API of the driver connection underlying a connection.
+     *
+     * @param connection the connection
+     * @return the driver's <code>CopyManager</code>
+     * @throws SQLException if the connection is not a PostgreSQL connection
+     */
+    private Object getCopyManager(Connection connection) throws SQLException {
+
+        try {
+
+            //the interface is loaded by the class loader of the driver
+            ClassLoader classLoader = DriverManager.getDriver(getUrl()).getClass().getClassLoader();
+            Class<?> pgConnection = Class.forName("org.postgresql.PGConnection", true, classLoader);
+
+            Object driverConnection = connection.unwrap(pgConnection);
+
+            return invoke(pgConnection.getMethod("getCopyAPI"), driverConnection);
+
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("The PostgreSQL driver does not support COPY.", e);
+        } catch (NoSuchMethodException e) {
+            throw new SQLException("The PostgreSQL driver does not support COPY.", e);
+        } catch (IOException e) {
+            throw new SQLException(e.getMessage(), e);
+        }
+
+    }
+
+    /**
+     * Invokes a method of the driver, unwrapping the exceptions thrown by it.
+     *
+     * @param method the method
+     * @param target the driver object
+     * @param args   the method arguments
+     * @return the return value of the method
+     * @throws SQLException if the method throws an SQLException
+     * @throws IOException  if the method throws an IOException
+     */
+    private static Object invoke(Method method, Object target, Object... args) throws SQLException, IOException {
+
+        try {
+            return method.invoke(target, args);
+        } catch (IllegalAccessException e) {
+            throw new SQLException("Unable to call '" + method + "'.", e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException)
+                throw (SQLException) cause;
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new SQLException(cause.getMessage(), cause);
+        }
+
+    }
+
+    /**
+     * Appends a value in the COPY text format.
+     *
+     * @param buffer the buffer to append to
+     * @param value  the value
+     */
+    static void appendCopyValue(StringBuffer buffer, Object value) {
+
+        if (value == null) {
+            buffer.append(COPY_NULL);
+            return;
+        }
+
+        if (value instanceof byte[]) {
+            //bytea hex format, the backslash escaped
+            buffer.append("\\\\x");
+            for (byte b : (byte[]) value)
+                buffer.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return;
+        }
+
+        String text = value.toString();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\':
+                    buffer.append("\\\\");
+                    break;
+                case '\t':
+                    buffer.append("\\t");
+                    break;
+                case '\n':
+                    buffer.append("\\n");
+                    break;
+                case '\r':
+                    buffer.append("\\r");
+                    break;
+                default:
+                    buffer.append(c);
+            }
+        }
+
+    }
+
+    /**
+     * Parses a line of the COPY text format.
+     *
+     * @param line the line without the line terminator
+     * @return the values, <code>null</code> for NULL values
+     */
+    static String[] parseCopyLine(String line) {
+
+        List<String> retVal = new ArrayList<String>();
+        StringBuffer value = new StringBuffer();
+        boolean escaped = false;
+        int start = 0;
+
+        for (int i = 0; i <= line.length(); i++) {
+
+            if (i == line.length() || line.charAt(i) == '\t') {
+                boolean isNull = i - start == COPY_NULL.length() && line.startsWith(COPY_NULL, start);
+                retVal.add(isNull ? null : value.toString());
+                value.setLength(0);
+                start = i + 1;
+                continue;
+            }
+
+            char c = line.charAt(i);
+            if (escaped) {
+                switch (c) {
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'v':
+                        value.append('\u000B');
+                        break;
+                    default:
+                        value.append(c);
+                }
+                escaped = false;
+            } else if (c == '\\') {
+                escaped = true;
+            } else {
+                value.append(c);
+            }
+
+        }
+
+        return retVal.toArray(new String[retVal.size()]);
+
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Builds an <code>INSERT ... ON CONFLICT DO UPDATE</code> statement with a VALUES
+     * list of all rows. The key columns must be the columns of a unique index. The
+     * statement fails if two rows have the same key, which
+     * {@link #upsert(String, String[], String[], Iterable)} does not pass.
+     */
+    protected String buildUpsertSql(Connection connection, String table, String[] columns, String[] keyColumns, int rows) {
+
+        List<String> keys = Arrays.asList(keyColumns);
+
+        StringBuffer retVal = new StringBuffer("INSERT INTO ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++)
+            retVal.append(i > 0 ? ", " : "").append(columns[i]);
+        retVal.append(") VALUES ");
+
+        for (int r = 0; r < rows; r++) {
+            retVal.append(r > 0 ? ", (" : "(");
+            for (int i = 0; i < columns.length; i++)
+                retVal.append(i > 0 ? ", ?" : "?");
+            retVal.append(")");
+        }
+
+        retVal.append(" ON CONFLICT (");
+        for (int i = 0; i < keyColumns.length; i++)
+            retVal.append(i > 0 ? ", " : "").append(keyColumns[i]);
+        retVal.append(")");
+
+        StringBuffer update = new StringBuffer();
+        for (String column : columns) {
+            if (!keys.contains(column))
+                update.append(update.length() > 0 ? ", " : " DO UPDATE SET ").append(column).append(" = EXCLUDED.").append(column);
+        }
+
+        //key only rows are left as they are
+        return retVal.append(update.length() > 0 ? update.toString() : " DO NOTHING").toString();
+
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Rows are sent in one statement, up to 1000 rows and below the limit of 32767 parameters.
+     */
+    protected int getUpsertRowsPerStatement(int columnCount) {
+        return Math.max(1, Math.min(1000, 32767 / columnCount));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Reads the setting <code>idle_session_timeout</code> (PostgreSQL 14 and later).
+     */
+    protected long getServerIdleTimeout(Connection connection) throws SQLException {
+
+        long retVal = 0;
+
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT setting FROM pg_settings WHERE name = 'idle_session_timeout'");
+        if (rs.next())
+            retVal = rs.getLong(1);
+        rs.close();
+        statement.close();
+
+        return retVal;
+
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The schema of a PostgreSQL database object names the database, whose tables
+     * are looked up in the current schema of the connection (usually <code>public</code>).
+     */
+    protected SchemaMetadata readSchemaMetadata(Connection connection) throws SQLException {
+
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT current_schema()");
+        String schemaPattern = rs.next() ? rs.getString(1) : null;
+        rs.close();
+        statement.close();
+
+        return SchemaMetadata.read(connection, schema, null, schemaPattern);
+
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected String buildURL(String host, int port) {
+        //format: jdbc:postgresql://<host>:<port>/<database>
+        return "jdbc:postgresql://" + host + ":" + port + "/" + schema;
+    }
+
+    private static void close(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                logger.warn(e);
+            }
+        }
+    }
+
+    /**
+     * Switches the connection of a streaming statement back to auto commit mode when
+     * the statement is closed.
+     */
+    private static class AutoCommitRestorer implements InvocationHandler {
+
+        /**
+         * the streaming statement
+         */
+        private PreparedStatement statement;
+
+        /**
+         * the connection of the statement
+         */
+        private Connection connection;
+
+        private AutoCommitRestorer(PreparedStatement statement, Connection connection) {
+            this.statement = statement;
+            this.connection = connection;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            String name = method.getName();
+
+            if (name.equals("equals"))
+                return proxy == args[0];
+            if (name.equals("hashCode"))
+                return System.identityHashCode(proxy);
+
+            Object retVal;
+            try {
+                retVal = method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+
+            //switching back commits the transaction of the query
+            if (name.equals("close") && !connection.isClosed() && !connection.getAutoCommit())
+                connection.setAutoCommit(true);
+
+            return retVal;
+
+        }
+
+    }
+
+    /**
+     * Encodes rows in the COPY text format while the driver reads them.
+     */
+    private static class CopyReader extends Reader {
+
+        /**
+         * the rows
+         */
+        private Iterator<Object[]> rows;
+
+        /**
+         * the number of values per row
+         */
+        private int columnCount;
+
+        /**
+         * the encoded rows not read yet
+         */
+        private StringBuffer buffer = new StringBuffer();
+
+        /**
+         * the read position in the buffer
+         */
+        private int position;
+
+        private CopyReader(Iterator<Object[]> rows, int columnCount) {
+            this.rows = rows;
+            this.columnCount = columnCount;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int read(char[] chars, int offset, int length) throws IOException {
+
+            //encode rows until the request can be filled
+            if (position == buffer.length()) {
+                buffer.setLength(0);
+                position = 0;
+            }
+            while (buffer.length() - position < length && rows.hasNext()) {
+
+                Object[] row = rows.next();
+                if (row.length != columnCount)
+                    throw new IOException("Row has " + row.length + " values, expected " + columnCount + ".");
+
+                for (int i = 0; i < row.length; i++) {
+                    if (i > 0)
+                        buffer.append('\t');
+                    appendCopyValue(buffer, row[i]);
+                }
+                buffer.append('\n');
+
+            }
+
+            int retVal = Math.min(length, buffer.length() - position);
+            if (retVal == 0)
+                return length == 0 ? 0 : -1;
+
+            buffer.getChars(position, position + retVal, chars, offset);
+            position += retVal;
+
+            return retVal;
+
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void close() {
+        }
+
+    }
+
+    /**
+     * Parses the COPY text format written by the driver and passes the rows to a handler.
+     */
+    private static class CopyWriter extends Writer {
+
+        /**
+         * the row handler
+         */
+        private RowHandler handler;
+
+        /**
+         * the characters of the incomplete line
+         */
+        private StringBuffer line = new StringBuffer();
+
+        /**
+         * the number of rows passed to the handler
+         */
+        private long rows;
+
+        /**
+         * true if the handler stopped the export
+         */
+        private boolean stopped;
+
+        /**
+         * the exception thrown by the handler
+         */
+        private DatabaseException exception;
+
+        private CopyWriter(RowHandler handler) {
+            this.handler = handler;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void write(char[] chars, int offset, int length) throws IOException {
+
+            for (int i = offset; i < offset + length; i++) {
+
+                if (chars[i] != '\n') {
+                    line.append(chars[i]);
+                    continue;
+                }
+
+                String[] row = parseCopyLine(line.toString());
+                line.setLength(0);
+
+                try {
+                    if (!handler.handleRow(row))
+                        stopped = true;
+                    rows++;
+                } catch (DatabaseException e) {
+                    exception = e;
+                }
+
+                //cancels the export
+                if (stopped || exception != null)
+                    throw new IOException("Export cancelled by row handler.");
+
+            }
+
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void flush() {
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void close() {
+        }
+
+    }
+
+}
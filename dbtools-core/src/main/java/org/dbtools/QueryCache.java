@@ -0,0 +1,300 @@
+package org.dbtools;
+
+import org.apache.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A cache of query results with weight based least recently used eviction.
+ * <p/>
+ * Results are cached by schema, SQL statement and parameter values. Cached
+ * results are never invalidated, so the cache must only be used for queries
+ * against schemas that do not change, e.g. published Ensembl releases.
+ */
+public class QueryCache implements QueryCacheMBean {
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(QueryCache.class);
+
+    /**
+     * the MBean name the cache is registered under, <code>null</code> if it is not registered
+     */
+    private ObjectName objectName;
+
+    /**
+     * the cached results in least recently used order
+     */
+    private LinkedHashMap<Key, QueryResult> entries = new LinkedHashMap<Key, QueryResult>(16, 0.75f, true);
+
+    /**
+     * the maximum summed weight of the cached results
+     */
+    private long maxWeight;
+
+    /**
+     * the summed weight of the cached results
+     */
+    private long weight;
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    /**
+     * Constructs a query cache.
+     *
+     * @param maxWeight the maximum summed weight (estimated size in bytes) of the cached results
+     */
+    public QueryCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Registers the cache with the platform MBean server under the name
+     * <code>org.dbtools:type=QueryCache,name=&lt;name&gt;</code>.
+     *
+     * @param name the cache name
+     */
+    public void registerMBean(String name) {
+
+        try {
+            ObjectName objectName = new ObjectName("org.dbtools:type=QueryCache,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(this, objectName);
+                this.objectName = objectName;
+            }
+        } catch (JMException e) {
+            logger.warn("Unable to register query cache MBean '" + name + "'.", e);
+        }
+
+    }
+
+    /**
+     * Unregisters the cache from the platform MBean server, so that the name can be
+     * registered by another cache.
+     */
+    public void unregisterMBean() {
+
+        if (objectName == null)
+            return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            logger.warn("Unable to unregister query cache MBean '" + objectName + "'.", e);
+        }
+        objectName = null;
+
+    }
+
+    /**
+     * Executes a query unless its result is cached. Query results are cached by
+     * the schema of the database, the SQL statement and the parameter values.
+     *
+     * @param database   the database to query
+     * @param sql        the SQL query, parameters are marked by '?'
+     * @param parameters the parameter values
+     * @return the query result
+     * @throws DatabaseException if an exception occurs while executing the query
+     */
+    public QueryResult executeQuery(Database database, String sql, Object... parameters) throws DatabaseException {
+
+        String schema = database instanceof AbstractDatabase ? ((AbstractDatabase) database).getSchema() : null;
+        Key key = new Key(database.getHost(), database.getPort(), schema, sql, parameters);
+
+        QueryResult retVal = get(key);
+
+        if (retVal == null) {
+
+            retVal = QueryResult.execute(database, sql, parameters);
+            put(key, retVal);
+
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Looks up a cached result.
+     *
+     * @param key the cache key
+     * @return the result or <code>null</code> if it is not cached
+     */
+    private synchronized QueryResult get(Key key) {
+
+        QueryResult retVal = entries.get(key);
+
+        if (retVal == null)
+            missCount++;
+        else
+            hitCount++;
+
+        return retVal;
+
+    }
+
+    /**
+     * Caches a result, evicting least recently used results until the
+     * summed weight does not exceed the maximum weight. Results heavier
+     * than the maximum weight are not cached.
+     *
+     * @param key    the cache key
+     * @param result the result
+     */
+    private synchronized void put(Key key, QueryResult result) {
+
+        if (result.getWeight() > maxWeight)
+            return;
+
+        QueryResult previous = entries.put(key, result);
+        if (previous != null)
+            weight -= previous.getWeight();
+        weight += result.getWeight();
+
+        for (Iterator<QueryResult> values = entries.values().iterator(); weight > maxWeight && values.hasNext();) {
+
+            weight -= values.next().getWeight();
+            values.remove();
+            evictionCount++;
+
+        }
+
+    }
+
+    ///////////////////////////////////////
+    //implementations of QueryCacheMBean
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized double getHitRate() {
+
+        long lookups = hitCount + missCount;
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void resetStatistics() {
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+    }
+
+    /**
+     * The key of a cached result.
+     */
+    private static class Key {
+
+        private String host;
+
+        private int port;
+
+        private String schema;
+
+        private String sql;
+
+        private Object[] parameters;
+
+        private int hashCode;
+
+        private Key(String host, int port, String schema, String sql, Object[] parameters) {
+
+            this.host = host;
+            this.port = port;
+            this.schema = schema;
+            this.sql = sql;
+            this.parameters = parameters == null ? new Object[0] : parameters.clone();
+            this.hashCode = Arrays.hashCode(new Object[]{host, port, schema, sql}) * 31 + Arrays.hashCode(this.parameters);
+
+        }
+
+        public boolean equals(Object o) {
+
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+
+            Key key = (Key) o;
+
+            return hashCode == key.hashCode
+                    && port == key.port
+                    && sql.equals(key.sql)
+                    && (schema == null ? key.schema == null : schema.equals(key.schema))
+                    && (host == null ? key.host == null : host.equals(key.host))
+                    && Arrays.equals(parameters, key.parameters);
+
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+    }
+
+}
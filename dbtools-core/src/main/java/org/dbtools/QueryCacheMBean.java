@@ -0,0 +1,67 @@
+package org.dbtools;
+
+/**
+ * The JMX management interface of {@link QueryCache}.
+ */
+public interface QueryCacheMBean {
+
+    /**
+     * Returns the number of lookups that found a cached result.
+     *
+     * @return the number of hits
+     */
+    long getHitCount();
+
+    /**
+     * Returns the number of lookups that did not find a cached result.
+     *
+     * @return the number of misses
+     */
+    long getMissCount();
+
+    /**
+     * Returns the fraction of lookups that found a cached result.
+     *
+     * @return the hit rate (0 - 1), 0 if there were no lookups
+     */
+    double getHitRate();
+
+    /**
+     * Returns the number of results evicted to make room for new ones.
+     *
+     * @return the number of evictions
+     */
+    long getEvictionCount();
+
+    /**
+     * Returns the number of cached results.
+     *
+     * @return the number of entries
+     */
+    int getSize();
+
+    /**
+     * Returns the summed weight of the cached results.
+     *
+     * @return the weight in bytes
+     */
+    long getWeight();
+
+    /**
+     * Returns the maximum summed weight of the cached results.
+     *
+     * @return the maximum weight in bytes
+     */
+    long getMaxWeight();
+
+    /**
+     * Removes all cached results.
+     */
+    void clear();
+
+    /**
+     * Resets the hit, miss and eviction counts.
+     */
+    void resetStatistics();
+
+}
@@ -0,0 +1,273 @@
+package org.dbtools;
+
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The rows of a query result read into memory.
+ * <p/>
+ * QueryResult objects are meant to be shared (e.g. by a {@link QueryCache}) and
+ * must not be modified. The row arrays returned by {@link #getRow(int)} are the
+ * internal arrays and must not be changed by the caller.
+ */
+public class QueryResult {
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(QueryResult.class);
+
+    /**
+     * the column labels
+     */
+    private String[] columnLabels;
+
+    /**
+     * the rows
+     */
+    private List<Object[]> rows;
+
+    /**
+     * the estimated memory footprint in bytes
+     */
+    private long weight;
+
+    /**
+     * Constructs a query result.
+     *
+     * @param columnLabels the column labels
+     * @param rows         the rows, each holding one value per column
+     */
+    public QueryResult(String[] columnLabels, List<Object[]> rows) {
+
+        this.columnLabels = columnLabels;
+        this.rows = Collections.unmodifiableList(rows);
+        this.weight = estimateWeight();
+
+    }
+
+    /**
+     * Executes a query and reads its result.
+     *
+     * @param database   the database to query
+     * @param sql        the SQL query, parameters are marked by '?'
+     * @param parameters the parameter values
+     * @return the query result
+     * @throws DatabaseException if an exception occurs while executing the query
+     */
+    public static QueryResult execute(Database database, String sql, Object... parameters) throws DatabaseException {
+
+        Connection connection = null;
+        PreparedStatement statement = null;
+
+        try {
+
+            connection = database.getConnection();
+
+            statement = connection.prepareStatement(sql);
+            if (database instanceof AbstractDatabase)
+                statement = ((AbstractDatabase) database).tuneFetchSize(statement, sql);
+            SqlUtil.setParameters(statement, parameters);
+
+            ResultSet resultSet = statement.executeQuery();
+            QueryResult retVal = read(resultSet);
+
+            resultSet.close();
+
+            return retVal;
+
+        } catch (SQLException e) {
+            throw new DatabaseException("Exception while executing query '" + sql + "'.", e);
+        } finally {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    logger.warn(e);
+                }
+            }
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    logger.warn(e);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Reads all remaining rows of a result set. The result set is not closed.
+     *
+     * @param resultSet the result set
+     * @return the query result
+     * @throws SQLException if an exception occurs while reading the result set
+     */
+    public static QueryResult read(ResultSet resultSet) throws SQLException {
+
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        int columnCount = metaData.getColumnCount();
+
+        String[] columnLabels = new String[columnCount];
+        for (int i = 0; i < columnCount; i++)
+            columnLabels[i] = metaData.getColumnLabel(i + 1);
+
+        List<Object[]> rows = new ArrayList<Object[]>();
+        while (resultSet.next()) {
+
+            Object[] row = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++)
+                row[i] = resultSet.getObject(i + 1);
+
+            rows.add(row);
+
+        }
+
+        return new QueryResult(columnLabels, rows);
+
+    }
+
+    /**
+     * Returns the number of columns.
+     *
+     * @return the column count
+     */
+    public int getColumnCount() {
+        return columnLabels.length;
+    }
+
+    /**
+     * Returns the label of a column.
+     *
+     * @param column the column index (starting at 0)
+     * @return the column label
+     */
+    public String getColumnLabel(int column) {
+        return columnLabels[column];
+    }
+
+    /**
+     * Returns the index of the column with the specified label. The label
+     * is matched case insensitively.
+     *
+     * @param columnLabel the column label
+     * @return the column index (starting at 0) or -1 if there is no such column
+     */
+    public int getColumnIndex(String columnLabel) {
+
+        for (int i = 0; i < columnLabels.length; i++) {
+            if (columnLabels[i].equalsIgnoreCase(columnLabel))
+                return i;
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return the row count
+     */
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    /**
+     * Returns a row.
+     *
+     * @param row the row index (starting at 0)
+     * @return the row values, must not be modified
+     */
+    public Object[] getRow(int row) {
+        return rows.get(row);
+    }
+
+    /**
+     * Returns all rows.
+     *
+     * @return an unmodifiable list of rows
+     */
+    public List<Object[]> getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns a value.
+     *
+     * @param row    the row index (starting at 0)
+     * @param column the column index (starting at 0)
+     * @return the value
+     */
+    public Object getValue(int row, int column) {
+        return rows.get(row)[column];
+    }
+
+    /**
+     * Returns a value.
+     *
+     * @param row         the row index (starting at 0)
+     * @param columnLabel the column label
+     * @return the value
+     * @throws IllegalArgumentException if there is no column with the label
+     */
+    public Object getValue(int row, String columnLabel) {
+
+        int column = getColumnIndex(columnLabel);
+        if (column == -1)
+            throw new IllegalArgumentException("No column labelled '" + columnLabel + "'.");
+
+        return rows.get(row)[column];
+
+    }
+
+    /**
+     * Returns the estimated memory footprint of the result.
+     *
+     * @return the estimated size in bytes
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Estimates the memory footprint of the result.
+     *
+     * @return the estimated size in bytes
+     */
+    private long estimateWeight() {
+
+        long retVal = 64;
+
+        for (String label : columnLabels)
+            retVal += 40 + 2 * label.length();
+
+        for (Object[] row : rows) {
+
+            retVal += 16 + 8 * row.length;
+
+            for (Object value : row) {
+                if (value instanceof String)
+                    retVal += 40 + 2 * ((String) value).length();
+                else if (value instanceof byte[])
+                    retVal += 16 + ((byte[]) value).length;
+                else if (value != null)
+                    retVal += 24;
+            }
+
+        }
+
+        return retVal;
+
+    }
+
+}
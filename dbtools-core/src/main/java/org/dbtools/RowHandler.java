@@ -0,0 +1,18 @@
+package org.dbtools;
+
+/**
+ * Receives the rows of a query one at a time, so that results can be processed
+ * without reading them into memory as a whole.
+ */
+public interface RowHandler {
+
+    /**
+     * Processes a row.
+     *
+     * @param row the row values, one per column
+     * @return true to receive further rows, false to stop
+     * @throws DatabaseException if the row cannot be processed
+     */
+    boolean handleRow(Object[] row) throws DatabaseException;
+
+}
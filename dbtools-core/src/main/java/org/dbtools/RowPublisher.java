@@ -0,0 +1,301 @@
+package org.dbtools;
+
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the rows of a query to <code>Flow.Subscriber</code>s at the pace of their demand.
+ * <p/>
+ * Each subscription executes the query on its own connection with a streaming
+ * statement (see {@link AbstractDatabase#prepareStreamingStatement(Connection, String)}),
+ * so the driver fetches rows in chunks of the configured fetch size and the result
+ * is never held in memory as a whole. Rows are read only while the subscriber has
+ * outstanding demand. The connection is released when the last row has been
+ * published, when the query fails or when the subscription is cancelled.
+ * <p/>
+ * All JDBC calls and signals of a subscription happen on the executor shared by
+ * asynchronous database tasks (see {@link AsyncDatabase}), one task at a time per
+ * subscription, so many subscriptions can be served concurrently. Each row is
+ * published as an array holding one value per column.
+ */
+public class RowPublisher implements Flow.Publisher<Object[]> {
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(RowPublisher.class);
+
+    /**
+     * the database to query
+     */
+    private Database database;
+
+    /**
+     * the SQL query
+     */
+    private String sql;
+
+    /**
+     * the query parameter values
+     */
+    private Object[] parameters;
+
+    /**
+     * the executor running the subscriptions
+     */
+    private Executor executor;
+
+    /**
+     * Constructs a publisher running its subscriptions on the shared executor
+     * of asynchronous database tasks.
+     *
+     * @param database   the database to query
+     * @param sql        the SQL query, parameters are marked by '?'
+     * @param parameters the parameter values
+     */
+    public RowPublisher(Database database, String sql, Object... parameters) {
+        this(database, AsyncDatabase.getExecutor(), sql, parameters);
+    }
+
+    /**
+     * Constructs a publisher.
+     *
+     * @param database   the database to query
+     * @param executor   the executor running the subscriptions
+     * @param sql        the SQL query, parameters are marked by '?'
+     * @param parameters the parameter values
+     */
+    public RowPublisher(Database database, Executor executor, String sql, Object... parameters) {
+        this.database = database;
+        this.executor = executor;
+        this.sql = sql;
+        this.parameters = parameters;
+    }
+
+    /**
+     * Subscribes to the rows of the query. The query is executed when the
+     * subscriber requests the first rows.
+     *
+     * @param subscriber the subscriber
+     */
+    public void subscribe(Flow.Subscriber<? super Object[]> subscriber) {
+
+        if (subscriber == null)
+            throw new NullPointerException("Subscriber cannot be null.");
+
+        RowSubscription subscription = new RowSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+
+    }
+
+    /**
+     * A subscription to the rows of the query.
+     */
+    private class RowSubscription implements Flow.Subscription, Runnable {
+
+        /**
+         * the subscriber
+         */
+        private Flow.Subscriber<? super Object[]> subscriber;
+
+        /**
+         * the number of rows requested but not yet published
+         */
+        private AtomicLong demand = new AtomicLong();
+
+        /**
+         * the number of pending drain requests, the subscription is drained
+         * by at most one task at a time
+         */
+        private AtomicInteger pending = new AtomicInteger();
+
+        /**
+         * true once the subscription has been cancelled
+         */
+        private volatile boolean cancelled;
+
+        /**
+         * the exception to signal for a request of a non-positive number of rows
+         */
+        private volatile IllegalArgumentException invalidRequest;
+
+        /**
+         * true once the subscriber has received a terminal signal
+         */
+        private boolean done;
+
+        private Connection connection;
+
+        private PreparedStatement statement;
+
+        private ResultSet resultSet;
+
+        private int columnCount;
+
+        private RowSubscription(Flow.Subscriber<? super Object[]> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        public void request(long n) {
+
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Number of requested rows must be positive (" + n + ").");
+            } else {
+                //add to demand, capping at Long.MAX_VALUE (unbounded)
+                long current;
+                long next;
+                do {
+                    current = demand.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!demand.compareAndSet(current, next));
+            }
+
+            schedule();
+
+        }
+
+        public void cancel() {
+
+            cancelled = true;
+            schedule();
+
+        }
+
+        /**
+         * Schedules a drain task unless one is already pending.
+         */
+        private void schedule() {
+
+            if (pending.getAndIncrement() == 0)
+                executor.execute(this);
+
+        }
+
+        public void run() {
+
+            int missed = 1;
+            do {
+                drain();
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+
+        }
+
+        /**
+         * Publishes rows while there is demand, opening the result set on first use.
+         */
+        private void drain() {
+
+            if (done)
+                return;
+
+            if (cancelled) {
+                finish();
+                return;
+            }
+
+            if (invalidRequest != null) {
+                finish();
+                subscriber.onError(invalidRequest);
+                return;
+            }
+
+            try {
+
+                if (resultSet == null && demand.get() > 0)
+                    open();
+
+                while (demand.get() > 0 && !cancelled) {
+
+                    if (!resultSet.next()) {
+                        finish();
+                        subscriber.onComplete();
+                        return;
+                    }
+
+                    Object[] row = new Object[columnCount];
+                    for (int i = 0; i < columnCount; i++)
+                        row[i] = resultSet.getObject(i + 1);
+
+                    //unbounded demand is not decremented
+                    if (demand.get() != Long.MAX_VALUE)
+                        demand.decrementAndGet();
+
+                    subscriber.onNext(row);
+
+                }
+
+                if (cancelled)
+                    finish();
+
+            } catch (SQLException e) {
+                finish();
+                subscriber.onError(new DatabaseException("Exception while streaming rows of query '" + sql + "'.", e));
+            } catch (RuntimeException e) {
+                finish();
+                subscriber.onError(e);
+            }
+
+        }
+
+        /**
+         * Executes the query.
+         *
+         * @throws SQLException if an exception occurs while executing the query
+         */
+        private void open() throws SQLException {
+
+            connection = database.getConnection();
+
+            if (database instanceof AbstractDatabase)
+                statement = ((AbstractDatabase) database).prepareStreamingStatement(connection, sql);
+            else
+                statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+            SqlUtil.setParameters(statement, parameters);
+            resultSet = statement.executeQuery();
+            columnCount = resultSet.getMetaData().getColumnCount();
+
+        }
+
+        /**
+         * Marks the subscription as done and releases the connection.
+         */
+        private void finish() {
+
+            done = true;
+
+            try {
+                if (resultSet != null)
+                    resultSet.close();
+                if (statement != null)
+                    statement.close();
+            } catch (SQLException e) {
+                logger.warn(e);
+            }
+
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    logger.warn(e);
+                }
+            }
+
+            resultSet = null;
+            statement = null;
+            connection = null;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,413 @@
+package org.dbtools;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The table definitions of a database schema, read once and kept.
+ * <p/>
+ * Reading table definitions through <code>DatabaseMetaData</code> table by table is
+ * slow on servers with many schemas, where each call scans the server's catalog.
+ * SchemaMetadata reads the definitions of all tables of a schema in bulk: on MySQL
+ * with one query for the columns and one for the keys and indexes of all tables
+ * (see {@link MySqlDatabase#readSchemaMetadata(Connection)}), on other databases
+ * with one <code>DatabaseMetaData</code> call for all columns and one call per table
+ * for keys and indexes.
+ * <p/>
+ * SchemaMetadata objects are immutable snapshots, see
+ * {@link AbstractDatabase#getSchemaMetadata()} for the cached snapshot of a database.
+ * Table names are matched case insensitively.
+ */
+public class SchemaMetadata {
+
+    private static final String SQL_SELECT_MYSQL_COLUMNS = "SELECT TABLE_NAME, COLUMN_NAME, DATA_TYPE, COLUMN_TYPE, CHARACTER_MAXIMUM_LENGTH, NUMERIC_PRECISION, NUMERIC_SCALE, IS_NULLABLE FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = ? ORDER BY TABLE_NAME, ORDINAL_POSITION";
+
+    private static final String SQL_SELECT_MYSQL_INDEXES = "SELECT TABLE_NAME, INDEX_NAME, NON_UNIQUE, COLUMN_NAME FROM information_schema.STATISTICS WHERE TABLE_SCHEMA = ? ORDER BY TABLE_NAME, INDEX_NAME, SEQ_IN_INDEX";
+
+    /**
+     * the JDBC types of MySQL data types
+     */
+    private static final Map<String, Integer> MYSQL_TYPES = new HashMap<String, Integer>();
+
+    static {
+        MYSQL_TYPES.put("bit", Types.BIT);
+        MYSQL_TYPES.put("tinyint", Types.TINYINT);
+        MYSQL_TYPES.put("smallint", Types.SMALLINT);
+        MYSQL_TYPES.put("mediumint", Types.INTEGER);
+        MYSQL_TYPES.put("int", Types.INTEGER);
+        MYSQL_TYPES.put("integer", Types.INTEGER);
+        MYSQL_TYPES.put("bigint", Types.BIGINT);
+        MYSQL_TYPES.put("float", Types.REAL);
+        MYSQL_TYPES.put("double", Types.DOUBLE);
+        MYSQL_TYPES.put("decimal", Types.DECIMAL);
+        MYSQL_TYPES.put("char", Types.CHAR);
+        MYSQL_TYPES.put("enum", Types.CHAR);
+        MYSQL_TYPES.put("set", Types.CHAR);
+        MYSQL_TYPES.put("varchar", Types.VARCHAR);
+        MYSQL_TYPES.put("tinytext", Types.VARCHAR);
+        MYSQL_TYPES.put("text", Types.LONGVARCHAR);
+        MYSQL_TYPES.put("mediumtext", Types.LONGVARCHAR);
+        MYSQL_TYPES.put("longtext", Types.LONGVARCHAR);
+        MYSQL_TYPES.put("binary", Types.BINARY);
+        MYSQL_TYPES.put("varbinary", Types.VARBINARY);
+        MYSQL_TYPES.put("tinyblob", Types.VARBINARY);
+        MYSQL_TYPES.put("blob", Types.LONGVARBINARY);
+        MYSQL_TYPES.put("mediumblob", Types.LONGVARBINARY);
+        MYSQL_TYPES.put("longblob", Types.LONGVARBINARY);
+        MYSQL_TYPES.put("date", Types.DATE);
+        MYSQL_TYPES.put("year", Types.DATE);
+        MYSQL_TYPES.put("time", Types.TIME);
+        MYSQL_TYPES.put("datetime", Types.TIMESTAMP);
+        MYSQL_TYPES.put("timestamp", Types.TIMESTAMP);
+    }
+
+    /**
+     * the schema name
+     */
+    private String schema;
+
+    /**
+     * the tables by name
+     */
+    private Map<String, TableMetadata> tables;
+
+    /**
+     * the time the definitions were read
+     */
+    private long loadTime;
+
+    /**
+     * Constructs a schema definition.
+     *
+     * @param schema the schema name
+     * @param tables the table definitions
+     */
+    SchemaMetadata(String schema, List<TableMetadata> tables) {
+
+        this.schema = schema;
+        this.loadTime = System.currentTimeMillis();
+
+        Map<String, TableMetadata> map = new TreeMap<String, TableMetadata>(String.CASE_INSENSITIVE_ORDER);
+        for (TableMetadata table : tables)
+            map.put(table.getName(), table);
+
+        this.tables = Collections.unmodifiableMap(map);
+
+    }
+
+    /**
+     * Reads the table definitions of a schema through <code>DatabaseMetaData</code>.
+     * The tables are looked up by catalog and schema pattern as passed to
+     * <code>DatabaseMetaData</code>, which vendor implementations choose to match
+     * exactly one schema (see {@link AbstractDatabase#readSchemaMetadata(Connection)}).
+     *
+     * @param connection    a connection to the database
+     * @param schema        the schema name of the definition
+     * @param catalog       the catalog of the tables, <code>null</code> for databases without catalogs
+     * @param schemaPattern the schema of the tables, <code>null</code> for databases without schemas
+     * @return the schema definition
+     * @throws SQLException if an exception occurs while reading the meta data
+     */
+    static SchemaMetadata read(Connection connection, String schema, String catalog, String schemaPattern) throws SQLException {
+
+        DatabaseMetaData metaData = connection.getMetaData();
+        Map<String, TableBuilder> builders = new LinkedHashMap<String, TableBuilder>();
+
+        Set<String> tableNames = new TreeSet<String>();
+        ResultSet rs = metaData.getTables(catalog, schemaPattern, "%", new String[]{"TABLE"});
+        while (rs.next())
+            tableNames.add(rs.getString("TABLE_NAME"));
+        rs.close();
+
+        if (!tableNames.isEmpty()) {
+
+            rs = metaData.getColumns(catalog, schemaPattern, "%", "%");
+            while (rs.next()) {
+
+                String table = rs.getString("TABLE_NAME");
+                if (!tableNames.contains(table))
+                    continue;
+
+                getBuilder(builders, table).addColumn(
+                        rs.getString("COLUMN_NAME"),
+                        rs.getInt("DATA_TYPE"),
+                        rs.getString("TYPE_NAME"),
+                        rs.getInt("COLUMN_SIZE"),
+                        rs.getInt("DECIMAL_DIGITS"),
+                        rs.getInt("NULLABLE") != DatabaseMetaData.columnNoNulls);
+
+            }
+            rs.close();
+
+            for (String table : builders.keySet()) {
+
+                TableBuilder builder = builders.get(table);
+
+                rs = metaData.getPrimaryKeys(catalog, schemaPattern, table);
+                while (rs.next())
+                    builder.addPrimaryKeyColumn(rs.getShort("KEY_SEQ"), rs.getString("COLUMN_NAME"));
+                rs.close();
+
+                rs = metaData.getIndexInfo(catalog, schemaPattern, table, false, true);
+                while (rs.next()) {
+                    String index = rs.getString("INDEX_NAME");
+                    if (index != null && rs.getString("COLUMN_NAME") != null)
+                        builder.addIndexColumn(index, !rs.getBoolean("NON_UNIQUE"), rs.getString("COLUMN_NAME"));
+                }
+                rs.close();
+
+            }
+
+        }
+
+        return build(schema, builders);
+
+    }
+
+    /**
+     * Reads the table definitions of a MySQL schema with two queries of <code>information_schema</code>.
+     *
+     * @param connection a connection to the MySQL server
+     * @param schema     the schema
+     * @return the schema definition
+     * @throws SQLException if an exception occurs while reading the meta data
+     */
+    static SchemaMetadata readMySql(Connection connection, String schema) throws SQLException {
+
+        Map<String, TableBuilder> builders = new LinkedHashMap<String, TableBuilder>();
+
+        PreparedStatement statement = connection.prepareStatement(SQL_SELECT_MYSQL_COLUMNS);
+        statement.setString(1, schema);
+        ResultSet rs = statement.executeQuery();
+        while (rs.next()) {
+
+            String dataType = rs.getString("DATA_TYPE").toLowerCase();
+            Integer sqlType = MYSQL_TYPES.get(dataType);
+            boolean unsigned = rs.getString("COLUMN_TYPE").toLowerCase().indexOf("unsigned") != -1;
+
+            long size = rs.getLong("CHARACTER_MAXIMUM_LENGTH");
+            if (rs.wasNull())
+                size = rs.getLong("NUMERIC_PRECISION");
+
+            getBuilder(builders, rs.getString("TABLE_NAME")).addColumn(
+                    rs.getString("COLUMN_NAME"),
+                    sqlType != null ? sqlType : Types.OTHER,
+                    dataType.toUpperCase() + (unsigned ? " UNSIGNED" : ""),
+                    (int) Math.min(size, Integer.MAX_VALUE),
+                    rs.getInt("NUMERIC_SCALE"),
+                    "YES".equalsIgnoreCase(rs.getString("IS_NULLABLE")));
+
+        }
+        rs.close();
+        statement.close();
+
+        statement = connection.prepareStatement(SQL_SELECT_MYSQL_INDEXES);
+        statement.setString(1, schema);
+        rs = statement.executeQuery();
+        while (rs.next()) {
+
+            TableBuilder builder = builders.get(rs.getString("TABLE_NAME"));
+            if (builder == null)
+                continue;
+
+            String index = rs.getString("INDEX_NAME");
+            if ("PRIMARY".equals(index))
+                builder.addPrimaryKeyColumn(builder.primaryKey.size() + 1, rs.getString("COLUMN_NAME"));
+            else
+                builder.addIndexColumn(index, rs.getInt("NON_UNIQUE") == 0, rs.getString("COLUMN_NAME"));
+
+        }
+        rs.close();
+        statement.close();
+
+        return build(schema, builders);
+
+    }
+
+    private static TableBuilder getBuilder(Map<String, TableBuilder> builders, String table) {
+
+        TableBuilder retVal = builders.get(table);
+        if (retVal == null) {
+            retVal = new TableBuilder(table);
+            builders.put(table, retVal);
+        }
+
+        return retVal;
+
+    }
+
+    private static SchemaMetadata build(String schema, Map<String, TableBuilder> builders) {
+
+        //share equal type names between tables
+        Map<String, String> typeNames = new HashMap<String, String>();
+
+        List<TableMetadata> tables = new ArrayList<TableMetadata>();
+        for (TableBuilder builder : builders.values())
+            tables.add(builder.build(typeNames));
+
+        return new SchemaMetadata(schema, tables);
+
+    }
+
+    /**
+     * Returns the schema name.
+     *
+     * @return the schema
+     */
+    public String getSchema() {
+        return schema;
+    }
+
+    /**
+     * Returns the names of the tables.
+     *
+     * @return the table names in alphabetical order
+     */
+    public Set<String> getTableNames() {
+        return tables.keySet();
+    }
+
+    /**
+     * Checks if the schema has a table.
+     *
+     * @param table the table name
+     * @return true if the table exists
+     */
+    public boolean hasTable(String table) {
+        return tables.containsKey(table);
+    }
+
+    /**
+     * Returns the definition of a table.
+     *
+     * @param table the table name
+     * @return the table definition or <code>null</code> if there is no such table
+     */
+    public TableMetadata getTable(String table) {
+        return tables.get(table);
+    }
+
+    /**
+     * Returns the time the definitions were read.
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public long getLoadTime() {
+        return loadTime;
+    }
+
+    /**
+     * Collects the definition of a table.
+     */
+    private static class TableBuilder {
+
+        private String name;
+
+        private List<String> columnNames = new ArrayList<String>();
+
+        private List<Integer> columnTypes = new ArrayList<Integer>();
+
+        private List<String> columnTypeNames = new ArrayList<String>();
+
+        private List<Integer> columnSizes = new ArrayList<Integer>();
+
+        private List<Integer> decimalDigits = new ArrayList<Integer>();
+
+        private List<Boolean> nullable = new ArrayList<Boolean>();
+
+        private TreeMap<Integer, String> primaryKey = new TreeMap<Integer, String>();
+
+        private Map<String, List<String>> indexColumns = new LinkedHashMap<String, List<String>>();
+
+        private Map<String, Boolean> indexUnique = new HashMap<String, Boolean>();
+
+        private TableBuilder(String name) {
+            this.name = name;
+        }
+
+        private void addColumn(String columnName, int type, String typeName, int size, int digits, boolean isNullable) {
+            columnNames.add(columnName);
+            columnTypes.add(type);
+            columnTypeNames.add(typeName);
+            columnSizes.add(size);
+            decimalDigits.add(digits);
+            nullable.add(isNullable);
+        }
+
+        private void addPrimaryKeyColumn(int keySeq, String columnName) {
+            primaryKey.put(keySeq, columnName);
+        }
+
+        private void addIndexColumn(String index, boolean unique, String columnName) {
+
+            if (!indexColumns.containsKey(index)) {
+                indexColumns.put(index, new ArrayList<String>());
+                indexUnique.put(index, unique);
+            }
+            indexColumns.get(index).add(columnName);
+
+        }
+
+        private TableMetadata build(Map<String, String> typeNames) {
+
+            int count = columnNames.size();
+            String[] names = new String[count];
+            int[] types = new int[count];
+            String[] typeNameArray = new String[count];
+            int[] sizes = new int[count];
+            int[] digits = new int[count];
+            boolean[] nullableArray = new boolean[count];
+
+            for (int i = 0; i < count; i++) {
+
+                names[i] = columnNames.get(i);
+                types[i] = columnTypes.get(i);
+                sizes[i] = columnSizes.get(i);
+                digits[i] = decimalDigits.get(i);
+                nullableArray[i] = nullable.get(i);
+
+                String typeName = columnTypeNames.get(i);
+                String shared = typeNames.get(typeName);
+                if (shared == null) {
+                    typeNames.put(typeName, typeName);
+                    shared = typeName;
+                }
+                typeNameArray[i] = shared;
+
+            }
+
+            List<String> primaryKeyColumns = new ArrayList<String>(primaryKey.values());
+
+            List<TableMetadata.Index> indexes = new ArrayList<TableMetadata.Index>();
+            for (String index : indexColumns.keySet()) {
+
+                //the primary key shows up as unique index in DatabaseMetaData
+                boolean unique = indexUnique.get(index);
+                if (unique && indexColumns.get(index).equals(primaryKeyColumns))
+                    continue;
+
+                indexes.add(new TableMetadata.Index(index, unique, indexColumns.get(index)));
+
+            }
+
+            return new TableMetadata(name, names, types, typeNameArray, sizes, digits, nullableArray,
+                    primaryKeyColumns, indexes);
+
+        }
+
+    }
+
+}
@@ -8,6 +8,9 @@ package org.dbtools;
  * default values will be used, e.g. for the database server
  * port.
  * <p/>
+ * Each call creates a new Database object. Components sharing a database
+ * should look up a named data source with {@link #getDatabase(String)}.
+ * <p/>
  * Created by IntelliJ IDEA.<br>
  * User: Michael Mueller<br>
  * Date: 09-Jun-2006<br>
@@ -15,6 +18,18 @@ package org.dbtools;
  */
 public class SimpleDatabaseFactory {
 
+    /**
+     * Returns the shared Database object of a named data source defined in the
+     * configuration, see {@link DatabaseRegistry}.
+     *
+     * @param name the data source name
+     * @return the shared Database object
+     * @throws DatabaseException if the data source is not defined or cannot be created
+     */
+    public static Database getDatabase(String name) throws DatabaseException {
+        return DatabaseRegistry.getInstance().getDatabase(name);
+    }
+
     /**
      * Creates a Database object for a MySQL database.
      *
@@ -127,6 +142,60 @@ public class SimpleDatabaseFactory {
         return new OracleDatabase(host, port, instance, schema);
     }
 
+    /**
+     * Creates a Database object for a PostgreSQL database.
+     *
+     * @param host     name/IP address of the database server
+     * @param port     port the database server is listening on
+     * @param schema   database to connect to
+     * @param username name of the user on whose behalf the JDBC connection is established
+     * @param password password the user is identified by
+     * @return a Database object
+     * @throws DatabaseException if an exception occurs when loading the JDBC driver class
+     */
+    public static Database createPostgreSQLDatabase(String host, int port, String schema, String username, char[] password) throws DatabaseException {
+        return new PostgreSqlDatabase(host, port, schema, username, password);
+    }
+
+    /**
+     * Creates a Database object for a PostgreSQL database.
+     *
+     * @param host     name/IP address of the database server
+     * @param schema   database to connect to
+     * @param username name of the user on whose behalf the JDBC connection is established
+     * @param password password the user is identified by
+     * @return a Database object
+     * @throws DatabaseException if an exception occurs when loading the JDBC driver class
+     */
+    public static Database createPostgreSQLDatabase(String host, String schema, String username, char[] password) throws DatabaseException {
+        return new PostgreSqlDatabase(host, schema, username, password);
+    }
+
+    /**
+     * Creates a Database object for a PostgreSQL database.
+     *
+     * @param host   name/IP address of the database server
+     * @param schema database to connect to
+     * @return a Database object
+     * @throws DatabaseException if an exception occurs when loading the JDBC driver class
+     */
+    public static Database createPostgreSQLDatabase(String host, String schema) throws DatabaseException {
+        return new PostgreSqlDatabase(host, schema);
+    }
+
+    /**
+     * Creates a Database object for a PostgreSQL database.
+     *
+     * @param host   name/IP address of the database server
+     * @param schema database to connect to
+     * @param port   port the database server is listening on
+     * @return a Database object
+     * @throws DatabaseException if an exception occurs when loading the JDBC driver class
+     */
+    public static Database createPostgreSQLDatabase(String host, int port, String schema) throws DatabaseException {
+        return new PostgreSqlDatabase(host, port, schema);
+    }
+
     public static Database createHSqlTransientInProcessDatabase(String schema) throws DatabaseException {
         return new HSqlDatabase("", schema, "sa", "".toCharArray(), HSqlConnectionType.IN_PROCESS_TRANSIENT);
     }
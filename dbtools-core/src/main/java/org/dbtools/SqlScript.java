@@ -9,10 +9,17 @@ import java.util.LinkedList;
 import java.util.Iterator;
 import java.net.URL;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 
 /**
  * A class to access an SQL script and execute it via JDBC.
  * <p/>
+ * Counting statements, iterating from a statement on and splitting the script into
+ * chunks use a {@link SqlScriptIndex} of the statements. If the configuration property
+ * <code>dbtools.script.index</code> is true (see {@link #setIndexed(boolean)}) the index
+ * of a script file is saved next to it as <code>&lt;script&gt;.idx</code> on first parse
+ * and reused by later runs until the script changes.
+ * <p/>
  * Created by IntelliJ IDEA.<br>
  * User: Michael Mueller<br>
  * Date: 07-Sep-2007<br>
@@ -25,8 +32,19 @@ public class SqlScript {
     private static final char QUERY_ENDS = ';';
     private static final String COMMENT = "--";
     private static final String WHITE_SPACE = "\\s*";
+    private static final String INDEX_SUFFIX = ".idx";
     private URL script;
 
+    /**
+     * whether the statement index is saved next to the script file
+     */
+    private boolean indexed = Configuration.getInstance().getBooleanProperty("dbtools.script.index");
+
+    /**
+     * the statement index, built on first use
+     */
+    private SqlScriptIndex index;
+
     /**
      * the log4j Logger
      */
@@ -89,6 +107,182 @@ public class SqlScript {
 
     }
 
+    /**
+     * Executes the statements in the SQL script on a database, starting with a statement,
+     * e.g. to resume an execution that failed.
+     *
+     * @param jdbcConnection JDBC connection to the database the script is to be executed on
+     * @param first          the index of the first statement to be executed
+     * @throws IOException  if an error occurs while accessing the SQL script file
+     * @throws SQLException if an error occurs while executing the SQL statements
+     */
+    public void execute(Connection jdbcConnection, int first) throws IOException, SQLException {
+
+        Statement statement = jdbcConnection.createStatement();
+
+        for (Iterator<String> statements = this.getStatementIterator(first); statements.hasNext();) {
+            statement.execute(statements.next());
+        }
+
+        statement.close();
+
+    }
+
+    /**
+     * Returns the number of statements in the SQL script.
+     *
+     * @return the statement count
+     * @throws IOException if an error occurs while accessing the SQL script file
+     */
+    public int getStatementCount() throws IOException {
+        return getIndex().getStatementCount();
+    }
+
+    /**
+     * Splits the SQL script into consecutive chunks of statements of about the same size,
+     * e.g. to execute them by parallel workers with {@link #getStatementIterator(int, int)}.
+     *
+     * @param chunks the number of chunks
+     * @return the index of the first statement of each chunk followed by the statement count
+     * @throws IOException if an error occurs while accessing the SQL script file
+     * @see SqlScriptIndex#split(int)
+     */
+    public int[] split(int chunks) throws IOException {
+        return getIndex().split(chunks);
+    }
+
+    /**
+     * Returns the statement index of the SQL script. The index is loaded from the file
+     * next to the script if the script is indexed and has not changed since, otherwise it
+     * is built by parsing the script and, if the script is indexed, saved.
+     *
+     * @return the index
+     * @throws IOException if an error occurs while accessing the SQL script file
+     */
+    public synchronized SqlScriptIndex getIndex() throws IOException {
+
+        File file = getFile();
+
+        if (index != null && (file == null || index.isValid(file)))
+            return index;
+
+        if (file == null) {
+            index = SqlScriptIndex.build(script.openStream(), 0);
+            return index;
+        }
+
+        File indexFile = new File(file.getPath() + INDEX_SUFFIX);
+
+        if (indexed && indexFile.exists()) {
+            try {
+                index = SqlScriptIndex.load(indexFile);
+                if (index.isValid(file))
+                    return index;
+                logger.info("Index of SQL script " + file + " is out of date.");
+            } catch (IOException e) {
+                logger.warn("Cannot read index of SQL script " + file + ": " + e);
+            }
+        }
+
+        long modified = file.lastModified();
+        index = SqlScriptIndex.build(new FileInputStream(file), modified);
+
+        if (indexed) {
+            try {
+                index.save(indexFile);
+            } catch (IOException e) {
+                logger.warn("Cannot save index of SQL script " + file + ": " + e);
+            }
+        }
+
+        return index;
+
+    }
+
+    /**
+     * Returns the script file.
+     *
+     * @return the file or null if the script is not a local file
+     */
+    private File getFile() {
+
+        if (!"file".equals(script.getProtocol()))
+            return null;
+
+        try {
+            return new File(script.toURI());
+        } catch (URISyntaxException e) {
+            //URLs of files with spaces from File.toURL() are not encoded
+            return new File(script.getPath());
+        } catch (IllegalArgumentException e) {
+            return new File(script.getPath());
+        }
+
+    }
+
+    /**
+     * Opens the SQL script to read a range of bytes.
+     */
+    private InputStream openStream(long offset, final long length) throws IOException {
+
+        InputStream in;
+        File file = getFile();
+
+        if (file != null) {
+            FileInputStream fis = new FileInputStream(file);
+            fis.getChannel().position(offset);
+            in = fis;
+        } else {
+            in = script.openStream();
+            long skipped = 0;
+            while (skipped < offset) {
+                long n = in.skip(offset - skipped);
+                if (n <= 0) {
+                    in.close();
+                    throw new EOFException("SQL script " + script + " ends before offset " + offset + ".");
+                }
+                skipped += n;
+            }
+        }
+
+        return new FilterInputStream(in) {
+
+            private long remaining = length;
+
+            public int read() throws IOException {
+                if (remaining <= 0)
+                    return -1;
+                remaining--;
+                return super.read();
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0)
+                    return -1;
+                int n = super.read(b, off, (int) Math.min(len, remaining));
+                if (n > 0)
+                    remaining -= n;
+                return n;
+            }
+
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(Math.min(n, remaining));
+                remaining -= skipped;
+                return skipped;
+            }
+
+            public int available() throws IOException {
+                return (int) Math.min(super.available(), remaining);
+            }
+
+            public boolean markSupported() {
+                return false;
+            }
+
+        };
+
+    }
+
     /**
      * Prints the SQL statements in the script to stdout.
      *
@@ -107,7 +301,7 @@ public class SqlScript {
      * @param line string to check for end of statement
      * @return true if the line contains an end of statement mark (';')
      */
-    private boolean statementEnds(String line) {
+    static boolean statementEnds(String line) {
         return (line.indexOf(QUERY_ENDS) != -1);
     }
 
@@ -117,7 +311,7 @@ public class SqlScript {
      * @param line string to check for comment mark
      * @return true if the line starts witn a comment mark ('--')
      */
-    private boolean isComment(String line) {
+    static boolean isComment(String line) {
         return (line != null) && (line.length() > 0) && line.replaceFirst(WHITE_SPACE, "").startsWith(COMMENT);
     }
 
@@ -128,7 +322,67 @@ public class SqlScript {
      * @throws IOException if an error occurs while accessing the SQL script file
      */
     public Iterator<String> getStatementIterator() throws IOException {
-        return new StatementIterator();
+        return new StatementIterator(script.openStream());
+    }
+
+    /**
+     * Returns an iterator for the SQL statements in the SQL script starting with a statement.
+     * The iterator seeks to the statement using the statement index.
+     *
+     * @param first the index of the first statement
+     * @return string iterator
+     * @throws IOException if an error occurs while accessing the SQL script file
+     */
+    public Iterator<String> getStatementIterator(int first) throws IOException {
+        return getStatementIterator(first, getIndex().getStatementCount());
+    }
+
+    /**
+     * Returns an iterator for a range of the SQL statements in the SQL script.
+     * The iterator seeks to the first statement using the statement index.
+     *
+     * @param first the index of the first statement
+     * @param end   the index after the last statement
+     * @return string iterator
+     * @throws IOException if an error occurs while accessing the SQL script file
+     */
+    public Iterator<String> getStatementIterator(int first, int end) throws IOException {
+
+        SqlScriptIndex scriptIndex = getIndex();
+
+        if (first < 0 || end > scriptIndex.getStatementCount() || first > end)
+            throw new IndexOutOfBoundsException("Statements " + first + " to " + end + " of "
+                    + scriptIndex.getStatementCount() + ".");
+
+        if (first == end)
+            return new StatementIterator(new ByteArrayInputStream(new byte[0]));
+
+        long offset = scriptIndex.getOffset(first);
+        long length = scriptIndex.getOffset(end - 1) + scriptIndex.getLength(end - 1) - offset;
+
+        return new StatementIterator(openStream(offset, length));
+
+    }
+
+    ///////////////////
+    //getters & setters
+
+    /**
+     * Returns whether the statement index is saved next to the script file and reused.
+     *
+     * @return true if the index is saved
+     */
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Sets whether the statement index is saved next to the script file and reused.
+     *
+     * @param indexed true to save the index
+     */
+    public void setIndexed(boolean indexed) {
+        this.indexed = indexed;
     }
 
     /**
@@ -149,11 +403,11 @@ public class SqlScript {
         /**
          * Constructs an Iterator to access the SQL statements in the script file.
          *
-         * @throws IOException if an exception occurs while opening the script file
+         * @param in the script file or a range of it
          */
-        public StatementIterator() throws IOException {
+        public StatementIterator(InputStream in) {
 
-            br = new BufferedReader(new InputStreamReader(script.openStream()));
+            br = new BufferedReader(new InputStreamReader(in));
             nextStatement = parseStatement();
 
         }
@@ -197,6 +451,9 @@ public class SqlScript {
 
             String retVal = null;
 
+            if (br == null)
+                return retVal;
+
             try {
 
                 String line;
@@ -220,6 +477,9 @@ public class SqlScript {
 
                 }
 
+                br.close();
+                br = null;
+
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -0,0 +1,373 @@
+package org.dbtools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of the statements of an SQL script: the byte offset, length and type
+ * (the first keyword, e.g. 'INSERT') of each statement, in the order of appearance.
+ * <p/>
+ * A statement spans the lines read by {@link SqlScript} for it, from the first line
+ * after the previous statement up to and including the line terminator of the line
+ * containing the end of statement mark, so reading the bytes of a range of
+ * statements yields the same statements as parsing the whole script.
+ * <p/>
+ * An index of a script file is saved next to it (see {@link SqlScript#getIndex()}),
+ * with the length and modification time of the script to detect stale indexes.
+ */
+public class SqlScriptIndex {
+
+    /**
+     * the file signature 'SQIX'
+     */
+    private static final int MAGIC = 0x53514958;
+
+    /**
+     * the length of the script indexed
+     */
+    private long scriptLength;
+
+    /**
+     * the modification time of the script indexed
+     */
+    private long scriptModified;
+
+    /**
+     * the byte offsets of the statements
+     */
+    private long[] offsets;
+
+    /**
+     * the byte lengths of the statements
+     */
+    private int[] lengths;
+
+    /**
+     * the types of the statements as indexes into the type names
+     */
+    private short[] types;
+
+    /**
+     * the type names
+     */
+    private String[] typeNames;
+
+    private SqlScriptIndex() {
+    }
+
+    /**
+     * Builds the index of a script by parsing it.
+     *
+     * @param in             the script
+     * @param scriptModified the modification time of the script, 0 if unknown
+     * @return the index
+     * @throws IOException if an exception occurs while reading the script
+     */
+    public static SqlScriptIndex build(InputStream in, long scriptModified) throws IOException {
+
+        in = new BufferedInputStream(in, 1 << 16);
+
+        long[] offsets = new long[1024];
+        int[] lengths = new int[1024];
+        short[] types = new short[1024];
+        List<String> typeNames = new ArrayList<String>();
+        Map<String, Short> typeCodes = new HashMap<String, Short>();
+        int count = 0;
+
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        long position = 0;
+        long start = 0;
+        String type = null;
+
+        while (true) {
+
+            //read a line and its terminator
+            line.reset();
+            int b;
+            while ((b = in.read()) != -1 && b != '\n' && b != '\r')
+                line.write(b);
+
+            long lineEnd = position + line.size() + (b == -1 ? 0 : 1);
+            if (b == '\r') {
+                in.mark(1);
+                if (in.read() == '\n')
+                    lineEnd++;
+                else
+                    in.reset();
+            }
+
+            if (b == -1 && line.size() == 0)
+                break;
+
+            String text = line.toString();
+
+            if (SqlScript.isComment(text)) {
+                //comments before a statement are not part of it
+                if (type == null)
+                    start = lineEnd;
+            } else {
+
+                if (type == null || type.length() == 0)
+                    type = keyword(text);
+
+                if (SqlScript.statementEnds(text)) {
+
+                    if (count == offsets.length) {
+                        offsets = copyOf(offsets, count * 2);
+                        lengths = copyOf(lengths, count * 2);
+                        types = copyOf(types, count * 2);
+                    }
+
+                    Short code = typeCodes.get(type);
+                    if (code == null) {
+                        code = (short) typeNames.size();
+                        typeCodes.put(type, code);
+                        typeNames.add(type);
+                    }
+
+                    offsets[count] = start;
+                    lengths[count] = (int) (lineEnd - start);
+                    types[count] = code;
+                    count++;
+
+                    start = lineEnd;
+                    type = null;
+
+                }
+
+            }
+
+            position = lineEnd;
+
+            if (b == -1)
+                break;
+
+        }
+
+        in.close();
+
+        SqlScriptIndex retVal = new SqlScriptIndex();
+        retVal.scriptLength = position;
+        retVal.scriptModified = scriptModified;
+        retVal.offsets = copyOf(offsets, count);
+        retVal.lengths = copyOf(lengths, count);
+        retVal.types = copyOf(types, count);
+        retVal.typeNames = typeNames.toArray(new String[typeNames.size()]);
+
+        return retVal;
+
+    }
+
+    /**
+     * Loads an index saved by {@link #save(File)}.
+     *
+     * @param file the file
+     * @return the index
+     * @throws IOException if the file cannot be read
+     */
+    public static SqlScriptIndex load(File file) throws IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+
+        try {
+
+            if (in.readInt() != MAGIC)
+                throw new IOException("File '" + file + "' is not an SQL script index.");
+
+            SqlScriptIndex retVal = new SqlScriptIndex();
+            retVal.scriptLength = in.readLong();
+            retVal.scriptModified = in.readLong();
+
+            retVal.typeNames = new String[in.readShort()];
+            for (int i = 0; i < retVal.typeNames.length; i++)
+                retVal.typeNames[i] = in.readUTF();
+
+            int count = in.readInt();
+            retVal.offsets = new long[count];
+            retVal.lengths = new int[count];
+            retVal.types = new short[count];
+            for (int i = 0; i < count; i++) {
+                retVal.offsets[i] = in.readLong();
+                retVal.lengths[i] = in.readInt();
+                retVal.types[i] = in.readShort();
+            }
+
+            return retVal;
+
+        } finally {
+            in.close();
+        }
+
+    }
+
+    /**
+     * Saves the index.
+     *
+     * @param file the file
+     * @throws IOException if an exception occurs while writing the file
+     */
+    public void save(File file) throws IOException {
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+
+        try {
+
+            out.writeInt(MAGIC);
+            out.writeLong(scriptLength);
+            out.writeLong(scriptModified);
+
+            out.writeShort(typeNames.length);
+            for (String typeName : typeNames)
+                out.writeUTF(typeName);
+
+            out.writeInt(offsets.length);
+            for (int i = 0; i < offsets.length; i++) {
+                out.writeLong(offsets[i]);
+                out.writeInt(lengths[i]);
+                out.writeShort(types[i]);
+            }
+
+        } finally {
+            out.close();
+        }
+
+    }
+
+    /**
+     * Checks if the index was built from the current version of a script file.
+     *
+     * @param script the script file
+     * @return true if the length and modification time of the script match
+     */
+    public boolean isValid(File script) {
+        return script.length() == scriptLength && script.lastModified() == scriptModified;
+    }
+
+    /**
+     * Splits the statements into consecutive chunks of about the same number of bytes.
+     *
+     * @param chunks the number of chunks
+     * @return the index of the first statement of each chunk followed by the statement count,
+     *         i.e. chunk <i>i</i> holds the statements from <code>retVal[i]</code> to
+     *         <code>retVal[i + 1] - 1</code>; chunks may be empty if there are few statements
+     */
+    public int[] split(int chunks) {
+
+        if (chunks < 1)
+            throw new IllegalArgumentException("The number of chunks must be positive.");
+
+        int[] retVal = new int[chunks + 1];
+        int count = offsets.length;
+        retVal[chunks] = count;
+
+        if (count == 0)
+            return retVal;
+
+        long first = offsets[0];
+        long total = offsets[count - 1] + lengths[count - 1] - first;
+
+        int statement = 0;
+        for (int i = 1; i < chunks; i++) {
+            long boundary = first + total * i / chunks;
+            while (statement < count && offsets[statement] + lengths[statement] <= boundary)
+                statement++;
+            //end the chunk at the statement closest to the boundary
+            if (statement < count && boundary - offsets[statement] > offsets[statement] + lengths[statement] - boundary)
+                statement++;
+            retVal[i] = statement;
+        }
+
+        return retVal;
+
+    }
+
+    private static String keyword(String line) {
+
+        String text = line.trim();
+        int end = 0;
+        while (end < text.length() && Character.isLetter(text.charAt(end)))
+            end++;
+
+        return text.substring(0, end).toUpperCase();
+
+    }
+
+    private static long[] copyOf(long[] array, int length) {
+        long[] retVal = new long[length];
+        System.arraycopy(array, 0, retVal, 0, Math.min(array.length, length));
+        return retVal;
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        int[] retVal = new int[length];
+        System.arraycopy(array, 0, retVal, 0, Math.min(array.length, length));
+        return retVal;
+    }
+
+    private static short[] copyOf(short[] array, int length) {
+        short[] retVal = new short[length];
+        System.arraycopy(array, 0, retVal, 0, Math.min(array.length, length));
+        return retVal;
+    }
+
+    /**
+     * Returns the number of statements.
+     *
+     * @return the statement count
+     */
+    public int getStatementCount() {
+        return offsets.length;
+    }
+
+    /**
+     * Returns the byte offset of a statement in the script.
+     *
+     * @param statement the index of the statement
+     * @return the offset
+     */
+    public long getOffset(int statement) {
+        return offsets[statement];
+    }
+
+    /**
+     * Returns the number of bytes of a statement, including comments and line terminators.
+     *
+     * @param statement the index of the statement
+     * @return the length
+     */
+    public int getLength(int statement) {
+        return lengths[statement];
+    }
+
+    /**
+     * Returns the type of a statement, i.e. its first keyword in upper case (e.g. 'CREATE').
+     *
+     * @param statement the index of the statement
+     * @return the type
+     */
+    public String getType(int statement) {
+        return typeNames[types[statement]];
+    }
+
+    /**
+     * Returns the length of the script indexed.
+     *
+     * @return the length in bytes
+     */
+    public long getScriptLength() {
+        return scriptLength;
+    }
+
+}
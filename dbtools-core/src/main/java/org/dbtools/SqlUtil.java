@@ -1,5 +1,8 @@
 package org.dbtools;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
 import java.util.Iterator;
 import java.util.Set;
 
@@ -109,4 +112,28 @@ public abstract class SqlUtil {
         return sqlStatement.replace(":" + parameterName, sb.toString());
     }
 
+    /**
+     * Sets the parameters of a prepared statement in order of appearance.
+     * <code>null</code> values are set as SQL <code>NULL</code>.
+     *
+     * @param statement  the prepared statement
+     * @param parameters the parameter values
+     * @throws SQLException if a parameter cannot be set
+     */
+    public static void setParameters(PreparedStatement statement, Object... parameters) throws SQLException {
+
+        if (parameters == null)
+            return;
+
+        for (int i = 0; i < parameters.length; i++) {
+
+            if (parameters[i] == null)
+                statement.setNull(i + 1, Types.NULL);
+            else
+                statement.setObject(i + 1, parameters[i]);
+
+        }
+
+    }
+
 }
@@ -0,0 +1,542 @@
+package org.dbtools;
+
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copies tables from a source database into an HSQLDB database.
+ * <p/>
+ * Table definitions are read from the source database meta data (cached by the
+ * source database, see {@link AbstractDatabase#getSchemaMetadata()}) and created
+ * in the target database as CACHED tables with column types mapped by
+ * {@link HSqlDatabase#getColumnType(int, String, int, int)}. Rows are streamed
+ * from the source and inserted in batches of the size set by the configuration
+ * property <code>dbtools.copy.batch.size</code>, committing after each batch.
+ * <p/>
+ * A TableCopier can be used by several threads to copy different tables in
+ * parallel, each copy uses its own connections.
+ */
+public class TableCopier {
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(TableCopier.class);
+
+    /**
+     * the database to copy from
+     */
+    private Database source;
+
+    /**
+     * the database to copy to
+     */
+    private HSqlDatabase target;
+
+    /**
+     * the number of rows inserted per batch
+     */
+    private int batchSize = Configuration.getInstance().getIntProperty("dbtools.copy.batch.size");
+
+    /**
+     * Constructs a TableCopier.
+     *
+     * @param source the database to copy from
+     * @param target the HSQLDB database to copy to
+     */
+    public TableCopier(Database source, HSqlDatabase target) {
+        this.source = source;
+        this.target = target;
+    }
+
+    /**
+     * Copies a table. An existing table of the same name in the target database is dropped.
+     *
+     * @param table the table name
+     * @return the number of rows copied
+     * @throws DatabaseException if an exception occurs while accessing the source or target database
+     */
+    public long copyTable(String table) throws DatabaseException {
+        return copyTable(table, null);
+    }
+
+    /**
+     * Copies a table, passing each copied row to a handler. An existing table of the same
+     * name in the target database is dropped.
+     *
+     * @param table   the table name
+     * @param handler the handler receiving the copied rows, may be <code>null</code>. The return
+     *                value of the handler is ignored, all rows are copied.
+     * @return the number of rows copied
+     * @throws DatabaseException if an exception occurs while accessing the source or target database
+     *                           or the handler fails
+     */
+    public long copyTable(String table, RowHandler handler) throws DatabaseException {
+
+        long start = System.currentTimeMillis();
+
+        createTable(table);
+        long retVal = copyRows(table, handler, null);
+
+        logger.info("Copied " + retVal + " rows of table '" + table + "' in " + (System.currentTimeMillis() - start) + " ms.");
+
+        return retVal;
+
+    }
+
+    /**
+     * Creates a table in the target database with the definition of the source table.
+     * An existing table of the same name is dropped.
+     *
+     * @param table the table name
+     * @throws DatabaseException if an exception occurs while accessing the source or target database
+     */
+    public void createTable(String table) throws DatabaseException {
+
+        List<Column> columns = getColumns(table);
+        List<String> primaryKey = getPrimaryKey(table);
+
+        StringBuffer ddl = new StringBuffer("CREATE CACHED TABLE ").append(quote(table)).append(" (");
+
+        for (int i = 0; i < columns.size(); i++) {
+            Column column = columns.get(i);
+            if (i > 0)
+                ddl.append(", ");
+            ddl.append(quote(column.name)).append(" ").append(column.type);
+        }
+
+        if (primaryKey.size() > 0) {
+            ddl.append(", PRIMARY KEY (");
+            for (int i = 0; i < primaryKey.size(); i++) {
+                if (i > 0)
+                    ddl.append(", ");
+                ddl.append(quote(primaryKey.get(i)));
+            }
+            ddl.append(")");
+        }
+
+        ddl.append(")");
+
+        Connection connection = null;
+        try {
+
+            connection = target.getConnection();
+            Statement statement = connection.createStatement();
+            statement.execute("DROP TABLE " + quote(table) + " IF EXISTS");
+            statement.execute(ddl.toString());
+            statement.close();
+
+        } catch (SQLException e) {
+            throw new DatabaseException("Exception while creating table '" + table + "' in target database.", e);
+        } finally {
+            close(connection);
+        }
+
+    }
+
+    /**
+     * Copies the rows of a source table matching a condition into the existing target table.
+     *
+     * @param table      the table name
+     * @param condition  an SQL condition selecting the rows to copy, may contain parameter markers,
+     *                   <code>null</code> to copy all rows
+     * @param parameters the parameter values of the condition
+     * @return the number of rows copied
+     * @throws DatabaseException if an exception occurs while accessing the source or target database
+     */
+    public long copyRows(String table, String condition, Object... parameters) throws DatabaseException {
+        return copyRows(table, null, condition, parameters);
+    }
+
+    /**
+     * Copies the rows of a source table matching a condition into the existing target table,
+     * passing each copied row to a handler.
+     *
+     * @param table      the table name
+     * @param handler    the handler receiving the copied rows, may be <code>null</code>. The return
+     *                   value of the handler is ignored, all rows are copied.
+     * @param condition  an SQL condition selecting the rows to copy, may contain parameter markers,
+     *                   <code>null</code> to copy all rows
+     * @param parameters the parameter values of the condition
+     * @return the number of rows copied
+     * @throws DatabaseException if an exception occurs while accessing the source or target database
+     *                           or the handler fails
+     */
+    public long copyRows(String table, RowHandler handler, String condition, Object... parameters) throws DatabaseException {
+
+        List<Column> columns = getColumns(table);
+
+        StringBuffer select = new StringBuffer("SELECT ");
+        StringBuffer insert = new StringBuffer("INSERT INTO ").append(quote(table)).append(" VALUES (");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                select.append(", ");
+                insert.append(", ");
+            }
+            select.append(columns.get(i).name);
+            insert.append("?");
+        }
+        select.append(" FROM ").append(table);
+        if (condition != null)
+            select.append(" WHERE ").append(condition);
+        insert.append(")");
+
+        Connection sourceConnection = null;
+        Connection targetConnection = null;
+        PreparedStatement query = null;
+        ResultSet rs = null;
+        PreparedStatement insertStatement = null;
+        long retVal = 0;
+
+        try {
+
+            sourceConnection = source.getConnection();
+            targetConnection = target.getConnection();
+            targetConnection.setAutoCommit(false);
+
+            query = prepareStreamingStatement(sourceConnection, select.toString());
+            SqlUtil.setParameters(query, parameters);
+            rs = query.executeQuery();
+
+            insertStatement = targetConnection.prepareStatement(insert.toString());
+            int columnCount = columns.size();
+            int batched = 0;
+
+            while (rs.next()) {
+
+                Object[] row = new Object[columnCount];
+                for (int i = 1; i <= columnCount; i++) {
+                    row[i - 1] = rs.getObject(i);
+                    insertStatement.setObject(i, row[i - 1]);
+                }
+                insertStatement.addBatch();
+
+                if (handler != null)
+                    handler.handleRow(row);
+
+                if (++batched == batchSize) {
+                    insertStatement.executeBatch();
+                    targetConnection.commit();
+                    retVal += batched;
+                    batched = 0;
+                }
+
+            }
+
+            if (batched > 0) {
+                insertStatement.executeBatch();
+                targetConnection.commit();
+                retVal += batched;
+            }
+
+        } catch (SQLException e) {
+            throw new DatabaseException("Exception while copying table '" + table + "'.", e);
+        } finally {
+            //pooled connections keep statements that are not closed
+            close(rs);
+            close(query);
+            close(insertStatement);
+            close(sourceConnection);
+            close(targetConnection);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the columns of a source table and the HSQLDB types they are mapped to.
+     *
+     * @param table the table name
+     * @return the HSQLDB column types by column name in order of their position in the table,
+     *         an empty map if the table does not exist
+     * @throws DatabaseException if an exception occurs while reading the meta data
+     */
+    public Map<String, String> getColumnTypes(String table) throws DatabaseException {
+
+        Map<String, String> retVal = new LinkedHashMap<String, String>();
+        for (Column column : readColumns(table))
+            retVal.put(column.name, column.type);
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the column definitions of a source table.
+     *
+     * @param table the table name
+     * @return the columns in order of their position in the table
+     * @throws DatabaseException if the table does not exist or an exception occurs while reading the meta data
+     */
+    private List<Column> getColumns(String table) throws DatabaseException {
+
+        List<Column> retVal = readColumns(table);
+
+        if (retVal.size() == 0)
+            throw new DatabaseException("Table '" + table + "' does not exist in source database.");
+
+        return retVal;
+
+    }
+
+    /**
+     * Reads the column definitions of a source table.
+     *
+     * @param table the table name
+     * @return the columns in order of their position in the table, an empty list if the table does not exist
+     * @throws DatabaseException if an exception occurs while reading the meta data
+     */
+    private List<Column> readColumns(String table) throws DatabaseException {
+
+        List<Column> retVal = new ArrayList<Column>();
+
+        TableMetadata metadata = getSourceTable(table);
+        if (metadata != null) {
+            for (int i = 0; i < metadata.getColumnCount(); i++) {
+                Column column = new Column();
+                column.name = metadata.getColumnName(i);
+                column.type = HSqlDatabase.getColumnType(
+                        metadata.getColumnType(i),
+                        metadata.getColumnTypeName(i),
+                        metadata.getColumnSize(i),
+                        metadata.getDecimalDigits(i));
+                retVal.add(column);
+            }
+            return retVal;
+        }
+
+        //the cached definitions hold all tables of the schema
+        if (source instanceof AbstractDatabase)
+            return retVal;
+
+        Connection connection = null;
+
+        try {
+
+            connection = source.getConnection();
+            ResultSet rs = connection.getMetaData().getColumns(null, null, table, "%");
+            while (rs.next()) {
+
+                Column column = new Column();
+                column.name = rs.getString("COLUMN_NAME");
+                column.type = HSqlDatabase.getColumnType(
+                        rs.getInt("DATA_TYPE"),
+                        rs.getString("TYPE_NAME"),
+                        rs.getInt("COLUMN_SIZE"),
+                        rs.getInt("DECIMAL_DIGITS"));
+                retVal.add(column);
+
+            }
+            rs.close();
+
+        } catch (SQLException e) {
+            throw new DatabaseException("Exception while reading definition of table '" + table + "'.", e);
+        } finally {
+            close(connection);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the primary key columns of a source table.
+     *
+     * @param table the table name
+     * @return the primary key columns in key order, an empty list if the table has no primary key
+     * @throws DatabaseException if an exception occurs while reading the meta data
+     */
+    public List<String> getPrimaryKey(String table) throws DatabaseException {
+
+        TableMetadata metadata = getSourceTable(table);
+        if (metadata != null)
+            return new ArrayList<String>(metadata.getPrimaryKey());
+
+        List<String> columns = new ArrayList<String>();
+
+        //the cached definitions hold all tables of the schema
+        if (source instanceof AbstractDatabase)
+            return columns;
+
+        List<Short> sequence = new ArrayList<Short>();
+        Connection connection = null;
+
+        try {
+
+            connection = source.getConnection();
+            ResultSet rs = connection.getMetaData().getPrimaryKeys(null, null, table);
+            while (rs.next()) {
+
+                //insert in key sequence order
+                short keySeq = rs.getShort("KEY_SEQ");
+                int i = 0;
+                while (i < sequence.size() && sequence.get(i) < keySeq)
+                    i++;
+                sequence.add(i, keySeq);
+                columns.add(i, rs.getString("COLUMN_NAME"));
+
+            }
+            rs.close();
+
+        } catch (SQLException e) {
+            throw new DatabaseException("Exception while reading primary key of table '" + table + "'.", e);
+        } finally {
+            close(connection);
+        }
+
+        return columns;
+
+    }
+
+    /**
+     * Prepares a statement streaming the source rows.
+     *
+     * @param connection the source connection
+     * @param sql        the query
+     * @return the prepared statement
+     * @throws SQLException if an exception occurs while preparing the statement
+     */
+    private PreparedStatement prepareStreamingStatement(Connection connection, String sql) throws SQLException {
+
+        if (source instanceof AbstractDatabase)
+            return ((AbstractDatabase) source).prepareStreamingStatement(connection, sql);
+
+        return connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+    }
+
+    /**
+     * Returns the cached definition of a source table. The cached definitions are
+     * read again once if the table is not found, in case it was created after
+     * they were read.
+     *
+     * @param table the table name
+     * @return the table definition, <code>null</code> if the source database does not cache
+     *         definitions or the table does not exist
+     * @throws DatabaseException if an exception occurs while reading the meta data
+     */
+    private TableMetadata getSourceTable(String table) throws DatabaseException {
+
+        if (!(source instanceof AbstractDatabase))
+            return null;
+
+        AbstractDatabase database = (AbstractDatabase) source;
+        TableMetadata retVal = database.getSchemaMetadata().getTable(table);
+        if (retVal == null)
+            retVal = database.refreshSchemaMetadata().getTable(table);
+
+        return retVal;
+
+    }
+
+    /**
+     * Quotes an identifier for HSQLDB. Identifiers are converted to upper case so that they
+     * can still be referenced unquoted, quoting protects names that are reserved words.
+     *
+     * @param identifier the identifier
+     * @return the quoted identifier
+     */
+    static String quote(String identifier) {
+        return "\"" + identifier.toUpperCase() + "\"";
+    }
+
+    /**
+     * Closes a connection, logging exceptions.
+     *
+     * @param connection the connection, may be <code>null</code>
+     */
+    private static void close(Connection connection) {
+
+        if (connection == null)
+            return;
+
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.warn(e);
+        }
+
+    }
+
+    /**
+     * Closes a statement, logging exceptions.
+     *
+     * @param statement the statement, may be <code>null</code>
+     */
+    private static void close(Statement statement) {
+
+        if (statement == null)
+            return;
+
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            logger.warn(e);
+        }
+
+    }
+
+    /**
+     * Closes a result set, logging exceptions.
+     *
+     * @param resultSet the result set, may be <code>null</code>
+     */
+    private static void close(ResultSet resultSet) {
+
+        if (resultSet == null)
+            return;
+
+        try {
+            resultSet.close();
+        } catch (SQLException e) {
+            logger.warn(e);
+        }
+
+    }
+
+    /**
+     * Returns the number of rows inserted per batch.
+     *
+     * @return the batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of rows inserted per batch.
+     *
+     * @param batchSize the batch size
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * A column of a copied table.
+     */
+    private static class Column {
+
+        /**
+         * the column name
+         */
+        private String name;
+
+        /**
+         * the HSQLDB column type
+         */
+        private String type;
+
+    }
+
+}
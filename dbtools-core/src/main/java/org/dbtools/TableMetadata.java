@@ -0,0 +1,237 @@
+package org.dbtools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The definition of a table: its columns, primary key and indexes.
+ * <p/>
+ * Column attributes are held in parallel arrays indexed by column position
+ * (starting at 0), with type names shared between tables. TableMetadata
+ * objects are immutable.
+ */
+public class TableMetadata {
+
+    private String name;
+
+    private String[] columnNames;
+
+    private int[] columnTypes;
+
+    private String[] columnTypeNames;
+
+    private int[] columnSizes;
+
+    private int[] decimalDigits;
+
+    private boolean[] nullable;
+
+    private List<String> primaryKey;
+
+    private List<Index> indexes;
+
+    /**
+     * Constructs a table definition.
+     *
+     * @param name            the table name
+     * @param columnNames     the column names
+     * @param columnTypes     the column types (java.sql.Types)
+     * @param columnTypeNames the database specific column type names
+     * @param columnSizes     the column sizes
+     * @param decimalDigits   the numbers of fractional digits
+     * @param nullable        true for columns allowing NULL
+     * @param primaryKey      the primary key columns in key order
+     * @param indexes         the indexes
+     */
+    TableMetadata(String name, String[] columnNames, int[] columnTypes, String[] columnTypeNames, int[] columnSizes,
+                  int[] decimalDigits, boolean[] nullable, List<String> primaryKey, List<Index> indexes) {
+
+        this.name = name;
+        this.columnNames = columnNames;
+        this.columnTypes = columnTypes;
+        this.columnTypeNames = columnTypeNames;
+        this.columnSizes = columnSizes;
+        this.decimalDigits = decimalDigits;
+        this.nullable = nullable;
+        this.primaryKey = Collections.unmodifiableList(primaryKey);
+        this.indexes = Collections.unmodifiableList(indexes);
+
+    }
+
+    /**
+     * Returns the table name.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of columns.
+     *
+     * @return the column count
+     */
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    /**
+     * Returns the index of a column. The name is matched case insensitively.
+     *
+     * @param columnName the column name
+     * @return the column index (starting at 0) or -1 if there is no such column
+     */
+    public int getColumnIndex(String columnName) {
+
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i].equalsIgnoreCase(columnName))
+                return i;
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * Returns the column names in column order.
+     *
+     * @return the column names
+     */
+    public List<String> getColumnNames() {
+
+        List<String> retVal = new ArrayList<String>(columnNames.length);
+        Collections.addAll(retVal, columnNames);
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the name of a column.
+     *
+     * @param column the column index (starting at 0)
+     * @return the column name
+     */
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    /**
+     * Returns the type of a column.
+     *
+     * @param column the column index (starting at 0)
+     * @return the type as defined in java.sql.Types
+     */
+    public int getColumnType(int column) {
+        return columnTypes[column];
+    }
+
+    /**
+     * Returns the database specific type name of a column, followed by 'UNSIGNED'
+     * for unsigned numeric columns.
+     *
+     * @param column the column index (starting at 0)
+     * @return the type name
+     */
+    public String getColumnTypeName(int column) {
+        return columnTypeNames[column];
+    }
+
+    /**
+     * Returns the size of a column: the maximum length of character and binary
+     * columns, the precision of numeric columns.
+     *
+     * @param column the column index (starting at 0)
+     * @return the column size
+     */
+    public int getColumnSize(int column) {
+        return columnSizes[column];
+    }
+
+    /**
+     * Returns the number of fractional digits of a column.
+     *
+     * @param column the column index (starting at 0)
+     * @return the decimal digits
+     */
+    public int getDecimalDigits(int column) {
+        return decimalDigits[column];
+    }
+
+    /**
+     * Checks if a column allows NULL.
+     *
+     * @param column the column index (starting at 0)
+     * @return true if the column is nullable
+     */
+    public boolean isNullable(int column) {
+        return nullable[column];
+    }
+
+    /**
+     * Returns the primary key.
+     *
+     * @return the primary key columns in key order, an empty list if the table has no primary key
+     */
+    public List<String> getPrimaryKey() {
+        return primaryKey;
+    }
+
+    /**
+     * Returns the indexes of the table, not including the primary key.
+     *
+     * @return the indexes
+     */
+    public List<Index> getIndexes() {
+        return indexes;
+    }
+
+    /**
+     * An index of a table.
+     */
+    public static class Index {
+
+        private String name;
+
+        private boolean unique;
+
+        private List<String> columns;
+
+        Index(String name, boolean unique, List<String> columns) {
+            this.name = name;
+            this.unique = unique;
+            this.columns = Collections.unmodifiableList(columns);
+        }
+
+        /**
+         * Returns the index name.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Checks if the index is unique.
+         *
+         * @return true for unique indexes
+         */
+        public boolean isUnique() {
+            return unique;
+        }
+
+        /**
+         * Returns the indexed columns.
+         *
+         * @return the columns in index order
+         */
+        public List<String> getColumns() {
+            return columns;
+        }
+
+    }
+
+}
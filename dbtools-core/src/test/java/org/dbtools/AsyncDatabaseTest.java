@@ -0,0 +1,130 @@
+package org.dbtools;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncDatabaseTest extends TestCase {
+
+    private Database database;
+
+    protected void setUp() throws Exception {
+
+        database = SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("asyncdatabasetest");
+
+        Connection connection = database.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE gene IF EXISTS");
+        statement.execute("CREATE TABLE gene (gene_id INT PRIMARY KEY, biotype VARCHAR(40))");
+        statement.close();
+        connection.close();
+
+    }
+
+    @Test
+    public void testQueryAndUpdate() {
+
+        AsyncDatabase async = new AsyncDatabase(database, 4);
+
+        try {
+
+            List<CompletableFuture<Integer>> updates = new ArrayList<CompletableFuture<Integer>>();
+            for (int i = 1; i <= 20; i++)
+                updates.add(async.update("INSERT INTO gene VALUES (?, ?)", i, i % 2 == 0 ? "protein_coding" : "pseudogene"));
+
+            for (CompletableFuture<Integer> update : updates)
+                assertEquals(1, update.get().intValue());
+
+            QueryResult result = async.query("SELECT gene_id FROM gene WHERE biotype = ?", "protein_coding").get();
+            assertEquals(10, result.getRowCount());
+
+        } catch (InterruptedException e) {
+            fail(e.toString());
+        } catch (ExecutionException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testPermitsBoundConcurrency() {
+
+        final AsyncDatabase async = new AsyncDatabase(database, 2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        List<CompletableFuture<Boolean>> tasks = new ArrayList<CompletableFuture<Boolean>>();
+        for (int i = 0; i < 10; i++) {
+            tasks.add(async.execute(new AsyncDatabase.ConnectionCallback<Boolean>() {
+                public Boolean doInConnection(Connection connection) throws SQLException {
+
+                    int current = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        if (current > maxRunning.get())
+                            maxRunning.set(current);
+                    }
+
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        //ignore
+                    }
+
+                    running.decrementAndGet();
+                    return connection.isClosed();
+
+                }
+            }));
+        }
+
+        try {
+            for (CompletableFuture<Boolean> task : tasks)
+                assertFalse(task.get());
+        } catch (InterruptedException e) {
+            fail(e.toString());
+        } catch (ExecutionException e) {
+            fail(e.toString());
+        }
+
+        assertTrue(maxRunning.get() <= 2);
+        assertEquals(0, async.getQueuedCount());
+
+    }
+
+    @Test
+    public void testExceptionalCompletion() {
+
+        AsyncDatabase async = new AsyncDatabase(database, 1);
+
+        try {
+            async.query("SELECT * FROM no_such_table").get();
+            fail("Query of missing table did not fail.");
+        } catch (InterruptedException e) {
+            fail(e.toString());
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DatabaseException);
+        }
+
+    }
+
+    protected void tearDown() throws Exception {
+
+        Connection connection = database.getConnection();
+        try {
+            connection.createStatement().execute("DROP TABLE gene IF EXISTS");
+        } catch (SQLException e) {
+            //ignore
+        }
+        connection.close();
+
+    }
+
+}
@@ -0,0 +1,61 @@
+package org.dbtools;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class BloomFilterTest extends TestCase {
+
+    private static final int COUNT = 100000;
+
+    @Test
+    public void testMightContain() {
+
+        BloomFilter filter = new BloomFilter(COUNT, 0.01);
+        for (int i = 0; i < COUNT; i++)
+            filter.add("ENSG" + i);
+
+        for (int i = 0; i < COUNT; i++)
+            assertTrue(filter.mightContain("ENSG" + i));
+
+        int falsePositives = 0;
+        for (int i = 0; i < COUNT; i++) {
+            if (filter.mightContain("ENST" + i))
+                falsePositives++;
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < COUNT * 0.02);
+
+    }
+
+    @Test
+    public void testWriteAndRead() {
+
+        try {
+
+            BloomFilter filter = new BloomFilter(1000, 0.01);
+            for (int i = 0; i < 1000; i++)
+                filter.add("ENSG" + i);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            filter.write(out);
+            out.close();
+
+            BloomFilter read = BloomFilter.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            assertEquals(filter.getBitCount(), read.getBitCount());
+            assertEquals(filter.getHashCount(), read.getHashCount());
+            for (int i = 0; i < 1000; i++)
+                assertTrue(read.mightContain("ENSG" + i));
+
+        } catch (IOException e) {
+            fail(e.toString());
+        }
+
+    }
+
+}
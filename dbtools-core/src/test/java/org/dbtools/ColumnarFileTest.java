@@ -0,0 +1,136 @@
+package org.dbtools;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+public class ColumnarFileTest extends TestCase {
+
+    private static final int ROWS = 10000;
+
+    private Database database;
+
+    private File directory;
+
+    protected void setUp() throws Exception {
+
+        database = SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("columnarfiletest");
+        directory = new File(System.getProperty("java.io.tmpdir"), "columnarfiletest" + System.nanoTime());
+
+        Connection connection = database.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE gene IF EXISTS");
+        statement.execute("CREATE TABLE gene (gene_id INT, seq_region_start BIGINT, stable_id VARCHAR(20))");
+        statement.close();
+
+        //keys in descending order with gaps
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO gene VALUES (?, ?, ?)");
+        for (int i = 0; i < ROWS; i++) {
+            insert.setInt(1, (ROWS - i) * 2);
+            insert.setLong(2, i);
+            if (i % 10 == 0)
+                insert.setNull(3, java.sql.Types.VARCHAR);
+            else
+                insert.setString(3, "ENSG" + i);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        insert.close();
+        connection.close();
+
+    }
+
+    @Test
+    public void testWriteAndOpen() {
+
+        try {
+
+            ColumnarFileCache cache = new ColumnarFileCache(directory);
+            assertNull(cache.get("test", "gene"));
+
+            ColumnarResult result = ColumnarResult.execute(database, "SELECT * FROM gene");
+            cache.put("test", "gene", result, "gene_id");
+
+            //a new cache opens the file from disk
+            ColumnarFile file = new ColumnarFileCache(directory).get("test", "gene");
+            assertNotNull(file);
+            assertEquals(ROWS, file.getRowCount());
+            assertEquals(0, file.getKeyColumn());
+
+            for (int i = 0; i < ROWS; i += 7) {
+                assertEquals(result.getInt(i, 0), file.getInt(i, 0));
+                assertEquals(result.getLong(i, 1), file.getLong(i, 1));
+                assertEquals(result.isNull(i, 2), file.isNull(i, 2));
+                assertEquals(result.getString(i, 2), file.getString(i, 2));
+            }
+
+            int row = file.findRow(200);
+            assertEquals(ROWS - 100, row);
+            assertEquals(-1, file.findRow(201));
+
+            int[] rows = file.findRows(10, 20);
+            assertEquals(5, rows.length);
+            for (int i = 0; i < rows.length; i++)
+                assertEquals(10 + i * 2, file.getInt(rows[i], 0));
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        } catch (IOException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testReindex() {
+
+        try {
+
+            ColumnarFileCache cache = new ColumnarFileCache(directory);
+            ColumnarFile file = cache.put("test", "gene", ColumnarResult.execute(database, "SELECT * FROM gene"), "gene_id");
+            assertTrue(file.hasKeyIndex("GENE_ID"));
+            assertFalse(file.hasKeyIndex("seq_region_start"));
+
+            //the cached rows are written again with the index of another column
+            ColumnarFile reindexed = cache.put("test", "gene", file, "seq_region_start");
+            assertTrue(reindexed.hasKeyIndex("seq_region_start"));
+            assertEquals(ROWS, reindexed.getRowCount());
+            assertEquals(ROWS - 1, reindexed.findRow(ROWS - 1));
+
+            //the dictionary exceeds the decoded cache, all values are decoded again on access
+            for (int pass = 0; pass < 2; pass++) {
+                for (int i = 0; i < ROWS; i++)
+                    assertEquals(i % 10 == 0 ? null : "ENSG" + i, reindexed.getString(i, 2));
+            }
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        } catch (IOException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    protected void tearDown() throws Exception {
+
+        Connection connection = database.getConnection();
+        connection.createStatement().execute("DROP TABLE gene IF EXISTS");
+        connection.close();
+
+        File schema = new File(directory, "test");
+        File[] files = schema.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        schema.delete();
+        directory.delete();
+
+    }
+
+}
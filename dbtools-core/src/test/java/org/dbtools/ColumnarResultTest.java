@@ -0,0 +1,113 @@
+package org.dbtools;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+public class ColumnarResultTest extends TestCase {
+
+    private static final int ROWS = 150000;
+
+    private Database database;
+
+    protected void setUp() throws Exception {
+
+        database = SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("columnarresulttest");
+
+        Connection connection = database.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE feature IF EXISTS");
+        statement.execute("CREATE TABLE feature (feature_id INT PRIMARY KEY, seq_region_end BIGINT, score DOUBLE, biotype VARCHAR(40), stable_id VARCHAR(40))");
+        statement.close();
+
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO feature VALUES (?, ?, ?, ?, ?)");
+        for (int i = 0; i < ROWS; i++) {
+            insert.setInt(1, i);
+            insert.setLong(2, i * 10000000000L);
+            insert.setDouble(3, i / 4.0);
+            insert.setString(4, i % 1000 == 0 ? null : "biotype" + (i % 3));
+            insert.setString(5, toStableId(i));
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        insert.close();
+        connection.close();
+
+    }
+
+    @Test
+    public void testRead() {
+
+        try {
+
+            ColumnarResult result = ColumnarResult.execute(database, "SELECT * FROM feature ORDER BY feature_id");
+
+            assertEquals(ROWS, result.getRowCount());
+            assertEquals(ColumnarTable.ColumnType.INT, result.getColumnType(0));
+            assertEquals(ColumnarTable.ColumnType.LONG, result.getColumnType(1));
+            assertEquals(ColumnarTable.ColumnType.DOUBLE, result.getColumnType(2));
+            assertEquals(ColumnarTable.ColumnType.STRING, result.getColumnType(3));
+            assertEquals(3, result.getDictionarySize(3));
+            assertTrue(result.isDictionaryEncoded(3));
+
+            //the distinct stable IDs are stored as UTF-8 bytes
+            assertEquals(ColumnarTable.ColumnType.STRING, result.getColumnType(4));
+            assertFalse(result.isDictionaryEncoded(4));
+            assertEquals(0, result.getDictionarySize(4));
+
+            for (int i = 0; i < ROWS; i += 997) {
+                assertEquals(i, result.getInt(i, 0));
+                assertEquals(i * 10000000000L, result.getLong(i, 1));
+                assertEquals(i / 4.0, result.getDouble(i, 2), 0.0);
+                assertEquals(i % 1000 == 0, result.isNull(i, 3));
+                assertEquals(i % 1000 == 0 ? null : "biotype" + (i % 3), result.getString(i, 3));
+                assertEquals(toStableId(i), result.getString(i, 4));
+            }
+
+            //values at the chunk boundaries
+            for (int i : new int[]{0, 4096, 4097, 65535, 65536, 65537, ROWS - 1})
+                assertEquals(toStableId(i), result.getValue(i, 4));
+
+            assertEquals(ROWS - 1, result.getValue(ROWS - 1, 0));
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testMemoryLimit() {
+
+        try {
+            ColumnarResult.execute(database, 1000000, "SELECT * FROM feature");
+            fail("Memory limit not enforced.");
+        } catch (DatabaseException e) {
+            //expected
+        }
+
+    }
+
+    /**
+     * Returns a distinct stable ID for a row, with a non-ASCII character in every
+     * seventh and <code>null</code> for every 500th row.
+     *
+     * @param i the row index
+     * @return the stable ID
+     */
+    private static String toStableId(int i) {
+        return i % 500 == 0 ? null : "ENSG" + i + (i % 7 == 0 ? "\u00e9" : "");
+    }
+
+    protected void tearDown() throws Exception {
+
+        Connection connection = database.getConnection();
+        connection.createStatement().execute("DROP TABLE feature IF EXISTS");
+        connection.close();
+
+    }
+
+}
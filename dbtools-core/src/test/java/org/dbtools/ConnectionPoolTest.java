@@ -0,0 +1,204 @@
+package org.dbtools;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+public class ConnectionPoolTest extends TestCase {
+
+    private AbstractDatabase database;
+
+    private ConnectionPool pool;
+
+    protected void setUp() throws Exception {
+
+        database = (AbstractDatabase) SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("connectionpooltest");
+        pool = new ConnectionPool(database, 3, 4);
+        database.setConnectionPool(pool);
+
+    }
+
+    @Test
+    public void testWarmUp() {
+
+        ConnectionPool.WarmUpReport report = pool.warmUp("CALL 1");
+
+        assertTrue(report.isReady());
+        assertEquals(3, report.getOpened());
+        assertEquals(3, report.getIdleCount());
+        assertEquals(0, report.getFailures().size());
+
+        //idle connections count towards the minimum
+        assertEquals(0, pool.warmUp().getOpened());
+        assertEquals(3, pool.getSize());
+
+    }
+
+    @Test
+    public void testWarmUpFailure() {
+
+        ConnectionPool.WarmUpReport report = pool.warmUp("SELECT * FROM no_such_table");
+
+        assertFalse(report.isReady());
+        assertEquals(3, report.getFailures().size());
+        assertEquals(0, pool.getSize());
+
+    }
+
+    @Test
+    public void testBorrowAndReturn() {
+
+        try {
+
+            pool.setWaitTimeout(100);
+
+            Connection[] connections = new Connection[4];
+            for (int i = 0; i < connections.length; i++)
+                connections[i] = database.getConnection();
+            assertEquals(4, pool.getSize());
+
+            try {
+                database.getConnection();
+                fail("Pool exceeded maximum size.");
+            } catch (SQLException e) {
+                //expected
+            }
+
+            connections[0].setAutoCommit(false);
+            connections[0].close();
+            assertTrue(connections[0].isClosed());
+            assertEquals(1, pool.getIdleCount());
+
+            Connection connection = database.getConnection();
+            assertTrue(connection.getAutoCommit());
+            assertEquals(0, pool.getIdleCount());
+
+            connection.close();
+            for (int i = 1; i < connections.length; i++)
+                connections[i].close();
+            assertEquals(4, pool.getIdleCount());
+
+        } catch (SQLException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testMaintain() {
+
+        try {
+
+            pool.warmUp();
+            Connection[] connections = new Connection[4];
+            for (int i = 0; i < connections.length; i++)
+                connections[i] = database.getConnection();
+            for (Connection connection : connections)
+                connection.close();
+            assertEquals(4, pool.getIdleCount());
+
+            //idle connections beyond the minimum are closed
+            pool.setMaxIdleTime(1);
+            Thread.sleep(10);
+            pool.maintain();
+            assertEquals(3, pool.getSize());
+            assertEquals(3, pool.getIdleCount());
+
+            //expired connections are replaced
+            pool.setMaxIdleTime(60000);
+            pool.setMaxLifetime(50);
+            Thread.sleep(60);
+            pool.maintain();
+            pool.setMaxLifetime(60000);
+            assertEquals(3, pool.getSize());
+            assertEquals(3, pool.getIdleCount());
+
+            //stale connections are pinged and kept
+            pool.setKeepAliveInterval(1);
+            Thread.sleep(10);
+            pool.maintain();
+            assertEquals(3, pool.getSize());
+            assertEquals(3, pool.getIdleCount());
+
+            Connection connection = database.getConnection();
+            assertFalse(connection.isClosed());
+            connection.close();
+
+        } catch (SQLException e) {
+            fail(e.toString());
+        } catch (InterruptedException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testKeepAliveWithinMaxSize() {
+
+        try {
+
+            pool.setWaitTimeout(100);
+            pool.setKeepAliveInterval(0);
+
+            final boolean[] stop = {false};
+            Thread maintainer = new Thread() {
+                public void run() {
+                    while (!stop[0])
+                        pool.maintain();
+                }
+            };
+            maintainer.start();
+
+            //borrowers compete with the keep-alive pings for the same connections
+            try {
+                for (int round = 0; round < 50; round++) {
+
+                    Connection[] connections = new Connection[4];
+                    for (int i = 0; i < connections.length; i++) {
+                        connections[i] = database.getConnection();
+                        assertTrue(pool.getSize() <= pool.getMaxSize());
+                    }
+                    for (Connection connection : connections)
+                        connection.close();
+                    assertTrue(pool.getSize() <= pool.getMaxSize());
+
+                }
+            } finally {
+                stop[0] = true;
+                maintainer.join();
+            }
+
+            assertEquals(pool.getSize(), pool.getIdleCount());
+            assertTrue(pool.getSize() <= pool.getMaxSize());
+
+        } catch (SQLException e) {
+            fail(e.toString());
+        } catch (InterruptedException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testSchemaChange() {
+
+        try {
+            database.setSchema("other");
+            fail("Schema changed while a connection pool is attached.");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+
+        database.setConnectionPool(null);
+        database.setSchema("other");
+        assertEquals("other", database.getSchema());
+
+    }
+
+    protected void tearDown() throws Exception {
+        pool.close();
+    }
+
+}
@@ -0,0 +1,205 @@
+package org.dbtools;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class DatabaseRegistryTest extends TestCase {
+
+    protected void setUp() throws Exception {
+
+        Configuration configuration = Configuration.getInstance();
+        configuration.setProperty("dbtools.profile.registrytest.vendor", "hsql");
+        configuration.setProperty("dbtools.profile.registrytest.hsql.type", "in_process_transient");
+        configuration.setProperty("dbtools.profile.registrytest.pool.max.size", "3");
+        configuration.setProperty("dbtools.datasource.registrytest.profile", "registrytest");
+        configuration.setProperty("dbtools.datasource.registrytest.schema", "registrytest");
+        configuration.setProperty("dbtools.datasource.registrytest.cache.max.weight", "1048576");
+
+        //the pool size is invalid, the host router is started before it is read
+        configuration.setProperty("dbtools.datasource.invalidtest.profile", "registrytest");
+        configuration.setProperty("dbtools.datasource.invalidtest.schema", "invalidtest");
+        configuration.setProperty("dbtools.datasource.invalidtest.hosts", "host1:9001,host2:9001");
+        configuration.setProperty("dbtools.datasource.invalidtest.pool.max.size", "ten");
+
+    }
+
+    @Test
+    public void testSharedDatabase() {
+
+        DatabaseRegistry registry = DatabaseRegistry.getInstance();
+
+        try {
+
+            assertTrue(registry.isDefined("registrytest"));
+            assertFalse(registry.isDefined("undefined"));
+
+            Database database = registry.getDatabase("registrytest");
+            assertSame(database, registry.getDatabase("registrytest"));
+            assertEquals(Database.VENDOR_HSQL, database.getVendor());
+            assertTrue(registry.getNames().contains("registrytest"));
+
+            ConnectionPool pool = registry.getConnectionPool("registrytest");
+            assertNotNull(pool);
+            assertEquals(3, pool.getMaxSize());
+            assertNotNull(registry.getQueryCache("registrytest"));
+
+            Connection connection = database.getConnection();
+            connection.close();
+            assertEquals(1, pool.getIdleCount());
+
+            registry.shutdown();
+            assertTrue(pool.isClosed());
+            assertFalse(registry.getNames().contains("registrytest"));
+            assertNotSame(database, registry.getDatabase("registrytest"));
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        } catch (SQLException e) {
+            fail(e.toString());
+        }
+
+        try {
+            registry.getDatabase("undefined");
+            fail("Undefined data source created.");
+        } catch (DatabaseException e) {
+            //expected
+        }
+
+    }
+
+    @Test
+    public void testCachedQuery() {
+
+        DatabaseRegistry registry = DatabaseRegistry.getInstance();
+
+        try {
+
+            Connection connection = registry.getDatabase("registrytest").getConnection();
+            Statement statement = connection.createStatement();
+            statement.execute("DROP TABLE meta IF EXISTS");
+            statement.execute("CREATE TABLE meta (meta_key VARCHAR(40), meta_value VARCHAR(40))");
+            statement.execute("INSERT INTO meta VALUES ('schema_version', '46')");
+
+            String sql = "SELECT meta_value FROM meta WHERE meta_key = ?";
+            QueryResult result = registry.query("registrytest", sql, "schema_version");
+            assertEquals("46", result.getValue(0, 0));
+
+            //the repeated query is answered from the cache
+            statement.execute("UPDATE meta SET meta_value = '47'");
+            assertSame(result, registry.query("registrytest", sql, "schema_version"));
+            QueryCache cache = registry.getQueryCache("registrytest");
+            assertEquals(1, cache.getHitCount());
+            assertEquals(1, cache.getMissCount());
+            assertEquals("47", registry.query("registrytest", "SELECT meta_value FROM meta").getValue(0, 0));
+
+            statement.close();
+            connection.close();
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        } catch (SQLException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testRecreate() {
+
+        DatabaseRegistry registry = DatabaseRegistry.getInstance();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+
+            ObjectName cacheName = new ObjectName("org.dbtools:type=QueryCache,name=" + ObjectName.quote("registrytest"));
+
+            AbstractDatabase database = (AbstractDatabase) registry.getDatabase("registrytest");
+            database.setMetricsEnabled(true);
+            DatabaseMetrics metrics = database.getMetrics();
+            registry.query("registrytest", "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_TABLES");
+            registry.query("registrytest", "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_TABLES");
+            assertTrue(server.isRegistered(cacheName));
+            assertTrue(server.isRegistered(metrics.getName()));
+
+            registry.shutdown();
+            assertFalse(server.isRegistered(cacheName));
+            assertFalse(server.isRegistered(metrics.getName()));
+
+            //the MBeans of the data source created again are those of its new objects
+            database = (AbstractDatabase) registry.getDatabase("registrytest");
+            database.setMetricsEnabled(true);
+            assertNotSame(metrics, database.getMetrics());
+            assertTrue(server.isRegistered(database.getMetrics().getName()));
+            registry.query("registrytest", "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_TABLES");
+            assertEquals(0L, server.getAttribute(cacheName, "HitCount"));
+            assertEquals(1L, server.getAttribute(cacheName, "MissCount"));
+
+            //a registered data source can be registered again after the shutdown
+            registry.shutdown();
+            registry.register("registeredtest", database);
+            registry.shutdown();
+            assertFalse(server.isRegistered(database.getMetrics().getName()));
+            registry.register("registeredtest", database);
+            assertSame(database, registry.getDatabase("registeredtest"));
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        } catch (JMException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testInvalidDefinition() {
+
+        DatabaseRegistry registry = DatabaseRegistry.getInstance();
+        int routers = countThreads("dbtools-host-router");
+
+        try {
+            registry.getDatabase("invalidtest");
+            fail("Invalid pool size accepted.");
+        } catch (DatabaseException e) {
+            assertTrue(e.getCause() instanceof NumberFormatException);
+        }
+
+        assertFalse(registry.getNames().contains("invalidtest"));
+
+        //the host router started before the failure is stopped
+        for (int i = 0; i < 100 && countThreads("dbtools-host-router") > routers; i++) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                fail(e.toString());
+            }
+        }
+        assertEquals(routers, countThreads("dbtools-host-router"));
+
+    }
+
+    private static int countThreads(String name) {
+
+        int retVal = 0;
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().equals(name))
+                retVal++;
+        }
+
+        return retVal;
+
+    }
+
+    protected void tearDown() throws Exception {
+        DatabaseRegistry.getInstance().shutdown();
+    }
+
+}
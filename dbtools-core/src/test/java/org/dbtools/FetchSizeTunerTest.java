@@ -0,0 +1,122 @@
+package org.dbtools;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class FetchSizeTunerTest extends TestCase {
+
+    private static final int ROWS = 5000;
+
+    private AbstractDatabase database;
+
+    protected void setUp() throws Exception {
+
+        database = (AbstractDatabase) SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("fetchsizetunertest");
+
+        Connection connection = database.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE gene IF EXISTS");
+        statement.execute("CREATE TABLE gene (gene_id INT, stable_id VARCHAR(20))");
+        statement.close();
+
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO gene VALUES (?, ?)");
+        for (int i = 0; i < ROWS; i++) {
+            insert.setInt(1, i);
+            insert.setString(2, "ENSG" + i);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        insert.close();
+        connection.close();
+
+    }
+
+    @Test
+    public void testComputeFetchSize() {
+
+        FetchSizeTuner tuner = new FetchSizeTuner(database);
+
+        //no estimate yet, fetch sizes grow
+        assertNull(tuner.getLinkEstimate());
+        assertEquals(2000, tuner.computeFetchSize(1000, 100));
+
+        //50 ms round trip, 10 MB/s
+        tuner.recordFetch(100000, 60000000);
+        tuner.recordFetch(200000, 70000000);
+        tuner.recordFetch(400000, 90000000);
+
+        assertEquals(50.0, tuner.getRoundTripMillis(), 0.1);
+        assertEquals(10000000.0, tuner.getBandwidth(), 1000.0);
+
+        assertEquals(45000, tuner.computeFetchSize(1000, 100), 10);
+        assertEquals(4500, tuner.computeFetchSize(1000, 1000), 10);
+        //limited by the memory budget
+        assertEquals(8388608 / 5000, new FetchSizeTuner(database).computeFetchSize(1000, 5000));
+
+    }
+
+    @Test
+    public void testTunedQuery() {
+
+        try {
+
+            String sql = "SELECT gene_id, stable_id FROM gene ORDER BY gene_id";
+            database.setMetricsEnabled(true);
+
+            Connection connection = database.getConnection();
+            PreparedStatement statement = database.prepareStreamingStatement(connection, sql);
+            ResultSet resultSet = statement.executeQuery();
+
+            int rows = 0;
+            while (resultSet.next()) {
+                assertEquals(rows, resultSet.getInt(1));
+                assertEquals("ENSG" + rows, resultSet.getString(2));
+                rows++;
+            }
+            assertEquals(ROWS, rows);
+            assertSame(statement, resultSet.getStatement());
+
+            //the proxies are only equal to themselves
+            assertTrue(statement.equals(statement));
+            assertFalse(statement.equals(resultSet));
+            assertEquals(System.identityHashCode(statement), statement.hashCode());
+            assertTrue(resultSet.equals(resultSet));
+            assertEquals(System.identityHashCode(resultSet), resultSet.hashCode());
+
+            resultSet.close();
+            statement.close();
+            connection.close();
+
+            //the next execution starts with the adapted fetch size
+            DatabaseMetrics metrics = database.getMetrics();
+            assertEquals(metrics.getLastFetchSize(), database.getFetchSizeTuner().getFetchSize(sql));
+            assertTrue(metrics.getMeanFetchSize() > 0);
+            //the row width is estimated from the stable IDs read, not the declared column size
+            assertTrue(metrics.getLastRowBytes() > 4);
+            assertTrue(metrics.getLastRowBytes() < 4 + 20);
+
+        } catch (SQLException e) {
+            fail(e.toString());
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    protected void tearDown() throws Exception {
+
+        Connection connection = database.getConnection();
+        connection.createStatement().execute("DROP TABLE gene IF EXISTS");
+        connection.close();
+
+        database.setMetricsEnabled(false);
+
+    }
+
+}
@@ -0,0 +1,105 @@
+package org.dbtools;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+/**
+ * Measures the load rate of a persistent in process HSQLDB database into MEMORY and
+ * CACHED tables with default settings, and in bulk load mode (see
+ * {@link HSqlDatabase#beginBulkLoad()}).
+ * <p/>
+ * Run as <code>java -cp ... org.dbtools.HSqlBulkLoadBenchmark [rows]</code>. Each run
+ * loads the rows into a new database in the temporary directory in batches of
+ * <code>dbtools.copy.batch.size</code>, committing after each batch like
+ * {@link TableCopier}, and includes the final checkpoint in the time taken.
+ */
+public class HSqlBulkLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        //warm up the JIT with a small load
+        load(rows / 10, "", false);
+        load(rows / 10, "", true);
+
+        report("MEMORY table, default settings", rows, load(rows, "", false));
+        report("CACHED table, default settings", rows, load(rows, "CACHED ", false));
+        report("bulk load mode                ", rows, load(rows, "", true));
+
+    }
+
+    private static long load(int rows, String tableType, boolean bulk) throws Exception {
+
+        File directory = new File(System.getProperty("java.io.tmpdir"), "hsqlbulkloadbenchmark" + System.nanoTime());
+        HSqlDatabase database = (HSqlDatabase) SimpleDatabaseFactory.createHSqlPersistentInProcessDatabase(directory.getPath(), "benchmark");
+        int batchSize = Configuration.getInstance().getIntProperty("dbtools.copy.batch.size");
+
+        long start = System.nanoTime();
+
+        if (bulk)
+            database.beginBulkLoad();
+
+        Connection connection = database.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("CREATE " + tableType + "TABLE gene (gene_id INT PRIMARY KEY, seq_region_id INT, seq_region_start INT,"
+                + " seq_region_end INT, biotype VARCHAR(40), stable_id VARCHAR(128), description VARCHAR(255))");
+
+        connection.setAutoCommit(false);
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO gene VALUES (?, ?, ?, ?, ?, ?, ?)");
+        for (int i = 0; i < rows; i++) {
+
+            insert.setInt(1, i);
+            insert.setInt(2, i % 25);
+            insert.setInt(3, i * 10);
+            insert.setInt(4, i * 10 + 5000);
+            insert.setString(5, "protein_coding");
+            insert.setString(6, "ENSG" + (100000000000L + i));
+            insert.setString(7, "gene description " + i);
+            insert.addBatch();
+
+            if ((i + 1) % batchSize == 0) {
+                insert.executeBatch();
+                connection.commit();
+            }
+
+        }
+        insert.executeBatch();
+        connection.commit();
+        insert.close();
+        statement.close();
+        connection.close();
+
+        if (bulk) {
+            database.endBulkLoad();
+        } else {
+            connection = database.getConnection();
+            connection.createStatement().execute("CHECKPOINT");
+            connection.close();
+        }
+
+        long retVal = System.nanoTime() - start;
+
+        connection = database.getConnection();
+        connection.createStatement().execute("SHUTDOWN");
+        connection.close();
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        directory.delete();
+
+        return retVal;
+
+    }
+
+    private static void report(String mode, int rows, long nanos) {
+        System.out.println(mode + ": " + rows + " rows in " + nanos / 1000000 + " ms, "
+                + (long) (rows / (nanos / 1000000000.0)) + " rows/s");
+    }
+
+}
@@ -0,0 +1,88 @@
+package org.dbtools;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class HSqlBulkLoadTest extends TestCase {
+
+    private File directory;
+
+    private HSqlDatabase database;
+
+    protected void setUp() throws Exception {
+        directory = new File(System.getProperty("java.io.tmpdir"), "hsqlbulkloadtest" + System.nanoTime());
+        database = (HSqlDatabase) SimpleDatabaseFactory.createHSqlPersistentInProcessDatabase(directory.getPath(), "test");
+    }
+
+    @Test
+    public void testBulkLoad() {
+
+        try {
+
+            assertEquals("memory", getProperty("hsqldb.default_table_type"));
+
+            database.beginBulkLoad();
+            assertTrue(database.isBulkLoad());
+            assertEquals("cached", getProperty("hsqldb.default_table_type"));
+
+            Connection connection = database.getConnection();
+            Statement statement = connection.createStatement();
+            statement.execute("CREATE TABLE gene (gene_id INT PRIMARY KEY, stable_id VARCHAR(20))");
+            PreparedStatement insert = connection.prepareStatement("INSERT INTO gene VALUES (?, ?)");
+            for (int i = 0; i < 1000; i++) {
+                insert.setInt(1, i);
+                insert.setString(2, "ENSG" + i);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            insert.close();
+
+            ResultSet rs = statement.executeQuery("SELECT HSQLDB_TYPE FROM INFORMATION_SCHEMA.SYSTEM_TABLES WHERE TABLE_NAME = 'GENE'");
+            assertTrue(rs.next());
+            assertEquals("CACHED", rs.getString(1));
+            rs.close();
+            statement.close();
+            connection.close();
+
+            database.endBulkLoad();
+            assertFalse(database.isBulkLoad());
+            assertEquals("memory", getProperty("hsqldb.default_table_type"));
+
+            assertEquals(1000, ((Number) QueryResult.execute(database, "SELECT COUNT(*) FROM gene").getValue(0, 0)).intValue());
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        } catch (SQLException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    private String getProperty(String name) throws DatabaseException {
+        return (String) QueryResult.execute(database,
+                "SELECT PROPERTY_VALUE FROM INFORMATION_SCHEMA.SYSTEM_PROPERTIES WHERE PROPERTY_NAME = ?", name).getValue(0, 0);
+    }
+
+    protected void tearDown() throws Exception {
+
+        Connection connection = database.getConnection();
+        connection.createStatement().execute("SHUTDOWN");
+        connection.close();
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        directory.delete();
+
+    }
+
+}
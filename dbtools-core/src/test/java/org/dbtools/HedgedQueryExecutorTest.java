@@ -0,0 +1,153 @@
+package org.dbtools;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class HedgedQueryExecutorTest extends TestCase {
+
+    /**
+     * whether the next call of the SLOW function stalls
+     */
+    private static AtomicBoolean stall = new AtomicBoolean();
+
+    private AbstractDatabase database;
+
+    private AbstractDatabase mirror;
+
+    /**
+     * Returns a value, stalling for three seconds if a stall is requested.
+     *
+     * @param value the value
+     * @return the value
+     * @throws InterruptedException if interrupted while stalling
+     */
+    public static int slow(int value) throws InterruptedException {
+        if (stall.compareAndSet(true, false))
+            Thread.sleep(3000);
+        return value;
+    }
+
+    protected void setUp() throws Exception {
+
+        database = (AbstractDatabase) SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("hedgetest");
+        mirror = (AbstractDatabase) SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("hedgetestmirror");
+
+        for (Database db : new Database[]{database, mirror}) {
+            Connection connection = db.getConnection();
+            Statement statement = connection.createStatement();
+            statement.execute("CREATE ALIAS SLOW FOR \"org.dbtools.HedgedQueryExecutorTest.slow\"");
+            statement.execute("DROP TABLE t IF EXISTS");
+            statement.execute("CREATE TABLE t (id INT)");
+            statement.execute("INSERT INTO t VALUES (1)");
+            statement.execute("DROP TABLE mirrored IF EXISTS");
+            statement.close();
+            connection.close();
+        }
+
+        //a table of the mirror only
+        Connection connection = mirror.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("CREATE TABLE mirrored (id INT)");
+        statement.close();
+        connection.close();
+
+    }
+
+    @Test
+    public void testReadOnly() {
+
+        assertTrue(HedgedQueryExecutor.isReadOnly("SELECT id FROM t"));
+        assertTrue(HedgedQueryExecutor.isReadOnly(" with ids AS (SELECT id FROM t) SELECT * FROM ids"));
+        assertTrue(HedgedQueryExecutor.isReadOnly("SELECT last_update, into_date FROM t"));
+
+        assertFalse(HedgedQueryExecutor.isReadOnly("SELECT id INTO copy FROM t"));
+        assertFalse(HedgedQueryExecutor.isReadOnly("select *\ninto outfile '/tmp/t.txt'\nfrom t"));
+        assertFalse(HedgedQueryExecutor.isReadOnly("SELECT id FROM t FOR UPDATE"));
+        assertFalse(HedgedQueryExecutor.isReadOnly("WITH old AS (DELETE FROM t RETURNING id) SELECT * FROM old"));
+        assertFalse(HedgedQueryExecutor.isReadOnly("UPDATE t SET id = 2"));
+
+    }
+
+    @Test
+    public void testDeadline() {
+
+        HedgedQueryExecutor executor = database.getQueryExecutor();
+        executor.setHedging(false);
+
+        stall.set(true);
+        long start = System.currentTimeMillis();
+
+        try {
+            database.query(200, "SELECT SLOW(id) FROM t");
+            fail("Deadline not enforced.");
+        } catch (DatabaseException e) {
+            assertTrue(System.currentTimeMillis() - start < 2000);
+            assertEquals(1, executor.getDeadlineExceededCount());
+        }
+
+        stall.set(false);
+
+    }
+
+    @Test
+    public void testHedging() {
+
+        HedgedQueryExecutor executor = database.getQueryExecutor();
+        executor.setHedging(true);
+        executor.setHedgeDatabase(mirror);
+
+        try {
+
+            assertEquals(0, executor.getHedgeDelayMillis());
+            for (int i = 0; i < 50; i++)
+                assertEquals(1, database.query(0, "SELECT SLOW(id) FROM t").getValue(0, 0));
+            assertTrue(executor.getHedgeDelayMillis() > 0);
+
+            long hedged = executor.getHedgeCount();
+            stall.set(true);
+            long start = System.currentTimeMillis();
+
+            assertEquals(1, database.query(0, "SELECT SLOW(id) FROM t").getValue(0, 0));
+
+            assertTrue(System.currentTimeMillis() - start < 2000);
+            assertEquals(hedged + 1, executor.getHedgeCount());
+            assertTrue(executor.getHedgeWinCount() >= 1);
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+        stall.set(false);
+
+    }
+
+    @Test
+    public void testFailureNotHedged() {
+
+        HedgedQueryExecutor executor = database.getQueryExecutor();
+        executor.setHedging(true);
+        executor.setHedgeDatabase(mirror);
+
+        //queries are hedged after a second
+        for (int i = 0; i < 50; i++)
+            executor.getLatencies().record(1000000000L);
+        assertTrue(executor.getHedgeDelayMillis() >= 1000);
+
+        long hedged = executor.getHedgeCount();
+        long start = System.currentTimeMillis();
+
+        try {
+            database.query(0, "SELECT id FROM mirrored");
+            fail("Failed query answered by the hedge database.");
+        } catch (DatabaseException e) {
+            assertTrue(System.currentTimeMillis() - start < 1000);
+            assertEquals(hedged, executor.getHedgeCount());
+        }
+
+    }
+
+}
@@ -0,0 +1,119 @@
+package org.dbtools;
+
+import junit.framework.TestCase;
+import org.dbtools.HostRouter.RoutedHost;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+public class HostRouterTest extends TestCase {
+
+    private static final long MILLIS = 1000000;
+
+    private String ejectTime;
+
+    private String probeQuery;
+
+    protected void setUp() throws Exception {
+
+        ejectTime = Configuration.getInstance().getProperty("dbtools.router.eject.time");
+        probeQuery = Configuration.getInstance().getProperty("dbtools.router.probe.query");
+
+        //HSQLDB does not accept 'SELECT 1'
+        Configuration.getInstance().setProperty("dbtools.router.probe.query", "CALL 1");
+
+    }
+
+    @Test
+    public void testRanking() {
+
+        HostRouter router = new HostRouter(Arrays.asList("a", "b:3307", "c"), 3306);
+        RoutedHost a = router.getHosts().get(0);
+        RoutedHost b = router.getHosts().get(1);
+        RoutedHost c = router.getHosts().get(2);
+        assertEquals(3307, b.getPort());
+
+        //unmeasured hosts in order of configuration
+        assertSame(a, router.getPreferredHost());
+
+        router.recordSuccess(a, 50 * MILLIS);
+        router.recordSuccess(b, 10 * MILLIS);
+        assertEquals(Arrays.asList(b, a, c), router.rankHosts());
+
+        //moving average of a: 0.3 * 200 + 0.7 * 50, slower than 3 * 10 + 20
+        router.recordSuccess(a, 200 * MILLIS);
+        assertEquals(95.0, a.getLatencyMillis(), 0.001);
+        assertEquals(Arrays.asList(b, c, a), router.rankHosts());
+
+    }
+
+    @Test
+    public void testEjectionAndReadmission() {
+
+        HostRouter router = new HostRouter(Arrays.asList("a", "b"), 9001);
+        RoutedHost a = router.getHosts().get(0);
+        RoutedHost b = router.getHosts().get(1);
+
+        router.recordSuccess(a, 5 * MILLIS);
+        router.recordSuccess(b, 20 * MILLIS);
+        assertSame(a, router.getPreferredHost());
+
+        SQLException failure = new SQLException("Connection refused");
+        int maxFailures = Configuration.getInstance().getIntProperty("dbtools.router.max.failures");
+        for (int i = 1; i < maxFailures; i++) {
+            router.recordFailure(a, failure);
+            assertFalse(a.isEjected());
+        }
+        router.recordFailure(a, failure);
+        assertTrue(a.isEjected());
+        assertEquals(maxFailures, a.getConsecutiveFailures());
+        assertEquals(Arrays.asList(b, a), router.rankHosts());
+
+        //a probe of an in-process database succeeds for every host
+        try {
+            router.probe((AbstractDatabase) SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("hostroutertest"));
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+        assertFalse(a.isEjected());
+        assertEquals(0, a.getConsecutiveFailures());
+        assertTrue(a.getLatencyMillis() != 5.0);
+        for (RoutedHost host : router.rankHosts())
+            assertFalse(host.isEjected());
+
+    }
+
+    @Test
+    public void testEjectionExpires() {
+
+        Configuration.getInstance().setProperty("dbtools.router.eject.time", "50");
+
+        HostRouter router = new HostRouter(Arrays.asList("a", "b"), 9001);
+        RoutedHost a = router.getHosts().get(0);
+
+        int maxFailures = Configuration.getInstance().getIntProperty("dbtools.router.max.failures");
+        for (int i = 0; i < maxFailures; i++)
+            router.recordFailure(a, new SQLException("Connection refused"));
+        assertTrue(a.isEjected());
+
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            fail(e.toString());
+        }
+
+        assertFalse(a.isEjected());
+        List<RoutedHost> ranked = router.rankHosts();
+        assertSame(a, ranked.get(0));
+
+    }
+
+    protected void tearDown() throws Exception {
+        Configuration.getInstance().setProperty("dbtools.router.eject.time", ejectTime);
+        Configuration.getInstance().setProperty("dbtools.router.probe.query", probeQuery);
+    }
+
+}
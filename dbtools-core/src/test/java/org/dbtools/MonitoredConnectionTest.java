@@ -0,0 +1,108 @@
+package org.dbtools;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class MonitoredConnectionTest extends TestCase {
+
+    private AbstractDatabase database;
+
+    private DatabaseMetrics metrics;
+
+    protected void setUp() throws Exception {
+
+        database = (AbstractDatabase) SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("monitoredconnectiontest");
+        database.setMetricsEnabled(true);
+        metrics = database.getMetrics();
+        metrics.reset();
+
+    }
+
+    @Test
+    public void testMetrics() {
+
+        try {
+
+            Connection connection = database.getConnection();
+            assertEquals(1, metrics.getConnectionsOpened());
+            assertEquals(1, metrics.getOpenConnections());
+
+            Statement statement = connection.createStatement();
+            statement.execute("DROP TABLE t IF EXISTS");
+            statement.execute("CREATE TABLE t (id INT)");
+            assertEquals(2, metrics.getStatementsExecuted());
+
+            PreparedStatement insert = connection.prepareStatement("INSERT INTO t VALUES (?)");
+            for (int i = 0; i < 3; i++) {
+                insert.setInt(1, i);
+                insert.executeUpdate();
+            }
+            insert.close();
+            assertEquals(5, metrics.getStatementsExecuted());
+
+            ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM t");
+            assertSame(statement, resultSet.getStatement());
+            assertSame(connection, resultSet.getStatement().getConnection());
+            assertTrue(resultSet.next());
+            assertEquals(3, resultSet.getInt(1));
+            resultSet.close();
+            assertEquals(6, metrics.getStatementsExecuted());
+            assertEquals(6, metrics.getExecutionLatencies().getCount());
+
+            try {
+                statement.executeQuery("SELECT * FROM missing_table");
+                fail("Query of missing table succeeded.");
+            } catch (SQLException e) {
+                assertEquals(1, metrics.getStatementFailures());
+            }
+
+            assertEquals(0, metrics.getActiveConnections());
+            statement.close();
+
+            connection.close();
+            connection.close();
+            assertEquals(1, metrics.getConnectionsClosed());
+            assertEquals(0, metrics.getOpenConnections());
+
+        } catch (SQLException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testProxyIdentity() {
+
+        try {
+
+            Connection connection = database.getConnection();
+            Connection other = database.getConnection();
+            Statement statement = connection.createStatement();
+
+            assertTrue(connection.equals(connection));
+            assertFalse(connection.equals(other));
+            assertEquals(System.identityHashCode(connection), connection.hashCode());
+            assertTrue(statement.equals(statement));
+            assertSame(connection, statement.getConnection());
+
+            statement.close();
+            other.close();
+            connection.close();
+
+        } catch (SQLException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    protected void tearDown() throws Exception {
+        database.setMetricsEnabled(false);
+    }
+
+}
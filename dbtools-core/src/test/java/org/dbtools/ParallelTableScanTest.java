@@ -0,0 +1,141 @@
+package org.dbtools;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.BitSet;
+
+public class ParallelTableScanTest extends TestCase {
+
+    private static final int ROWS = 20000;
+
+    private Database database;
+
+    protected void setUp() throws Exception {
+
+        database = SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("paralleltablescantest");
+
+        Connection connection = database.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE feature IF EXISTS");
+        statement.execute("CREATE TABLE feature (feature_id INT PRIMARY KEY, seq_region_start INT)");
+        statement.close();
+
+        //keys with gaps
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO feature VALUES (?, ?)");
+        for (int i = 0; i < ROWS; i++) {
+            insert.setInt(1, i * 3 + 7);
+            insert.setInt(2, i);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        insert.close();
+        connection.close();
+
+    }
+
+    @Test
+    public void testOrderedScan() {
+
+        ParallelTableScan scan = new ParallelTableScan(database, "feature", "feature_id")
+                .setColumns("seq_region_start")
+                .setOrdered(true)
+                .setThreads(4)
+                .setMinSplitSize(10);
+
+        final int[] previous = {-1};
+        final boolean[] inOrder = {true};
+
+        try {
+
+            long rows = scan.scan(new RowHandler() {
+                public boolean handleRow(Object[] row) {
+                    int value = ((Number) row[0]).intValue();
+                    if (value != previous[0] + 1)
+                        inOrder[0] = false;
+                    previous[0] = value;
+                    return true;
+                }
+            });
+
+            assertEquals(ROWS, rows);
+            assertTrue(inOrder[0]);
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testUnorderedScan() {
+
+        ParallelTableScan scan = new ParallelTableScan(database, "feature", "feature_id")
+                .setCondition("seq_region_start >= ?", 100)
+                .setThreads(3)
+                .setMinSplitSize(10);
+
+        final BitSet seen = new BitSet();
+        final int[] duplicates = {0};
+
+        try {
+
+            long rows = scan.scan(new RowHandler() {
+                public boolean handleRow(Object[] row) {
+                    int value = ((Number) row[1]).intValue();
+                    if (seen.get(value))
+                        duplicates[0]++;
+                    seen.set(value);
+                    return true;
+                }
+            });
+
+            assertEquals(ROWS - 100, rows);
+            assertEquals(ROWS - 100, seen.cardinality());
+            assertEquals(0, duplicates[0]);
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testStop() {
+
+        ParallelTableScan scan = new ParallelTableScan(database, "feature", "feature_id").setOrdered(true);
+
+        try {
+
+            long rows = scan.scan(new RowHandler() {
+                private int count;
+                public boolean handleRow(Object[] row) {
+                    return ++count < 50;
+                }
+            });
+
+            assertEquals(50, rows);
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    protected void tearDown() throws Exception {
+
+        Connection connection = database.getConnection();
+        try {
+            connection.createStatement().execute("DROP TABLE feature IF EXISTS");
+        } catch (SQLException e) {
+            //ignore
+        }
+        connection.close();
+
+    }
+
+}
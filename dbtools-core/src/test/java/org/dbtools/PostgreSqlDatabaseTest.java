@@ -0,0 +1,240 @@
+package org.dbtools;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PostgreSqlDatabaseTest extends TestCase {
+
+    @Test
+    public void testCopyFormat() {
+
+        StringBuffer line = new StringBuffer();
+        Object[] row = {1, null, "tab\there", "back\\slash\nnewline", "\\N"};
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0)
+                line.append('\t');
+            PostgreSqlDatabase.appendCopyValue(line, row[i]);
+        }
+
+        assertEquals("1\t\\N\ttab\\there\tback\\\\slash\\nnewline\t\\\\N", line.toString());
+
+        String[] values = PostgreSqlDatabase.parseCopyLine(line.toString());
+        assertEquals(5, values.length);
+        assertEquals("1", values[0]);
+        assertNull(values[1]);
+        assertEquals(row[2], values[2]);
+        assertEquals(row[3], values[3]);
+        assertEquals(row[4], values[4]);
+
+        line.setLength(0);
+        PostgreSqlDatabase.appendCopyValue(line, new byte[]{0x0a, (byte) 0xff});
+        assertEquals("\\\\x0aff", line.toString());
+
+    }
+
+    @Test
+    public void testBuildUpsertSql() {
+
+        try {
+
+            PostgreSqlDatabase database = new PostgreSqlDatabase("localhost", "test");
+            assertEquals("jdbc:postgresql://localhost:5432/test", database.getUrl());
+
+            assertEquals("INSERT INTO gene (gene_id, stable_id) VALUES (?, ?), (?, ?) ON CONFLICT (gene_id)"
+                    + " DO UPDATE SET stable_id = EXCLUDED.stable_id",
+                    database.buildUpsertSql(null, "gene", new String[]{"gene_id", "stable_id"}, new String[]{"gene_id"}, 2));
+
+            assertEquals("INSERT INTO gene (gene_id) VALUES (?) ON CONFLICT (gene_id) DO NOTHING",
+                    database.buildUpsertSql(null, "gene", new String[]{"gene_id"}, new String[]{"gene_id"}, 1));
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testCopyIn() {
+
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (int i = 0; i < 1000; i++)
+            rows.add(new Object[]{i, i % 10 == 0 ? null : "ENSG\t" + i});
+
+        try {
+
+            CopyDatabase database = new CopyDatabase();
+            assertEquals(1000, database.copyIn("gene", new String[]{"gene_id", "stable_id"}, rows));
+            assertEquals("COPY gene (gene_id, stable_id) FROM STDIN", database.sql);
+
+            String[] lines = database.data.toString().split("\n");
+            assertEquals(1000, lines.length);
+            assertEquals("0\t\\N", lines[0]);
+            assertEquals("1\tENSG\\t1", lines[1]);
+            assertEquals(Arrays.asList("999", "ENSG\t999"), Arrays.asList(PostgreSqlDatabase.parseCopyLine(lines[999])));
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+        try {
+            rows.add(new Object[]{1000});
+            new CopyDatabase().copyIn("gene", new String[]{"gene_id", "stable_id"}, rows);
+            fail("Row with missing value copied.");
+        } catch (DatabaseException e) {
+            //expected
+        }
+
+    }
+
+    @Test
+    public void testCopyOut() {
+
+        final List<String[]> rows = new ArrayList<String[]>();
+
+        try {
+
+            CopyDatabase database = new CopyDatabase();
+            for (int i = 0; i < 100; i++)
+                database.data.append(i).append("\tENSG\\t").append(i).append(i % 10 == 0 ? "\t\\N" : "\tdescription").append('\n');
+
+            assertEquals(100, database.copyOut("SELECT * FROM gene", new RowHandler() {
+                public boolean handleRow(Object[] row) {
+                    rows.add((String[]) row);
+                    return true;
+                }
+            }));
+            assertEquals("COPY (SELECT * FROM gene) TO STDOUT", database.sql);
+            assertEquals(100, rows.size());
+            assertEquals(Arrays.asList("0", "ENSG\t0", null), Arrays.asList(rows.get(0)));
+            assertEquals(Arrays.asList("99", "ENSG\t99", "description"), Arrays.asList(rows.get(99)));
+
+            //the handler stops the export
+            assertEquals(5, database.copyOut("SELECT * FROM gene", new RowHandler() {
+                public boolean handleRow(Object[] row) {
+                    return !row[0].equals("4");
+                }
+            }));
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+        final DatabaseException exception = new DatabaseException("handler failed");
+        try {
+            CopyDatabase database = new CopyDatabase();
+            database.data.append("1\tENSG1\n");
+            database.copyOut("SELECT * FROM gene", new RowHandler() {
+                public boolean handleRow(Object[] row) throws DatabaseException {
+                    throw exception;
+                }
+            });
+            fail("Exception of row handler not thrown.");
+        } catch (DatabaseException e) {
+            assertSame(exception, e);
+        }
+
+    }
+
+    @Test
+    public void testStreamingAutoCommit() {
+
+        try {
+
+            Database hsql = SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("postgresqltest");
+            PostgreSqlDatabase database = new PostgreSqlDatabase("localhost", "test");
+
+            Connection connection = hsql.getConnection();
+            assertTrue(connection.getAutoCommit());
+
+            PreparedStatement statement = database.prepareStreamingStatement(connection, "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_TABLES");
+            assertFalse(connection.getAutoCommit());
+            assertTrue(statement.equals(statement));
+            ResultSet rs = statement.executeQuery();
+            assertTrue(rs.next());
+            rs.close();
+            statement.close();
+            assertTrue(connection.getAutoCommit());
+
+            //a connection in manual commit mode is left as it is
+            connection.setAutoCommit(false);
+            statement = database.prepareStreamingStatement(connection, "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_TABLES");
+            statement.close();
+            assertFalse(connection.getAutoCommit());
+
+            connection.close();
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        } catch (SQLException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    /**
+     * A PostgreSQL database whose COPY statements are served by a buffer instead of the driver.
+     */
+    private static class CopyDatabase extends PostgreSqlDatabase {
+
+        /**
+         * the last COPY statement
+         */
+        private String sql;
+
+        /**
+         * the data loaded or exported
+         */
+        private StringBuffer data = new StringBuffer();
+
+        private CopyDatabase() throws DatabaseException {
+            super("localhost", "test");
+        }
+
+        public long copyIn(String sql, Reader data) throws DatabaseException {
+
+            this.sql = sql;
+
+            try {
+                //reads in small chunks, like the driver
+                char[] chars = new char[100];
+                for (int read = data.read(chars); read >= 0; read = data.read(chars))
+                    this.data.append(chars, 0, read);
+            } catch (IOException e) {
+                throw new DatabaseException("Exception while reading data for '" + sql + "'.", e);
+            }
+
+            return this.data.length() == 0 ? 0 : this.data.toString().split("\n").length;
+
+        }
+
+        public long copyOut(String query, Writer out) throws DatabaseException {
+
+            sql = "COPY (" + query + ") TO STDOUT";
+
+            try {
+                //writes in chunks that split lines, like the driver
+                String text = data.toString();
+                for (int i = 0; i < text.length(); i += 7)
+                    out.write(text.toCharArray(), i, Math.min(7, text.length() - i));
+            } catch (IOException e) {
+                throw new DatabaseException("Exception while writing the result of '" + sql + "'.", e);
+            }
+
+            return data.toString().split("\n").length;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,122 @@
+package org.dbtools;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class QueryCacheTest extends TestCase {
+
+    private Database database;
+
+    protected void setUp() throws Exception {
+
+        database = SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("querycachetest");
+
+        Connection connection = database.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE gene IF EXISTS");
+        statement.execute("CREATE TABLE gene (gene_id INT PRIMARY KEY, biotype VARCHAR(40))");
+        statement.execute("INSERT INTO gene VALUES (1, 'protein_coding')");
+        statement.execute("INSERT INTO gene VALUES (2, 'pseudogene')");
+        statement.execute("INSERT INTO gene VALUES (3, 'protein_coding')");
+        statement.close();
+        connection.close();
+
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+
+        QueryCache cache = new QueryCache(1024 * 1024);
+
+        try {
+
+            QueryResult first = cache.executeQuery(database, "SELECT gene_id FROM gene WHERE biotype = ?", "protein_coding");
+            QueryResult second = cache.executeQuery(database, "SELECT gene_id FROM gene WHERE biotype = ?", "protein_coding");
+            QueryResult other = cache.executeQuery(database, "SELECT gene_id FROM gene WHERE biotype = ?", "pseudogene");
+
+            assertEquals(2, first.getRowCount());
+            assertSame(first, second);
+            assertEquals(1, other.getRowCount());
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.getSize());
+
+    }
+
+    @Test
+    public void testServersByPort() {
+
+        QueryCache cache = new QueryCache(1024 * 1024);
+
+        try {
+
+            //the same host and schema on another port is another server
+            Database other = new HSqlDatabase("", 9002, "querycachetest", "sa", "".toCharArray(), HSqlConnectionType.IN_PROCESS_TRANSIENT);
+
+            QueryResult first = cache.executeQuery(database, "SELECT gene_id FROM gene WHERE biotype = ?", "pseudogene");
+            QueryResult second = cache.executeQuery(other, "SELECT gene_id FROM gene WHERE biotype = ?", "pseudogene");
+
+            assertNotSame(first, second);
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+    }
+
+    @Test
+    public void testWeightBasedEviction() {
+
+        try {
+
+            long weight = QueryResult.execute(database, "SELECT * FROM gene WHERE gene_id = ?", 1).getWeight();
+
+            //room for two results of the same weight
+            QueryCache cache = new QueryCache(weight * 2);
+
+            cache.executeQuery(database, "SELECT * FROM gene WHERE gene_id = ?", 1);
+            cache.executeQuery(database, "SELECT * FROM gene WHERE gene_id = ?", 2);
+            //touch the first result so that the second one is least recently used
+            cache.executeQuery(database, "SELECT * FROM gene WHERE gene_id = ?", 1);
+            cache.executeQuery(database, "SELECT * FROM gene WHERE gene_id = ?", 3);
+
+            assertEquals(2, cache.getSize());
+            assertEquals(1, cache.getEvictionCount());
+            assertTrue(cache.getWeight() <= cache.getMaxWeight());
+
+            //the first result must still be cached
+            long hits = cache.getHitCount();
+            cache.executeQuery(database, "SELECT * FROM gene WHERE gene_id = ?", 1);
+            assertEquals(hits + 1, cache.getHitCount());
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    protected void tearDown() throws Exception {
+
+        Connection connection = database.getConnection();
+        try {
+            connection.createStatement().execute("DROP TABLE gene IF EXISTS");
+        } catch (SQLException e) {
+            //ignore
+        }
+        connection.close();
+
+    }
+
+}
@@ -0,0 +1,154 @@
+package org.dbtools;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+public class RowPublisherTest extends TestCase {
+
+    private Database database;
+
+    protected void setUp() throws Exception {
+
+        database = SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("rowpublishertest");
+
+        Connection connection = database.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE gene IF EXISTS");
+        statement.execute("CREATE TABLE gene (gene_id INT PRIMARY KEY, biotype VARCHAR(40))");
+        for (int i = 1; i <= 25; i++)
+            statement.execute("INSERT INTO gene VALUES (" + i + ", 'protein_coding')");
+        statement.close();
+        connection.close();
+
+    }
+
+    @Test
+    public void testBoundedDemand() {
+
+        RowPublisher publisher = new RowPublisher(database, "SELECT gene_id FROM gene WHERE gene_id > ? ORDER BY gene_id", 5);
+        CollectingSubscriber subscriber = new CollectingSubscriber(3, -1);
+        publisher.subscribe(subscriber);
+
+        try {
+            assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            fail(e.toString());
+        }
+
+        assertNull(subscriber.error);
+        assertTrue(subscriber.completed);
+        assertEquals(20, subscriber.rows.size());
+        assertEquals(6, ((Number) subscriber.rows.get(0)[0]).intValue());
+        //never more rows than requested
+        assertTrue(subscriber.maxOutstanding <= 3);
+
+    }
+
+    @Test
+    public void testCancel() {
+
+        RowPublisher publisher = new RowPublisher(database, "SELECT gene_id FROM gene ORDER BY gene_id");
+        CollectingSubscriber subscriber = new CollectingSubscriber(2, 7);
+        publisher.subscribe(subscriber);
+
+        try {
+            assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+            //no further signals after cancel
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            fail(e.toString());
+        }
+
+        assertFalse(subscriber.completed);
+        assertEquals(7, subscriber.rows.size());
+
+    }
+
+    protected void tearDown() throws Exception {
+
+        Connection connection = database.getConnection();
+        try {
+            connection.createStatement().execute("DROP TABLE gene IF EXISTS");
+        } catch (SQLException e) {
+            //ignore
+        }
+        connection.close();
+
+    }
+
+    /**
+     * Requests rows in batches and optionally cancels after a number of rows.
+     */
+    private static class CollectingSubscriber implements Flow.Subscriber<Object[]> {
+
+        private List<Object[]> rows = Collections.synchronizedList(new ArrayList<Object[]>());
+
+        private CountDownLatch terminated = new CountDownLatch(1);
+
+        private int batch;
+
+        private int cancelAfter;
+
+        private Flow.Subscription subscription;
+
+        private int outstanding;
+
+        private int maxOutstanding;
+
+        private volatile boolean completed;
+
+        private volatile Throwable error;
+
+        private CollectingSubscriber(int batch, int cancelAfter) {
+            this.batch = batch;
+            this.cancelAfter = cancelAfter;
+        }
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            request();
+        }
+
+        public void onNext(Object[] row) {
+
+            rows.add(row);
+            outstanding--;
+
+            if (rows.size() == cancelAfter) {
+                subscription.cancel();
+                terminated.countDown();
+            } else if (outstanding == 0) {
+                request();
+            }
+
+        }
+
+        public void onError(Throwable throwable) {
+            error = throwable;
+            terminated.countDown();
+        }
+
+        public void onComplete() {
+            completed = true;
+            terminated.countDown();
+        }
+
+        private void request() {
+            outstanding += batch;
+            maxOutstanding = Math.max(maxOutstanding, outstanding);
+            subscription.request(batch);
+        }
+
+    }
+
+}
@@ -0,0 +1,124 @@
+package org.dbtools;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+public class SchemaMetadataTest extends TestCase {
+
+    private AbstractDatabase database;
+
+    protected void setUp() throws Exception {
+
+        database = (AbstractDatabase) SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("schemametadatatest");
+
+        Connection connection = database.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE gene IF EXISTS");
+        statement.execute("CREATE TABLE gene (gene_id INT PRIMARY KEY, stable_id VARCHAR(128) NOT NULL, description VARCHAR(255))");
+        statement.execute("CREATE INDEX gene_stable_id_idx ON gene (stable_id)");
+        statement.close();
+        connection.close();
+
+    }
+
+    @Test
+    public void testTable() {
+
+        try {
+
+            TableMetadata gene = database.getSchemaMetadata().getTable("gene");
+            assertNotNull(gene);
+
+            assertEquals(3, gene.getColumnCount());
+            assertEquals(1, gene.getColumnIndex("stable_id"));
+            assertEquals(Types.INTEGER, gene.getColumnType(0));
+            assertEquals(Types.VARCHAR, gene.getColumnType(1));
+            assertEquals(128, gene.getColumnSize(1));
+            assertFalse(gene.isNullable(1));
+            assertTrue(gene.isNullable(2));
+
+            assertEquals(1, gene.getPrimaryKey().size());
+            assertTrue("gene_id".equalsIgnoreCase(gene.getPrimaryKey().get(0)));
+
+            assertEquals(1, gene.getIndexes().size());
+            assertTrue("stable_id".equalsIgnoreCase(gene.getIndexes().get(0).getColumns().get(0)));
+            assertFalse(gene.getIndexes().get(0).isUnique());
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testRefresh() {
+
+        try {
+
+            SchemaMetadata metadata = database.getSchemaMetadata();
+            assertSame(metadata, database.getSchemaMetadata());
+
+            Connection connection = database.getConnection();
+            connection.createStatement().execute("CREATE TABLE transcript (transcript_id INT)");
+            connection.close();
+
+            assertFalse(database.getSchemaMetadata().hasTable("transcript"));
+            assertTrue(database.refreshSchemaMetadata().hasTable("transcript"));
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        } catch (SQLException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testOtherSchema() {
+
+        try {
+
+            //a table of the same name in another schema is not merged into the definition
+            Connection connection = database.getConnection();
+            Statement statement = connection.createStatement();
+            statement.execute("CREATE SCHEMA other AUTHORIZATION DBA");
+            statement.execute("CREATE TABLE other.gene (gene_id INT, biotype VARCHAR(40))");
+            statement.execute("CREATE TABLE other.exon (exon_id INT)");
+            statement.close();
+            connection.close();
+
+            SchemaMetadata metadata = database.refreshSchemaMetadata();
+            assertEquals(3, metadata.getTable("gene").getColumnCount());
+            assertEquals(-1, metadata.getTable("gene").getColumnIndex("biotype"));
+            assertFalse(metadata.hasTable("exon"));
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        } catch (SQLException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    protected void tearDown() throws Exception {
+
+        Connection connection = database.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute("DROP TABLE gene IF EXISTS");
+            statement.execute("DROP TABLE transcript IF EXISTS");
+            statement.execute("DROP SCHEMA other CASCADE");
+            statement.close();
+        } catch (SQLException e) {
+            //ignore
+        }
+        connection.close();
+
+    }
+
+}
@@ -0,0 +1,87 @@
+package org.dbtools;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class SqlScriptIndexTest extends TestCase {
+
+    private static final int STATEMENTS = 500;
+
+    private File script;
+
+    protected void setUp() throws Exception {
+
+        script = File.createTempFile("sqlscriptindextest", ".sql");
+
+        FileWriter writer = new FileWriter(script);
+        writer.write("-- test script\r\n");
+        writer.write("CREATE TABLE gene (gene_id INT,\n  stable_id VARCHAR(20));\n");
+        for (int i = 1; i < STATEMENTS; i++) {
+            if (i % 50 == 0)
+                writer.write("  -- comment " + i + "\n");
+            if (i % 7 == 0)
+                writer.write("\n");
+            writer.write("INSERT INTO gene\r\n  VALUES (" + i + ", 'ENSG" + i + "');\r\n");
+        }
+        writer.write("SELECT * FROM gene");
+        writer.close();
+
+    }
+
+    @Test
+    public void testSeekAndSplit() {
+
+        try {
+
+            SqlScript sqlScript = new SqlScript(script.getPath());
+            sqlScript.setIndexed(true);
+
+            List<String> statements = sqlScript.getStatements();
+            assertEquals(STATEMENTS, statements.size());
+            assertEquals(STATEMENTS, sqlScript.getStatementCount());
+            assertTrue(new File(script.getPath() + ".idx").exists());
+
+            SqlScriptIndex index = sqlScript.getIndex();
+            assertEquals("CREATE", index.getType(0));
+            assertEquals("INSERT", index.getType(STATEMENTS - 1));
+
+            //a new script object loads the saved index
+            sqlScript = new SqlScript(script.getPath());
+            sqlScript.setIndexed(true);
+            Iterator<String> iterator = sqlScript.getStatementIterator(123);
+            for (int i = 123; i < STATEMENTS; i++)
+                assertEquals(statements.get(i), iterator.next());
+            assertFalse(iterator.hasNext());
+
+            int[] chunks = sqlScript.split(4);
+            assertEquals(5, chunks.length);
+            assertEquals(0, chunks[0]);
+            assertEquals(STATEMENTS, chunks[4]);
+
+            List<String> chunked = new ArrayList<String>();
+            for (int i = 0; i < 4; i++) {
+                assertTrue(Math.abs(chunks[i + 1] - chunks[i] - STATEMENTS / 4) < 10);
+                for (Iterator<String> chunk = sqlScript.getStatementIterator(chunks[i], chunks[i + 1]); chunk.hasNext();)
+                    chunked.add(chunk.next());
+            }
+            assertEquals(statements, chunked);
+
+        } catch (IOException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    protected void tearDown() throws Exception {
+        new File(script.getPath() + ".idx").delete();
+        script.delete();
+    }
+
+}
@@ -0,0 +1,57 @@
+package org.dbtools;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Measures the time it takes a fresh JVM to obtain its first connection.
+ * <p/>
+ * Run in a new JVM for each measurement, e.g.
+ * <code>java -cp ... org.dbtools.StartupBenchmark [schema]</code>. The time
+ * from JVM start to <code>main</code> is reported separately from the
+ * library's share: configuration loading, constructing the Database object
+ * (which no longer loads the driver) and the first connection (which does).
+ */
+public class StartupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+        long mainStart = System.nanoTime();
+        long mainStartMillis = System.currentTimeMillis();
+
+        String schema = args.length > 0 ? args[0] : "startupbenchmark";
+
+        Configuration.getInstance();
+        long configured = System.nanoTime();
+
+        Database database = SimpleDatabaseFactory.createHSqlTransientInProcessDatabase(schema);
+        long constructed = System.nanoTime();
+
+        Connection connection = database.getConnection();
+        long connected = System.nanoTime();
+
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SYSTEM_TABLES");
+        rs.next();
+        rs.close();
+        statement.close();
+        connection.close();
+        long queried = System.nanoTime();
+
+        System.out.println("JVM start to main:        " + (mainStartMillis - jvmStart) + " ms");
+        System.out.println("configuration:            " + millis(configured - mainStart) + " ms");
+        System.out.println("database construction:    " + millis(constructed - configured) + " ms");
+        System.out.println("first connection:         " + millis(connected - constructed) + " ms");
+        System.out.println("first query:              " + millis(queried - connected) + " ms");
+        System.out.println("main to first connection: " + millis(connected - mainStart) + " ms");
+
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1000000.0);
+    }
+
+}
@@ -0,0 +1,140 @@
+package org.dbtools;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+public class TableCopierTest extends TestCase {
+
+    private static final int ROWS = 25;
+
+    private Database source;
+
+    private HSqlDatabase target;
+
+    protected void setUp() throws Exception {
+
+        source = SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("tablecopiersource");
+        target = (HSqlDatabase) SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("tablecopiertarget");
+
+        Connection connection = source.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE gene IF EXISTS");
+        statement.execute("CREATE TABLE gene (gene_id INT PRIMARY KEY, stable_id VARCHAR(20), score DOUBLE)");
+        statement.close();
+
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO gene VALUES (?, ?, ?)");
+        for (int i = 0; i < ROWS; i++) {
+            insert.setInt(1, i);
+            //every fifth stable ID is null
+            insert.setString(2, i % 5 == 0 ? null : "G" + i);
+            insert.setDouble(3, i / 2.0);
+            insert.executeUpdate();
+        }
+        insert.close();
+        connection.close();
+
+    }
+
+    @Test
+    public void testCopyTable() {
+
+        TableCopier copier = new TableCopier(source, target);
+        copier.setBatchSize(4);
+
+        final int[] handled = {0};
+
+        try {
+
+            assertEquals(Arrays.asList("GENE_ID"), copier.getPrimaryKey("gene"));
+            assertEquals("INTEGER", copier.getColumnTypes("gene").get("GENE_ID"));
+
+            long rows = copier.copyTable("gene", new RowHandler() {
+                public boolean handleRow(Object[] row) {
+                    assertEquals(3, row.length);
+                    handled[0]++;
+                    return true;
+                }
+            });
+
+            assertEquals(ROWS, rows);
+            assertEquals(ROWS, handled[0]);
+
+            Connection connection = target.getConnection();
+            Statement statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery("SELECT COUNT(*), COUNT(stable_id), SUM(gene_id) FROM gene");
+            assertTrue(rs.next());
+            assertEquals(ROWS, rs.getInt(1));
+            assertEquals(ROWS - 5, rs.getInt(2));
+            assertEquals(ROWS * (ROWS - 1) / 2, rs.getInt(3));
+            rs.close();
+
+            rs = statement.executeQuery("SELECT stable_id, score FROM gene WHERE gene_id = 7");
+            assertTrue(rs.next());
+            assertEquals("G7", rs.getString(1));
+            assertEquals(3.5, rs.getDouble(2), 0.0);
+            rs.close();
+
+            //the copied table has the primary key of the source table
+            try {
+                statement.execute("INSERT INTO gene VALUES (7, 'G7', 0)");
+                fail("Duplicate key inserted.");
+            } catch (SQLException e) {
+                //expected
+            }
+
+            statement.close();
+            connection.close();
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        } catch (SQLException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testCopyRows() {
+
+        TableCopier copier = new TableCopier(source, target);
+
+        try {
+
+            copier.createTable("gene");
+            assertEquals(5, copier.copyRows("gene", "gene_id >= ? AND gene_id < ?", 10, 15));
+            assertEquals(0, copier.copyRows("gene", "gene_id >= ?", ROWS));
+
+            Connection connection = target.getConnection();
+            Statement statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery("SELECT MIN(gene_id), MAX(gene_id), COUNT(*) FROM gene");
+            assertTrue(rs.next());
+            assertEquals(10, rs.getInt(1));
+            assertEquals(14, rs.getInt(2));
+            assertEquals(5, rs.getInt(3));
+            rs.close();
+            statement.close();
+            connection.close();
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        } catch (SQLException e) {
+            fail(e.toString());
+        }
+
+        try {
+            copier.copyTable("missing_table");
+            fail("Missing table copied.");
+        } catch (DatabaseException e) {
+            //expected
+        }
+
+    }
+
+}
@@ -0,0 +1,197 @@
+package org.dbtools;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+public class UpsertTest extends TestCase {
+
+    private static final String[] COLUMNS = {"xref_id", "dbprimary_acc", "description"};
+
+    private static final String[] KEY = {"xref_id"};
+
+    private AbstractDatabase database;
+
+    protected void setUp() throws Exception {
+
+        database = (AbstractDatabase) SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("upserttest");
+
+        Connection connection = database.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE xref IF EXISTS");
+        statement.execute("CREATE TABLE xref (xref_id INT PRIMARY KEY, dbprimary_acc VARCHAR(40), description VARCHAR(255))");
+        statement.execute("INSERT INTO xref VALUES (1, 'P01', 'old')");
+        statement.execute("INSERT INTO xref VALUES (2, 'P02', 'old')");
+        statement.close();
+        connection.close();
+
+    }
+
+    @Test
+    public void testUpsert() {
+
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (int i = 2; i <= 25000; i++)
+            rows.add(new Object[]{i, "P" + i, "new"});
+
+        try {
+
+            assertEquals(24999, database.upsert("xref", COLUMNS, KEY, rows));
+
+            QueryResult result = query("SELECT COUNT(*), SUM(CASE WHEN description = 'new' THEN 1 ELSE 0 END) FROM xref");
+            assertEquals(25000, ((Number) result.getRows().get(0)[0]).intValue());
+            assertEquals(24999, ((Number) result.getRows().get(0)[1]).intValue());
+
+            result = query("SELECT description FROM xref WHERE xref_id = 1");
+            assertEquals("old", result.getRows().get(0)[0]);
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testDuplicateKeys() {
+
+        List<Object[]> rows = new ArrayList<Object[]>();
+        rows.add(new Object[]{10, "P10", "first"});
+        rows.add(new Object[]{2, "P02", "new"});
+        rows.add(new Object[]{10, "P10", "last"});
+
+        try {
+
+            //the last row of a key wins, the key is written once
+            assertEquals(2, database.upsert("xref", COLUMNS, KEY, rows));
+
+            QueryResult result = query("SELECT description FROM xref WHERE xref_id = 10");
+            assertEquals(1, result.getRowCount());
+            assertEquals("last", result.getRows().get(0)[0]);
+
+            result = query("SELECT description FROM xref WHERE xref_id = 2");
+            assertEquals("new", result.getRows().get(0)[0]);
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testVendorSql() {
+
+        try {
+
+            String mysql = new MySqlDatabase("localhost", "test").buildUpsertSql(null, "xref", COLUMNS, KEY, 2);
+            assertEquals("INSERT INTO xref (xref_id, dbprimary_acc, description) VALUES (?, ?, ?), (?, ?, ?)"
+                    + " ON DUPLICATE KEY UPDATE dbprimary_acc = VALUES(dbprimary_acc), description = VALUES(description)", mysql);
+
+            String oracle = new OracleDatabase("localhost", "orcl", "test").buildUpsertSql(null, "xref", COLUMNS, KEY, 1);
+            assertEquals("MERGE INTO xref USING (SELECT ? xref_id, ? dbprimary_acc, ? description FROM DUAL) v"
+                    + " ON (xref.xref_id = v.xref_id)"
+                    + " WHEN MATCHED THEN UPDATE SET xref.dbprimary_acc = v.dbprimary_acc, xref.description = v.description"
+                    + " WHEN NOT MATCHED THEN INSERT (xref_id, dbprimary_acc, description) VALUES (v.xref_id, v.dbprimary_acc, v.description)", oracle);
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testSuccessNoInfo() {
+
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (int i = 2; i <= 5; i++)
+            rows.add(new Object[]{i, "P" + i, "new"});
+
+        try {
+
+            //the driver of this database does not report the rows updated by a batch
+            AbstractDatabase noInfo = new HSqlDatabase("", "upserttest", "sa", "".toCharArray(), HSqlConnectionType.IN_PROCESS_TRANSIENT) {
+                public Connection getConnection() throws SQLException {
+                    return wrapConnection(super.getConnection());
+                }
+            };
+
+            assertEquals(4, noInfo.upsert("xref", COLUMNS, KEY, rows));
+
+            QueryResult result = query("SELECT COUNT(*), SUM(CASE WHEN description = 'new' THEN 1 ELSE 0 END) FROM xref");
+            assertEquals(5, ((Number) result.getRows().get(0)[0]).intValue());
+            assertEquals(4, ((Number) result.getRows().get(0)[1]).intValue());
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    private QueryResult query(String sql) throws DatabaseException {
+        return QueryResult.execute(database, sql);
+    }
+
+    protected void tearDown() throws Exception {
+
+        Connection connection = database.getConnection();
+        connection.createStatement().execute("DROP TABLE xref IF EXISTS");
+        connection.close();
+
+    }
+
+    /**
+     * Wraps a connection so that its prepared statements report <code>SUCCESS_NO_INFO</code>
+     * for all statements of a batch.
+     *
+     * @param connection the connection
+     * @return the wrapped connection
+     */
+    private static Connection wrapConnection(final Connection connection) {
+
+        return (Connection) Proxy.newProxyInstance(UpsertTest.class.getClassLoader(), new Class<?>[]{Connection.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        Object retVal = invokeTarget(connection, method, args);
+                        if (retVal instanceof PreparedStatement)
+                            retVal = wrapStatement((PreparedStatement) retVal);
+                        return retVal;
+                    }
+                });
+
+    }
+
+    private static PreparedStatement wrapStatement(final PreparedStatement statement) {
+
+        return (PreparedStatement) Proxy.newProxyInstance(UpsertTest.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        Object retVal = invokeTarget(statement, method, args);
+                        if (method.getName().equals("executeBatch")) {
+                            int[] counts = (int[]) retVal;
+                            for (int i = 0; i < counts.length; i++)
+                                counts[i] = Statement.SUCCESS_NO_INFO;
+                        }
+                        return retVal;
+                    }
+                });
+
+    }
+
+    private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+}
@@ -1,7 +1,17 @@
 package org.dbtools.ensembl;
 
+import org.apache.log4j.Logger;
+import org.dbtools.ColumnarFile;
+import org.dbtools.ColumnarFileCache;
+import org.dbtools.ColumnarResult;
+import org.dbtools.ColumnarTable;
 import org.dbtools.DatabaseException;
 import org.dbtools.MySqlDatabase;
+import org.dbtools.QueryCache;
+import org.dbtools.QueryResult;
+
+import java.io.File;
+import java.io.IOException;
 
 /**
  * Provides access to Ensembl core schemas.
@@ -13,6 +23,11 @@ import org.dbtools.MySqlDatabase;
  */
 public class EnsemblDatabase extends MySqlDatabase {
 
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(EnsemblDatabase.class);
+
     /**
      * The name of the species for this Database object
      */
@@ -28,6 +43,31 @@ public class EnsemblDatabase extends MySqlDatabase {
      */
     protected int release;
 
+    /**
+     * The cache for query results, the shared cache is set on first use
+     */
+    protected volatile QueryCache queryCache;
+
+    /**
+     * true if query results are not cached
+     */
+    private volatile boolean queryCacheDisabled;
+
+    /**
+     * The cache for downloaded tables, the shared cache is set on first use
+     */
+    protected volatile ColumnarFileCache tableCache;
+
+    /**
+     * true if tables are not cached
+     */
+    private volatile boolean tableCacheDisabled;
+
+    /**
+     * The stable ID index, <code>null</code> until first used
+     */
+    protected StableIdIndex stableIdIndex;
+
 
     /**
      * Creates a Database object to connect to the specified Ensembl core schema.
@@ -43,6 +83,105 @@ public class EnsemblDatabase extends MySqlDatabase {
     }
 
 
+    /**
+     * Executes a query against the Ensembl core schema. Since published Ensembl releases
+     * do not change, results are cached and repeated queries with the same parameter
+     * values are answered from the cache.
+     *
+     * @param sql        the SQL query, parameters are marked by '?'
+     * @param parameters the parameter values
+     * @return the query result
+     * @throws DatabaseException if an exception occurs while executing the query
+     */
+    public QueryResult query(String sql, Object... parameters) throws DatabaseException {
+
+        QueryCache cache = getQueryCache();
+
+        if (cache == null)
+            return QueryResult.execute(this, sql, parameters);
+
+        return cache.executeQuery(this, sql, parameters);
+
+    }
+
+    /**
+     * Returns all rows of a table of the Ensembl core schema in columnar form. The table
+     * is downloaded once and stored in the table cache, later calls (also by later jobs)
+     * open the cached file by memory mapping. If the cached file has no index of the key
+     * column, it is rewritten with that index from the cached rows; the index of another
+     * key column is dropped.
+     *
+     * @param table     the table name
+     * @param keyColumn the integer column to index for lookups by
+     *                  {@link org.dbtools.ColumnarFile#findRow(long)}, <code>null</code> for no index
+     * @return the table
+     * @throws DatabaseException if an exception occurs while downloading the table or accessing the cache
+     */
+    public ColumnarTable getTable(String table, String keyColumn) throws DatabaseException {
+
+        ColumnarFileCache cache = getTableCache();
+
+        if (cache == null)
+            return ColumnarResult.execute(this, "SELECT * FROM " + table);
+
+        try {
+
+            ColumnarFile retVal = cache.get(schema, table);
+
+            if (retVal == null)
+                retVal = cache.put(schema, table, ColumnarResult.execute(this, "SELECT * FROM " + table), keyColumn);
+            else if (keyColumn != null && !retVal.hasKeyIndex(keyColumn))
+                retVal = cache.put(schema, table, retVal, keyColumn);
+
+            return retVal;
+
+        } catch (IOException e) {
+            throw new DatabaseException("Exception while accessing cached table " + schema + "." + table + ".", e);
+        }
+
+    }
+
+    /**
+     * Returns the index of the stable IDs of the Ensembl core schema. The index is
+     * loaded from the table cache directory, or built and saved there if no
+     * index has been saved yet.
+     *
+     * @return the stable ID index
+     * @throws DatabaseException if an exception occurs while building the index
+     */
+    public synchronized StableIdIndex getStableIdIndex() throws DatabaseException {
+
+        if (stableIdIndex != null)
+            return stableIdIndex;
+
+        ColumnarFileCache cache = getTableCache();
+        File file = cache != null ? new File(new File(cache.getDirectory(), schema), "stable_id.sidx") : null;
+
+        if (file != null && file.isFile()) {
+            try {
+                stableIdIndex = StableIdIndex.load(this, file);
+                return stableIdIndex;
+            } catch (IOException e) {
+                logger.warn("Could not load stable ID index '" + file + "', rebuilding it.", e);
+            }
+        }
+
+        stableIdIndex = StableIdIndex.build(this);
+
+        if (file != null) {
+            try {
+                if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs())
+                    throw new IOException("Could not create cache directory '" + file.getParentFile() + "'.");
+                stableIdIndex.save(file);
+            } catch (IOException e) {
+                logger.warn("Could not save stable ID index '" + file + "'.", e);
+            }
+        }
+
+        return stableIdIndex;
+
+    }
+
     ///////////////////
     //getters & setters
 
@@ -75,4 +214,62 @@ public class EnsemblDatabase extends MySqlDatabase {
         return speciesName;
     }
 
+    /**
+     * Returns the cache for query results. The shared cache is created on first use.
+     *
+     * @return the query cache, <code>null</code> if results are not cached
+     */
+    public QueryCache getQueryCache() {
+
+        QueryCache retVal = queryCache;
+
+        if (retVal == null && !queryCacheDisabled) {
+            retVal = EnsemblDatabaseFactory.getSharedQueryCache();
+            queryCache = retVal;
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Sets the cache for query results. By default the cache shared by all Ensembl
+     * Database objects is used (see {@link EnsemblDatabaseFactory#getSharedQueryCache()}).
+     *
+     * @param queryCache the query cache, <code>null</code> to disable caching
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+        this.queryCacheDisabled = queryCache == null;
+    }
+
+    /**
+     * Returns the cache for downloaded tables. The shared cache is created on first use.
+     *
+     * @return the table cache, <code>null</code> if tables are not cached
+     */
+    public ColumnarFileCache getTableCache() {
+
+        ColumnarFileCache retVal = tableCache;
+
+        if (retVal == null && !tableCacheDisabled) {
+            retVal = EnsemblDatabaseFactory.getSharedTableCache();
+            tableCache = retVal;
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Sets the cache for downloaded tables. By default the cache shared by all Ensembl
+     * Database objects is used (see {@link EnsemblDatabaseFactory#getSharedTableCache()}).
+     *
+     * @param tableCache the table cache, <code>null</code> to disable caching
+     */
+    public void setTableCache(ColumnarFileCache tableCache) {
+        this.tableCache = tableCache;
+        this.tableCacheDisabled = tableCache == null;
+    }
+
 }
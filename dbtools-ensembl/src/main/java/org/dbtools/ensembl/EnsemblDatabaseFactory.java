@@ -1,7 +1,9 @@
 package org.dbtools.ensembl;
 
 import org.dbtools.*;
+import org.dbtools.HostRouter.RoutedHost;
 
+import java.io.File;
 import java.util.*;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
@@ -61,6 +63,33 @@ public class EnsemblDatabaseFactory {
 
     private boolean metaDataFetched = false;
 
+    /**
+     * the router distributing connections across the configured Ensembl database hosts,
+     * shared by all factories, <code>null</code> if only one host is configured
+     */
+    private static HostRouter sharedHostRouter;
+
+    /**
+     * true once the shared host router has been set up
+     */
+    private static boolean sharedHostRouterCreated = false;
+
+    /**
+     * the query result cache shared by all Ensembl Database objects
+     */
+    private static QueryCache sharedQueryCache;
+
+    /**
+     * the table file cache shared by all Ensembl Database objects
+     */
+    private static ColumnarFileCache sharedTableCache;
+
+    /**
+     * the connection pool shared by the Database objects of all schemas on the Ensembl database host,
+     * <code>null</code> until warmed up
+     */
+    private ConnectionPool connectionPool;
+
     /**
      * Creates an Ensembl database factory based on a connection. The default schema
      * will be set to the schema of the connection.
@@ -99,11 +128,12 @@ public class EnsemblDatabaseFactory {
         this.ensemblPort = port;
         this.defaultSchema = defaultSchema;
 
-        //get connection
+        //get connection, failing over to another of the configured hosts
         try {
-            ensemblConnection = SimpleDatabaseFactory
-                    .createMySQLDatabase(ensemblHost, ensemblPort, defaultSchema)
-                    .getConnection();
+            MySqlDatabase database = new MySqlDatabase(ensemblHost, ensemblPort, defaultSchema);
+            if (isRouted(getSharedHostRouter(), ensemblHost, ensemblPort))
+                database.setHostRouter(getSharedHostRouter());
+            ensemblConnection = database.getConnection();
         } catch (SQLException e) {
 
             throw new DatabaseException("Exception while establishing connection to Ensembl database.", e);
@@ -133,7 +163,7 @@ public class EnsemblDatabaseFactory {
 
         this(
                 Configuration.getInstance().getProperty("ensembl.db.host"),
-                new Integer(Configuration.getInstance().getProperty("ensembl.db.port")),
+                Configuration.getInstance().getIntProperty("ensembl.db.port"),
                 Configuration.getInstance().getProperty("ensembl.db.default.schema")
         );
 
@@ -172,18 +202,236 @@ public class EnsemblDatabaseFactory {
 
         //get parameters
         String host = Configuration.getInstance().getProperty("ensembl.db.host");
-        int port = Integer.parseInt(Configuration.getInstance().getProperty("ensembl.db.port"));
+        int port = Configuration.getInstance().getIntProperty("ensembl.db.port");
         String schema = getSchemaName(ncbiTaxonId, release, ensemblDatabaseType);
 
         //create database object
         EnsemblDatabase retVal = new EnsemblDatabase(host, port, schema);
         retVal.release = release;
         retVal.speciesName = getSpeciesName(ncbiTaxonId);
+        retVal.ncbiTaxonId = ncbiTaxonId;
+        retVal.setHostRouter(getHostRouter());
+        retVal.setConnectionPool(connectionPool);
 
         return retVal;
 
     }
 
+    /**
+     * Returns the router distributing connections of the Database objects created by this
+     * factory across the Ensembl database hosts (see {@link #getSharedHostRouter()}).
+     *
+     * @return the host router or <code>null</code> if less than two hosts are configured
+     * @throws DatabaseException if an exception occurs while loading the database driver
+     */
+    public HostRouter getHostRouter() throws DatabaseException {
+        return getSharedHostRouter();
+    }
+
+    /**
+     * Returns the router shared by all factories, distributing connections across the
+     * Ensembl database hosts listed in the configuration property <code>ensembl.db.hosts</code>.
+     * The hosts are expected to be identical mirrors. The router probes the hosts in a
+     * single background thread.
+     *
+     * @return the shared host router or <code>null</code> if less than two hosts are configured
+     * @throws DatabaseException if an exception occurs while loading the database driver
+     */
+    public static synchronized HostRouter getSharedHostRouter() throws DatabaseException {
+
+        if (!sharedHostRouterCreated) {
+
+            List<String> hosts = HostRouter.parseHostList(Configuration.getInstance().getProperty("ensembl.db.hosts"));
+
+            if (hosts.size() > 1) {
+
+                int port = Configuration.getInstance().getIntProperty("ensembl.db.port");
+                sharedHostRouter = new HostRouter(hosts, port);
+
+                RoutedHost first = sharedHostRouter.getHosts().get(0);
+                sharedHostRouter.startProbing(new MySqlDatabase(first.getHost(), first.getPort(),
+                        Configuration.getInstance().getProperty("ensembl.db.default.schema")));
+
+            }
+
+            sharedHostRouterCreated = true;
+
+        }
+
+        return sharedHostRouter;
+
+    }
+
+    /**
+     * Stops the shared host router. Database objects created before keep routing their
+     * connections without probing, factories created afterwards set up a new router.
+     */
+    public static synchronized void shutdownSharedHostRouter() {
+
+        if (sharedHostRouter != null)
+            sharedHostRouter.shutdown();
+
+        sharedHostRouter = null;
+        sharedHostRouterCreated = false;
+
+    }
+
+    /**
+     * Checks if a host is one of the hosts of a router.
+     *
+     * @param hostRouter the router, may be <code>null</code>
+     * @param host       the host name
+     * @param port       the port
+     * @return true if the router routes connections to the host
+     */
+    private static boolean isRouted(HostRouter hostRouter, String host, int port) {
+
+        if (hostRouter == null)
+            return false;
+
+        for (RoutedHost routedHost : hostRouter.getHosts()) {
+            if (routedHost.getHost().equals(host) && routedHost.getPort() == port)
+                return true;
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Warms up the connection pool for the current release of the schemas of the database
+     * types listed in the configuration property <code>ensembl.pool.database.types</code>.
+     *
+     * @param warmUpQueries queries run on each new connection
+     * @return the warm-up report of the pool
+     * @throws DatabaseException if an exception occurs while accessing the Ensembl meta data
+     * @see #warmUp(Collection, String...)
+     */
+    public List<ConnectionPool.WarmUpReport> warmUp(String... warmUpQueries) throws DatabaseException {
+
+        List<EnsemblDatabaseType> types = new ArrayList<EnsemblDatabaseType>();
+        for (String type : Configuration.getInstance().getProperty("ensembl.pool.database.types").split(","))
+            types.add(EnsemblDatabaseType.valueOf(type.trim().toUpperCase()));
+
+        return warmUp(types, warmUpQueries);
+
+    }
+
+    /**
+     * Warms up the connection pool for the current release of the schemas of all species of
+     * the specified database types. All schemas on the Ensembl database host share a single
+     * pool; a borrowed connection is switched to the schema of the Database object borrowing it.
+     * The pool keeps <code>dbtools.pool.min.size</code> connections per schema open, but never
+     * more than <code>dbtools.pool.max.size</code> connections in total. The connections are
+     * opened with at most <code>dbtools.pool.warmup.threads</code> connections being established
+     * at the same time. As they are opened in the default schema, warm-up queries should qualify
+     * table names with the schema name. Database objects subsequently created by this factory
+     * borrow their connections from the pool, which is maintained in the background
+     * (see {@link ConnectionPool#startMaintenance()}).
+     *
+     * @param ensemblDatabaseTypes the Ensembl database types
+     * @param warmUpQueries        queries run on each new connection
+     * @return the warm-up report of the pool
+     * @throws DatabaseException if an exception occurs while accessing the Ensembl meta data
+     */
+    public synchronized List<ConnectionPool.WarmUpReport> warmUp(Collection<EnsemblDatabaseType> ensemblDatabaseTypes, String... warmUpQueries) throws DatabaseException {
+
+        if (!metaDataFetched) {
+            fetchMetaData();
+        }
+
+        int schemas = 0;
+
+        for (int ncbiTaxonId : getNcbiTaxonIds()) {
+
+            int release = getCurrentReleaseVersion(ncbiTaxonId);
+
+            for (EnsemblDatabaseType ensemblDatabaseType : ensemblDatabaseTypes) {
+
+                if (getSchemaName(ncbiTaxonId, release, ensemblDatabaseType) != null)
+                    schemas++;
+
+            }
+
+        }
+
+        if (connectionPool == null) {
+
+            String host = Configuration.getInstance().getProperty("ensembl.db.host");
+            int port = Configuration.getInstance().getIntProperty("ensembl.db.port");
+            MySqlDatabase database = new MySqlDatabase(host, port, defaultSchema);
+            database.setHostRouter(getHostRouter());
+
+            int maxSize = Configuration.getInstance().getIntProperty("dbtools.pool.max.size");
+            int minSize = Math.min(maxSize, Math.max(1, schemas) * Configuration.getInstance().getIntProperty("dbtools.pool.min.size"));
+            connectionPool = new ConnectionPool(database, minSize, maxSize);
+
+        }
+
+        List<ConnectionPool.WarmUpReport> retVal = ConnectionPool.warmUp(Collections.singletonList(connectionPool),
+                Configuration.getInstance().getIntProperty("dbtools.pool.warmup.threads"), warmUpQueries);
+
+        connectionPool.startMaintenance();
+
+        logger.info("Ensembl connection pool for " + schemas + " schemas " + (retVal.get(0).isReady() ? "ready." : "not ready."));
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the connection pool shared by the schemas on the Ensembl database host.
+     *
+     * @return the connection pool, <code>null</code> if it has not been warmed up
+     */
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Returns the query result cache shared by all Ensembl Database objects. The maximum
+     * weight of the cache is set by the configuration property <code>ensembl.cache.max.weight</code>
+     * (in bytes). The cache is registered as MBean <code>org.dbtools:type=QueryCache,name="ensembl"</code>.
+     *
+     * @return the shared query cache
+     */
+    public static synchronized QueryCache getSharedQueryCache() {
+
+        if (sharedQueryCache == null) {
+
+            long maxWeight = Configuration.getInstance().getLongProperty("ensembl.cache.max.weight");
+            sharedQueryCache = new QueryCache(maxWeight);
+            sharedQueryCache.registerMBean("ensembl");
+
+        }
+
+        return sharedQueryCache;
+
+    }
+
+    /**
+     * Returns the table file cache shared by all Ensembl Database objects. The cache is
+     * stored in the directory set by the configuration property <code>ensembl.table.cache.directory</code>,
+     * by default in the directory <code>dbtools-table-cache</code> of the system's temporary directory.
+     *
+     * @return the shared table cache
+     */
+    public static synchronized ColumnarFileCache getSharedTableCache() {
+
+        if (sharedTableCache == null) {
+
+            String directory = Configuration.getInstance().getProperty("ensembl.table.cache.directory");
+            if (directory == null || directory.trim().length() == 0)
+                directory = new File(System.getProperty("java.io.tmpdir"), "dbtools-table-cache").getPath();
+
+            sharedTableCache = new ColumnarFileCache(new File(directory));
+
+        }
+
+        return sharedTableCache;
+
+    }
+
     /**
      * Returns a Database object to access the most recent release of the specified Ensembl database schema for the specified species.
      *
@@ -231,7 +479,7 @@ public class EnsemblDatabaseFactory {
 
         //get parameters
         String host = Configuration.getInstance().getProperty("ensembl.mart.host");
-        int port = Integer.parseInt(Configuration.getInstance().getProperty("ensembl.mart.port"));
+        int port = Configuration.getInstance().getIntProperty("ensembl.mart.port");
         int release = getCurrentReleaseVersion(ncbiTaxonId);
         String schema = getMartSchemaName(release);
 
@@ -239,6 +487,7 @@ public class EnsemblDatabaseFactory {
         EnsemblMartDatabase retVal = new EnsemblMartDatabase(host, port, schema);
         retVal.release = release;
         retVal.speciesName = getSpeciesName(ncbiTaxonId);
+        retVal.ncbiTaxonId = ncbiTaxonId;
         retVal.ncbiTaxonId2SpeciesName = getNcbiTaxonId2SpeciesName();
 
         return retVal;
@@ -266,13 +515,14 @@ public class EnsemblDatabaseFactory {
 
         //get parameters
         String host = Configuration.getInstance().getProperty("ensembl.mart.host");
-        int port = Integer.parseInt(Configuration.getInstance().getProperty("ensembl.mart.port"));
+        int port = Configuration.getInstance().getIntProperty("ensembl.mart.port");
         String schema = getMartSchemaName(release);
 
         //create database object
         EnsemblMartDatabase retVal = new EnsemblMartDatabase(host, port, schema);
         retVal.release = release;
         retVal.speciesName = getSpeciesName(ncbiTaxonId);
+        retVal.ncbiTaxonId = ncbiTaxonId;
         retVal.ncbiTaxonId2SpeciesName = getNcbiTaxonId2SpeciesName();
 
         return retVal;
@@ -2,8 +2,14 @@ package org.dbtools.ensembl;
 
 import org.dbtools.DatabaseException;
 import org.dbtools.MySqlDatabase;
+import org.dbtools.QueryCache;
+import org.dbtools.QueryResult;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 
 /**
@@ -31,8 +37,30 @@ public class EnsemblMartDatabase extends MySqlDatabase {
      */
     protected int release;
 
+    /**
+     * The cache for query results, the shared cache is set on first use
+     */
+    protected volatile QueryCache queryCache;
+
+    /**
+     * true if query results are not cached
+     */
+    private volatile boolean queryCacheDisabled;
+
     protected Map<Integer, String> ncbiTaxonId2SpeciesName;
 
+    /**
+     * the table name prefix of the species, resolved on first use
+     */
+    private String tableNamePrefix;
+
+    /**
+     * the columns by table of the species' gene dataset, resolved on first use
+     */
+    private Map<String, List<String>> datasetTables;
+
+    private static final String SQL_SELECT_DATASET_COLUMNS = "SELECT TABLE_NAME, COLUMN_NAME FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = ? AND TABLE_NAME LIKE ? ORDER BY TABLE_NAME, ORDINAL_POSITION";
+
     /**
      * Creates a Database object to connect to the Ensembl Mart schema.
      *
@@ -48,29 +76,138 @@ public class EnsemblMartDatabase extends MySqlDatabase {
     /**
      * Returns the Ensembl Mart schema table prefix for the species of this EnsemblMartDatabase object.
      *
-     * @return the database prefix
+     * @return the database prefix (e.g. 'hsapiens' for 'homo sapiens')
      */
-    public String getTableNamePrefix() {
+    public synchronized String getTableNamePrefix() {
 
-        return speciesName.split(" ")[1].substring(0, 1) + //the first character of the species name
-                speciesName.split("_")[2];
+        if (tableNamePrefix == null)
+            tableNamePrefix = toTableNamePrefix(speciesName);
+
+        return tableNamePrefix;
 
     }
 
     /**
      * Returns the Ensembl Mart schema table prefix for the species identified by the NCBI taxon ID.
      *
-     * @return the database prefix
+     * @return the database prefix (e.g. 'hsapiens' for 'homo sapiens')
      * @param ncbiTaxonId the NCBI taxon ID
      */
     public String getTableNamePrefix(int ncbiTaxonId) {
 
-        String speciesName = ncbiTaxonId2SpeciesName.get(ncbiTaxonId);
-        return speciesName.split(" ")[1].substring(0, 1) + //the first character of the species name
-                speciesName.split("_")[2];
+        return toTableNamePrefix(ncbiTaxonId2SpeciesName.get(ncbiTaxonId));
+
+    }
+
+    /**
+     * Returns the Ensembl Mart table prefix of a species, made up of the first
+     * character of the genus and the species name.
+     *
+     * @param speciesName the species name (e.g. 'homo sapiens')
+     * @return the table prefix (e.g. 'hsapiens')
+     */
+    static String toTableNamePrefix(String speciesName) {
+
+        String[] names = speciesName.split(" ");
+        return names[0].substring(0, 1) + //the first character of the genus name
+                names[1];
 
     }
 
+    /**
+     * Returns the name of the gene dataset of the species (e.g. 'hsapiens_gene_ensembl').
+     * Dataset tables are named after the dataset followed by '__' and the table content.
+     *
+     * @return the dataset name
+     */
+    public String getDatasetName() {
+        return getTableNamePrefix() + "_gene_ensembl";
+    }
+
+    /**
+     * Returns the tables of the species' gene dataset and their columns. The table
+     * definitions are read once with a single query and kept.
+     *
+     * @return the column names in column order by table name
+     * @throws DatabaseException if an exception occurs while reading the table definitions
+     */
+    public synchronized Map<String, List<String>> getDatasetTables() throws DatabaseException {
+
+        if (datasetTables == null) {
+
+            Map<String, List<String>> tables = new TreeMap<String, List<String>>();
+
+            //'_' is a wildcard in LIKE patterns
+            String pattern = getDatasetName().replace("_", "\\_") + "\\_\\_%";
+            QueryResult result = QueryResult.execute(this, SQL_SELECT_DATASET_COLUMNS, getSchema(), pattern);
+
+            for (Object[] row : result.getRows()) {
+
+                String table = (String) row[0];
+                if (!tables.containsKey(table))
+                    tables.put(table, new ArrayList<String>());
+                tables.get(table).add((String) row[1]);
+
+            }
+
+            for (String table : tables.keySet())
+                tables.put(table, Collections.unmodifiableList(tables.get(table)));
+
+            datasetTables = Collections.unmodifiableMap(tables);
+
+        }
+
+        return datasetTables;
+
+    }
+
+    /**
+     * Creates a query of a main table of the species' gene dataset. The key column
+     * of the table is the column named after the content followed by '_id_', a
+     * number and '_key' (e.g. 'gene_id_1020_key' for 'gene').
+     *
+     * @param content the content of the main table (e.g. 'gene', 'transcript' or 'translation')
+     * @return the query
+     * @throws DatabaseException if the dataset has no such main table or an exception occurs
+     *                           while reading the table definitions
+     */
+    public MartQuery createQuery(String content) throws DatabaseException {
+
+        String table = getDatasetName() + "__" + content + "__main";
+        List<String> columns = getDatasetTables().get(table);
+
+        if (columns == null)
+            throw new DatabaseException("Table '" + table + "' does not exist in schema '" + getSchema() + "'.");
+
+        for (String column : columns) {
+            if (column.matches(content + "_id_\\d+_key"))
+                return new MartQuery(this, table, column, columns);
+        }
+
+        throw new DatabaseException("No key column found for table '" + table + "'.");
+
+    }
+
+    /**
+     * Executes a query against the Ensembl Mart schema. Since published Ensembl releases
+     * do not change, results are cached and repeated queries with the same parameter
+     * values are answered from the cache.
+     *
+     * @param sql        the SQL query, parameters are marked by '?'
+     * @param parameters the parameter values
+     * @return the query result
+     * @throws DatabaseException if an exception occurs while executing the query
+     */
+    public QueryResult query(String sql, Object... parameters) throws DatabaseException {
+
+        QueryCache cache = getQueryCache();
+
+        if (cache == null)
+            return QueryResult.execute(this, sql, parameters);
+
+        return cache.executeQuery(this, sql, parameters);
+
+    }
 
     ///////////////////
     //getters & setters
@@ -101,4 +238,34 @@ public class EnsemblMartDatabase extends MySqlDatabase {
     public String getSpeciesName() {
         return speciesName;
     }
+
+    /**
+     * Returns the cache for query results. The shared cache is created on first use.
+     *
+     * @return the query cache, <code>null</code> if results are not cached
+     */
+    public QueryCache getQueryCache() {
+
+        QueryCache retVal = queryCache;
+
+        if (retVal == null && !queryCacheDisabled) {
+            retVal = EnsemblDatabaseFactory.getSharedQueryCache();
+            queryCache = retVal;
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Sets the cache for query results. By default the cache shared by all Ensembl
+     * Database objects is used (see {@link EnsemblDatabaseFactory#getSharedQueryCache()}).
+     *
+     * @param queryCache the query cache, <code>null</code> to disable caching
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+        this.queryCacheDisabled = queryCache == null;
+    }
+
 }
@@ -0,0 +1,636 @@
+package org.dbtools.ensembl;
+
+import org.apache.log4j.Logger;
+import org.dbtools.AbstractDatabase;
+import org.dbtools.Configuration;
+import org.dbtools.Database;
+import org.dbtools.DatabaseException;
+import org.dbtools.HSqlDatabase;
+import org.dbtools.SimpleDatabaseFactory;
+import org.dbtools.TableCopier;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Mirrors tables of Ensembl databases into local persistent in-process HSQLDB
+ * databases, so that subsequent reads are served locally.
+ * <p/>
+ * Each mirrored Ensembl schema is stored in its own HSQLDB database in the mirror
+ * directory, named after the Ensembl schema (e.g. <code>homo_sapiens_core_46_36h</code>).
+ * Tables are copied in parallel by the number of threads set by the configuration
+ * property <code>ensembl.mirror.threads</code>. The mirrored tables are recorded in
+ * the table <code>DBTOOLS_MIRROR</code> of the local database. Local databases are
+ * in bulk load mode while tables are copied (see {@link HSqlDatabase#beginBulkLoad()}).
+ * <p/>
+ * Along with each table, row counts and checksums of the rows in fixed ranges of
+ * the table's integer primary key are recorded (see {@link MirroredTableState}).
+ * When a new Ensembl release appears, {@link #sync(int, int, int, EnsemblDatabaseType)}
+ * creates the local database for the new release from the local database of a
+ * previous release and transfers only the tables and key ranges whose checksums
+ * changed. The size of the key ranges is set by the configuration property
+ * <code>ensembl.mirror.chunk.size</code>.
+ */
+public class EnsemblMirror {
+
+    /**
+     * the table recording the mirrored tables
+     */
+    static final String MIRROR_TABLE = "DBTOOLS_MIRROR";
+
+    private static final String SQL_CREATE_MIRROR_TABLE = "CREATE CACHED TABLE " + MIRROR_TABLE + " (TABLE_NAME VARCHAR(128) PRIMARY KEY, SOURCE_SCHEMA VARCHAR(128), ROW_COUNT BIGINT, KEY_COLUMN VARCHAR(128), COLUMN_NAMES LONGVARCHAR, CHUNK_SIZE BIGINT, MIRRORED TIMESTAMP)";
+
+    private static final String SQL_DELETE_MIRROR_ENTRY = "DELETE FROM " + MIRROR_TABLE + " WHERE TABLE_NAME = ?";
+
+    private static final String SQL_INSERT_MIRROR_ENTRY = "INSERT INTO " + MIRROR_TABLE + " VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SQL_SELECT_MIRROR_ENTRIES = "SELECT TABLE_NAME, ROW_COUNT FROM " + MIRROR_TABLE;
+
+    /**
+     * the log4j Logger
+     */
+    private static Logger logger = Logger.getLogger(EnsemblMirror.class);
+
+    /**
+     * the factory creating the Ensembl databases to mirror
+     */
+    private EnsemblDatabaseFactory factory;
+
+    /**
+     * the directory holding the local databases
+     */
+    private String directory;
+
+    /**
+     * the number of tables copied in parallel
+     */
+    private int threads = Configuration.getInstance().getIntProperty("ensembl.mirror.threads");
+
+    /**
+     * the number of key values per checksummed key range
+     */
+    private long chunkSize = Configuration.getInstance().getLongProperty("ensembl.mirror.chunk.size");
+
+    /**
+     * Constructs a mirror storing local databases in the specified directory.
+     *
+     * @param factory   the factory creating the Ensembl databases to mirror
+     * @param directory the directory holding the local databases
+     */
+    public EnsemblMirror(EnsemblDatabaseFactory factory, String directory) {
+        this.factory = factory;
+        this.directory = directory;
+    }
+
+    /**
+     * Copies tables of an Ensembl database into the local database for its schema.
+     * Tables already mirrored are copied again.
+     *
+     * @param ncbiTaxonId         the NCBI taxon ID of the species
+     * @param release             the Ensembl release, 0 for the current release
+     * @param ensemblDatabaseType the Ensembl database type
+     * @param tables              the names of the tables to copy
+     * @return the local database
+     * @throws DatabaseException if an exception occurs while accessing the Ensembl or local database
+     */
+    public HSqlDatabase mirror(int ncbiTaxonId, int release, EnsemblDatabaseType ensemblDatabaseType, Collection<String> tables) throws DatabaseException {
+
+        EnsemblDatabase source = (EnsemblDatabase) factory.createEnsemblDatabase(ncbiTaxonId, release, ensemblDatabaseType);
+        HSqlDatabase local = openLocalDatabase(source.getSchema());
+
+        copyTables(source, local, tables);
+
+        return local;
+
+    }
+
+    /**
+     * Updates a local copy to a new Ensembl release. The local database of the new release
+     * is created as a copy of the local database of the previous release. The tables of
+     * the copy are then compared with the new release by row counts and checksums, and
+     * only tables or key ranges that differ are transferred. Tables that no longer exist
+     * in the new release are dropped.
+     *
+     * @param ncbiTaxonId         the NCBI taxon ID of the species
+     * @param previousRelease     the release of the existing local copy
+     * @param release             the new release, 0 for the current release
+     * @param ensemblDatabaseType the Ensembl database type
+     * @return the number of rows transferred by table
+     * @throws DatabaseException if the previous release has not been mirrored or an exception
+     *                           occurs while accessing the Ensembl or local databases
+     */
+    public Map<String, Long> sync(int ncbiTaxonId, int previousRelease, int release, EnsemblDatabaseType ensemblDatabaseType) throws DatabaseException {
+
+        HSqlDatabase previous = getLocalDatabase(ncbiTaxonId, previousRelease, ensemblDatabaseType);
+        if (previous == null)
+            throw new DatabaseException("Release " + previousRelease + " of database type '" + ensemblDatabaseType + "' has not been mirrored for species identified by NCBI taxon ID " + ncbiTaxonId + ".");
+
+        EnsemblDatabase source = (EnsemblDatabase) factory.createEnsemblDatabase(ncbiTaxonId, release, ensemblDatabaseType);
+
+        return sync(source, previous);
+
+    }
+
+    /**
+     * Creates the local database of a source database from the local database of a
+     * previous version of the source database, transferring only the tables and key
+     * ranges that changed.
+     *
+     * @param source   the source database
+     * @param previous the local database of the previous version
+     * @return the number of rows transferred by table
+     * @throws DatabaseException if the source schema has already been mirrored or an exception
+     *                           occurs while accessing the source or local databases
+     */
+    Map<String, Long> sync(AbstractDatabase source, HSqlDatabase previous) throws DatabaseException {
+
+        String schema = source.getSchema();
+
+        if (isMirrored(schema))
+            throw new DatabaseException("Schema '" + schema + "' has already been mirrored.");
+
+        //copy the database files of the previous release
+        shutdown(previous);
+        copyDatabaseFiles(previous.getSchema(), schema);
+        HSqlDatabase local = openLocalDatabase(schema);
+
+        TableCopier copier = new TableCopier(source, local);
+        Map<String, Long> retVal = new TreeMap<String, Long>();
+
+        local.beginBulkLoad();
+        try {
+
+            for (String table : getMirroredTables(local).keySet()) {
+
+                long start = System.currentTimeMillis();
+                long rows = syncTable(source, local, copier, table);
+                retVal.put(table, rows);
+
+                logger.info("Synchronised table '" + table + "' with " + schema + ", transferred " + rows + " rows in " + (System.currentTimeMillis() - start) + " ms.");
+
+            }
+
+        } finally {
+            local.endBulkLoad();
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Brings a table of the local database up to date with the Ensembl database.
+     *
+     * @param source the source database
+     * @param local  the local database
+     * @param copier the copier transferring rows
+     * @param table  the table name
+     * @return the number of rows transferred
+     * @throws DatabaseException if an exception occurs while accessing the Ensembl or local database
+     */
+    private long syncTable(AbstractDatabase source, HSqlDatabase local, TableCopier copier, String table) throws DatabaseException {
+
+        MirroredTableState current = MirroredTableState.fetch(source, copier, table, chunkSize);
+        MirroredTableState previous;
+
+        Connection connection = null;
+        try {
+
+            connection = local.getConnection();
+            previous = MirroredTableState.read(connection, table);
+
+            //drop tables removed from the release
+            if (current == null) {
+
+                Statement statement = connection.createStatement();
+                statement.execute("DROP TABLE \"" + table.toUpperCase() + "\" IF EXISTS");
+                statement.close();
+
+                PreparedStatement delete = connection.prepareStatement(SQL_DELETE_MIRROR_ENTRY);
+                delete.setString(1, table);
+                delete.executeUpdate();
+                delete.close();
+
+                return 0;
+
+            }
+
+        } catch (SQLException e) {
+            throw new DatabaseException("Exception while reading state of mirrored table '" + table + "'.", e);
+        } finally {
+            close(connection);
+        }
+
+        long retVal = 0;
+
+        if (previous == null || !previous.isChunkCompatible(current)) {
+
+            //copy the whole table unless a table without integer key is unchanged
+            boolean unchanged = previous != null
+                    && previous.keyColumn == null && current.keyColumn == null
+                    && previous.columnNames.equals(current.columnNames)
+                    && current.isChunkEqual(previous, 0);
+
+            if (!unchanged)
+                retVal = copier.copyTable(table);
+
+        } else {
+
+            //transfer the key ranges that differ
+            Set<Long> chunks = new TreeSet<Long>(previous.chunks.keySet());
+            chunks.addAll(current.chunks.keySet());
+
+            for (Long chunk : chunks) {
+
+                if (current.isChunkEqual(previous, chunk))
+                    continue;
+
+                long from = chunk * chunkSize;
+                long to = from + chunkSize;
+
+                deleteRange(local, table, current.keyColumn, from, to);
+                if (current.chunks.containsKey(chunk))
+                    retVal += copier.copyRows(table, current.keyColumn + " >= ? AND " + current.keyColumn + " < ?", from, to);
+
+            }
+
+        }
+
+        recordTable(local, table, source.getSchema(), current);
+
+        return retVal;
+
+    }
+
+    /**
+     * Deletes a key range from a table of the local database.
+     *
+     * @param local     the local database
+     * @param table     the table name
+     * @param keyColumn the key column
+     * @param from      the smallest key value to delete
+     * @param to        the key value after the largest key value to delete
+     * @throws DatabaseException if an exception occurs while accessing the local database
+     */
+    private void deleteRange(HSqlDatabase local, String table, String keyColumn, long from, long to) throws DatabaseException {
+
+        Connection connection = null;
+
+        try {
+
+            connection = local.getConnection();
+            PreparedStatement delete = connection.prepareStatement("DELETE FROM \"" + table.toUpperCase() + "\" WHERE \"" + keyColumn.toUpperCase() + "\" >= ? AND \"" + keyColumn.toUpperCase() + "\" < ?");
+            delete.setLong(1, from);
+            delete.setLong(2, to);
+            delete.executeUpdate();
+            delete.close();
+
+        } catch (SQLException e) {
+            throw new DatabaseException("Exception while deleting key range of table '" + table + "'.", e);
+        } finally {
+            close(connection);
+        }
+
+    }
+
+    /**
+     * Copies the files of a local database.
+     *
+     * @param fromSchema the schema of the database to copy
+     * @param toSchema   the schema of the new database
+     * @throws DatabaseException if an exception occurs while copying the files
+     */
+    private void copyDatabaseFiles(String fromSchema, String toSchema) throws DatabaseException {
+
+        for (String extension : new String[]{".properties", ".script", ".data", ".backup", ".log"}) {
+
+            File from = new File(directory, fromSchema + extension);
+            if (!from.exists())
+                continue;
+
+            try {
+
+                FileChannel in = new FileInputStream(from).getChannel();
+                FileChannel out = new FileOutputStream(new File(directory, toSchema + extension)).getChannel();
+                try {
+                    long position = 0;
+                    long size = in.size();
+                    while (position < size)
+                        position += in.transferTo(position, size - position, out);
+                } finally {
+                    in.close();
+                    out.close();
+                }
+
+            } catch (IOException e) {
+                throw new DatabaseException("Exception while copying local database '" + fromSchema + "' to '" + toSchema + "'.", e);
+            }
+
+        }
+
+    }
+
+    /**
+     * Shuts down a local database so that its files are consistent. The database is
+     * opened again by the next connection.
+     *
+     * @param local the local database
+     * @throws DatabaseException if an exception occurs while shutting down the database
+     */
+    private void shutdown(HSqlDatabase local) throws DatabaseException {
+
+        Connection connection = null;
+
+        try {
+            connection = local.getConnection();
+            Statement statement = connection.createStatement();
+            statement.execute("SHUTDOWN");
+            statement.close();
+        } catch (SQLException e) {
+            throw new DatabaseException("Exception while shutting down local database '" + local.getSchema() + "'.", e);
+        } finally {
+            close(connection);
+        }
+
+    }
+
+    /**
+     * Returns the local database of a mirrored Ensembl schema.
+     *
+     * @param ncbiTaxonId         the NCBI taxon ID of the species
+     * @param release             the Ensembl release
+     * @param ensemblDatabaseType the Ensembl database type
+     * @return the local database or <code>null</code> if the schema has not been mirrored
+     * @throws DatabaseException if an exception occurs while accessing the Ensembl database
+     */
+    public HSqlDatabase getLocalDatabase(int ncbiTaxonId, int release, EnsemblDatabaseType ensemblDatabaseType) throws DatabaseException {
+
+        String schema = factory.getSchemaName(ncbiTaxonId, release, ensemblDatabaseType);
+
+        if (schema == null || !isMirrored(schema))
+            return null;
+
+        return openLocalDatabase(schema);
+
+    }
+
+    /**
+     * Returns the tables mirrored into a local database and their row counts.
+     *
+     * @param local the local database
+     * @return the row counts by table name
+     * @throws DatabaseException if an exception occurs while accessing the local database
+     */
+    public Map<String, Long> getMirroredTables(HSqlDatabase local) throws DatabaseException {
+
+        Map<String, Long> retVal = new TreeMap<String, Long>();
+        Connection connection = null;
+
+        try {
+
+            connection = local.getConnection();
+            Statement statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery(SQL_SELECT_MIRROR_ENTRIES);
+            while (rs.next())
+                retVal.put(rs.getString(1), rs.getLong(2));
+            rs.close();
+            statement.close();
+
+        } catch (SQLException e) {
+            throw new DatabaseException("Exception while reading mirrored tables.", e);
+        } finally {
+            close(connection);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Copies tables in parallel from the source into the local database.
+     *
+     * @param source the source database
+     * @param local  the local database
+     * @param tables the tables to copy
+     * @throws DatabaseException if copying a table fails
+     */
+    void copyTables(final AbstractDatabase source, final HSqlDatabase local, Collection<String> tables) throws DatabaseException {
+
+        final TableCopier copier = new TableCopier(source, local);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tables.size())));
+
+        local.beginBulkLoad();
+        try {
+
+            List<Future<Long>> copies = new ArrayList<Future<Long>>();
+
+            for (final String table : tables) {
+                copies.add(executor.submit(new Callable<Long>() {
+                    public Long call() throws DatabaseException {
+
+                        //the rows are summarised while they are copied
+                        MirroredTableState state = MirroredTableState.describe(copier, table, chunkSize);
+                        if (state == null)
+                            throw new DatabaseException("Table '" + table + "' does not exist in source database.");
+
+                        long rows = copier.copyTable(table, state.getSummariser());
+                        recordTable(local, table, source.getSchema(), state);
+                        return rows;
+
+                    }
+                }));
+            }
+
+            for (Future<Long> copy : copies)
+                copy.get();
+
+        } catch (InterruptedException e) {
+            throw new DatabaseException("Interrupted while mirroring schema '" + source.getSchema() + "'.", e);
+        } catch (ExecutionException e) {
+            throw new DatabaseException("Exception while mirroring schema '" + source.getSchema() + "'.", e.getCause());
+        } finally {
+            executor.shutdownNow();
+            local.endBulkLoad();
+        }
+
+    }
+
+    /**
+     * Opens the local database for an Ensembl schema, creating it if required.
+     *
+     * @param schema the Ensembl schema name
+     * @return the local database
+     * @throws DatabaseException if an exception occurs while accessing the local database
+     */
+    HSqlDatabase openLocalDatabase(String schema) throws DatabaseException {
+
+        HSqlDatabase retVal = (HSqlDatabase) SimpleDatabaseFactory.createHSqlPersistentInProcessDatabase(directory, schema);
+
+        Connection connection = null;
+        try {
+
+            connection = retVal.getConnection();
+            ResultSet rs = connection.getMetaData().getTables(null, null, MIRROR_TABLE, null);
+            boolean exists = rs.next();
+            rs.close();
+
+            if (!exists) {
+                Statement statement = connection.createStatement();
+                statement.execute(SQL_CREATE_MIRROR_TABLE);
+                statement.execute(MirroredTableState.SQL_CREATE_CHUNK_TABLE);
+                statement.close();
+            }
+
+        } catch (SQLException e) {
+            throw new DatabaseException("Exception while opening local database for schema '" + schema + "'.", e);
+        } finally {
+            close(connection);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Checks if a local database exists for an Ensembl schema.
+     *
+     * @param schema the Ensembl schema name
+     * @return true if the schema has been mirrored
+     */
+    boolean isMirrored(String schema) {
+        return new File(directory, schema + ".properties").exists();
+    }
+
+    /**
+     * Records a mirrored table.
+     *
+     * @param local  the local database
+     * @param table  the table name
+     * @param schema the source schema
+     * @param state  the row counts and checksums of the table
+     * @throws DatabaseException if an exception occurs while accessing the local database
+     */
+    void recordTable(HSqlDatabase local, String table, String schema, MirroredTableState state) throws DatabaseException {
+
+        Connection connection = null;
+
+        try {
+
+            connection = local.getConnection();
+            connection.setAutoCommit(false);
+
+            PreparedStatement delete = connection.prepareStatement(SQL_DELETE_MIRROR_ENTRY);
+            delete.setString(1, table);
+            delete.executeUpdate();
+            delete.close();
+
+            PreparedStatement insert = connection.prepareStatement(SQL_INSERT_MIRROR_ENTRY);
+            insert.setString(1, table);
+            insert.setString(2, schema);
+            insert.setLong(3, state.getRowCount());
+            insert.setString(4, state.keyColumn);
+            insert.setString(5, state.columnNames);
+            insert.setLong(6, state.chunkSize);
+            insert.setTimestamp(7, new Timestamp(System.currentTimeMillis()));
+            insert.executeUpdate();
+            insert.close();
+
+            state.writeChunks(connection, table);
+
+            connection.commit();
+
+        } catch (SQLException e) {
+            throw new DatabaseException("Exception while recording mirrored table '" + table + "'.", e);
+        } finally {
+            close(connection);
+        }
+
+    }
+
+    /**
+     * Closes a connection, logging exceptions.
+     *
+     * @param connection the connection, may be <code>null</code>
+     */
+    static void close(Connection connection) {
+
+        if (connection == null)
+            return;
+
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.warn(e);
+        }
+
+    }
+
+    /**
+     * Returns the directory holding the local databases.
+     *
+     * @return the directory
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the number of tables copied in parallel.
+     *
+     * @return the number of threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of tables copied in parallel.
+     *
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Returns the number of key values per checksummed key range.
+     *
+     * @return the chunk size
+     */
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the number of key values per checksummed key range. Local databases
+     * recorded with a different chunk size are copied as a whole by the next
+     * synchronisation.
+     *
+     * @param chunkSize the chunk size
+     */
+    public void setChunkSize(long chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+}
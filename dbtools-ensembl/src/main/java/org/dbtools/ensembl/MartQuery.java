@@ -0,0 +1,361 @@
+package org.dbtools.ensembl;
+
+import org.apache.log4j.Logger;
+import org.dbtools.DatabaseException;
+import org.dbtools.QueryResult;
+import org.dbtools.RowHandler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A query of the attributes of an Ensembl Mart main table (e.g.
+ * <code>hsapiens_gene_ensembl__gene__main</code>) restricted by filters.
+ * <p/>
+ * Queries are created by {@link EnsemblMartDatabase#createQuery(String)}, which
+ * resolves the main table and its key column. Attributes and filters refer to
+ * columns of the main table and are checked against its definition. Results are
+ * read in pages ordered by the main table key, each page starting after the last
+ * key of the previous page (keyset pagination), so that reading a page deep into
+ * the table costs the same as reading the first one.
+ * <p/>
+ * Example:
+ * <pre>
+ * MartQuery query = martDatabase.createQuery("gene")
+ *         .addAttribute("stable_id_1023")
+ *         .addAttribute("display_label_1074")
+ *         .addFilter("biotype_1020", "protein_coding");
+ * query.stream(handler);
+ * </pre>
+ */
+public class MartQuery {
+
+    /**
+     * the operators allowed in filters
+     */
+    private static final List<String> OPERATORS = Arrays.asList("=", "<>", "<", "<=", ">", ">=", "LIKE");
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(MartQuery.class);
+
+    /**
+     * the Mart database
+     */
+    private EnsemblMartDatabase database;
+
+    /**
+     * the main table
+     */
+    private String table;
+
+    /**
+     * the key column of the main table
+     */
+    private String keyColumn;
+
+    /**
+     * the columns of the main table
+     */
+    private List<String> columns;
+
+    /**
+     * the attribute columns
+     */
+    private List<String> attributes = new ArrayList<String>();
+
+    /**
+     * the filter conditions
+     */
+    private List<String> filters = new ArrayList<String>();
+
+    /**
+     * the filter values
+     */
+    private List<Object> filterValues = new ArrayList<Object>();
+
+    /**
+     * the number of rows per page
+     */
+    private int pageSize = 10000;
+
+    /**
+     * Constructs a query of a main table.
+     *
+     * @param database  the Mart database
+     * @param table     the main table
+     * @param keyColumn the key column of the main table
+     * @param columns   the columns of the main table
+     */
+    MartQuery(EnsemblMartDatabase database, String table, String keyColumn, List<String> columns) {
+        this.database = database;
+        this.table = table;
+        this.keyColumn = keyColumn;
+        this.columns = columns;
+    }
+
+    /**
+     * Adds an attribute to the query.
+     *
+     * @param column the main table column
+     * @return this query
+     * @throws IllegalArgumentException if the main table has no such column
+     */
+    public MartQuery addAttribute(String column) {
+
+        attributes.add(checkColumn(column));
+
+        return this;
+
+    }
+
+    /**
+     * Adds a filter restricting a column to a value.
+     *
+     * @param column the main table column
+     * @param value  the value
+     * @return this query
+     * @throws IllegalArgumentException if the main table has no such column
+     */
+    public MartQuery addFilter(String column, Object value) {
+        return addFilter(column, "=", value);
+    }
+
+    /**
+     * Adds a filter comparing a column with a value.
+     *
+     * @param column   the main table column
+     * @param operator the comparison operator (=, &lt;&gt;, &lt;, &lt;=, &gt;, &gt;= or LIKE)
+     * @param value    the value, <code>null</code> to test for <code>NULL</code> with = or &lt;&gt;
+     * @return this query
+     * @throws IllegalArgumentException if the main table has no such column or the operator is not supported
+     */
+    public MartQuery addFilter(String column, String operator, Object value) {
+
+        checkColumn(column);
+
+        String op = operator.trim().toUpperCase();
+        if (!OPERATORS.contains(op))
+            throw new IllegalArgumentException("Unsupported filter operator '" + operator + "'.");
+
+        if (value == null) {
+            if (op.equals("="))
+                filters.add(column + " IS NULL");
+            else if (op.equals("<>"))
+                filters.add(column + " IS NOT NULL");
+            else
+                throw new IllegalArgumentException("Operator '" + operator + "' cannot be applied to NULL.");
+        } else {
+            filters.add(column + " " + op + " ?");
+            filterValues.add(value);
+        }
+
+        return this;
+
+    }
+
+    /**
+     * Builds the SQL query of a page.
+     *
+     * @param first true for the first page, false for a page following a key
+     * @return the SQL query, the filter values and, for following pages, the last key
+     *         of the previous page are set as parameters
+     */
+    public String toSql(boolean first) {
+        return toSql(first ? null : ">", true);
+    }
+
+    /**
+     * Builds the SQL query of a page or of the rows of a key.
+     *
+     * @param keyOperator the operator comparing the key with the key parameter,
+     *                    <code>null</code> for the first page
+     * @param limited     true to limit the result to the page size
+     * @return the SQL query, the filter values and the key are set as parameters
+     */
+    private String toSql(String keyOperator, boolean limited) {
+
+        StringBuffer retVal = new StringBuffer("SELECT ").append(keyColumn);
+        for (String attribute : attributes)
+            retVal.append(", ").append(attribute);
+
+        retVal.append(" FROM ").append(table);
+
+        List<String> conditions = new ArrayList<String>(filters);
+        if (keyOperator != null)
+            conditions.add(keyColumn + " " + keyOperator + " ?");
+
+        for (int i = 0; i < conditions.size(); i++)
+            retVal.append(i == 0 ? " WHERE " : " AND ").append(conditions.get(i));
+
+        retVal.append(" ORDER BY ").append(keyColumn);
+        if (limited)
+            retVal.append(" LIMIT ").append(pageSize);
+
+        return retVal.toString();
+
+    }
+
+    /**
+     * Reads a page of the result. The first column holds the main table key,
+     * followed by the attributes in the order they were added. Rows of a key
+     * that occurs more than once may be split between pages, in which case
+     * the rows of that key on the following page are not read, use
+     * {@link #stream(RowHandler)} for tables with duplicate keys.
+     *
+     * @param afterKey the last key of the previous page, <code>null</code> for the first page
+     * @return the page
+     * @throws DatabaseException if an exception occurs while executing the query
+     */
+    public QueryResult getPage(Object afterKey) throws DatabaseException {
+
+        List<Object> parameters = new ArrayList<Object>(filterValues);
+        if (afterKey != null)
+            parameters.add(afterKey);
+
+        return database.query(toSql(afterKey == null), parameters.toArray());
+
+    }
+
+    /**
+     * Reads the result page by page and passes each row to a handler. The rows
+     * hold the attribute values in the order the attributes were added. Pages
+     * are not cached.
+     * <p/>
+     * Rows of the last key of a full page are held back and read with the next
+     * page, so that keys occurring more than once are not split between pages.
+     * If all rows of a page have the same key, the rows of that key are read
+     * in one query.
+     *
+     * @param handler the row handler
+     * @return the number of rows passed to the handler
+     * @throws DatabaseException if an exception occurs while executing the query or handling a row
+     */
+    public long stream(RowHandler handler) throws DatabaseException {
+
+        long retVal = 0;
+        Object afterKey = null;
+        String keyOperator = null;
+        int attributeCount = attributes.size();
+
+        while (true) {
+
+            List<Object> parameters = new ArrayList<Object>(filterValues);
+            if (afterKey != null)
+                parameters.add(afterKey);
+
+            long start = System.currentTimeMillis();
+            QueryResult page = QueryResult.execute(database, toSql(keyOperator, true), parameters.toArray());
+            int rowCount = page.getRowCount();
+
+            if (logger.isDebugEnabled())
+                logger.debug("Read page of " + rowCount + " rows from " + table + " after key " + afterKey + " in " + (System.currentTimeMillis() - start) + " ms.");
+
+            boolean full = rowCount >= pageSize;
+            List<Object[]> rows = page.getRows();
+
+            if (full) {
+
+                //hold back the rows of the last key, which may continue on the next page
+                afterKey = page.getValue(rowCount - 1, 0);
+                keyOperator = ">=";
+                while (rowCount > 0 && afterKey.equals(page.getValue(rowCount - 1, 0)))
+                    rowCount--;
+
+                //read the rows of a key filling a whole page at once
+                if (rowCount == 0) {
+                    List<Object> keyParameters = new ArrayList<Object>(filterValues);
+                    keyParameters.add(afterKey);
+                    rows = QueryResult.execute(database, toSql("=", false), keyParameters.toArray()).getRows();
+                    rowCount = rows.size();
+                    keyOperator = ">";
+                }
+
+            }
+
+            for (int i = 0; i < rowCount; i++) {
+
+                Object[] attributeValues = new Object[attributeCount];
+                System.arraycopy(rows.get(i), 1, attributeValues, 0, attributeCount);
+
+                retVal++;
+                if (!handler.handleRow(attributeValues))
+                    return retVal;
+
+            }
+
+            if (!full)
+                break;
+
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Checks that a column belongs to the main table.
+     *
+     * @param column the column
+     * @return the column
+     * @throws IllegalArgumentException if the main table has no such column
+     */
+    private String checkColumn(String column) {
+
+        if (!columns.contains(column))
+            throw new IllegalArgumentException("Table '" + table + "' has no column '" + column + "'.");
+
+        return column;
+
+    }
+
+    ///////////////////
+    //getters & setters
+
+    /**
+     * Returns the main table queried.
+     *
+     * @return the table name
+     */
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * Returns the key column ordering the pages.
+     *
+     * @return the key column
+     */
+    public String getKeyColumn() {
+        return keyColumn;
+    }
+
+    /**
+     * Returns the number of rows per page.
+     *
+     * @return the page size
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Sets the number of rows per page.
+     *
+     * @param pageSize the page size
+     * @return this query
+     */
+    public MartQuery setPageSize(int pageSize) {
+
+        if (pageSize < 1)
+            throw new IllegalArgumentException("Page size must be positive.");
+
+        this.pageSize = pageSize;
+
+        return this;
+
+    }
+
+}
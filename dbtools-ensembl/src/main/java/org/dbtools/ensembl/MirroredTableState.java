@@ -0,0 +1,480 @@
+package org.dbtools.ensembl;
+
+import org.dbtools.AbstractDatabase;
+import org.dbtools.Database;
+import org.dbtools.DatabaseException;
+import org.dbtools.RowHandler;
+import org.dbtools.TableCopier;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * The content summary of a mirrored table: row counts and checksums of the rows in
+ * fixed ranges (chunks) of the integer primary key. Tables without an integer primary
+ * key are summarised as a single chunk.
+ * <p/>
+ * Summaries of MySQL tables are computed on the server, so summaries of different
+ * releases of a table can be compared to find the key ranges that changed. Summaries of
+ * tables of other databases are computed by reading the rows. Rows copied by a
+ * {@link TableCopier} are summarised while they are copied (see {@link #getSummariser()}),
+ * formatting the values as MySQL converts them to strings (see {@link #format(Object)}),
+ * so that the summaries can be compared with those of the MySQL server.
+ */
+class MirroredTableState {
+
+    /**
+     * the table holding the chunk summaries in the local database
+     */
+    static final String CHUNK_TABLE = "DBTOOLS_MIRROR_CHUNK";
+
+    static final String SQL_CREATE_CHUNK_TABLE = "CREATE CACHED TABLE " + CHUNK_TABLE + " (TABLE_NAME VARCHAR(128), CHUNK BIGINT, ROW_COUNT BIGINT, CHECKSUM BIGINT, PRIMARY KEY (TABLE_NAME, CHUNK))";
+
+    private static final String SQL_SELECT_TABLE = "SELECT KEY_COLUMN, COLUMN_NAMES, CHUNK_SIZE FROM " + EnsemblMirror.MIRROR_TABLE + " WHERE TABLE_NAME = ?";
+
+    private static final String SQL_SELECT_CHUNKS = "SELECT CHUNK, ROW_COUNT, CHECKSUM FROM " + CHUNK_TABLE + " WHERE TABLE_NAME = ?";
+
+    private static final String SQL_DELETE_CHUNKS = "DELETE FROM " + CHUNK_TABLE + " WHERE TABLE_NAME = ?";
+
+    private static final String SQL_INSERT_CHUNK = "INSERT INTO " + CHUNK_TABLE + " VALUES (?, ?, ?, ?)";
+
+    /**
+     * the MySQL query summarising the rows of a table by key range
+     */
+    private static final String SQL_SUMMARISE_CHUNKS = "SELECT FLOOR(:keyColumn / :chunkSize) AS chunk, COUNT(*), SUM(CRC32(CONCAT_WS('#', :columns))) FROM :table GROUP BY chunk";
+
+    /**
+     * the MySQL query summarising all rows of a table
+     */
+    private static final String SQL_SUMMARISE_TABLE = "SELECT 0, COUNT(*), SUM(CRC32(CONCAT_WS('#', :columns))) FROM :table";
+
+    /**
+     * the largest decimal exponent MySQL formats floating point numbers without exponent for (DBL_DIG)
+     */
+    private static final int MAX_DECPT_FOR_F_FORMAT = 15;
+
+    /**
+     * the integer primary key column, <code>null</code> if the table has none
+     */
+    String keyColumn;
+
+    /**
+     * the comma separated column names
+     */
+    String columnNames;
+
+    /**
+     * the number of key values per chunk
+     */
+    long chunkSize;
+
+    /**
+     * the row count and checksum by chunk
+     */
+    SortedMap<Long, long[]> chunks = new TreeMap<Long, long[]>();
+
+    /**
+     * Summarises a table of a source database.
+     *
+     * @param source    the source database
+     * @param copier    the copier reading the table definition
+     * @param table     the table name
+     * @param chunkSize the number of key values per chunk
+     * @return the table state or <code>null</code> if the table does not exist
+     * @throws DatabaseException if an exception occurs while accessing the source database
+     */
+    static MirroredTableState fetch(AbstractDatabase source, TableCopier copier, String table, long chunkSize) throws DatabaseException {
+
+        MirroredTableState retVal = describe(copier, table, chunkSize);
+        if (retVal == null)
+            return null;
+
+        Connection connection = null;
+
+        try {
+
+            connection = source.getConnection();
+            Statement statement = connection.createStatement();
+
+            if (Database.VENDOR_MYSQL.equals(source.getVendor())) {
+
+                //null markers distinguish null values from empty strings
+                StringBuffer values = new StringBuffer();
+                for (String column : retVal.columnNames.split(",")) {
+                    if (values.length() > 0)
+                        values.append(", ");
+                    values.append(column).append(", ISNULL(").append(column).append(")");
+                }
+
+                String sql = retVal.keyColumn == null ? SQL_SUMMARISE_TABLE : SQL_SUMMARISE_CHUNKS;
+                sql = sql.replace(":keyColumn", String.valueOf(retVal.keyColumn))
+                        .replace(":chunkSize", String.valueOf(chunkSize))
+                        .replace(":columns", values.toString())
+                        .replace(":table", table);
+
+                ResultSet rs = statement.executeQuery(sql);
+                while (rs.next()) {
+                    //an empty table has a summary row with count 0
+                    if (rs.getLong(2) > 0)
+                        retVal.chunks.put(rs.getLong(1), new long[]{rs.getLong(2), rs.getLong(3)});
+                }
+                rs.close();
+
+            } else {
+
+                RowHandler summariser = retVal.getSummariser();
+                int columnCount = retVal.columnNames.split(",").length;
+
+                ResultSet rs = statement.executeQuery("SELECT " + retVal.columnNames + " FROM " + table);
+                while (rs.next()) {
+                    Object[] row = new Object[columnCount];
+                    for (int i = 0; i < columnCount; i++)
+                        row[i] = rs.getObject(i + 1);
+                    summariser.handleRow(row);
+                }
+                rs.close();
+
+            }
+
+            statement.close();
+
+        } catch (SQLException e) {
+            throw new DatabaseException("Exception while summarising table '" + table + "'.", e);
+        } finally {
+            EnsemblMirror.close(connection);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the state of a source table without chunk summaries. The chunks are
+     * added by the handler returned by {@link #getSummariser()}.
+     *
+     * @param copier    the copier reading the table definition
+     * @param table     the table name
+     * @param chunkSize the number of key values per chunk
+     * @return the table state or <code>null</code> if the table does not exist
+     * @throws DatabaseException if an exception occurs while reading the table definition
+     */
+    static MirroredTableState describe(TableCopier copier, String table, long chunkSize) throws DatabaseException {
+
+        Map<String, String> columnTypes = copier.getColumnTypes(table);
+        if (columnTypes.size() == 0)
+            return null;
+
+        MirroredTableState retVal = new MirroredTableState();
+        retVal.chunkSize = chunkSize;
+
+        //use chunks if the table has a single column integer primary key
+        List<String> primaryKey = copier.getPrimaryKey(table);
+        if (primaryKey.size() == 1 && isIntegerType(columnTypes.get(primaryKey.get(0))))
+            retVal.keyColumn = primaryKey.get(0);
+
+        StringBuffer names = new StringBuffer();
+        for (String column : columnTypes.keySet()) {
+            if (names.length() > 0)
+                names.append(",");
+            names.append(column);
+        }
+        retVal.columnNames = names.toString();
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns a handler adding rows to the chunk summaries. The rows must contain the
+     * values of all columns in table order.
+     *
+     * @return the handler
+     */
+    RowHandler getSummariser() {
+
+        String[] columns = columnNames.split(",");
+        int key = -1;
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals(keyColumn))
+                key = i;
+        }
+
+        return new Summariser(key);
+
+    }
+
+    /**
+     * Reads the recorded state of a mirrored table from the local database.
+     *
+     * @param local the connection to the local database
+     * @param table the table name
+     * @return the table state or <code>null</code> if the table has not been mirrored
+     * @throws SQLException if an exception occurs while accessing the local database
+     */
+    static MirroredTableState read(Connection local, String table) throws SQLException {
+
+        MirroredTableState retVal = null;
+
+        PreparedStatement selectTable = local.prepareStatement(SQL_SELECT_TABLE);
+        selectTable.setString(1, table);
+        ResultSet rs = selectTable.executeQuery();
+        if (rs.next()) {
+            retVal = new MirroredTableState();
+            retVal.keyColumn = rs.getString(1);
+            retVal.columnNames = rs.getString(2);
+            retVal.chunkSize = rs.getLong(3);
+        }
+        rs.close();
+        selectTable.close();
+
+        if (retVal == null)
+            return null;
+
+        PreparedStatement selectChunks = local.prepareStatement(SQL_SELECT_CHUNKS);
+        selectChunks.setString(1, table);
+        rs = selectChunks.executeQuery();
+        while (rs.next())
+            retVal.chunks.put(rs.getLong(1), new long[]{rs.getLong(2), rs.getLong(3)});
+        rs.close();
+        selectChunks.close();
+
+        return retVal;
+
+    }
+
+    /**
+     * Records the chunk summaries of the table in the local database.
+     *
+     * @param local the connection to the local database
+     * @param table the table name
+     * @throws SQLException if an exception occurs while accessing the local database
+     */
+    void writeChunks(Connection local, String table) throws SQLException {
+
+        PreparedStatement delete = local.prepareStatement(SQL_DELETE_CHUNKS);
+        delete.setString(1, table);
+        delete.executeUpdate();
+        delete.close();
+
+        PreparedStatement insert = local.prepareStatement(SQL_INSERT_CHUNK);
+        for (Map.Entry<Long, long[]> chunk : chunks.entrySet()) {
+            insert.setString(1, table);
+            insert.setLong(2, chunk.getKey());
+            insert.setLong(3, chunk.getValue()[0]);
+            insert.setLong(4, chunk.getValue()[1]);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        insert.close();
+
+    }
+
+    /**
+     * Returns the number of rows in the table.
+     *
+     * @return the row count
+     */
+    long getRowCount() {
+
+        long retVal = 0;
+        for (long[] chunk : chunks.values())
+            retVal += chunk[0];
+
+        return retVal;
+
+    }
+
+    /**
+     * Checks if the states are comparable chunk by chunk, i.e. the tables have the same
+     * columns, the same integer key and the same chunk size.
+     *
+     * @param other the other table state
+     * @return true if the chunks can be compared
+     */
+    boolean isChunkCompatible(MirroredTableState other) {
+
+        return keyColumn != null
+                && keyColumn.equals(other.keyColumn)
+                && columnNames.equals(other.columnNames)
+                && chunkSize == other.chunkSize;
+
+    }
+
+    /**
+     * Checks if the summary of a chunk is the same in both states.
+     *
+     * @param other the other table state
+     * @param chunk the chunk
+     * @return true if both states have the same row count and checksum for the chunk
+     */
+    boolean isChunkEqual(MirroredTableState other, long chunk) {
+
+        long[] summary = chunks.get(chunk);
+        long[] otherSummary = other.chunks.get(chunk);
+
+        if (summary == null || otherSummary == null)
+            return summary == otherSummary;
+
+        return summary[0] == otherSummary[0] && summary[1] == otherSummary[1];
+
+    }
+
+    /**
+     * Formats a value as MySQL converts it to a string, e.g. in <code>CONCAT_WS</code>.
+     * Floating point numbers are written with their shortest digits and without
+     * trailing zeros, in exponential notation (e.g. <code>1e20</code>) if their decimal
+     * exponent is outside the range of {@link #MAX_DECPT_FOR_F_FORMAT}. Timestamps
+     * without fractional seconds have no fraction, as DATETIME and TIMESTAMP columns
+     * without fractional seconds precision.
+     *
+     * @param value the value, not <code>null</code>
+     * @return the string
+     * @throws UnsupportedEncodingException if UTF-8 is not supported
+     */
+    static String format(Object value) throws UnsupportedEncodingException {
+
+        if (value instanceof byte[])
+            return new String((byte[]) value, "UTF-8");
+        if (value instanceof Boolean)
+            return (Boolean) value ? "1" : "0";
+        if (value instanceof BigDecimal)
+            return ((BigDecimal) value).toPlainString();
+        if (value instanceof Double)
+            return formatFloatingPoint(Double.toString((Double) value));
+        if (value instanceof Float)
+            return formatFloatingPoint(Float.toString((Float) value));
+
+        if (value instanceof Timestamp) {
+            String retVal = value.toString();
+            return ((Timestamp) value).getNanos() == 0 ? retVal.substring(0, retVal.indexOf('.')) : retVal;
+        }
+
+        return value.toString();
+
+    }
+
+    /**
+     * Formats a floating point number as MySQL does.
+     *
+     * @param javaString the shortest representation of the number by Java
+     * @return the string
+     */
+    private static String formatFloatingPoint(String javaString) {
+
+        if (javaString.equals("NaN") || javaString.indexOf("Infinity") != -1)
+            return javaString;
+
+        BigDecimal number = new BigDecimal(javaString);
+        if (number.signum() == 0)
+            return javaString.startsWith("-") ? "-0" : "0";
+
+        number = number.stripTrailingZeros();
+        String digits = number.unscaledValue().abs().toString();
+        //the position of the decimal point relative to the first digit
+        int decpt = digits.length() - number.scale();
+
+        if (decpt <= MAX_DECPT_FOR_F_FORMAT && decpt > -MAX_DECPT_FOR_F_FORMAT)
+            return number.toPlainString();
+
+        StringBuffer retVal = new StringBuffer();
+        if (number.signum() < 0)
+            retVal.append('-');
+        retVal.append(digits.charAt(0));
+        if (digits.length() > 1)
+            retVal.append('.').append(digits.substring(1));
+        retVal.append('e').append(decpt - 1);
+
+        return retVal.toString();
+
+    }
+
+    /**
+     * Checks if an HSQLDB column type is an integer type.
+     *
+     * @param type the column type
+     * @return true for integer types
+     */
+    private static boolean isIntegerType(String type) {
+        return "TINYINT".equals(type) || "SMALLINT".equals(type) || "INTEGER".equals(type) || "BIGINT".equals(type);
+    }
+
+    /**
+     * Adds rows to the chunk summaries. The checksum of a row is the CRC32 of its values
+     * formatted as by the MySQL summary query.
+     */
+    private class Summariser implements RowHandler {
+
+        /**
+         * the index of the key column, -1 if the table has no integer key
+         */
+        private int key;
+
+        /**
+         * the checksum calculator
+         */
+        private CRC32 crc = new CRC32();
+
+        /**
+         * Constructs a Summariser.
+         *
+         * @param key the index of the key column, -1 if the table has no integer key
+         */
+        private Summariser(int key) {
+            this.key = key;
+        }
+
+        public boolean handleRow(Object[] row) throws DatabaseException {
+
+            long chunk = 0;
+            if (key >= 0) {
+                long value = ((Number) row[key]).longValue();
+                chunk = value / chunkSize;
+                if (value < 0 && value % chunkSize != 0)
+                    chunk--;
+            }
+
+            try {
+
+                //as CONCAT_WS('#', value, ISNULL(value), ...), which skips null values
+                StringBuffer values = new StringBuffer();
+                for (Object value : row) {
+                    if (value != null)
+                        values.append(format(value)).append('#');
+                    values.append(value == null ? '1' : '0').append('#');
+                }
+                values.setLength(values.length() - 1);
+
+                crc.reset();
+                crc.update(values.toString().getBytes("UTF-8"));
+
+            } catch (UnsupportedEncodingException e) {
+                throw new DatabaseException(e);
+            }
+
+            long[] summary = chunks.get(chunk);
+            if (summary == null) {
+                summary = new long[2];
+                chunks.put(chunk, summary);
+            }
+            summary[0]++;
+            summary[1] += crc.getValue();
+
+            return true;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,344 @@
+package org.dbtools.ensembl;
+
+import org.apache.log4j.Logger;
+import org.dbtools.Configuration;
+import org.dbtools.DatabaseException;
+import org.dbtools.QueryResult;
+import org.dbtools.SqlUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the same query against the schemas of many species concurrently.
+ * <p/>
+ * For each species the schema of the requested database type and release (the
+ * current release by default) is queried, with at most as many queries running
+ * at the same time as set by the configuration property <code>ensembl.fanout.parallelism</code>.
+ * The query may refer to the schema name as <code>:schemaName</code> and to the
+ * NCBI taxon ID as <code>:ncbiTaxonId</code>. Species without a schema of the
+ * requested type and release are skipped.
+ * <p/>
+ * Results are passed to a {@link Listener} on the calling thread as they arrive,
+ * and merged into one result whose first column, <code>ncbi_taxon_id</code>,
+ * tags each row with the species it came from. The results of all species must
+ * have the same columns, a result whose column count or labels differ from those
+ * of the first result is treated as a failed query.
+ */
+public class SpeciesFanOut {
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(SpeciesFanOut.class);
+
+    /**
+     * the factory creating the species databases
+     */
+    private EnsemblDatabaseFactory factory;
+
+    /**
+     * the number of queries running at the same time
+     */
+    private int parallelism = Configuration.getInstance().getIntProperty("ensembl.fanout.parallelism");
+
+    /**
+     * the release to query, 0 for the current release of each species
+     */
+    private int release;
+
+    /**
+     * the species to query, <code>null</code> for all species
+     */
+    private Collection<Integer> ncbiTaxonIds;
+
+    /**
+     * Constructs a fan-out over the species available from a factory.
+     *
+     * @param factory the factory creating the species databases
+     */
+    public SpeciesFanOut(EnsemblDatabaseFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Runs a query against the schema of each species.
+     *
+     * @param sql                 the SQL query, parameters are marked by '?'
+     * @param ensemblDatabaseType the Ensembl database type
+     * @param listener            the listener receiving the result of each species as it arrives,
+     *                            may be <code>null</code>
+     * @param parameters          the parameter values
+     * @return the merged result, prefixed by the column <code>ncbi_taxon_id</code>
+     * @throws DatabaseException if an exception occurs while accessing the Ensembl meta data, or if a
+     *                           query fails or returns different columns and no listener is given
+     */
+    public QueryResult execute(String sql, EnsemblDatabaseType ensemblDatabaseType, Listener listener, final Object... parameters) throws DatabaseException {
+
+        long start = System.currentTimeMillis();
+
+        //create the databases on this thread, the factory is not thread safe
+        List<EnsemblDatabase> databases = new ArrayList<EnsemblDatabase>();
+        for (int ncbiTaxonId : ncbiTaxonIds != null ? ncbiTaxonIds : factory.getNcbiTaxonIds()) {
+
+            int speciesRelease = release != 0 ? release : factory.getCurrentReleaseVersion(ncbiTaxonId);
+            if (factory.getSchemaName(ncbiTaxonId, speciesRelease, ensemblDatabaseType) == null) {
+                logger.debug("No " + ensemblDatabaseType + " schema of release " + speciesRelease + " for species identified by NCBI taxon ID " + ncbiTaxonId + ".");
+                continue;
+            }
+
+            databases.add((EnsemblDatabase) factory.createEnsemblDatabase(ncbiTaxonId, speciesRelease, ensemblDatabaseType));
+
+        }
+
+        QueryResult retVal = execute(databases, sql, listener, parameters);
+
+        logger.info("Queried " + databases.size() + " " + ensemblDatabaseType + " schemas in " + (System.currentTimeMillis() - start) + " ms.");
+
+        return retVal;
+
+    }
+
+    /**
+     * Runs a query against species databases and merges the results.
+     *
+     * @param databases  the species databases
+     * @param sql        the SQL query, parameters are marked by '?'
+     * @param listener   the listener receiving the result of each species as it arrives,
+     *                   may be <code>null</code>
+     * @param parameters the parameter values
+     * @return the merged result, prefixed by the column <code>ncbi_taxon_id</code>
+     * @throws DatabaseException if a query fails or returns different columns and no listener is given
+     */
+    QueryResult execute(List<EnsemblDatabase> databases, String sql, Listener listener, final Object... parameters) throws DatabaseException {
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, databases.size())));
+        CompletionService<SpeciesResult> completionService = new ExecutorCompletionService<SpeciesResult>(executor);
+
+        for (final EnsemblDatabase database : databases) {
+
+            final String query = SqlUtil.setParameter(
+                    SqlUtil.setParameter(sql, "schemaName", database.getSchema(), false),
+                    "ncbiTaxonId", String.valueOf(database.getNcbiTaxonId()), false);
+
+            completionService.submit(new Callable<SpeciesResult>() {
+                public SpeciesResult call() {
+
+                    SpeciesResult retVal = new SpeciesResult();
+                    retVal.database = database;
+
+                    try {
+                        retVal.result = database.query(query, parameters);
+                    } catch (DatabaseException e) {
+                        retVal.exception = e;
+                    }
+
+                    return retVal;
+
+                }
+            });
+
+        }
+
+        String[] columnLabels = null;
+        List<Object[]> rows = new ArrayList<Object[]>();
+        DatabaseException failure = null;
+
+        try {
+
+            for (int i = 0; i < databases.size(); i++) {
+
+                SpeciesResult speciesResult = completionService.take().get();
+                int ncbiTaxonId = speciesResult.database.getNcbiTaxonId();
+
+                if (speciesResult.exception != null) {
+
+                    logger.warn("Query failed for species identified by NCBI taxon ID " + ncbiTaxonId + ".", speciesResult.exception);
+                    if (listener != null)
+                        listener.queryFailed(ncbiTaxonId, speciesResult.database.getSchema(), speciesResult.exception);
+                    else if (failure == null)
+                        failure = speciesResult.exception;
+                    continue;
+
+                }
+
+                QueryResult result = speciesResult.result;
+
+                if (columnLabels == null) {
+
+                    columnLabels = new String[result.getColumnCount() + 1];
+                    columnLabels[0] = "ncbi_taxon_id";
+                    for (int c = 0; c < result.getColumnCount(); c++)
+                        columnLabels[c + 1] = result.getColumnLabel(c);
+
+                } else if (!hasColumns(result, columnLabels)) {
+
+                    DatabaseException mismatch = new DatabaseException("Columns of result of schema '" + speciesResult.database.getSchema() + "' differ from those of the other schemas.");
+                    logger.warn(mismatch.getMessage());
+                    if (listener != null)
+                        listener.queryFailed(ncbiTaxonId, speciesResult.database.getSchema(), mismatch);
+                    else if (failure == null)
+                        failure = mismatch;
+                    continue;
+
+                }
+
+                for (Object[] row : result.getRows()) {
+                    Object[] tagged = new Object[row.length + 1];
+                    tagged[0] = ncbiTaxonId;
+                    System.arraycopy(row, 0, tagged, 1, row.length);
+                    rows.add(tagged);
+                }
+
+                if (listener != null)
+                    listener.resultArrived(ncbiTaxonId, speciesResult.database.getSchema(), result);
+
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseException("Interrupted while querying species schemas.", e);
+        } catch (ExecutionException e) {
+            throw new DatabaseException("Exception while querying species schemas.", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (failure != null)
+            throw failure;
+
+        return new QueryResult(columnLabels != null ? columnLabels : new String[]{"ncbi_taxon_id"}, rows);
+
+    }
+
+    /**
+     * Checks if a result has the columns of the merged result. Labels are compared
+     * ignoring case, since databases differ in the case of unquoted labels.
+     *
+     * @param result       the result of a species
+     * @param columnLabels the column labels of the merged result, starting with <code>ncbi_taxon_id</code>
+     * @return true if the result has the same number of columns with the same labels
+     */
+    private static boolean hasColumns(QueryResult result, String[] columnLabels) {
+
+        if (result.getColumnCount() != columnLabels.length - 1)
+            return false;
+
+        for (int c = 0; c < result.getColumnCount(); c++) {
+            if (!columnLabels[c + 1].equalsIgnoreCase(result.getColumnLabel(c)))
+                return false;
+        }
+
+        return true;
+
+    }
+
+    ///////////////////
+    //getters & setters
+
+    /**
+     * Returns the number of queries running at the same time.
+     *
+     * @return the parallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of queries running at the same time.
+     *
+     * @param parallelism the parallelism
+     */
+    public void setParallelism(int parallelism) {
+
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive.");
+
+        this.parallelism = parallelism;
+
+    }
+
+    /**
+     * Returns the release queried.
+     *
+     * @return the release, 0 for the current release of each species
+     */
+    public int getRelease() {
+        return release;
+    }
+
+    /**
+     * Sets the release to query.
+     *
+     * @param release the release, 0 for the current release of each species
+     */
+    public void setRelease(int release) {
+        this.release = release;
+    }
+
+    /**
+     * Returns the species queried.
+     *
+     * @return the NCBI taxon IDs, <code>null</code> for all species
+     */
+    public Collection<Integer> getNcbiTaxonIds() {
+        return ncbiTaxonIds;
+    }
+
+    /**
+     * Restricts the species queried.
+     *
+     * @param ncbiTaxonIds the NCBI taxon IDs, <code>null</code> for all species
+     */
+    public void setNcbiTaxonIds(Collection<Integer> ncbiTaxonIds) {
+        this.ncbiTaxonIds = ncbiTaxonIds;
+    }
+
+    /**
+     * Receives the results of the species as they arrive. Methods are called
+     * on the thread running the fan-out, one at a time.
+     */
+    public interface Listener {
+
+        /**
+         * Called with the result of a species.
+         *
+         * @param ncbiTaxonId the NCBI taxon ID of the species
+         * @param schema      the schema queried
+         * @param result      the query result
+         */
+        void resultArrived(int ncbiTaxonId, String schema, QueryResult result);
+
+        /**
+         * Called if the query fails for a species.
+         *
+         * @param ncbiTaxonId the NCBI taxon ID of the species
+         * @param schema      the schema queried
+         * @param exception   the exception
+         */
+        void queryFailed(int ncbiTaxonId, String schema, DatabaseException exception);
+
+    }
+
+    /**
+     * The outcome of the query of a species.
+     */
+    private static class SpeciesResult {
+
+        private EnsemblDatabase database;
+
+        private QueryResult result;
+
+        private DatabaseException exception;
+
+    }
+
+}
@@ -0,0 +1,509 @@
+package org.dbtools.ensembl;
+
+import org.apache.log4j.Logger;
+import org.dbtools.AbstractDatabase;
+import org.dbtools.Configuration;
+import org.dbtools.Database;
+import org.dbtools.DatabaseException;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the stable IDs of two releases of an Ensembl core schema.
+ * <p/>
+ * Stable IDs and versions are read from both schemas ordered by stable ID and
+ * merged, so stable IDs added, removed or changed in version are reported as
+ * the rows go by and memory use does not depend on the number of stable IDs.
+ * Each schema is read by its own thread into a small queue of row batches,
+ * so that reading both schemas and merging overlap.
+ * <p/>
+ * Stable IDs are read from the tables listed in the configuration property
+ * <code>ensembl.stable.id.tables</code> (e.g. <code>gene_stable_id</code>). In
+ * schemas without such a table, the stable IDs are read from the object table
+ * itself (e.g. <code>gene</code>).
+ */
+public class StableIdDiff {
+
+    /**
+     * the number of rows per batch passed from a reading thread to the merge
+     */
+    private static final int BATCH_SIZE = 1024;
+
+    /**
+     * the number of batches queued per schema
+     */
+    private static final int QUEUED_BATCHES = 8;
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(StableIdDiff.class);
+
+    /**
+     * the schema of the older release
+     */
+    private Database oldDatabase;
+
+    /**
+     * the schema of the newer release
+     */
+    private Database newDatabase;
+
+    /**
+     * Constructs a diff of two schemas.
+     *
+     * @param oldDatabase the schema of the older release
+     * @param newDatabase the schema of the newer release
+     */
+    public StableIdDiff(Database oldDatabase, Database newDatabase) {
+        this.oldDatabase = oldDatabase;
+        this.newDatabase = newDatabase;
+    }
+
+    /**
+     * Constructs a diff of two releases of the core schema of a species.
+     *
+     * @param factory     the factory creating the Ensembl databases
+     * @param ncbiTaxonId the NCBI taxon ID of the species
+     * @param oldRelease  the older release
+     * @param newRelease  the newer release
+     * @return the diff
+     * @throws DatabaseException if a release does not exist or an exception occurs while accessing Ensembl
+     */
+    public static StableIdDiff forReleases(EnsemblDatabaseFactory factory, int ncbiTaxonId, int oldRelease, int newRelease) throws DatabaseException {
+
+        return new StableIdDiff(
+                factory.createEnsemblDatabase(ncbiTaxonId, oldRelease, EnsemblDatabaseType.CORE),
+                factory.createEnsemblDatabase(ncbiTaxonId, newRelease, EnsemblDatabaseType.CORE));
+
+    }
+
+    /**
+     * Compares the stable IDs of all object types listed in the configuration property
+     * <code>ensembl.stable.id.tables</code>.
+     *
+     * @param listener the listener receiving the differences
+     * @return the counts by object type
+     * @throws DatabaseException if an exception occurs while reading the schemas
+     */
+    public Map<String, Counts> diffAll(Listener listener) throws DatabaseException {
+
+        Map<String, Counts> retVal = new LinkedHashMap<String, Counts>();
+
+        for (String table : Configuration.getInstance().getProperty("ensembl.stable.id.tables").split(",")) {
+            String objectType = table.trim().replaceAll("_stable_id$", "");
+            retVal.put(objectType, diff(objectType, listener));
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Compares the stable IDs of an object type.
+     *
+     * @param objectType the object type (e.g. 'gene', 'transcript', 'translation' or 'exon')
+     * @param listener   the listener receiving the differences
+     * @return the counts
+     * @throws DatabaseException if an exception occurs while reading the schemas
+     */
+    public Counts diff(String objectType, Listener listener) throws DatabaseException {
+
+        long start = System.currentTimeMillis();
+
+        Cursor oldCursor = new Cursor(oldDatabase, objectType);
+        Cursor newCursor = new Cursor(newDatabase, objectType);
+        Counts retVal = new Counts();
+
+        try {
+
+            oldCursor.start();
+            newCursor.start();
+
+            oldCursor.next();
+            newCursor.next();
+
+            while (oldCursor.stableId != null || newCursor.stableId != null) {
+
+                int comparison;
+                if (oldCursor.stableId == null)
+                    comparison = 1;
+                else if (newCursor.stableId == null)
+                    comparison = -1;
+                else
+                    comparison = oldCursor.stableId.compareTo(newCursor.stableId);
+
+                if (comparison < 0) {
+                    retVal.removed++;
+                    listener.removed(objectType, oldCursor.stableId, oldCursor.version);
+                    oldCursor.next();
+                } else if (comparison > 0) {
+                    retVal.added++;
+                    listener.added(objectType, newCursor.stableId, newCursor.version);
+                    newCursor.next();
+                } else {
+                    if (oldCursor.version != newCursor.version) {
+                        retVal.changed++;
+                        listener.changed(objectType, oldCursor.stableId, oldCursor.version, newCursor.version);
+                    } else {
+                        retVal.unchanged++;
+                    }
+                    oldCursor.next();
+                    newCursor.next();
+                }
+
+            }
+
+        } finally {
+            oldCursor.close();
+            newCursor.close();
+        }
+
+        logger.info("Compared " + objectType + " stable IDs in " + (System.currentTimeMillis() - start) + " ms: " + retVal + ".");
+
+        return retVal;
+
+    }
+
+    /**
+     * Receives the differences between the releases.
+     */
+    public interface Listener {
+
+        /**
+         * Called for a stable ID only in the newer release.
+         *
+         * @param objectType the object type
+         * @param stableId   the stable ID
+         * @param version    the version in the newer release
+         * @throws DatabaseException to stop the diff
+         */
+        void added(String objectType, String stableId, int version) throws DatabaseException;
+
+        /**
+         * Called for a stable ID only in the older release.
+         *
+         * @param objectType the object type
+         * @param stableId   the stable ID
+         * @param version    the version in the older release
+         * @throws DatabaseException to stop the diff
+         */
+        void removed(String objectType, String stableId, int version) throws DatabaseException;
+
+        /**
+         * Called for a stable ID in both releases with different versions.
+         *
+         * @param objectType the object type
+         * @param stableId   the stable ID
+         * @param oldVersion the version in the older release
+         * @param newVersion the version in the newer release
+         * @throws DatabaseException to stop the diff
+         */
+        void changed(String objectType, String stableId, int oldVersion, int newVersion) throws DatabaseException;
+
+    }
+
+    /**
+     * The numbers of stable IDs added, removed, changed and unchanged.
+     */
+    public static class Counts {
+
+        private long added;
+
+        private long removed;
+
+        private long changed;
+
+        private long unchanged;
+
+        /**
+         * Returns the number of stable IDs only in the newer release.
+         *
+         * @return the count
+         */
+        public long getAdded() {
+            return added;
+        }
+
+        /**
+         * Returns the number of stable IDs only in the older release.
+         *
+         * @return the count
+         */
+        public long getRemoved() {
+            return removed;
+        }
+
+        /**
+         * Returns the number of stable IDs in both releases with different versions.
+         *
+         * @return the count
+         */
+        public long getChanged() {
+            return changed;
+        }
+
+        /**
+         * Returns the number of stable IDs in both releases with the same version.
+         *
+         * @return the count
+         */
+        public long getUnchanged() {
+            return unchanged;
+        }
+
+        public String toString() {
+            return added + " added, " + removed + " removed, " + changed + " changed, " + unchanged + " unchanged";
+        }
+
+    }
+
+    /**
+     * Reads the stable IDs of a schema in order on a separate thread.
+     */
+    private static class Cursor implements Runnable {
+
+        private Database database;
+
+        private String objectType;
+
+        private Thread thread;
+
+        private BlockingQueue<Batch> batches = new ArrayBlockingQueue<Batch>(QUEUED_BATCHES);
+
+        private volatile boolean closed;
+
+        private Batch batch;
+
+        private int position;
+
+        /**
+         * the current stable ID, <code>null</code> after the last row
+         */
+        private String stableId;
+
+        /**
+         * the current version
+         */
+        private int version;
+
+        private Cursor(Database database, String objectType) {
+            this.database = database;
+            this.objectType = objectType;
+        }
+
+        private void start() {
+
+            thread = new Thread(this, "stable-id-diff-" + objectType);
+            thread.setDaemon(true);
+            thread.start();
+
+        }
+
+        /**
+         * Moves to the next row.
+         *
+         * @throws DatabaseException if an exception occurred while reading the schema
+         */
+        private void next() throws DatabaseException {
+
+            if (batch != null && batch.last) {
+                stableId = null;
+                return;
+            }
+
+            while (batch == null || position == batch.size) {
+
+                try {
+                    batch = batches.take();
+                    position = 0;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DatabaseException("Interrupted while reading " + objectType + " stable IDs.", e);
+                }
+
+                if (batch.exception != null)
+                    throw batch.exception;
+
+                if (batch.last && batch.size == 0) {
+                    stableId = null;
+                    return;
+                }
+
+            }
+
+            stableId = batch.stableIds[position];
+            version = batch.versions[position];
+            position++;
+
+        }
+
+        public void run() {
+
+            Connection connection = null;
+            Batch current = new Batch();
+
+            try {
+
+                connection = database.getConnection();
+                String sql = getQuery(connection);
+
+                PreparedStatement statement;
+                if (database instanceof AbstractDatabase)
+                    statement = ((AbstractDatabase) database).prepareStreamingStatement(connection, sql);
+                else
+                    statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+                ResultSet rs = statement.executeQuery();
+
+                while (!closed && rs.next()) {
+
+                    current.stableIds[current.size] = rs.getString(1);
+                    current.versions[current.size] = rs.getInt(2);
+
+                    if (++current.size == BATCH_SIZE) {
+                        put(current);
+                        current = new Batch();
+                    }
+
+                }
+
+                if (!closed)
+                    rs.close();
+                statement.close();
+
+            } catch (SQLException e) {
+                current = new Batch();
+                current.exception = new DatabaseException("Exception while reading " + objectType + " stable IDs.", e);
+            } catch (DatabaseException e) {
+                current = new Batch();
+                current.exception = e;
+            } catch (InterruptedException e) {
+                closed = true;
+            } finally {
+
+                if (connection != null) {
+                    try {
+                        connection.close();
+                    } catch (SQLException e) {
+                        logger.warn(e);
+                    }
+                }
+
+            }
+
+            if (!closed) {
+
+                try {
+                    //a batch holding the remaining rows and a last empty batch
+                    if (current.size > 0) {
+                        put(current);
+                        current = new Batch();
+                    }
+                    current.last = true;
+                    put(current);
+                } catch (InterruptedException e) {
+                    //closed
+                }
+
+            }
+
+        }
+
+        /**
+         * Queues a batch, giving up if the cursor is closed.
+         *
+         * @param batch the batch
+         * @throws InterruptedException if the cursor is closed
+         */
+        private void put(Batch batch) throws InterruptedException {
+
+            while (!batches.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                if (closed)
+                    throw new InterruptedException();
+            }
+
+        }
+
+        /**
+         * Returns the query reading stable IDs ordered by stable ID. MySQL compares
+         * strings case insensitively unless told otherwise, so the order is made
+         * binary to match the merge. Objects without stable ID (the column is nullable
+         * in the object tables) are left out, as a null stable ID ends the stream.
+         *
+         * @param connection the connection to the schema
+         * @return the query
+         * @throws SQLException if an exception occurs while reading the schema meta data
+         * @throws DatabaseException if the schema has no stable IDs of the object type
+         */
+        private String getQuery(Connection connection) throws SQLException, DatabaseException {
+
+            String table = objectType + "_stable_id";
+            if (!hasTable(connection, table)) {
+                table = objectType;
+                if (!hasTable(connection, table))
+                    throw new DatabaseException("No stable IDs of " + objectType + "s in schema.");
+            }
+
+            String orderBy = Database.VENDOR_MYSQL.equals(database.getVendor()) ? "BINARY stable_id" : "stable_id";
+
+            return "SELECT stable_id, version FROM " + table + " WHERE stable_id IS NOT NULL ORDER BY " + orderBy;
+
+        }
+
+        private boolean hasTable(Connection connection, String table) throws SQLException {
+
+            DatabaseMetaData metaData = connection.getMetaData();
+            ResultSet rs = metaData.getTables(connection.getCatalog(), null, table, null);
+            boolean retVal = rs.next();
+            rs.close();
+
+            if (!retVal) {
+                rs = metaData.getTables(connection.getCatalog(), null, table.toUpperCase(), null);
+                retVal = rs.next();
+                rs.close();
+            }
+
+            return retVal;
+
+        }
+
+        /**
+         * Stops reading.
+         */
+        private void close() {
+
+            closed = true;
+            batches.clear();
+
+        }
+
+    }
+
+    /**
+     * A batch of rows.
+     */
+    private static class Batch {
+
+        private String[] stableIds = new String[BATCH_SIZE];
+
+        private int[] versions = new int[BATCH_SIZE];
+
+        private int size;
+
+        private boolean last;
+
+        private DatabaseException exception;
+
+    }
+
+}
@@ -0,0 +1,353 @@
+package org.dbtools.ensembl;
+
+import org.apache.log4j.Logger;
+import org.dbtools.BloomFilter;
+import org.dbtools.Configuration;
+import org.dbtools.DatabaseException;
+import org.dbtools.QueryResult;
+import org.dbtools.SchemaMetadata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An index answering whether a stable ID exists in an Ensembl core schema.
+ * <p/>
+ * The index holds a {@link BloomFilter} of the stable IDs of each object type listed
+ * in the configuration property <code>ensembl.stable.id.tables</code>, with a false
+ * positive probability set by <code>ensembl.stable.id.index.fpp</code>. Stable IDs not
+ * in the filter are answered locally, possible positives are checked by a query of
+ * the schema, so answers are always exact. At 1% false positives the index takes
+ * about 1.2 bytes per stable ID. Stable IDs are added and looked up in upper case,
+ * as the schema compares them case-insensitively (MySQL's default collation).
+ * <p/>
+ * Published releases do not change, so an index is built once per schema, saved
+ * and loaded by later jobs, see {@link EnsemblDatabase#getStableIdIndex()}.
+ */
+public class StableIdIndex {
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(StableIdIndex.class);
+
+    /**
+     * the file signature 'SIDX'
+     */
+    private static final int MAGIC = 0x53494458;
+
+    /**
+     * the file format version, 2 since stable IDs are indexed in upper case
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * the schema indexed
+     */
+    private EnsemblDatabase database;
+
+    /**
+     * the filters by object type
+     */
+    private Map<String, BloomFilter> filters = new LinkedHashMap<String, BloomFilter>();
+
+    /**
+     * the tables holding the stable IDs by object type
+     */
+    private Map<String, String> tables = new LinkedHashMap<String, String>();
+
+    /**
+     * the number of lookups
+     */
+    private AtomicLong lookupCount = new AtomicLong();
+
+    /**
+     * the number of lookups checked by a query
+     */
+    private AtomicLong queryCount = new AtomicLong();
+
+    /**
+     * the number of lookups the filter passed but the query did not confirm
+     */
+    private AtomicLong falsePositiveCount = new AtomicLong();
+
+    private StableIdIndex(EnsemblDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Builds the index of a schema by reading all stable IDs.
+     *
+     * @param database the Ensembl core schema
+     * @return the index
+     * @throws DatabaseException if an exception occurs while reading the schema
+     */
+    public static StableIdIndex build(EnsemblDatabase database) throws DatabaseException {
+
+        long start = System.currentTimeMillis();
+        double falsePositiveProbability = Configuration.getInstance().getDoubleProperty("ensembl.stable.id.index.fpp");
+
+        StableIdIndex retVal = new StableIdIndex(database);
+        SchemaMetadata metadata = database.getSchemaMetadata();
+        long stableIds = 0;
+
+        for (String table : Configuration.getInstance().getProperty("ensembl.stable.id.tables").split(",")) {
+
+            table = table.trim();
+            String objectType = table.replaceAll("_stable_id$", "");
+
+            //stable IDs moved into the object tables in later releases
+            if (!metadata.hasTable(table)) {
+                table = objectType;
+                if (!metadata.hasTable(table) || metadata.getTable(table).getColumnIndex("stable_id") == -1) {
+                    logger.debug("No stable IDs of " + objectType + "s in schema " + database.getSchema() + ".");
+                    continue;
+                }
+            }
+
+            long count = ((Number) database.query("SELECT COUNT(*) FROM " + table).getValue(0, 0)).longValue();
+            BloomFilter filter = new BloomFilter(count, falsePositiveProbability);
+
+            Connection connection = null;
+            try {
+
+                connection = database.getConnection();
+                PreparedStatement statement = database.prepareStreamingStatement(connection, "SELECT stable_id FROM " + table);
+                ResultSet rs = statement.executeQuery();
+                while (rs.next()) {
+                    String stableId = rs.getString(1);
+                    if (stableId != null)
+                        filter.add(normalise(stableId));
+                }
+                rs.close();
+                statement.close();
+
+            } catch (SQLException e) {
+                throw new DatabaseException("Exception while reading stable IDs from table " + table + ".", e);
+            } finally {
+                close(connection);
+            }
+
+            retVal.filters.put(objectType, filter);
+            retVal.tables.put(objectType, table);
+            stableIds += count;
+
+        }
+
+        logger.info("Indexed " + stableIds + " stable IDs of schema " + database.getSchema() + " in "
+                + (System.currentTimeMillis() - start) + " ms.");
+
+        return retVal;
+
+    }
+
+    /**
+     * Loads an index saved by {@link #save(File)}.
+     *
+     * @param database the Ensembl core schema the index was built from
+     * @param file     the file
+     * @return the index
+     * @throws IOException if the file cannot be read or was not built from the schema
+     */
+    public static StableIdIndex load(EnsemblDatabase database, File file) throws IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+
+        try {
+
+            if (in.readInt() != MAGIC)
+                throw new IOException("File '" + file + "' is not a stable ID index.");
+            if (in.readInt() != VERSION)
+                throw new IOException("Stable ID index '" + file + "' is not of version " + VERSION + ".");
+
+            String schema = in.readUTF();
+            if (!schema.equals(database.getSchema()))
+                throw new IOException("Stable ID index '" + file + "' was built from schema " + schema + ".");
+
+            StableIdIndex retVal = new StableIdIndex(database);
+
+            int objectTypes = in.readInt();
+            for (int i = 0; i < objectTypes; i++) {
+                String objectType = in.readUTF();
+                retVal.tables.put(objectType, in.readUTF());
+                retVal.filters.put(objectType, BloomFilter.read(in));
+            }
+
+            return retVal;
+
+        } finally {
+            in.close();
+        }
+
+    }
+
+    /**
+     * Saves the index.
+     *
+     * @param file the file
+     * @throws IOException if an exception occurs while writing the file
+     */
+    public void save(File file) throws IOException {
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+
+        try {
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(database.getSchema());
+            out.writeInt(filters.size());
+            for (String objectType : filters.keySet()) {
+                out.writeUTF(objectType);
+                out.writeUTF(tables.get(objectType));
+                filters.get(objectType).write(out);
+            }
+
+        } finally {
+            out.close();
+        }
+
+    }
+
+    /**
+     * Checks if a stable ID of any object type exists.
+     *
+     * @param stableId the stable ID
+     * @return true if the stable ID exists
+     * @throws DatabaseException if an exception occurs while querying the schema
+     */
+    public boolean exists(String stableId) throws DatabaseException {
+
+        lookupCount.incrementAndGet();
+
+        for (String objectType : filters.keySet()) {
+            if (filters.get(objectType).mightContain(normalise(stableId)) && query(objectType, stableId))
+                return true;
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Checks if a stable ID of an object type exists.
+     *
+     * @param objectType the object type (e.g. 'gene')
+     * @param stableId   the stable ID
+     * @return true if the stable ID exists
+     * @throws DatabaseException if an exception occurs while querying the schema
+     */
+    public boolean exists(String objectType, String stableId) throws DatabaseException {
+
+        lookupCount.incrementAndGet();
+
+        BloomFilter filter = filters.get(objectType);
+
+        return filter != null && filter.mightContain(normalise(stableId)) && query(objectType, stableId);
+
+    }
+
+    /**
+     * Checks if a stable ID might exist, without querying the schema.
+     *
+     * @param stableId the stable ID
+     * @return false if the stable ID definitely does not exist, true if it probably does
+     */
+    public boolean mightExist(String stableId) {
+
+        for (BloomFilter filter : filters.values()) {
+            if (filter.mightContain(normalise(stableId)))
+                return true;
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Confirms a possible positive by a query of the schema.
+     */
+    private boolean query(String objectType, String stableId) throws DatabaseException {
+
+        queryCount.incrementAndGet();
+
+        QueryResult result = database.query("SELECT 1 FROM " + tables.get(objectType) + " WHERE stable_id = ?", stableId);
+
+        if (result.getRowCount() > 0)
+            return true;
+
+        falsePositiveCount.incrementAndGet();
+
+        return false;
+
+    }
+
+    /**
+     * Returns the form of a stable ID added to the filters.
+     */
+    private static String normalise(String stableId) {
+        return stableId.toUpperCase(Locale.ENGLISH);
+    }
+
+    private static void close(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                logger.warn(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the object types indexed.
+     *
+     * @return the object types
+     */
+    public Set<String> getObjectTypes() {
+        return filters.keySet();
+    }
+
+    /**
+     * Returns the number of lookups.
+     *
+     * @return the lookup count
+     */
+    public long getLookupCount() {
+        return lookupCount.get();
+    }
+
+    /**
+     * Returns the number of lookups that were checked by a query of the schema.
+     *
+     * @return the query count
+     */
+    public long getQueryCount() {
+        return queryCount.get();
+    }
+
+    /**
+     * Returns the number of queries of the schema that did not find the stable ID.
+     *
+     * @return the false positive count
+     */
+    public long getFalsePositiveCount() {
+        return falsePositiveCount.get();
+    }
+
+}
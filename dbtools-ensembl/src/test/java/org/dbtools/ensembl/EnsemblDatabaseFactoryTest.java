@@ -2,8 +2,13 @@ package org.dbtools.ensembl;
 
 import junit.framework.TestCase;
 import org.junit.Test;
+import org.dbtools.Configuration;
 import org.dbtools.DatabaseException;
+import org.dbtools.HostRouter;
+import org.dbtools.SimpleDatabaseFactory;
 
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.Set;
 
 /**
@@ -70,4 +75,56 @@ public class EnsemblDatabaseFactoryTest extends TestCase {
         org.junit.runner.JUnitCore.main("EnsemblDatabase");
     }
 
+    @Test
+    public void testSharedHostRouter() {
+
+        Configuration configuration = Configuration.getInstance();
+        String hosts = configuration.getProperty("ensembl.db.hosts");
+        configuration.setProperty("ensembl.db.hosts", "host1:9001,host2:9001");
+        EnsemblDatabaseFactory.shutdownSharedHostRouter();
+
+        try {
+
+            Connection connection = SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("factorytest").getConnection();
+            int threads = countRouterThreads();
+
+            //factories share one router probing in one thread
+            HostRouter router = new EnsemblDatabaseFactory(connection).getHostRouter();
+            assertNotNull(router);
+            assertSame(router, new EnsemblDatabaseFactory(connection).getHostRouter());
+            assertEquals(threads + 1, countRouterThreads());
+
+            EnsemblDatabaseFactory.shutdownSharedHostRouter();
+            for (int i = 0; i < 100 && countRouterThreads() > threads; i++)
+                Thread.sleep(20);
+            assertEquals(threads, countRouterThreads());
+
+            connection.close();
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        } catch (SQLException e) {
+            fail(e.toString());
+        } catch (InterruptedException e) {
+            fail(e.toString());
+        } finally {
+            configuration.setProperty("ensembl.db.hosts", hosts);
+            EnsemblDatabaseFactory.shutdownSharedHostRouter();
+        }
+
+    }
+
+    private static int countRouterThreads() {
+
+        int retVal = 0;
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().equals("dbtools-host-router"))
+                retVal++;
+        }
+
+        return retVal;
+
+    }
+
 }
@@ -0,0 +1,264 @@
+package org.dbtools.ensembl;
+
+import junit.framework.TestCase;
+import org.dbtools.AbstractDatabase;
+import org.dbtools.DatabaseException;
+import org.dbtools.HSqlDatabase;
+import org.dbtools.SimpleDatabaseFactory;
+import org.dbtools.TableCopier;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+public class EnsemblMirrorTest extends TestCase {
+
+    private static final int GENES = 100;
+
+    private static final long CHUNK_SIZE = 10;
+
+    private File directory;
+
+    private EnsemblMirror mirror;
+
+    protected void setUp() throws Exception {
+
+        directory = File.createTempFile("ensemblmirrortest", "");
+        directory.delete();
+        directory.mkdirs();
+
+        mirror = new EnsemblMirror(null, directory.getPath());
+        mirror.setThreads(2);
+        mirror.setChunkSize(CHUNK_SIZE);
+
+    }
+
+    @Test
+    public void testMirror() {
+
+        try {
+
+            AbstractDatabase source = createSource("mirrortest_core_1");
+            HSqlDatabase local = mirror.openLocalDatabase(source.getSchema());
+            mirror.copyTables(source, local, Arrays.asList("gene", "meta"));
+
+            assertTrue(mirror.isMirrored(source.getSchema()));
+            Map<String, Long> tables = mirror.getMirroredTables(local);
+            assertEquals(2, tables.size());
+            assertEquals(GENES, tables.get("gene").longValue());
+            assertEquals(2, tables.get("meta").longValue());
+            assertEquals(GENES, count(local, "gene"));
+
+            //the summaries recorded while copying match the summaries of the source tables
+            TableCopier copier = new TableCopier(source, local);
+            Connection connection = local.getConnection();
+            for (String table : tables.keySet()) {
+
+                MirroredTableState recorded = MirroredTableState.read(connection, table);
+                MirroredTableState fetched = MirroredTableState.fetch(source, copier, table, CHUNK_SIZE);
+
+                assertEquals(fetched.keyColumn, recorded.keyColumn);
+                assertEquals(fetched.columnNames, recorded.columnNames);
+                assertEquals(fetched.chunks.keySet(), recorded.chunks.keySet());
+                for (Long chunk : fetched.chunks.keySet())
+                    assertTrue(fetched.isChunkEqual(recorded, chunk));
+
+            }
+            connection.close();
+
+            MirroredTableState gene = MirroredTableState.fetch(source, copier, "gene", CHUNK_SIZE);
+            assertEquals("GENE_ID", gene.keyColumn);
+            assertEquals(GENES / CHUNK_SIZE, gene.chunks.size());
+            assertNull(MirroredTableState.fetch(source, copier, "meta", CHUNK_SIZE).keyColumn);
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        } catch (SQLException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testIncrementalSync() {
+
+        try {
+
+            AbstractDatabase previousSource = createSource("mirrortest_core_2");
+            HSqlDatabase previous = mirror.openLocalDatabase(previousSource.getSchema());
+            mirror.copyTables(previousSource, previous, Arrays.asList("gene", "meta"));
+
+            //the next release changes a single row of the fourth chunk
+            AbstractDatabase source = createSource("mirrortest_core_3");
+            Connection connection = source.getConnection();
+            Statement statement = connection.createStatement();
+            assertEquals(1, statement.executeUpdate("UPDATE gene SET description = 'changed' WHERE gene_id = 35"));
+            statement.close();
+            connection.close();
+
+            Map<String, Long> transferred = mirror.sync(source, previous);
+            assertEquals(CHUNK_SIZE, transferred.get("gene").longValue());
+            assertEquals(0, transferred.get("meta").longValue());
+
+            HSqlDatabase local = mirror.openLocalDatabase(source.getSchema());
+            assertEquals(GENES, count(local, "gene"));
+            assertEquals(2, count(local, "meta"));
+
+            connection = local.getConnection();
+            statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery("SELECT description FROM gene WHERE gene_id = 35");
+            assertTrue(rs.next());
+            assertEquals("changed", rs.getString(1));
+            rs.close();
+            statement.close();
+
+            //the recorded state is that of the new release
+            MirroredTableState recorded = MirroredTableState.read(connection, "gene");
+            MirroredTableState fetched = MirroredTableState.fetch(source, new TableCopier(source, local), "gene", CHUNK_SIZE);
+            for (Long chunk : fetched.chunks.keySet())
+                assertTrue(fetched.isChunkEqual(recorded, chunk));
+            connection.close();
+
+            //a schema is only synchronised once
+            try {
+                mirror.sync(source, local);
+                fail("Schema synchronised twice.");
+            } catch (DatabaseException e) {
+                //expected
+            }
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        } catch (SQLException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testMySqlFormat() {
+
+        try {
+
+            //as MySQL's CAST(... AS CHAR)
+            assertEquals("100", MirroredTableState.format(100.0));
+            assertEquals("-1.5", MirroredTableState.format(-1.5));
+            assertEquals("0.1", MirroredTableState.format(0.1f));
+            assertEquals("100000000000000", MirroredTableState.format(1e14));
+            assertEquals("1e20", MirroredTableState.format(1e20));
+            assertEquals("1.2345678901234568e17", MirroredTableState.format(123456789012345678.0));
+            assertEquals("0", MirroredTableState.format(0.0));
+            assertEquals("2026-10-19 04:12:37", MirroredTableState.format(Timestamp.valueOf("2026-10-19 04:12:37")));
+            assertEquals("2026-10-19", MirroredTableState.format(Date.valueOf("2026-10-19")));
+            assertEquals("12.50", MirroredTableState.format(new BigDecimal("12.50")));
+
+            //the summary of a row matches MySQL's CRC32(CONCAT_WS('#', value, ISNULL(value), ...))
+            HSqlDatabase source = (HSqlDatabase) SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("mirrortest_core_4");
+            Connection connection = source.getConnection();
+            Statement statement = connection.createStatement();
+            statement.execute("DROP TABLE analysis IF EXISTS");
+            statement.execute("CREATE TABLE analysis (analysis_id INT PRIMARY KEY, score DOUBLE, created TIMESTAMP)");
+            statement.execute("INSERT INTO analysis VALUES (1, 100, '2026-10-19 04:12:37')");
+            statement.execute("INSERT INTO analysis VALUES (2, 1e20, NULL)");
+            statement.close();
+            connection.close();
+
+            MirroredTableState state = MirroredTableState.fetch(source, new TableCopier(source, source), "analysis", CHUNK_SIZE);
+            assertEquals(2, state.chunks.get(0L)[0]);
+            assertEquals(crc32("1#0#100#0#2026-10-19 04:12:37#0") + crc32("2#0#1e20#0#1"), state.chunks.get(0L)[1]);
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        } catch (SQLException e) {
+            fail(e.toString());
+        } catch (UnsupportedEncodingException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    private static long crc32(String values) throws UnsupportedEncodingException {
+        CRC32 crc = new CRC32();
+        crc.update(values.getBytes("UTF-8"));
+        return crc.getValue();
+    }
+
+    /**
+     * Creates a source database with a table with an integer key and a table without key.
+     *
+     * @param schema the schema name
+     * @return the source database
+     * @throws DatabaseException if the database cannot be created
+     * @throws SQLException      if an exception occurs while creating the tables
+     */
+    private AbstractDatabase createSource(String schema) throws DatabaseException, SQLException {
+
+        AbstractDatabase retVal = (AbstractDatabase) SimpleDatabaseFactory.createHSqlTransientInProcessDatabase(schema);
+
+        Connection connection = retVal.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE gene IF EXISTS");
+        statement.execute("DROP TABLE meta IF EXISTS");
+        statement.execute("CREATE TABLE gene (gene_id INT PRIMARY KEY, stable_id VARCHAR(20), description VARCHAR(100))");
+        statement.execute("CREATE TABLE meta (meta_key VARCHAR(40), meta_value VARCHAR(40))");
+        statement.execute("INSERT INTO meta VALUES ('schema_version', '1')");
+        statement.execute("INSERT INTO meta VALUES ('species.taxonomy_id', '9606')");
+        statement.close();
+
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO gene VALUES (?, ?, ?)");
+        for (int i = 0; i < GENES; i++) {
+            insert.setInt(1, i);
+            insert.setString(2, "ENSG" + i);
+            insert.setString(3, i % 3 == 0 ? null : "gene " + i);
+            insert.executeUpdate();
+        }
+        insert.close();
+        connection.close();
+
+        return retVal;
+
+    }
+
+    /**
+     * Counts the rows of a table.
+     *
+     * @param database the database
+     * @param table    the table name
+     * @return the row count
+     * @throws SQLException if an exception occurs while counting
+     */
+    private long count(AbstractDatabase database, String table) throws SQLException {
+
+        Connection connection = database.getConnection();
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + table);
+        rs.next();
+        long retVal = rs.getLong(1);
+        rs.close();
+        statement.close();
+        connection.close();
+
+        return retVal;
+
+    }
+
+    protected void tearDown() throws Exception {
+
+        for (File file : directory.listFiles())
+            file.delete();
+        directory.delete();
+
+    }
+
+}
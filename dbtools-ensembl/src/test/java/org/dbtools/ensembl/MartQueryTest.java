@@ -0,0 +1,181 @@
+package org.dbtools.ensembl;
+
+import junit.framework.TestCase;
+import org.dbtools.Database;
+import org.dbtools.DatabaseException;
+import org.dbtools.QueryResult;
+import org.dbtools.RowHandler;
+import org.dbtools.SimpleDatabaseFactory;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class MartQueryTest extends TestCase {
+
+    private static final String TABLE = "hsapiens_gene_ensembl__gene__main";
+
+    /**
+     * the keys of the rows, key 3 and 4 straddle page boundaries and key 5 fills more than a page
+     */
+    private static final int[] KEYS = {1, 2, 3, 3, 4, 5, 5, 5, 5, 6, 7, 8};
+
+    private HSqlMartDatabase database;
+
+    protected void setUp() throws Exception {
+
+        database = new HSqlMartDatabase(SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("martquerytest"));
+
+        Connection connection = database.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE " + TABLE + " IF EXISTS");
+        statement.execute("CREATE TABLE " + TABLE + " (gene_id_1020_key INT, stable_id_1023 VARCHAR(20), biotype_1020 VARCHAR(20))");
+        statement.close();
+
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO " + TABLE + " VALUES (?, ?, ?)");
+        for (int i = 0; i < KEYS.length; i++) {
+            insert.setInt(1, KEYS[i]);
+            insert.setString(2, "ENSG" + i);
+            insert.setString(3, i % 2 == 0 ? "protein_coding" : "pseudogene");
+            insert.executeUpdate();
+        }
+        insert.close();
+        connection.close();
+
+    }
+
+    @Test
+    public void testTableNamePrefix() {
+
+        assertEquals("hsapiens", EnsemblMartDatabase.toTableNamePrefix("homo sapiens"));
+        assertEquals("cfamiliaris", EnsemblMartDatabase.toTableNamePrefix("canis familiaris"));
+        assertEquals("hsapiens", database.getTableNamePrefix());
+        assertEquals("hsapiens_gene_ensembl", database.getDatasetName());
+
+    }
+
+    @Test
+    public void testKeysetPagination() {
+
+        try {
+
+            for (int pageSize = 1; pageSize <= KEYS.length + 1; pageSize++) {
+
+                List<String> stableIds = stream(createQuery().setPageSize(pageSize));
+
+                List<String> expected = new ArrayList<String>();
+                for (int i = 0; i < KEYS.length; i++)
+                    expected.add("ENSG" + i);
+
+                //rows of the same key may be read in any order
+                List<String> sorted = new ArrayList<String>(stableIds);
+                Collections.sort(sorted);
+                Collections.sort(expected);
+                assertEquals("page size " + pageSize, expected, sorted);
+
+            }
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testFilteredPagination() {
+
+        try {
+
+            MartQuery query = createQuery().addFilter("biotype_1020", "protein_coding").setPageSize(2);
+            List<String> stableIds = stream(query);
+            assertEquals(KEYS.length / 2, stableIds.size());
+            for (String stableId : stableIds)
+                assertEquals(0, Integer.parseInt(stableId.substring(4)) % 2);
+
+            //pages of unique keys follow the last key of the previous page
+            query = createQuery().addFilter("gene_id_1020_key", ">=", 6).setPageSize(2);
+            QueryResult page = query.getPage(null);
+            assertEquals(2, page.getRowCount());
+            assertEquals(7, ((Number) page.getValue(1, 0)).intValue());
+            page = query.getPage(page.getValue(1, 0));
+            assertEquals(1, page.getRowCount());
+            assertEquals(8, ((Number) page.getValue(0, 0)).intValue());
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+        try {
+            createQuery().addAttribute("missing_column");
+            fail("Missing column accepted.");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+
+    }
+
+    /**
+     * Creates a query of the stable IDs of the main table.
+     *
+     * @return the query
+     */
+    private MartQuery createQuery() {
+        return new MartQuery(database, TABLE, "gene_id_1020_key", Arrays.asList("gene_id_1020_key", "stable_id_1023", "biotype_1020"))
+                .addAttribute("stable_id_1023");
+    }
+
+    /**
+     * Streams the stable IDs of a query.
+     *
+     * @param query the query
+     * @return the stable IDs in the order they were read
+     * @throws DatabaseException if the query fails
+     */
+    private List<String> stream(MartQuery query) throws DatabaseException {
+
+        final List<String> retVal = new ArrayList<String>();
+
+        long rows = query.stream(new RowHandler() {
+            public boolean handleRow(Object[] row) {
+                retVal.add((String) row[0]);
+                return true;
+            }
+        });
+        assertEquals(retVal.size(), rows);
+
+        return retVal;
+
+    }
+
+    /**
+     * A Mart database of Homo sapiens whose connections are those of an HSQLDB database.
+     */
+    private static class HSqlMartDatabase extends EnsemblMartDatabase {
+
+        /**
+         * the HSQLDB database
+         */
+        private Database hsql;
+
+        private HSqlMartDatabase(Database hsql) throws DatabaseException {
+
+            super("localhost", 3306, "ensembl_mart_test");
+            this.hsql = hsql;
+            speciesName = "homo sapiens";
+            setQueryCache(null);
+
+        }
+
+        public Connection getConnection() throws SQLException {
+            return hsql.getConnection();
+        }
+
+    }
+
+}
@@ -0,0 +1,175 @@
+package org.dbtools.ensembl;
+
+import junit.framework.TestCase;
+import org.dbtools.Database;
+import org.dbtools.DatabaseException;
+import org.dbtools.QueryResult;
+import org.dbtools.SimpleDatabaseFactory;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SpeciesFanOutTest extends TestCase {
+
+    private static final int HUMAN = 9606;
+
+    private static final int MOUSE = 10090;
+
+    private List<EnsemblDatabase> databases;
+
+    protected void setUp() throws Exception {
+
+        EnsemblDatabase human = new HSqlEnsemblDatabase(HUMAN, "homo_sapiens_core_46_36h");
+        EnsemblDatabase mouse = new HSqlEnsemblDatabase(MOUSE, "mus_musculus_core_46_36g");
+
+        createTables(human, 3, "meta_key VARCHAR(40), meta_value VARCHAR(40)");
+        //the mouse meta table has an additional column
+        createTables(mouse, 2, "meta_id INT, meta_key VARCHAR(40), meta_value VARCHAR(40)");
+
+        databases = Arrays.asList(human, mouse);
+
+    }
+
+    @Test
+    public void testMergedResult() {
+
+        SpeciesFanOut fanOut = new SpeciesFanOut(null);
+        RecordingListener listener = new RecordingListener();
+
+        try {
+
+            QueryResult result = fanOut.execute(databases, "SELECT gene_id, biotype FROM gene WHERE biotype = ?", listener, "protein_coding");
+
+            assertEquals(3, result.getColumnCount());
+            assertEquals("ncbi_taxon_id", result.getColumnLabel(0));
+            assertEquals("GENE_ID", result.getColumnLabel(1).toUpperCase());
+            assertEquals(5, result.getRowCount());
+
+            int humanRows = 0;
+            for (Object[] row : result.getRows()) {
+                if (row[0].equals(HUMAN))
+                    humanRows++;
+                assertEquals("protein_coding", row[2]);
+            }
+            assertEquals(3, humanRows);
+
+            assertEquals(2, listener.arrived.size());
+            assertTrue(listener.arrived.contains(HUMAN));
+            assertTrue(listener.arrived.contains(MOUSE));
+            assertEquals(0, listener.failed.size());
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testColumnMismatch() {
+
+        SpeciesFanOut fanOut = new SpeciesFanOut(null);
+        //one query at a time, so that the human result arrives first
+        fanOut.setParallelism(1);
+        RecordingListener listener = new RecordingListener();
+
+        try {
+
+            QueryResult result = fanOut.execute(databases, "SELECT * FROM meta", listener);
+
+            assertEquals(3, result.getColumnCount());
+            assertEquals(1, result.getRowCount());
+            assertEquals(HUMAN, result.getValue(0, 0));
+            assertEquals(Arrays.asList(HUMAN), listener.arrived);
+            assertEquals(Arrays.asList(MOUSE), listener.failed);
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+        try {
+            fanOut.execute(databases, "SELECT * FROM meta", null);
+            fail("Results with different columns merged.");
+        } catch (DatabaseException e) {
+            //expected
+        }
+
+    }
+
+    /**
+     * Creates the gene and meta tables of a species.
+     *
+     * @param database      the species database
+     * @param proteinCoding the number of protein coding genes
+     * @param metaColumns   the column definitions of the meta table
+     * @throws SQLException if an exception occurs while creating the tables
+     */
+    private void createTables(EnsemblDatabase database, int proteinCoding, String metaColumns) throws SQLException {
+
+        Connection connection = database.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE gene IF EXISTS");
+        statement.execute("DROP TABLE meta IF EXISTS");
+        statement.execute("CREATE TABLE gene (gene_id INT, biotype VARCHAR(40))");
+        statement.execute("CREATE TABLE meta (" + metaColumns + ")");
+        for (int i = 0; i < proteinCoding; i++)
+            statement.execute("INSERT INTO gene VALUES (" + i + ", 'protein_coding')");
+        statement.execute("INSERT INTO gene VALUES (100, 'pseudogene')");
+        if (metaColumns.startsWith("meta_id"))
+            statement.execute("INSERT INTO meta VALUES (1, 'schema_version', '46')");
+        else
+            statement.execute("INSERT INTO meta VALUES ('schema_version', '46')");
+        statement.close();
+        connection.close();
+
+    }
+
+    /**
+     * Records the species whose results arrived or failed.
+     */
+    private static class RecordingListener implements SpeciesFanOut.Listener {
+
+        private List<Integer> arrived = new ArrayList<Integer>();
+
+        private List<Integer> failed = new ArrayList<Integer>();
+
+        public void resultArrived(int ncbiTaxonId, String schema, QueryResult result) {
+            arrived.add(ncbiTaxonId);
+        }
+
+        public void queryFailed(int ncbiTaxonId, String schema, DatabaseException exception) {
+            failed.add(ncbiTaxonId);
+        }
+
+    }
+
+    /**
+     * An Ensembl database of a species whose connections are those of an HSQLDB database.
+     */
+    private static class HSqlEnsemblDatabase extends EnsemblDatabase {
+
+        /**
+         * the HSQLDB database
+         */
+        private Database hsql;
+
+        private HSqlEnsemblDatabase(int ncbiTaxonId, String schema) throws DatabaseException {
+
+            super("localhost", 3306, schema);
+            this.ncbiTaxonId = ncbiTaxonId;
+            hsql = SimpleDatabaseFactory.createHSqlTransientInProcessDatabase(schema);
+            setQueryCache(null);
+
+        }
+
+        public Connection getConnection() throws SQLException {
+            return hsql.getConnection();
+        }
+
+    }
+
+}
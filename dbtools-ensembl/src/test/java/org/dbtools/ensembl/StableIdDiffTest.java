@@ -0,0 +1,195 @@
+package org.dbtools.ensembl;
+
+import junit.framework.TestCase;
+import org.dbtools.Database;
+import org.dbtools.DatabaseException;
+import org.dbtools.SimpleDatabaseFactory;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+public class StableIdDiffTest extends TestCase {
+
+    /**
+     * the number of stable IDs of the older release, more than a batch of rows
+     */
+    private static final int OLD_IDS = 3000;
+
+    /**
+     * the number of stable IDs added at the end by the newer release
+     */
+    private static final int ADDED_IDS = 150;
+
+    private Database oldDatabase;
+
+    private Database newDatabase;
+
+    protected void setUp() throws Exception {
+
+        oldDatabase = SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("stableiddiffold");
+        newDatabase = SimpleDatabaseFactory.createHSqlTransientInProcessDatabase("stableiddiffnew");
+
+        createTables(oldDatabase);
+        createTables(newDatabase);
+
+        Connection oldConnection = oldDatabase.getConnection();
+        Connection newConnection = newDatabase.getConnection();
+        PreparedStatement oldInsert = oldConnection.prepareStatement("INSERT INTO gene_stable_id VALUES (?, ?)");
+        PreparedStatement newInsert = newConnection.prepareStatement("INSERT INTO gene_stable_id VALUES (?, ?)");
+
+        for (int i = 0; i < OLD_IDS + ADDED_IDS; i++) {
+
+            if (i < OLD_IDS)
+                insert(oldInsert, i, 1);
+
+            //the newer release drops the first ten and every seventh ID and changes every eleventh version
+            if (i >= 10 && i % 7 != 0)
+                insert(newInsert, i, i % 11 == 0 ? 2 : 1);
+
+        }
+
+        oldInsert.close();
+        newInsert.close();
+
+        //transcripts are only read from the object tables, the older release has a longer tail
+        Statement statement = oldConnection.createStatement();
+        statement.execute("INSERT INTO transcript VALUES ('ENST1', 1)");
+        statement.execute("INSERT INTO transcript VALUES ('ENST2', 1)");
+        statement.execute("INSERT INTO transcript VALUES ('ENST3', 1)");
+        //objects without stable ID, sorted first
+        statement.execute("INSERT INTO transcript VALUES (NULL, 1)");
+        statement.close();
+        statement = newConnection.createStatement();
+        statement.execute("INSERT INTO transcript VALUES ('ENST1', 1)");
+        statement.execute("INSERT INTO transcript VALUES (NULL, 1)");
+        statement.close();
+
+        oldConnection.close();
+        newConnection.close();
+
+    }
+
+    @Test
+    public void testDiff() {
+
+        StableIdDiff diff = new StableIdDiff(oldDatabase, newDatabase);
+        RecordingListener listener = new RecordingListener();
+
+        try {
+
+            StableIdDiff.Counts counts = diff.diff("gene", listener);
+
+            long removed = 0;
+            long changed = 0;
+            long unchanged = 0;
+            for (int i = 0; i < OLD_IDS; i++) {
+                if (i < 10 || i % 7 == 0)
+                    removed++;
+                else if (i % 11 == 0)
+                    changed++;
+                else
+                    unchanged++;
+            }
+            long added = 0;
+            for (int i = OLD_IDS; i < OLD_IDS + ADDED_IDS; i++) {
+                if (i % 7 != 0)
+                    added++;
+            }
+
+            assertEquals(removed, counts.getRemoved());
+            assertEquals(changed, counts.getChanged());
+            assertEquals(unchanged, counts.getUnchanged());
+            assertEquals(added, counts.getAdded());
+
+            assertEquals(removed, listener.removed.size());
+            assertEquals(toStableId(0), listener.removed.get(0));
+            assertEquals(toStableId(11), listener.changed.get(0));
+            assertEquals(toStableId(OLD_IDS), listener.added.get(0));
+            assertEquals(toStableId(OLD_IDS + ADDED_IDS - 1), listener.added.get(listener.added.size() - 1));
+
+            //the merge reports stable IDs in order
+            for (int i = 1; i < listener.removed.size(); i++)
+                assertTrue(listener.removed.get(i - 1).compareTo(listener.removed.get(i)) < 0);
+
+            listener = new RecordingListener();
+            counts = diff.diff("transcript", listener);
+            assertEquals(0, counts.getAdded());
+            assertEquals(2, counts.getRemoved());
+            assertEquals(1, counts.getUnchanged());
+            assertEquals("ENST3", listener.removed.get(1));
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+        try {
+            diff.diff("exon", listener);
+            fail("Missing stable ID table accepted.");
+        } catch (DatabaseException e) {
+            //expected
+        }
+
+    }
+
+    /**
+     * Creates the stable ID tables.
+     *
+     * @param database the database
+     * @throws SQLException if an exception occurs while creating the tables
+     */
+    private void createTables(Database database) throws SQLException {
+
+        Connection connection = database.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE gene_stable_id IF EXISTS");
+        statement.execute("DROP TABLE transcript IF EXISTS");
+        statement.execute("CREATE TABLE gene_stable_id (stable_id VARCHAR(20), version INT)");
+        statement.execute("CREATE TABLE transcript (stable_id VARCHAR(20), version INT)");
+        statement.close();
+        connection.close();
+
+    }
+
+    private void insert(PreparedStatement insert, int i, int version) throws SQLException {
+        insert.setString(1, toStableId(i));
+        insert.setInt(2, version);
+        insert.executeUpdate();
+    }
+
+    private static String toStableId(int i) {
+        return "ENSG" + (100000 + i);
+    }
+
+    /**
+     * Records the reported stable IDs.
+     */
+    private static class RecordingListener implements StableIdDiff.Listener {
+
+        private List<String> added = new ArrayList<String>();
+
+        private List<String> removed = new ArrayList<String>();
+
+        private List<String> changed = new ArrayList<String>();
+
+        public void added(String objectType, String stableId, int version) {
+            added.add(stableId);
+        }
+
+        public void removed(String objectType, String stableId, int version) {
+            removed.add(stableId);
+        }
+
+        public void changed(String objectType, String stableId, int oldVersion, int newVersion) {
+            assertEquals(1, oldVersion);
+            assertEquals(2, newVersion);
+            changed.add(stableId);
+        }
+
+    }
+
+}
@@ -0,0 +1,145 @@
+package org.dbtools.ensembl;
+
+import junit.framework.TestCase;
+import org.dbtools.AbstractDatabase;
+import org.dbtools.DatabaseException;
+import org.dbtools.SchemaMetadata;
+import org.dbtools.SimpleDatabaseFactory;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class StableIdIndexTest extends TestCase {
+
+    private static final int GENES = 500;
+
+    private HSqlEnsemblDatabase database;
+
+    protected void setUp() throws Exception {
+
+        database = new HSqlEnsemblDatabase("stableidindextest_core_1");
+
+        Connection connection = database.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE gene_stable_id IF EXISTS");
+        //compares case-insensitively like MySQL's default collation
+        statement.execute("CREATE TABLE gene_stable_id (gene_id INT, stable_id VARCHAR_IGNORECASE(20))");
+        statement.close();
+
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO gene_stable_id VALUES (?, ?)");
+        for (int i = 0; i < GENES; i++) {
+            insert.setInt(1, i);
+            //stable IDs of some species are in mixed case
+            insert.setString(2, (i % 2 == 0 ? "ENSG" : "FBgn") + i);
+            insert.executeUpdate();
+        }
+        insert.close();
+        connection.close();
+
+    }
+
+    @Test
+    public void testCaseInsensitiveLookup() {
+
+        try {
+
+            StableIdIndex index = StableIdIndex.build(database);
+            assertEquals(1, index.getObjectTypes().size());
+
+            assertTrue(index.exists("gene", "ENSG2"));
+            assertTrue(index.exists("gene", "ensg2"));
+            assertTrue(index.exists("FBgn3"));
+            assertTrue(index.exists("FBGN3"));
+            assertTrue(index.mightExist("fbgn3"));
+            assertEquals(4, index.getQueryCount());
+            assertEquals(0, index.getFalsePositiveCount());
+
+            assertFalse(index.exists("gene", "ENST2"));
+            assertFalse(index.exists("transcript", "ENSG2"));
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    @Test
+    public void testQueryFallback() {
+
+        try {
+
+            StableIdIndex index = StableIdIndex.build(database);
+
+            //the filter still contains the deleted stable ID, the query does not find it
+            Connection connection = database.getConnection();
+            Statement statement = connection.createStatement();
+            assertEquals(1, statement.executeUpdate("DELETE FROM gene_stable_id WHERE stable_id = 'FBgn5'"));
+            statement.close();
+            connection.close();
+
+            assertTrue(index.mightExist("fbgn5"));
+            long queries = index.getQueryCount();
+            assertFalse(index.exists("gene", "fbgn5"));
+            assertEquals(queries + 1, index.getQueryCount());
+            assertEquals(1, index.getFalsePositiveCount());
+
+            //a saved index looks up the same way
+            File file = File.createTempFile("stableidindextest", ".sidx");
+            try {
+                index.save(file);
+                StableIdIndex loaded = StableIdIndex.load(database, file);
+                assertTrue(loaded.exists("gene", "fbgn7"));
+                assertFalse(loaded.exists("gene", "fbgn5"));
+                assertEquals(1, loaded.getFalsePositiveCount());
+            } finally {
+                file.delete();
+            }
+
+        } catch (DatabaseException e) {
+            fail(e.toString());
+        } catch (SQLException e) {
+            fail(e.toString());
+        } catch (IOException e) {
+            fail(e.toString());
+        }
+
+    }
+
+    /**
+     * An Ensembl core schema whose connections and schema metadata are those of an HSQLDB database.
+     */
+    private static class HSqlEnsemblDatabase extends EnsemblDatabase {
+
+        /**
+         * the HSQLDB database
+         */
+        private AbstractDatabase hsql;
+
+        private HSqlEnsemblDatabase(String schema) throws DatabaseException {
+
+            super("localhost", 3306, schema);
+            hsql = (AbstractDatabase) SimpleDatabaseFactory.createHSqlTransientInProcessDatabase(schema);
+            setQueryCache(null);
+
+        }
+
+        public Connection getConnection() throws SQLException {
+            return hsql.getConnection();
+        }
+
+        public PreparedStatement prepareStreamingStatement(Connection connection, String sql) throws SQLException {
+            return hsql.prepareStreamingStatement(connection, sql);
+        }
+
+        public SchemaMetadata getSchemaMetadata() throws DatabaseException {
+            return hsql.getSchemaMetadata();
+        }
+
+    }
+
+}